@@ -1,26 +1,57 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
- * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * The Aggregation operator that computes aggregates (e.g., sum, avg, max,
+ * min). Any number of aggregates, each over a single column, can be computed
+ * in one pass over the child, grouped by any number of columns. Output tuples
+ * are the group-by values followed by the aggregate values.
+ * <p>
+ * Groups are held in memory until there are more than the memory budget
+ * allows. From then on, the groups already in memory keep absorbing their
+ * tuples, and tuples of any other group are written, by the hash of their
+ * group value, to one of NUM_PARTITIONS {@link SpillFile}s. Once the
+ * in-memory groups have been returned, each partition is aggregated the
+ * same way, one at a time, with a different hash so that a partition that
+ * again has too many groups splits up. Every pass finishes at least the
+ * groups that fit, so heap use stays bounded however many groups there
+ * are.
+ * <p>
+ * Memory is estimated as the size of the group values plus GROUP_OVERHEAD
+ * bytes per group, and AGGREGATE_BYTES more for each aggregate after the
+ * first.
  */
 public class Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /** Memory budget used by the constructors without one, in bytes. */
+    public static final long DEFAULT_MEMORY_BYTES = 16L << 20;
+
+    /** Number of partitions tuples of groups that do not fit are split into. */
+    public static final int NUM_PARTITIONS = 16;
+
+    /** Estimated bytes of Java overhead per group held in memory. */
+    static final int GROUP_OVERHEAD = 64;
+
+    /** Estimated bytes per group of each additional aggregate. */
+    static final int AGGREGATE_BYTES = 16;
+
     private DbIterator child;
-    private int afield;
-    private int gfield;
-    private Aggregator.Op aop;
+    private int[] afields;
+    private int[] gfields;
+    private Aggregator.Op[] aops;
 
-    private Type gfieldtype = null;
-    private String gfieldname = null;
-    private String afieldname = null;
     private Aggregator aggregator;
     private DbIterator it;
+    private final long memoryBytes;
+    // partitions still to aggregate, and the hash level each was split at
+    transient private LinkedList<SpillFile> pending = new LinkedList<SpillFile>();
+    transient private LinkedList<Integer> pendingLevels = new LinkedList<Integer>();
+    private int spilledPartitions = 0;
+    private long spilledTuples = 0;
 
     /**
      * Constructor.
@@ -42,70 +73,180 @@ public class Aggregate extends Operator {
      */
     public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
     	// some code goes here
+        this(child, afield, gfield, aop, DEFAULT_MEMORY_BYTES);
+    }
+
+    /**
+     * Constructor taking the memory budget for groups.
+     *
+     * @param memoryBytes
+     *            Approximate number of bytes of groups to keep in memory
+     *            before tuples of further groups are written to disk
+     */
+    public Aggregate(DbIterator child, int afield, int gfield,
+            Aggregator.Op aop, long memoryBytes) {
+        this(child, new int[] { afield },
+                gfield == Aggregator.NO_GROUPING ? new int[0]
+                        : new int[] { gfield },
+                new Aggregator.Op[] { aop }, memoryBytes);
+    }
+
+    /**
+     * Constructor for several aggregates and group-by columns.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param gfields
+     *            The columns over which we are grouping the result, or an
+     *            empty array if there is no grouping
+     * @param aops
+     *            The aggregation operator of each column in afields
+     */
+    public Aggregate(DbIterator child, int[] afields, int[] gfields,
+            Aggregator.Op[] aops) {
+        this(child, afields, gfields, aops, DEFAULT_MEMORY_BYTES);
+    }
+
+    /**
+     * Constructor for several aggregates and group-by columns, taking the
+     * memory budget for groups.
+     *
+     * @param memoryBytes
+     *            Approximate number of bytes of groups to keep in memory
+     *            before tuples of further groups are written to disk
+     */
+    public Aggregate(DbIterator child, int[] afields, int[] gfields,
+            Aggregator.Op[] aops, long memoryBytes) {
+        if (afields.length == 0 || afields.length != aops.length)
+            throw new IllegalArgumentException(afields.length
+                    + " aggregate fields and " + aops.length + " operators");
         this.child = child;
-        this.afield = afield;
-        this.gfield = gfield;
-        this.aop = aop;
-
-        afieldname = child.getTupleDesc().getFieldName(afield);
-        if (gfield != Aggregator.NO_GROUPING){
-            gfieldtype = child.getTupleDesc().getFieldType(gfield);
-            gfieldname = child.getTupleDesc().getFieldName(gfield);
+        this.afields = afields.clone();
+        this.gfields = gfields.clone();
+        this.aops = aops.clone();
+        this.memoryBytes = memoryBytes;
+        TupleDesc td = child.getTupleDesc();
+        for (int i = 0; i < afields.length; i++) {
+            if (td.getFieldType(afields[i]) != Type.INT_TYPE
+                    && aops[i] != Aggregator.Op.COUNT)
+                throw new IllegalArgumentException(
+                        "Aggregation over strings only supports COUNT operator!");
         }
-        if (child.getTupleDesc().getFieldType(afield) == Type.INT_TYPE) {
-            aggregator = new IntegerAggregator(gfield, gfieldtype, afield, aop);
+    }
+
+    private Aggregator newAggregator() {
+        TupleDesc td = child.getTupleDesc();
+        if (aops.length > 1 || gfields.length > 1)
+            return new MultiAggregator(td, gfields, afields, aops);
+        int gfield = groupField();
+        Type gfieldtype = gfield == Aggregator.NO_GROUPING ? null
+                : td.getFieldType(gfield);
+        if (td.getFieldType(afields[0]) == Type.INT_TYPE) {
+            return new IntegerAggregator(gfield, gfieldtype, afields[0], aops[0]);
         } else {
-            aggregator = new StringAggregator(gfield, gfieldtype, afield, aop);
+            return new StringAggregator(gfield, gfieldtype, afields[0], aops[0]);
         }
     }
 
+    /** Returns the memory budget for groups, in bytes. */
+    public long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    /** Returns the number of partitions written to disk so far. */
+    public int getSpilledPartitions() {
+        return spilledPartitions;
+    }
+
+    /** Returns the number of input tuples written to disk so far. */
+    public long getSpilledTuples() {
+        return spilledTuples;
+    }
+
     /**
-     * @return If this aggregate is accompanied by a groupby, return the groupby
-     *         field index in the <b>INPUT</b> tuples. If not, return
-     *         {@link simpledb.Aggregator#NO_GROUPING}
+     * @return If this aggregate is accompanied by a groupby, return the
+     *         (first) groupby field index in the <b>INPUT</b> tuples. If not,
+     *         return {@link simpledb.Aggregator#NO_GROUPING}
      * */
     public int groupField() {
     	// some code goes here
-        if (gfield == -1) 
+        if (gfields.length == 0) 
             return Aggregator.NO_GROUPING;
-        return gfield;
+        return gfields[0];
     }
 
     /**
      * @return If this aggregate is accompanied by a group by, return the name
-     *         of the groupby field in the <b>OUTPUT</b> tuples If not, return
-     *         null;
+     *         of the (first) groupby field in the <b>OUTPUT</b> tuples If not,
+     *         return null;
      * */
     public String groupFieldName() {
     	// some code goes here
-        if (gfield == -1)
+        if (gfields.length == 0)
             return null;
-        return gfieldname;
+        return groupFieldName(0);
+    }
+
+    /** @return the number of groupby fields, 0 if there is no grouping */
+    public int numGroupFields() {
+        return gfields.length;
+    }
+
+    /** @return the index in the <b>INPUT</b> tuples of the i-th groupby field */
+    public int groupField(int i) {
+        return gfields[i];
+    }
+
+    /** @return the name of the i-th groupby field */
+    public String groupFieldName(int i) {
+        return child.getTupleDesc().getFieldName(gfields[i]);
     }
 
     /**
-     * @return the aggregate field
+     * @return the (first) aggregate field
      * */
     public int aggregateField() {
     	// some code goes here
-    	return afield;
+    	return afields[0];
     }
 
     /**
-     * @return return the name of the aggregate field in the <b>OUTPUT</b>
-     *         tuples
+     * @return return the name of the (first) aggregate field in the
+     *         <b>OUTPUT</b> tuples
      * */
     public String aggregateFieldName() {
     	// some code goes here
-    	return afieldname;
+    	return aggregateFieldName(0);
     }
 
     /**
-     * @return return the aggregate operator
+     * @return return the (first) aggregate operator
      * */
     public Aggregator.Op aggregateOp() {
     	// some code goes here
-    	return aop;
+    	return aops[0];
+    }
+
+    /** @return the number of aggregates */
+    public int numAggregates() {
+        return aops.length;
+    }
+
+    /** @return the index in the <b>INPUT</b> tuples of the i-th aggregate field */
+    public int aggregateField(int i) {
+        return afields[i];
+    }
+
+    /** @return the name of the i-th aggregate field */
+    public String aggregateFieldName(int i) {
+        return child.getTupleDesc().getFieldName(afields[i]);
+    }
+
+    /** @return the operator of the i-th aggregate */
+    public Aggregator.Op aggregateOp(int i) {
+        return aops[i];
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
@@ -116,12 +257,91 @@ public class Aggregate extends Operator {
 	    TransactionAbortedException {
     	// some code goes here
         child.open();
-        while (child.hasNext()) {
-            aggregator.mergeTupleIntoGroup(child.next());
+        deletePending();
+        aggregate(child, null, 0);
+        super.open();
+    }
+
+    private long maxGroups() {
+        TupleDesc td = child.getTupleDesc();
+        long groupBytes = GROUP_OVERHEAD + AGGREGATE_BYTES * (aops.length - 1);
+        for (int g : gfields)
+            groupBytes += td.getFieldType(g).getLen();
+        return Math.max(1, memoryBytes / groupBytes);
+    }
+
+    private int partitionOf(Tuple t, int level) {
+        int h = 0;
+        for (int g : gfields)
+            h = 31 * h + t.getField(g).hashCode();
+        h *= 0x9e3779b9 + 2 * level;
+        h ^= (h >>> 16);
+        h ^= (h >>> 7);
+        return (h & 0x7fffffff) % NUM_PARTITIONS;
+    }
+
+    /**
+     * Aggregates the tuples of the child, if op is not null, or of a
+     * partition into a new aggregator, whose results become the current
+     * output. Tuples of groups that do not fit are written to new
+     * partitions, split with the hash for level.
+     */
+    private void aggregate(DbIterator op, DbFileIterator input, int level)
+            throws DbException, TransactionAbortedException {
+        if (op != null) {
+            spilledPartitions = 0;
+            spilledTuples = 0;
+        }
+        if (it != null)
+            it.close();
+        aggregator = newAggregator();
+        long maxGroups = gfields.length == 0 ? Long.MAX_VALUE
+                : maxGroups();
+        SpillFile[] parts = null;
+        try {
+            while (op != null ? op.hasNext() : input.hasNext()) {
+                Tuple t = op != null ? op.next() : input.next();
+                if (parts == null) {
+                    aggregator.mergeTupleIntoGroup(t);
+                    if (aggregator.numGroups() >= maxGroups)
+                        parts = new SpillFile[NUM_PARTITIONS];
+                } else if (!aggregator.mergeTupleIntoExistingGroup(t)) {
+                    int p = partitionOf(t, level);
+                    if (parts[p] == null) {
+                        parts[p] = new SpillFile(child.getTupleDesc());
+                        spilledPartitions++;
+                    }
+                    parts[p].add(t);
+                    spilledTuples++;
+                }
+            }
+            if (parts != null) {
+                for (SpillFile f : parts) {
+                    if (f != null) {
+                        f.flush();
+                        pending.add(f);
+                        pendingLevels.add(level + 1);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("cannot spill aggregate partition: " + e);
         }
         it = aggregator.iterator();
         it.open();
-        super.open();
+    }
+
+    /** Deletes the partitions not yet aggregated. */
+    private void deletePending() {
+        if (pending == null) {
+            // transient, so missing after deserialization
+            pending = new LinkedList<SpillFile>();
+            pendingLevels = new LinkedList<Integer>();
+        }
+        for (SpillFile f : pending)
+            f.delete();
+        pending.clear();
+        pendingLevels.clear();
     }
 
     /**
@@ -133,23 +353,44 @@ public class Aggregate extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
     	// some code goes here
-    	if (it.hasNext()){
-            return it.next();
-        } 
-        return null;
+        while (true) {
+            if (it.hasNext())
+                return it.next();
+            if (pending.isEmpty())
+                return null;
+            SpillFile f = pending.removeFirst();
+            int level = pendingLevels.removeFirst();
+            try {
+                DbFileIterator input = f.iterator();
+                input.open();
+                aggregate(null, input, level);
+                input.close();
+            } catch (IOException e) {
+                throw new DbException("cannot read aggregate partition: " + e);
+            } finally {
+                f.delete();
+            }
+        }
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
     	// some code goes here
-        it.rewind();
+        if (spilledPartitions == 0) {
+            it.rewind();
+            return;
+        }
+        // the partitions already returned are gone, so start over
+        deletePending();
         child.rewind();
+        aggregate(child, null, 0);
     }
 
     /**
      * Returns the TupleDesc of this Aggregate. If there is no group by field,
      * this will have one field - the aggregate column. If there is a group by
      * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
+     * the aggregate value column. With several aggregates or group by fields,
+     * the group by fields come first, followed by one column per aggregate.
      * 
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
@@ -158,21 +399,40 @@ public class Aggregate extends Operator {
      */
     public TupleDesc getTupleDesc() {
     	// some code goes here
-    	TupleDesc td;
-        if (gfield != Aggregator.NO_GROUPING) {
-            td = new TupleDesc(new Type[]{ gfieldtype, Type.INT_TYPE }, new String[]{ gfieldname, aop.toString() + "(" + afieldname + ")" });
-        } else {
-            td = new TupleDesc(new Type[]{ Type.INT_TYPE }, new String[]{ afieldname });
+        return resultTupleDesc(child.getTupleDesc(), afields, gfields, aops);
+    }
+
+    /**
+     * Returns the TupleDesc of the result of the aggregates aops over the
+     * fields afields of td, grouped by gfields, as described in
+     * {@link #getTupleDesc}.
+     */
+    static TupleDesc resultTupleDesc(TupleDesc td, int[] afields,
+            int[] gfields, Aggregator.Op[] aops) {
+        if (gfields.length == 0 && aops.length == 1)
+            return new TupleDesc(new Type[]{ Type.INT_TYPE }, new String[]{ td.getFieldName(afields[0]) });
+        Type[] types = new Type[gfields.length + aops.length];
+        String[] names = new String[types.length];
+        for (int i = 0; i < gfields.length; i++) {
+            types[i] = td.getFieldType(gfields[i]);
+            names[i] = td.getFieldName(gfields[i]);
+        }
+        for (int i = 0; i < aops.length; i++) {
+            types[gfields.length + i] = Type.INT_TYPE;
+            names[gfields.length + i] = aops[i].toString() + "(" + td.getFieldName(afields[i]) + ")";
         }
-        
-        return td;
+        return new TupleDesc(types, names);
     }
 
     public void close() {
     	// some code goes here
         super.close();
-        it.close();
+        if (it != null) {
+            it.close();
+            it = null;
+        }
         child.close();
+        deletePending();
     }
 
     @Override
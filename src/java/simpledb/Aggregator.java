@@ -57,6 +57,20 @@ public interface Aggregator extends Serializable {
      */
     public void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge a new tuple into the aggregate only if its group value has
+     * already been encountered.
+     *
+     * @param tup the Tuple containing an aggregate field and a group-by field
+     * @return true if the tuple was merged, false if its group is new
+     */
+    public boolean mergeTupleIntoExistingGroup(Tuple tup);
+
+    /**
+     * Returns the number of distinct group values encountered so far.
+     */
+    public int numGroups();
+
     /**
      * Create a DbIterator over group aggregate results.
      * @see simpledb.TupleIterator for a possible helper
@@ -0,0 +1,703 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeFile is a DbFile that keeps its tuples in a B+ tree on one field, the
+ * key. The tuples live in the leaves, sorted on the key and chained in key
+ * order, so besides full scans the file can return just the tuples with a
+ * given key or in a range of keys ({@link #indexIterator},
+ * {@link #rangeIterator}) after reading one page per level of the tree.
+ * Several tuples may have the same key.
+ * <p>
+ * Page 0 is a {@link BTreeHeaderPage} recording the root and the free
+ * pages; every other page is a {@link BTreeInternalPage} or a
+ * {@link BTreeLeafPage}. All pages are read and locked through the
+ * BufferPool, as for a HeapFile: inner pages are locked shared on the way
+ * down and upgraded to exclusive only when a split or merge changes them.
+ * <p>
+ * Inserts split full pages, pushing a separator key up and growing a new
+ * root when the old one splits. Deletes merge a page that falls below half
+ * full with a sibling, or move tuples over from the sibling when both do
+ * not fit on one page. Pages emptied by merges are recorded in the header
+ * and reused by later inserts.
+ */
+public class BTreeFile implements IndexFile {
+
+    private static final long serialVersionUID = 1L;
+
+    private final File file;
+    private final int fid;
+    private final TupleDesc td;
+    private final int keyField;
+    private final int leafMax;
+    private final int internalMax;
+
+    // end of the pages handed out by reservePage
+    private int reservedEnd = 0;
+    private transient RandomAccessFile raf = null;
+    private transient boolean initialized = false;
+    // the transaction that freed each page since this file was opened. A
+    // transaction never reuses a page it freed itself, since rolling it back
+    // would find the page overwritten.
+    private transient HashMap<Integer, TransactionId> freedBy =
+            new HashMap<Integer, TransactionId>();
+
+    /**
+     * Constructs a B+ tree file backed by the specified file, keyed on the
+     * given field. An empty or missing file is an empty tree.
+     *
+     * @param f the file that stores the on-disk backing store for this file
+     * @param td the schema of the tuples
+     * @param keyField the index of the field the tree is ordered on
+     */
+    public BTreeFile(File f, TupleDesc td, int keyField) {
+        this(f, td, keyField, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Constructs a B+ tree file whose pages hold at most maxEntries tuples
+     * or keys, even if more would fit. Small limits give deep trees on few
+     * tuples, for testing.
+     *
+     * @throws IllegalArgumentException if maxEntries is less than 3
+     */
+    public BTreeFile(File f, TupleDesc td, int keyField, int maxEntries) {
+        if (maxEntries < 3)
+            throw new IllegalArgumentException("a B+ tree page must hold at least 3 entries");
+        if (keyField < 0 || keyField >= td.numFields())
+            throw new IllegalArgumentException("no key field " + keyField + " in " + td);
+        file = f;
+        fid = f.getAbsoluteFile().hashCode();
+        this.td = td;
+        this.keyField = keyField;
+        leafMax = Math.min(maxEntries, BTreeLeafPage.maxTuples(td));
+        internalMax = Math.min(maxEntries,
+                BTreeInternalPage.maxKeys(td.getFieldType(keyField)));
+        if (leafMax < 3)
+            throw new IllegalArgumentException("tuples of " + td
+                    + " are too large for a B+ tree page");
+    }
+
+    /** @return the File backing this BTreeFile on disk */
+    public File getFile() {
+        return file;
+    }
+
+    /** @return the index of the field this file is ordered on */
+    public int keyField() {
+        return keyField;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this BTreeFile: the hash code of
+     * the absolute name of its file, as for HeapFile.
+     */
+    public int getId() {
+        return fid;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of pages in this file, including free pages */
+    public int numPages() {
+        return (int) (file.length() / BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Estimates the height of the tree from the size of the file, taking
+     * every page for a leaf and the inner pages as full.
+     */
+    public int searchDepth() {
+        double leaves = Math.max(1, numPages() - 1);
+        return 1 + (int) Math.ceil(Math.log(leaves) / Math.log(internalMax + 1));
+    }
+
+    /** @return the id of the header page of this file */
+    BTreePageId headerId() {
+        return new BTreePageId(fid, 0);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        try {
+            readBytes(pid.pageNumber(), data);
+            return BTreePage.create((BTreePageId) pid, data, td, keyField);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("cannot read page "
+                    + pid.pageNumber() + " of " + file + ": " + e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writeBytes(page.getId().pageNumber(), page.getPageData());
+    }
+
+    /**
+     * Closes the file this BTreeFile keeps open for page I/O. It is reopened
+     * on the next read or write.
+     */
+    public synchronized void close() {
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                // nothing useful to do; the descriptor is gone either way
+            }
+            raf = null;
+            initialized = false;
+        }
+    }
+
+    private synchronized RandomAccessFile raf() throws IOException {
+        if (raf == null)
+            raf = new RandomAccessFile(file, "rw");
+        if (!initialized) {
+            if (raf.length() == 0)
+                initialize(raf);
+            initialized = true;
+        }
+        return raf;
+    }
+
+    /** Writes the pages of an empty tree: the header and a root leaf. */
+    private void initialize(RandomAccessFile out) throws IOException {
+        byte[] header = BTreePage.createEmptyPageData(BTreePage.HEADER);
+        header[4] = 1; // the root is page 1
+        out.seek(0);
+        out.write(header);
+        out.write(BTreePage.createEmptyPageData(BTreePage.LEAF));
+    }
+
+    private synchronized void readBytes(int pgNo, byte[] data) throws IOException {
+        RandomAccessFile in = raf();
+        in.seek((long) pgNo * BufferPool.PAGE_SIZE);
+        in.readFully(data);
+    }
+
+    private synchronized void writeBytes(int pgNo, byte[] data) throws IOException {
+        RandomAccessFile out = raf();
+        out.seek((long) pgNo * BufferPool.PAGE_SIZE);
+        out.write(data);
+    }
+
+    /**
+     * Reserves a page number past the end of the file, so that concurrent
+     * inserts never pick the same new page.
+     */
+    private synchronized int reservePage() throws IOException {
+        int pgNo = Math.max((int) (raf().length() / BufferPool.PAGE_SIZE),
+                reservedEnd);
+        reservedEnd = pgNo + 1;
+        return pgNo;
+    }
+
+    private BTreePage page(TransactionId tid, int pgNo, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return (BTreePage) Database.getBufferPool().getPage(tid,
+                new BTreePageId(fid, pgNo), perm);
+    }
+
+    private static void dirty(TransactionId tid, BTreePage page,
+            Map<PageId, Page> dirtied) {
+        page.markDirty(true, tid);
+        dirtied.put(page.getId(), page);
+    }
+
+    /**
+     * Descends from the root to the leftmost leaf that may hold key (the
+     * leftmost leaf if key is null), locking inner pages READ_ONLY and the
+     * leaf with perm.
+     *
+     * @param path if not null, gets the page numbers of the inner pages on
+     *   the way, root first
+     */
+    BTreeLeafPage findLeaf(TransactionId tid, Field key, List<Integer> path,
+            Permissions perm) throws TransactionAbortedException, DbException {
+        BTreeHeaderPage header = (BTreeHeaderPage) page(tid, 0,
+                Permissions.READ_ONLY);
+        int pgNo = header.getRoot();
+        while (true) {
+            BTreePage p = page(tid, pgNo, Permissions.READ_ONLY);
+            if (p instanceof BTreeLeafPage) {
+                if (perm == Permissions.READ_WRITE)
+                    p = page(tid, pgNo, perm);
+                return (BTreeLeafPage) p;
+            }
+            BTreeInternalPage inner = (BTreeInternalPage) p;
+            if (path != null)
+                path.add(pgNo);
+            pgNo = inner.getChild(inner.childIndex(key));
+        }
+    }
+
+    /** Returns leaf pgNo, locked with perm. */
+    BTreeLeafPage leaf(TransactionId tid, int pgNo, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return (BTreeLeafPage) page(tid, pgNo, perm);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tuple does not match the schema of " + file);
+        LinkedHashMap<PageId, Page> dirtied = new LinkedHashMap<PageId, Page>();
+        ArrayList<Integer> path = new ArrayList<Integer>();
+        BTreeLeafPage leaf = findLeaf(tid, t.getField(keyField), path,
+                Permissions.READ_WRITE);
+        leaf.insertTuple(t);
+        dirty(tid, leaf, dirtied);
+        if (leaf.numTuples() > leafMax)
+            splitLeaf(tid, leaf, path, dirtied);
+        return new ArrayList<Page>(dirtied.values());
+    }
+
+    /**
+     * Moves the upper half of the tuples of leaf to a new leaf after it, and
+     * adds the new leaf to the parent.
+     */
+    private void splitLeaf(TransactionId tid, BTreeLeafPage leaf,
+            List<Integer> path, Map<PageId, Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeLeafPage right = (BTreeLeafPage) newPage(tid, BTreePage.LEAF,
+                dirtied);
+        List<Tuple> upper = leaf.tuples.subList(leaf.numTuples() / 2,
+                leaf.numTuples());
+        right.tuples.addAll(upper);
+        upper.clear();
+        right.renumber(0);
+        right.next = leaf.next;
+        leaf.next = right.pid.pageNumber();
+        insertIntoParent(tid, leaf.pid.pageNumber(), right.keyOf(0),
+                right.pid.pageNumber(), path, dirtied);
+    }
+
+    /**
+     * Adds key and the new page right after page left in the parent of left,
+     * the last page of path, splitting the parent if it overflows. If left
+     * is the root, a new root is made over left and right.
+     */
+    private void insertIntoParent(TransactionId tid, int left, Field key,
+            int right, List<Integer> path, Map<PageId, Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        if (path.isEmpty()) {
+            BTreeInternalPage root = (BTreeInternalPage) newPage(tid,
+                    BTreePage.INTERNAL, dirtied);
+            root.children.set(0, left);
+            root.keys.add(key);
+            root.children.add(right);
+            BTreeHeaderPage header = (BTreeHeaderPage) page(tid, 0,
+                    Permissions.READ_WRITE);
+            header.setRoot(root.pid.pageNumber());
+            dirty(tid, header, dirtied);
+            return;
+        }
+        int pgNo = path.remove(path.size() - 1);
+        BTreeInternalPage parent = (BTreeInternalPage) page(tid, pgNo,
+                Permissions.READ_WRITE);
+        int i = parent.children.indexOf(left);
+        parent.keys.add(i, key);
+        parent.children.add(i + 1, right);
+        dirty(tid, parent, dirtied);
+        if (parent.numKeys() <= internalMax)
+            return;
+
+        // the middle key moves up; the keys after it go to a new page
+        BTreeInternalPage sibling = (BTreeInternalPage) newPage(tid,
+                BTreePage.INTERNAL, dirtied);
+        int n = parent.numKeys();
+        int mid = n / 2;
+        Field up = parent.keys.get(mid);
+        sibling.children.set(0, parent.children.get(mid + 1));
+        sibling.keys.addAll(parent.keys.subList(mid + 1, n));
+        sibling.children.addAll(parent.children.subList(mid + 2, n + 1));
+        parent.keys.subList(mid, n).clear();
+        parent.children.subList(mid + 1, n + 1).clear();
+        insertIntoParent(tid, pgNo, up, sibling.pid.pageNumber(), path,
+                dirtied);
+    }
+
+    /**
+     * Returns a new, empty page of the given type, locked READ_WRITE for
+     * tid: a page freed by another transaction if the header has one,
+     * otherwise a page past the end of the file.
+     */
+    private BTreePage newPage(TransactionId tid, byte type,
+            Map<PageId, Page> dirtied) throws DbException, IOException,
+            TransactionAbortedException {
+        BTreeHeaderPage header = (BTreeHeaderPage) page(tid, 0,
+                Permissions.READ_ONLY);
+        int pgNo = -1;
+        synchronized (this) {
+            for (int p = header.nextFree(1); p >= 0; p = header.nextFree(p + 1)) {
+                TransactionId f = freedBy.get(p);
+                if (tid == null || f == null || !tid.equals(f)) {
+                    pgNo = p;
+                    break;
+                }
+            }
+        }
+        if (pgNo >= 0) {
+            header = (BTreeHeaderPage) page(tid, 0, Permissions.READ_WRITE);
+            header.setFree(pgNo, false);
+            dirty(tid, header, dirtied);
+            synchronized (this) {
+                freedBy.remove(pgNo);
+            }
+        } else {
+            pgNo = reservePage();
+        }
+
+        // nobody can reach the page, so it can be emptied on disk directly
+        BTreePageId pid = new BTreePageId(fid, pgNo);
+        writeBytes(pgNo, BTreePage.createEmptyPageData(type));
+        Database.getBufferPool().discardPage(pid);
+        BTreePage page = page(tid, pgNo, Permissions.READ_WRITE);
+        dirty(tid, page, dirtied);
+        return page;
+    }
+
+    /** Records page as free in the header. */
+    private void freePage(TransactionId tid, BTreePage page,
+            Map<PageId, Page> dirtied) throws DbException,
+            TransactionAbortedException {
+        BTreeHeaderPage header = (BTreeHeaderPage) page(tid, 0,
+                Permissions.READ_WRITE);
+        header.setFree(page.pid.pageNumber(), true);
+        dirty(tid, header, dirtied);
+        synchronized (this) {
+            freedBy.put(page.pid.pageNumber(), tid);
+        }
+    }
+
+    /**
+     * Deletes a tuple with the same field values as t. The record id of t
+     * is not used, since splits and merges move tuples between pages.
+     *
+     * @return the leaf the tuple was deleted from
+     * @throws DbException if there is no such tuple
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        Field key = t.getField(keyField);
+        List<Integer> path = new ArrayList<Integer>();
+        BTreeLeafPage leaf = findLeaf(tid, key, path, Permissions.READ_ONLY);
+        int i = leaf.find(t);
+        boolean moved = false;
+        // equal keys may continue on the following leaves
+        while (i < 0) {
+            int n = leaf.numTuples();
+            if (leaf.next == 0 || (n > 0 && leaf.keyOf(n - 1).compareTo(key) > 0))
+                throw new DbException("tuple " + t + " is not in " + file);
+            leaf = leaf(tid, leaf.next, Permissions.READ_ONLY);
+            moved = true;
+            i = leaf.find(t);
+        }
+        if (moved)
+            path = findPath(tid, key, leaf.pid.pageNumber());
+        leaf = leaf(tid, leaf.pid.pageNumber(), Permissions.READ_WRITE);
+
+        LinkedHashMap<PageId, Page> dirtied = new LinkedHashMap<PageId, Page>();
+        leaf.removeTuple(i);
+        dirty(tid, leaf, dirtied);
+        rebalanceLeaf(tid, leaf, path, dirtied);
+        return leaf;
+    }
+
+    /**
+     * Returns the page numbers of the inner pages from the root to leaf
+     * pgNo, which holds key.
+     */
+    private List<Integer> findPath(TransactionId tid, Field key, int pgNo)
+            throws DbException, TransactionAbortedException {
+        BTreeHeaderPage header = (BTreeHeaderPage) page(tid, 0,
+                Permissions.READ_ONLY);
+        ArrayList<Integer> path = new ArrayList<Integer>();
+        if (!findPath(tid, header.getRoot(), key, pgNo, path))
+            throw new DbException("leaf " + pgNo + " of " + file
+                    + " is not reachable for key " + key);
+        return path;
+    }
+
+    private boolean findPath(TransactionId tid, int from, Field key, int pgNo,
+            List<Integer> path) throws DbException, TransactionAbortedException {
+        if (from == pgNo)
+            return true;
+        BTreePage p = page(tid, from, Permissions.READ_ONLY);
+        if (!(p instanceof BTreeInternalPage))
+            return false;
+        BTreeInternalPage inner = (BTreeInternalPage) p;
+        path.add(from);
+        for (int c = inner.childIndex(key); c <= inner.numKeys(); c++) {
+            if (c > 0 && inner.getKey(c - 1).compareTo(key) > 0)
+                break;
+            if (findPath(tid, inner.getChild(c), key, pgNo, path))
+                return true;
+        }
+        path.remove(path.size() - 1);
+        return false;
+    }
+
+    /**
+     * Merges leaf with a sibling if it is less than half full, or moves
+     * tuples over from the sibling if both do not fit on one page. The left
+     * sibling is used if leaf has one.
+     */
+    private void rebalanceLeaf(TransactionId tid, BTreeLeafPage leaf,
+            List<Integer> path, Map<PageId, Page> dirtied)
+            throws DbException, TransactionAbortedException {
+        if (path.isEmpty() || leaf.numTuples() >= leafMax / 2)
+            return;
+        BTreeInternalPage parent = (BTreeInternalPage) page(tid,
+                path.remove(path.size() - 1), Permissions.READ_WRITE);
+        int i = parent.children.indexOf(leaf.pid.pageNumber());
+        int sep = i > 0 ? i - 1 : 0;
+        BTreeLeafPage left = i > 0 ? leaf(tid, parent.getChild(i - 1),
+                Permissions.READ_WRITE) : leaf;
+        BTreeLeafPage right = i > 0 ? leaf : leaf(tid, parent.getChild(1),
+                Permissions.READ_WRITE);
+        dirty(tid, parent, dirtied);
+        dirty(tid, left, dirtied);
+        dirty(tid, right, dirtied);
+
+        int total = left.numTuples() + right.numTuples();
+        if (total <= leafMax) {
+            int from = left.numTuples();
+            left.tuples.addAll(right.tuples);
+            left.renumber(from);
+            right.tuples.clear();
+            left.next = right.next;
+            parent.keys.remove(sep);
+            parent.children.remove(sep + 1);
+            freePage(tid, right, dirtied);
+            rebalanceInternal(tid, parent, path, dirtied);
+            return;
+        }
+        int leftSize = total / 2;
+        if (left.numTuples() > leftSize) {
+            List<Tuple> tail = left.tuples.subList(leftSize, left.numTuples());
+            right.tuples.addAll(0, tail);
+            tail.clear();
+        } else {
+            List<Tuple> head = right.tuples.subList(0,
+                    leftSize - left.numTuples());
+            left.tuples.addAll(head);
+            head.clear();
+        }
+        left.renumber(0);
+        right.renumber(0);
+        parent.keys.set(sep, right.keyOf(0));
+    }
+
+    /**
+     * Like rebalanceLeaf, for an inner page; the separator in the parent
+     * moves down into the merged page, or is rotated through when keys move
+     * between the siblings. A root left with one child is replaced by it.
+     */
+    private void rebalanceInternal(TransactionId tid, BTreeInternalPage node,
+            List<Integer> path, Map<PageId, Page> dirtied)
+            throws DbException, TransactionAbortedException {
+        if (path.isEmpty()) {
+            if (node.numKeys() == 0) {
+                BTreeHeaderPage header = (BTreeHeaderPage) page(tid, 0,
+                        Permissions.READ_WRITE);
+                header.setRoot(node.getChild(0));
+                dirty(tid, header, dirtied);
+                freePage(tid, node, dirtied);
+            }
+            return;
+        }
+        if (node.numKeys() >= internalMax / 2)
+            return;
+        BTreeInternalPage parent = (BTreeInternalPage) page(tid,
+                path.remove(path.size() - 1), Permissions.READ_WRITE);
+        int i = parent.children.indexOf(node.pid.pageNumber());
+        int sep = i > 0 ? i - 1 : 0;
+        BTreeInternalPage left = i > 0 ? (BTreeInternalPage) page(tid,
+                parent.getChild(i - 1), Permissions.READ_WRITE) : node;
+        BTreeInternalPage right = i > 0 ? node : (BTreeInternalPage) page(tid,
+                parent.getChild(1), Permissions.READ_WRITE);
+        dirty(tid, parent, dirtied);
+        dirty(tid, left, dirtied);
+        dirty(tid, right, dirtied);
+
+        ArrayList<Field> keys = new ArrayList<Field>(left.keys);
+        keys.add(parent.getKey(sep));
+        keys.addAll(right.keys);
+        ArrayList<Integer> children = new ArrayList<Integer>(left.children);
+        children.addAll(right.children);
+        if (keys.size() <= internalMax) {
+            left.keys.clear();
+            left.keys.addAll(keys);
+            left.children.clear();
+            left.children.addAll(children);
+            parent.keys.remove(sep);
+            parent.children.remove(sep + 1);
+            freePage(tid, right, dirtied);
+            rebalanceInternal(tid, parent, path, dirtied);
+            return;
+        }
+        int m = keys.size() / 2;
+        left.keys.clear();
+        left.keys.addAll(keys.subList(0, m));
+        left.children.clear();
+        left.children.addAll(children.subList(0, m + 1));
+        right.keys.clear();
+        right.keys.addAll(keys.subList(m + 1, keys.size()));
+        right.children.clear();
+        right.children.addAll(children.subList(m + 1, children.size()));
+        parent.keys.set(sep, keys.get(m));
+    }
+
+    /**
+     * Returns an iterator over all tuples of this file, in key order.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BTreeFileIterator(tid, this, null, false, null, false);
+    }
+
+    /**
+     * @return true for EQUALS, LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN and
+     *   GREATER_THAN_OR_EQ
+     */
+    public boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.LIKE && op != Predicate.Op.NOT_EQUALS;
+    }
+
+    /**
+     * Returns an iterator over the tuples whose key satisfies
+     * {@code key op value}, in key order. Only the leaves that may hold such
+     * tuples are read.
+     *
+     * @throws IllegalArgumentException if op is not supported
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op,
+            Field value) {
+        switch (op) {
+        case EQUALS:
+            return rangeIterator(tid, value, true, value, true);
+        case LESS_THAN:
+            return rangeIterator(tid, null, false, value, false);
+        case LESS_THAN_OR_EQ:
+            return rangeIterator(tid, null, false, value, true);
+        case GREATER_THAN:
+            return rangeIterator(tid, value, false, null, false);
+        case GREATER_THAN_OR_EQ:
+            return rangeIterator(tid, value, true, null, false);
+        default:
+            throw new IllegalArgumentException("a B+ tree cannot search for "
+                    + op);
+        }
+    }
+
+    /**
+     * Returns an iterator over the tuples whose key lies between low and
+     * high, in key order. A null bound means the range is open on that side.
+     */
+    public DbFileIterator rangeIterator(TransactionId tid, Field low,
+            boolean lowInclusive, Field high, boolean highInclusive) {
+        return new BTreeFileIterator(tid, this, low, lowInclusive, high,
+                highInclusive);
+    }
+
+    /**
+     * Fills this file, which must be empty, with the tuples of sorted, which
+     * must be open and ordered on the key field. The pages are packed full
+     * and written straight to disk, bottom level first, without going
+     * through the BufferPool or taking locks, so this is only meant for
+     * building a file before it is used, as Catalog does.
+     *
+     * @return the number of tuples loaded
+     * @throws DbException if the file is not empty or the input is not
+     *   sorted
+     */
+    public synchronized int bulkLoad(DbIterator sorted) throws DbException,
+            IOException, TransactionAbortedException {
+        if (file.length() > 0)
+            throw new DbException("cannot bulk load " + file
+                    + ", which is not empty");
+        int nextPg = 1;
+        ArrayList<Integer> level = new ArrayList<Integer>();
+        ArrayList<Field> firstKeys = new ArrayList<Field>();
+        // the last full leaf is held back so that it can give tuples to the
+        // final leaf if that one would be less than half full
+        ArrayList<Tuple> prev = null;
+        ArrayList<Tuple> cur = new ArrayList<Tuple>();
+        int count = 0;
+        Field lastKey = null;
+        while (sorted.hasNext()) {
+            Tuple t = sorted.next();
+            Field key = t.getField(keyField);
+            if (lastKey != null && key.compareTo(lastKey) < 0)
+                throw new DbException("input of bulkLoad is not sorted on "
+                        + td.getFieldName(keyField));
+            lastKey = key;
+            if (cur.size() == leafMax) {
+                if (prev != null)
+                    writeLeaf(nextPg++, prev, nextPg, level, firstKeys);
+                prev = cur;
+                cur = new ArrayList<Tuple>();
+            }
+            cur.add(t);
+            count++;
+        }
+        if (prev != null) {
+            if (cur.size() < leafMax / 2) {
+                List<Tuple> tail = prev.subList(
+                        (prev.size() + cur.size()) / 2, prev.size());
+                cur.addAll(0, tail);
+                tail.clear();
+            }
+            writeLeaf(nextPg++, prev, nextPg, level, firstKeys);
+        }
+        writeLeaf(nextPg++, cur, 0, level, firstKeys);
+
+        // build each level over the one below, spreading children evenly
+        while (level.size() > 1) {
+            int nodes = (level.size() + internalMax) / (internalMax + 1);
+            ArrayList<Integer> above = new ArrayList<Integer>();
+            ArrayList<Field> aboveKeys = new ArrayList<Field>();
+            int start = 0;
+            for (int i = 0; i < nodes; i++) {
+                int end = (int) ((long) level.size() * (i + 1) / nodes);
+                BTreeInternalPage node = new BTreeInternalPage(new BTreePageId(
+                        fid, nextPg), BTreePage.createEmptyPageData(
+                        BTreePage.INTERNAL), td, keyField);
+                node.children.set(0, level.get(start));
+                for (int c = start + 1; c < end; c++) {
+                    node.keys.add(firstKeys.get(c));
+                    node.children.add(level.get(c));
+                }
+                writeBytes(nextPg, node.getPageData());
+                above.add(nextPg++);
+                aboveKeys.add(firstKeys.get(start));
+                start = end;
+            }
+            level = above;
+            firstKeys = aboveKeys;
+        }
+
+        BTreeHeaderPage header = new BTreeHeaderPage(headerId(),
+                BTreePage.createEmptyPageData(BTreePage.HEADER), td, keyField);
+        header.setRoot(level.get(0));
+        writeBytes(0, header.getPageData());
+        return count;
+    }
+
+    private void writeLeaf(int pgNo, List<Tuple> tuples, int next,
+            List<Integer> level, List<Field> firstKeys) throws IOException {
+        BTreeLeafPage leaf = new BTreeLeafPage(new BTreePageId(fid, pgNo),
+                BTreePage.createEmptyPageData(BTreePage.LEAF), td, keyField);
+        leaf.tuples.addAll(tuples);
+        leaf.next = next;
+        writeBytes(pgNo, leaf.getPageData());
+        level.add(pgNo);
+        firstKeys.add(tuples.isEmpty() ? null : tuples.get(0).getField(keyField));
+    }
+}
@@ -0,0 +1,144 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BTreeFileIterator returns the tuples of a {@link BTreeFile} whose keys lie
+ * in a range, in key order: it descends to the first leaf that may hold the
+ * low end of the range and follows the leaves' next pointers until a key
+ * past the high end.
+ * <p>
+ * The tuples of each leaf are copied when the iterator reaches it. The
+ * iterator stays correct when its transaction deletes tuples it has already
+ * returned, as Delete does, even though the merges that follow move tuples
+ * between the current leaf and its neighbours: a leaf the transaction has
+ * changed is checked for tuples moved in before the iterator goes on, and
+ * tuples already returned from the previous leaf are skipped in the next.
+ */
+public class BTreeFileIterator implements DbFileIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final BTreeFile file;
+    private final Field low;
+    private final boolean lowInclusive;
+    private final Field high;
+    private final boolean highInclusive;
+
+    private boolean open = false;
+    // the current leaf, or -1 once the range is exhausted
+    private int pgNo;
+    private ArrayList<Tuple> buffer;
+    private int pos;
+    // everything returned from the current and the previous leaf
+    private ArrayList<Tuple> done;
+    private ArrayList<Tuple> previous;
+
+    /**
+     * Constructor. A null bound leaves the range open on that side.
+     */
+    public BTreeFileIterator(TransactionId tid, BTreeFile file, Field low,
+            boolean lowInclusive, Field high, boolean highInclusive) {
+        this.tid = tid;
+        this.file = file;
+        this.low = low;
+        this.lowInclusive = lowInclusive;
+        this.high = high;
+        this.highInclusive = highInclusive;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        previous = new ArrayList<Tuple>();
+        load(file.findLeaf(tid, low, null, Permissions.READ_ONLY));
+        open = true;
+    }
+
+    private void load(BTreeLeafPage leaf) {
+        pgNo = leaf.getId().pageNumber();
+        done = new ArrayList<Tuple>();
+        buffer = inRange(leaf, previous);
+        pos = 0;
+    }
+
+    /**
+     * Returns the tuples of leaf inside the range, leaving out those in
+     * exclude (compared by identity) if the leaf has been changed.
+     */
+    private ArrayList<Tuple> inRange(BTreeLeafPage leaf, List<Tuple> exclude) {
+        Set<Tuple> skip = null;
+        if (leaf.isDirty() != null && !exclude.isEmpty()) {
+            skip = Collections.newSetFromMap(new IdentityHashMap<Tuple, Boolean>());
+            skip.addAll(exclude);
+        }
+        int n = leaf.numTuples();
+        int i = low == null ? 0 : leaf.lowerBound(low);
+        ArrayList<Tuple> result = new ArrayList<Tuple>(n - i);
+        for (; i < n; i++) {
+            Tuple t = leaf.getTuple(i);
+            Field key = t.getField(file.keyField());
+            if (low != null && !lowInclusive && key.equals(low))
+                continue;
+            if (pastHigh(key))
+                break;
+            if (skip == null || !skip.contains(t))
+                result.add(t);
+        }
+        return result;
+    }
+
+    private boolean pastHigh(Field key) {
+        if (high == null)
+            return false;
+        int c = key.compareTo(high);
+        return c > 0 || (c == 0 && !highInclusive);
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (!open)
+            return false;
+        while (pos >= buffer.size()) {
+            if (pgNo < 0)
+                return false;
+            done.addAll(buffer);
+            BTreeLeafPage leaf = file.leaf(tid, pgNo, Permissions.READ_ONLY);
+            if (leaf.isDirty() != null) {
+                // tuples moved in from a sibling by a merge
+                ArrayList<Tuple> seen = new ArrayList<Tuple>(done);
+                seen.addAll(previous);
+                buffer = inRange(leaf, seen);
+                pos = 0;
+                if (!buffer.isEmpty())
+                    continue;
+            }
+            int n = leaf.numTuples();
+            if (leaf.getNext() == 0 || (n > 0 && pastHigh(leaf.getTuple(n - 1)
+                    .getField(file.keyField())))) {
+                pgNo = -1;
+                return false;
+            }
+            previous = done;
+            load(file.leaf(tid, leaf.getNext(), Permissions.READ_ONLY));
+        }
+        return true;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return buffer.get(pos++);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        open = false;
+        buffer = null;
+        done = null;
+        previous = null;
+    }
+}
@@ -0,0 +1,102 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * BTreeHeaderPage is page 0 of every {@link BTreeFile}. It records which
+ * page is the root of the tree and which pages have been freed by deletes
+ * and may be reused.
+ * <p>
+ * The format is the page type byte, the root page number as an int, and a
+ * bitmap with one bit per page, set if the page is free. The bitmap covers
+ * the first {@link #numTrackedPages} pages of the file; pages beyond that
+ * are never recycled once freed.
+ */
+public class BTreeHeaderPage extends BTreePage {
+
+    private static final int BITMAP_OFFSET = 5;
+
+    int root;
+    final byte[] free = new byte[BufferPool.PAGE_SIZE - BITMAP_OFFSET];
+
+    /**
+     * Create the header page of the BTreeFile in the Catalog from the bytes
+     * read from disk. Used by the recovery code in LogFile.
+     */
+    public BTreeHeaderPage(BTreePageId pid, byte[] data) throws IOException {
+        this(pid, data, fileOf(pid).getTupleDesc(), fileOf(pid).keyField());
+    }
+
+    /**
+     * Create a header page from the bytes read from disk.
+     *
+     * @throws IOException if data is not a header page
+     */
+    public BTreeHeaderPage(BTreePageId pid, byte[] data, TupleDesc td,
+            int keyField) throws IOException {
+        super(pid, td, keyField);
+        if (data[0] != HEADER)
+            throw new IOException("page " + pid.pageNumber()
+                    + " is not a B+ tree header page");
+        root = ByteBuffer.wrap(data).getInt(1);
+        System.arraycopy(data, BITMAP_OFFSET, free, 0, free.length);
+        setBeforeImage();
+    }
+
+    /** @return the number of pages whose free bit this page can hold */
+    public static int numTrackedPages() {
+        return (BufferPool.PAGE_SIZE - BITMAP_OFFSET) * 8;
+    }
+
+    /** @return the page number of the root of the tree */
+    public int getRoot() {
+        return root;
+    }
+
+    void setRoot(int pgNo) {
+        root = pgNo;
+    }
+
+    /** @return true if page pgNo is free */
+    public boolean isFree(int pgNo) {
+        return pgNo < numTrackedPages()
+                && (free[pgNo >> 3] & (1 << (pgNo & 7))) != 0;
+    }
+
+    /**
+     * Marks page pgNo as free or in use. Pages past the bitmap are ignored.
+     */
+    void setFree(int pgNo, boolean isFree) {
+        if (pgNo >= numTrackedPages())
+            return;
+        if (isFree)
+            free[pgNo >> 3] |= (1 << (pgNo & 7));
+        else
+            free[pgNo >> 3] &= ~(1 << (pgNo & 7));
+    }
+
+    /**
+     * @return the first free page numbered from or after pgNo, or -1 if
+     *   there is none
+     */
+    int nextFree(int pgNo) {
+        for (int i = pgNo; i < numTrackedPages(); i++) {
+            if (free[i >> 3] == 0) {
+                i |= 7;
+                continue;
+            }
+            if (isFree(i))
+                return i;
+        }
+        return -1;
+    }
+
+    public byte[] getPageData() {
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+        buf.put(HEADER);
+        buf.putInt(root);
+        buf.put(free);
+        return buf.array();
+    }
+}
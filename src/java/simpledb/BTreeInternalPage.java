@@ -0,0 +1,121 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * BTreeInternalPage is an inner node of a {@link BTreeFile}: n keys, in
+ * order, separating n + 1 child pages. The keys of child i lie between key
+ * i - 1 and key i, both included, since equal keys may span several
+ * children.
+ * <p>
+ * The format is the page type byte, the number of keys as an int, the page
+ * number of child 0 as an int, and then each key followed by the page
+ * number of the child after it.
+ */
+public class BTreeInternalPage extends BTreePage {
+
+    private static final int HEADER_SIZE = 9;
+
+    final ArrayList<Field> keys;
+    final ArrayList<Integer> children;
+
+    /**
+     * Create an internal page of the BTreeFile in the Catalog from the bytes
+     * read from disk. Used by the recovery code in LogFile.
+     */
+    public BTreeInternalPage(BTreePageId pid, byte[] data) throws IOException {
+        this(pid, data, fileOf(pid).getTupleDesc(), fileOf(pid).keyField());
+    }
+
+    /**
+     * Create an internal page from the bytes read from disk.
+     *
+     * @throws IOException if data is not an internal page
+     */
+    public BTreeInternalPage(BTreePageId pid, byte[] data, TupleDesc td,
+            int keyField) throws IOException {
+        super(pid, td, keyField);
+        if (data[0] != INTERNAL)
+            throw new IOException("page " + pid.pageNumber()
+                    + " is not a B+ tree internal page");
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int n = buf.getInt(1);
+        Type type = keyType();
+        if (n < 0 || n > maxKeys(type))
+            throw new IOException("bad key count " + n + " on page "
+                    + pid.pageNumber());
+        keys = new ArrayList<Field>(n + 1);
+        children = new ArrayList<Integer>(n + 2);
+        children.add(buf.getInt(5));
+        int offset = HEADER_SIZE;
+        for (int i = 0; i < n; i++) {
+            keys.add(type.parse(data, offset));
+            offset += type.getLen();
+            children.add(buf.getInt(offset));
+            offset += 4;
+        }
+        setBeforeImage();
+    }
+
+    /** @return the number of keys of the given type that fit on a page */
+    public static int maxKeys(Type keyType) {
+        return (BufferPool.PAGE_SIZE - HEADER_SIZE) / (keyType.getLen() + 4);
+    }
+
+    /** @return the number of keys on this page */
+    public int numKeys() {
+        return keys.size();
+    }
+
+    /** @return the i-th key of this page */
+    public Field getKey(int i) {
+        return keys.get(i);
+    }
+
+    /** @return the page number of the i-th child, 0 &lt;= i &lt;= numKeys() */
+    public int getChild(int i) {
+        return children.get(i);
+    }
+
+    /**
+     * @return the index of the leftmost child that may hold key: the first
+     *   child whose upper key is not less than key, or the last child. A null
+     *   key means the leftmost child.
+     */
+    int childIndex(Field key) {
+        if (key == null)
+            return 0;
+        int lo = 0, hi = keys.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys.get(mid).compareTo(key) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(
+                BufferPool.PAGE_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeByte(INTERNAL);
+            dos.writeInt(keys.size());
+            dos.writeInt(children.get(0));
+            for (int i = 0; i < keys.size(); i++) {
+                keys.get(i).serialize(dos);
+                dos.writeInt(children.get(i + 1));
+            }
+            dos.write(new byte[BufferPool.PAGE_SIZE - dos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            // writing to memory does not fail
+            throw new IllegalStateException(e);
+        }
+        return baos.toByteArray();
+    }
+}
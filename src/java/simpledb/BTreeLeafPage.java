@@ -0,0 +1,167 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * BTreeLeafPage holds the tuples of a {@link BTreeFile}, sorted on the key
+ * field. The leaves form a chain in key order through their next pointers.
+ * <p>
+ * The format is the page type byte, the number of tuples as an int, the
+ * page number of the next leaf as an int (0 for the last leaf), and the
+ * tuples, back to back, in key order.
+ */
+public class BTreeLeafPage extends BTreePage {
+
+    private static final int HEADER_SIZE = 9;
+
+    final ArrayList<Tuple> tuples;
+    int next;
+
+    /**
+     * Create a leaf page of the BTreeFile in the Catalog from the bytes read
+     * from disk. Used by the recovery code in LogFile.
+     */
+    public BTreeLeafPage(BTreePageId pid, byte[] data) throws IOException {
+        this(pid, data, fileOf(pid).getTupleDesc(), fileOf(pid).keyField());
+    }
+
+    /**
+     * Create a leaf page from the bytes read from disk.
+     *
+     * @throws IOException if data is not a leaf page
+     */
+    public BTreeLeafPage(BTreePageId pid, byte[] data, TupleDesc td,
+            int keyField) throws IOException {
+        super(pid, td, keyField);
+        if (data[0] != LEAF)
+            throw new IOException("page " + pid.pageNumber()
+                    + " is not a B+ tree leaf page");
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int n = buf.getInt(1);
+        if (n < 0 || n > maxTuples(td))
+            throw new IOException("bad tuple count " + n + " on page "
+                    + pid.pageNumber());
+        next = buf.getInt(5);
+        tuples = new ArrayList<Tuple>(n + 1);
+        int offset = HEADER_SIZE;
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(td);
+            for (int j = 0; j < td.numFields(); j++) {
+                Type type = td.getFieldType(j);
+                t.setField(j, type.parse(data, offset));
+                offset += type.getLen();
+            }
+            t.setRecordId(new RecordId(pid, i));
+            tuples.add(t);
+        }
+        setBeforeImage();
+    }
+
+    /** @return the number of tuples of the given TupleDesc that fit on a page */
+    public static int maxTuples(TupleDesc td) {
+        return (BufferPool.PAGE_SIZE - HEADER_SIZE) / td.getSize();
+    }
+
+    /** @return the number of tuples on this page */
+    public int numTuples() {
+        return tuples.size();
+    }
+
+    /** @return the i-th tuple of this page, in key order */
+    public Tuple getTuple(int i) {
+        return tuples.get(i);
+    }
+
+    /** @return the page number of the next leaf, or 0 if this is the last */
+    public int getNext() {
+        return next;
+    }
+
+    Field keyOf(int i) {
+        return tuples.get(i).getField(keyField);
+    }
+
+    /**
+     * @return the index of the first tuple whose key is not less than key,
+     *   or numTuples() if there is none
+     */
+    int lowerBound(Field key) {
+        int lo = 0, hi = tuples.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keyOf(mid).compareTo(key) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Inserts t before the tuples with an equal or greater key.
+     */
+    void insertTuple(Tuple t) {
+        int i = lowerBound(t.getField(keyField));
+        tuples.add(i, t);
+        renumber(i);
+    }
+
+    /**
+     * @return the index of a tuple on this page with the same field values
+     *   as t, or -1 if there is none
+     */
+    int find(Tuple t) {
+        Field key = t.getField(keyField);
+        for (int i = lowerBound(key); i < tuples.size(); i++) {
+            Tuple u = tuples.get(i);
+            if (!u.getField(keyField).equals(key))
+                break;
+            if (sameFields(t, u))
+                return i;
+        }
+        return -1;
+    }
+
+    static boolean sameFields(Tuple a, Tuple b) {
+        int n = a.getTupleDesc().numFields();
+        for (int i = 0; i < n; i++) {
+            if (!a.getField(i).equals(b.getField(i)))
+                return false;
+        }
+        return true;
+    }
+
+    void removeTuple(int i) {
+        tuples.remove(i);
+        renumber(i);
+    }
+
+    /** Points the record ids of the tuples from index i on at their slots. */
+    void renumber(int i) {
+        for (; i < tuples.size(); i++)
+            tuples.get(i).setRecordId(new RecordId(pid, i));
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(
+                BufferPool.PAGE_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeByte(LEAF);
+            dos.writeInt(tuples.size());
+            dos.writeInt(next);
+            for (Tuple t : tuples) {
+                for (int j = 0; j < td.numFields(); j++)
+                    t.getField(j).serialize(dos);
+            }
+            dos.write(new byte[BufferPool.PAGE_SIZE - dos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            // writing to memory does not fail
+            throw new IllegalStateException(e);
+        }
+        return baos.toByteArray();
+    }
+}
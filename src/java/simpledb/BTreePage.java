@@ -0,0 +1,97 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * BTreePage holds what the pages of a {@link BTreeFile} have in common: the
+ * first byte of every page says which kind of page it is, and
+ * {@link #create} builds the right subclass from a page's bytes.
+ */
+public abstract class BTreePage implements Page {
+
+    /** Page type of the {@link BTreeHeaderPage}, always page 0. */
+    public static final byte HEADER = 0;
+    /** Page type of a {@link BTreeInternalPage}. */
+    public static final byte INTERNAL = 1;
+    /** Page type of a {@link BTreeLeafPage}. */
+    public static final byte LEAF = 2;
+
+    final BTreePageId pid;
+    final TupleDesc td;
+    final int keyField;
+    private volatile TransactionId dirtier = null;
+    byte[] oldData;
+
+    BTreePage(BTreePageId pid, TupleDesc td, int keyField) {
+        this.pid = pid;
+        this.td = td;
+        this.keyField = keyField;
+    }
+
+    /**
+     * Builds the page whose bytes are data, of the kind its first byte says.
+     *
+     * @throws IOException if data is not a valid page
+     */
+    public static BTreePage create(BTreePageId pid, byte[] data, TupleDesc td,
+            int keyField) throws IOException {
+        switch (data[0]) {
+        case HEADER:
+            return new BTreeHeaderPage(pid, data, td, keyField);
+        case INTERNAL:
+            return new BTreeInternalPage(pid, data, td, keyField);
+        case LEAF:
+            return new BTreeLeafPage(pid, data, td, keyField);
+        default:
+            throw new IOException("unknown B+ tree page type " + data[0]
+                    + " on page " + pid.pageNumber());
+        }
+    }
+
+    /**
+     * Returns the bytes of an empty page of the given type: a header with no
+     * root and no free pages, an internal page with no keys, or a leaf with
+     * no tuples and no next leaf.
+     */
+    public static byte[] createEmptyPageData(byte type) {
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        data[0] = type;
+        return data;
+    }
+
+    /** Returns the BTreeFile pid belongs to, from the catalog. */
+    static BTreeFile fileOf(BTreePageId pid) {
+        return (BTreeFile) Database.getCatalog().getDbFile(pid.getTableId());
+    }
+
+    /** Returns the type of the key field of this page's file. */
+    Type keyType() {
+        return td.getFieldType(keyField);
+    }
+
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    /** Return a view of this page before it was modified -- used by recovery */
+    public Page getBeforeImage() {
+        try {
+            return create(pid, oldData, td, keyField);
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData().clone();
+    }
+}
@@ -0,0 +1,120 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BlockNestedLoopJoin is a {@link Join} that reads the outer input a block
+ * at a time and scans the inner input once per block, rather than once per
+ * outer tuple. It works for any predicate, so it is the usual choice for
+ * joins on &lt;, &gt; or LIKE, which cannot be hashed.
+ * <p>
+ * Each inner tuple is compared with every outer tuple of the current block,
+ * so the output comes block by block, and within a block in inner order.
+ */
+public class BlockNestedLoopJoin extends Join {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Block size used by the three-argument constructor, in pages. */
+    public static final int DEFAULT_BLOCK_PAGES = 32;
+
+    private final int blockPages;
+    private final int blockTuples;
+    transient private ArrayList<Tuple> block = new ArrayList<Tuple>();
+    transient private Tuple inner = null;
+    // next outer tuple of block to compare with inner
+    transient private int pos = 0;
+
+    /**
+     * Constructor. Accepts to children to join and the predicate to join them
+     * on, and buffers DEFAULT_BLOCK_PAGES pages of outer tuples at a time.
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DEFAULT_BLOCK_PAGES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param blockPages
+     *            the number of pages' worth of outer tuples to buffer; one
+     *            scan of the inner input is made per block
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1,
+            DbIterator child2, int blockPages) {
+        super(p, child1, child2);
+        if (blockPages < 1)
+            throw new IllegalArgumentException("block must be at least one page");
+        this.blockPages = blockPages;
+        this.blockTuples = blockTuples(child1.getTupleDesc(), blockPages);
+    }
+
+    /**
+     * Returns the number of tuples with the given TupleDesc that fill
+     * blockPages heap pages.
+     */
+    public static int blockTuples(TupleDesc td, int blockPages) {
+        int perPage = (BufferPool.PAGE_SIZE * 8) / (td.getSize() * 8 + 1);
+        return Math.max(1, perPage) * blockPages;
+    }
+
+    /** Returns the block size, in pages. */
+    public int getBlockPages() {
+        return blockPages;
+    }
+
+    /** Returns the block size, in outer tuples. */
+    public int getBlockTuples() {
+        return blockTuples;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        block.clear();
+        inner = null;
+    }
+
+    public void close() {
+        super.close();
+        block.clear();
+        inner = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        super.rewind();
+        block.clear();
+        inner = null;
+    }
+
+    /** Replaces the block with the next blockTuples outer tuples. */
+    private boolean loadBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        while (block.size() < blockTuples && child1.hasNext())
+            block.add(child1.next().materialize());
+        return !block.isEmpty();
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (inner != null) {
+                while (pos < block.size()) {
+                    Tuple outer = block.get(pos++);
+                    if (p.filter(outer, inner))
+                        return setTuple(outer, inner);
+                }
+                inner = null;
+            }
+            if (!block.isEmpty() && child2.hasNext()) {
+                inner = child2.next();
+                pos = 0;
+                continue;
+            }
+            // the inner input is exhausted for this block, or nothing is loaded yet
+            if (!block.isEmpty())
+                child2.rewind();
+            if (!loadBlock())
+                return null;
+        }
+    }
+}
@@ -2,6 +2,9 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -11,6 +14,25 @@ import java.util.*;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * The page table is a ConcurrentHashMap, and hits do not take the pool's
+ * lock: they queue the page for the replacement policy, which is told
+ * about queued hits in batches, under the lock, before it next loads or
+ * chooses a page. A miss reads the page without holding the pool's lock;
+ * threads that miss on the same page at the same time share a single
+ * read. Pages can be pinned, and pinned pages are never evicted.
+ * <p>
+ * Locks are page-level and held until the transaction completes (strict
+ * two-phase locking); see {@link LockManager}. Clean pages are evicted in
+ * preference to dirty ones, but a dirty page is written out and evicted
+ * when nothing else can go (STEAL), so a transaction may change more pages
+ * than the pool holds. The committed version of each page stolen from a
+ * transaction is kept in memory until the transaction completes. A
+ * committing transaction's pages are written out before its locks are
+ * released (FORCE); an aborting transaction's dirty pages are dropped and
+ * its stolen pages written back as they were, so the next reader sees the
+ * committed version. Pages a transaction appended with
+ * {@link #lockAppendedPage} are not stolen.
  */
 public class BufferPool {
     /** Bytes per page, including header. */
@@ -21,20 +43,132 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** Number of queued hits after which a hit tells the policy about them. */
+    static final int ACCESS_BATCH = 64;
+
     int maxPages;
-    HashMap<PageId, Page> idToPage = null;
-    LinkedList<PageId> lru;
+    ConcurrentHashMap<PageId, Page> idToPage = null;
+    ReplacementPolicy policy;
+    final LockManager lockManager = new LockManager();
+    // pin counts of pinned pages, guarded by this
+    HashMap<PageId, Integer> pins = new HashMap<PageId, Integer>();
+    // reads in progress, so that concurrent misses on a page share one read
+    ConcurrentHashMap<PageId, Load> loading = new ConcurrentHashMap<PageId, Load>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    // hits the policy has not been told about yet (see drainAccesses)
+    private final ConcurrentLinkedQueue<PageId> accessed =
+            new ConcurrentLinkedQueue<PageId>();
+    private final AtomicInteger pendingAccesses = new AtomicInteger();
+
+    // pages each transaction appended to a file without the pool (see
+    // lockAppendedPage), guarded by this
+    HashMap<TransactionId, Set<PageId>> appended =
+            new HashMap<TransactionId, Set<PageId>>();
+
+    // committed versions of the pages written out while dirty (stolen) from
+    // each transaction, to be written back if it aborts; guarded by this
+    HashMap<TransactionId, Map<PageId, Page>> stolen =
+            new HashMap<TransactionId, Map<PageId, Page>>();
+
+    // pages installed by a Prefetcher that no one has asked for yet
+    Set<PageId> prefetched = Collections.newSetFromMap(
+            new ConcurrentHashMap<PageId, Boolean>());
+    private final AtomicLong prefetchHits = new AtomicLong();
+    private final AtomicLong prefetchWasted = new AtomicLong();
+
+    // pages evicted first: unpinned and clean
+    private final ReplacementPolicy.VictimFilter unpinnedClean =
+            new ReplacementPolicy.VictimFilter() {
+                public boolean evictable(PageId pid) {
+                    Page page = idToPage.get(pid);
+                    return !pins.containsKey(pid)
+                            && (page == null || page.isDirty() == null);
+                }
+            };
+
+    // pages that may be evicted when no clean one can be: unpinned, and not
+    // appended by the transaction that dirtied them (STEAL)
+    private final ReplacementPolicy.VictimFilter unpinned =
+            new ReplacementPolicy.VictimFilter() {
+                public boolean evictable(PageId pid) {
+                    if (pins.containsKey(pid))
+                        return false;
+                    Page page = idToPage.get(pid);
+                    TransactionId tid = page == null ? null : page.isDirty();
+                    if (tid == null)
+                        return true;
+                    Set<PageId> pages = appended.get(tid);
+                    return pages == null || !pages.contains(pid);
+                }
+            };
+
+    // pages a prefetcher may displace: clean, unpinned, and not prefetched
+    // themselves
+    private final ReplacementPolicy.VictimFilter cleanAndRead =
+            new ReplacementPolicy.VictimFilter() {
+                public boolean evictable(PageId pid) {
+                    Page page = idToPage.get(pid);
+                    return !prefetched.contains(pid) && !pins.containsKey(pid)
+                            && (page == null || page.isDirty() == null);
+                }
+            };
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, evicting the
+     * least recently used page when full.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, new LruPolicy());
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, using policy to
+     * pick the page to evict when full.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the replacement policy; must not be shared with another pool
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
         // some code goes here
         maxPages = numPages;
-        idToPage = new HashMap<PageId, Page>();
-        lru = new LinkedList<PageId>();
+        idToPage = new ConcurrentHashMap<PageId, Page>();
+        this.policy = policy;
+    }
+
+    /**
+     * A read of one page in progress. The thread that registers it in
+     * loading does the read; others wait on it and then look the page up
+     * again. A load completed with null (or failed) makes waiters retry.
+     */
+    static class Load extends FutureTask<Page> {
+        Load() {
+            super(new Callable<Page>() {
+                public Page call() {
+                    return null;
+                }
+            });
+        }
+
+        void complete(Page page) {
+            set(page);
+        }
+
+        void fail(Throwable t) {
+            setException(t);
+        }
+
+        void await() throws DbException {
+            try {
+                get();
+            } catch (InterruptedException e) {
+                throw new DbException("interrupted waiting for a page read");
+            } catch (ExecutionException e) {
+                // the reader failed; the caller retries and sees the error itself
+            }
+        }
     }
 
     /**
@@ -52,23 +186,242 @@ public class BufferPool {
      * @param pid the ID of the requested page
      * @param perm the requested permissions on the page
      */
-    public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
         // some code goes here
-        if (idToPage.get(pid) != null)
-            return idToPage.get(pid);
-        //page doesn't exist. need to create if room.
-        if (idToPage.size() >= maxPages) {
-            evictPage();
+        return fetch(tid, pid, perm, false);
+    }
+
+    /**
+     * Like {@link #getPage}, but also pins the page: it will not be evicted
+     * until {@link #unpinPage} has been called once for every pinPage call.
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return fetch(tid, pid, perm, true);
+    }
+
+    /** Releases one pin on pid taken by {@link #pinPage}. */
+    public synchronized void unpinPage(PageId pid) {
+        Integer count = pins.get(pid);
+        if (count == null)
+            return;
+        if (count <= 1)
+            pins.remove(pid);
+        else
+            pins.put(pid, count - 1);
+    }
+
+    private Page fetch(TransactionId tid, PageId pid, Permissions perm, boolean pin)
+        throws TransactionAbortedException, DbException {
+        if (tid != null)
+            lockManager.acquire(tid, pid, perm == Permissions.READ_WRITE);
+        while (true) {
+            Page cached = idToPage.get(pid);
+            if (cached != null) {
+                if (pin) {
+                    synchronized (this) {
+                        // it may have been evicted since we looked
+                        if (idToPage.get(pid) == cached) {
+                            hit(pid);
+                            pin(pid);
+                            return cached;
+                        }
+                    }
+                } else if (idToPage.get(pid) == cached) {
+                    hit(pid);
+                    return cached;
+                }
+                continue;
+            }
+
+            Load load = new Load();
+            Load running = loading.putIfAbsent(pid, load);
+            if (running != null) {
+                running.await();
+                continue;
+            }
+            try {
+                if (idToPage.containsKey(pid))
+                    continue; // installed between our lookup and our claim
+                misses.incrementAndGet();
+                DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+                Page requestPage = file.readPage(pid);
+                synchronized (this) {
+                    drainAccesses();
+                    //page doesn't exist. need to create if room.
+                    if (idToPage.size() >= maxPages)
+                        evictPage();
+                    idToPage.put(pid, requestPage);
+                    policy.pageLoaded(pid);
+                    if (pin)
+                        pin(pid);
+                }
+                return requestPage;
+            } catch (DbException e) {
+                load.fail(e);
+                throw e;
+            } catch (RuntimeException e) {
+                load.fail(e);
+                throw e;
+            } finally {
+                loading.remove(pid, load);
+                load.complete(null);
+            }
+        }
+    }
+
+    /**
+     * Counts a hit on pid and queues it for the replacement policy, without
+     * taking the pool's lock unless ACCESS_BATCH hits are queued.
+     */
+    private void hit(PageId pid) {
+        hits.incrementAndGet();
+        if (prefetched.remove(pid))
+            prefetchHits.incrementAndGet();
+        accessed.add(pid);
+        if (pendingAccesses.incrementAndGet() == ACCESS_BATCH)
+            drainAccesses();
+    }
+
+    /**
+     * Tells the policy about the queued hits, in the order they happened.
+     * Hits on pages that have left the pool since are dropped.
+     */
+    private synchronized void drainAccesses() {
+        PageId pid;
+        while ((pid = accessed.poll()) != null) {
+            pendingAccesses.decrementAndGet();
+            if (idToPage.containsKey(pid))
+                policy.pageAccessed(pid);
+        }
+    }
+
+    private synchronized void pin(PageId pid) {
+        Integer count = pins.get(pid);
+        pins.put(pid, count == null ? 1 : count + 1);
+    }
+
+    /** Return true if the specified page is currently in the buffer pool */
+    public boolean isCached(PageId pid) {
+        return idToPage.containsKey(pid);
+    }
+
+    /**
+     * Returns true if a prefetcher should not add pages right now: enough
+     * prefetched pages are still waiting to be read, or the pool is full and
+     * making room would mean evicting a dirty or still-unread page.
+     */
+    public synchronized boolean underPrefetchPressure() {
+        if (prefetched.size() >= Math.max(1, maxPages / 4))
+            return true;
+        if (idToPage.size() < maxPages)
+            return false;
+        // asking the policy for a victim would move its state (e.g. the
+        // clock hand) on every poll, so look for an evictable page directly
+        for (PageId pid : idToPage.keySet()) {
+            if (cleanAndRead.evictable(pid))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Marks the given pages as being read by a prefetcher, so that getPage
+     * waits for the prefetched copy instead of reading them a second time.
+     * Pages already cached or already claimed are left out.
+     *
+     * @return the pages claimed; the caller must pass each of them to
+     *         installPrefetched or releasePrefetched
+     */
+    public List<PageId> claimForPrefetch(List<PageId> pids) {
+        List<PageId> claimed = new ArrayList<PageId>();
+        for (PageId pid : pids) {
+            if (idToPage.containsKey(pid))
+                continue;
+            Load load = new Load();
+            if (loading.putIfAbsent(pid, load) != null)
+                continue;
+            if (idToPage.containsKey(pid)) {
+                loading.remove(pid, load);
+                load.complete(null);
+                continue;
+            }
+            claimed.add(pid);
+        }
+        return claimed;
+    }
+
+    /** Gives up claims taken by claimForPrefetch without installing pages. */
+    public void releasePrefetched(List<PageId> pids) {
+        for (PageId pid : pids) {
+            Load load = loading.remove(pid);
+            if (load != null)
+                load.complete(null);
         }
-        Catalog catalog = Database.getCatalog(); //grab instance catalog
-        DbFile file = catalog.getDbFile(pid.getTableId());
-        Page requestPage = file.readPage(pid);
-        idToPage.put(pid, requestPage);
-        //remove old one if exists then add to front as recently used.
-        lru.removeFirstOccurrence(pid);
-        lru.addFirst(pid);
-        return requestPage;
+    }
+
+    /**
+     * Adds pages read ahead of a scan to the buffer pool and releases their
+     * claims. Pages already in the pool are left alone. Stops, returning
+     * false, as soon as the pool is under pressure (see
+     * {@link #underPrefetchPressure}) or if file was written since the pages
+     * were read, in which case they may be stale.
+     *
+     * @param file the file the pages were read from
+     * @param version file.writeCount() taken before the pages were read
+     * @param pages the pages read
+     * @return true if every page was installed or already present
+     */
+    public synchronized boolean installPrefetched(HeapFile file, long version,
+            List<Page> pages) {
+        try {
+            if (file.writeCount() != version)
+                return false;
+            drainAccesses();
+            for (Page page : pages) {
+                PageId pid = page.getId();
+                if (idToPage.containsKey(pid))
+                    continue;
+                if (prefetched.size() >= Math.max(1, maxPages / 4))
+                    return false;
+                if (idToPage.size() >= maxPages) {
+                    PageId victim = policy.chooseVictim(cleanAndRead);
+                    if (victim == null)
+                        return false;
+                    evict(victim);
+                }
+                idToPage.put(pid, page);
+                policy.pageLoaded(pid);
+                prefetched.add(pid);
+            }
+            return true;
+        } finally {
+            List<PageId> pids = new ArrayList<PageId>();
+            for (Page page : pages)
+                pids.add(page.getId());
+            releasePrefetched(pids);
+        }
+    }
+
+    /** Returns the number of getPage calls that found the page cached. */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /** Returns the number of getPage calls that had to read the page. */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /** Returns the number of prefetched pages that were later requested. */
+    public long getPrefetchHits() {
+        return prefetchHits.get();
+    }
+
+    /** Returns the number of prefetched pages evicted without being requested. */
+    public long getPrefetchWasted() {
+        return prefetchWasted.get();
     }
 
     /**
@@ -83,6 +436,7 @@ public class BufferPool {
     public  void releasePage(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for proj1
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -93,13 +447,29 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for proj1
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
         // not necessary for proj1
-        return false;
+        return lockManager.holdsLock(tid, p);
+    }
+
+    /** Returns the number of lock requests that had to wait for another transaction. */
+    public long getLockWaitCount() {
+        return lockManager.getWaitCount();
+    }
+
+    /** Returns the number of transactions aborted because of a deadlock. */
+    public long getDeadlockAbortCount() {
+        return lockManager.getAbortCount();
+    }
+
+    /** Returns the number of pages that are locked or being waited for. */
+    public int getLockTableSize() {
+        return lockManager.getLockTableSize();
     }
 
     /**
@@ -113,6 +483,109 @@ public class BufferPool {
         throws IOException {
         // some code goes here
         // not necessary for proj1
+        try {
+            if (commit) {
+                Set<DbFile> written = filesDirtiedBy(tid);
+                // appended pages first, so pages of them that tid has
+                // changed since are overwritten by the flush
+                finishAppends(tid, true);
+                flushPages(tid);
+                synchronized (this) {
+                    stolen.remove(tid);
+                }
+                for (DbFile file : written) {
+                    if (file instanceof HeapFile)
+                        ((HeapFile) file).saveMaps();
+                }
+            } else {
+                synchronized (this) {
+                    for (Page page : idToPage.values()) {
+                        if (page.isDirty() != null && page.isDirty().equals(tid)) {
+                            discardPage(page.getId());
+                            DbFile file = Database.getCatalog().getDbFile(
+                                    page.getId().getTableId());
+                            if (file instanceof HeapFile)
+                                ((HeapFile) file).pageDiscarded(page.getId());
+                        }
+                    }
+                    finishAppends(tid, false);
+                    restoreStolen(tid);
+                }
+            }
+        } finally {
+            lockManager.releaseAll(tid);
+        }
+    }
+
+    /**
+     * Returns the files of the pages in the pool that tid has dirtied, of
+     * those stolen from it and of the pages it has appended.
+     */
+    private synchronized Set<DbFile> filesDirtiedBy(TransactionId tid) {
+        HashSet<DbFile> files = new HashSet<DbFile>();
+        for (Page page : idToPage.values()) {
+            if (page.isDirty() != null && page.isDirty().equals(tid))
+                files.add(Database.getCatalog().getDbFile(
+                        page.getId().getTableId()));
+        }
+        Map<PageId, Page> written = stolen.get(tid);
+        if (written != null) {
+            for (PageId pid : written.keySet())
+                files.add(Database.getCatalog().getDbFile(pid.getTableId()));
+        }
+        Set<PageId> pages = appended.get(tid);
+        if (pages != null) {
+            for (PageId pid : pages)
+                files.add(Database.getCatalog().getDbFile(pid.getTableId()));
+        }
+        return files;
+    }
+
+    /**
+     * Locks pid exclusively for tid before tid appends it to its file
+     * without going through the pool, as HeapFile.insertTuples does. The
+     * page is remembered so that the file is told to write it when tid
+     * commits, or to throw it away if tid aborts.
+     */
+    public void lockAppendedPage(TransactionId tid, PageId pid)
+            throws TransactionAbortedException {
+        lockManager.acquire(tid, pid, true);
+        synchronized (this) {
+            Set<PageId> pages = appended.get(tid);
+            if (pages == null) {
+                pages = new LinkedHashSet<PageId>();
+                appended.put(tid, pages);
+            }
+            pages.add(pid);
+        }
+    }
+
+    /**
+     * Has the files tid appended pages to write them, if commit is true, or
+     * throw them away. Either way this happens before tid's locks on them
+     * are released.
+     */
+    private void finishAppends(TransactionId tid, boolean commit)
+            throws IOException {
+        HashSet<Integer> tables = new HashSet<Integer>();
+        synchronized (this) {
+            Set<PageId> pages = appended.remove(tid);
+            if (pages == null)
+                return;
+            for (PageId pid : pages) {
+                if (!commit)
+                    discardPage(pid);
+                tables.add(pid.getTableId());
+            }
+        }
+        // tid still holds its locks on the pages, so no one else uses them
+        for (int tableId : tables) {
+            HeapFile file = (HeapFile) Database.getCatalog().getDbFile(tableId);
+            if (commit)
+                file.commitAppends(tid);
+            else
+                file.abortAppends(tid);
+        }
     }
 
     /**
@@ -134,9 +607,7 @@ public class BufferPool {
         // some code goes here
         // not necessary for proj1
         Database.getCatalog().getDbFile(tableId).insertTuple(tid, t);
-        PageId pid = t.getRecordId().getPageId();
-        lru.removeFirstOccurrence(pid);
-        lru.addFirst(pid);
+        touch(t.getRecordId().getPageId());
     }
 
     /**
@@ -158,22 +629,50 @@ public class BufferPool {
         // not necessary for proj1
         PageId pid = t.getRecordId().getPageId();
         Database.getCatalog().getDbFile(pid.getTableId()).deleteTuple(tid, t);
-        lru.removeFirstOccurrence(pid);
-        lru.addFirst(pid);
+        touch(pid);
+    }
+
+    /** Tells the replacement policy that pid was just used. */
+    private synchronized void touch(PageId pid) {
+        drainAccesses();
+        if (idToPage.containsKey(pid))
+            policy.pageAccessed(pid);
     }
 
     /**
      * Flush all dirty pages to disk.
-     * NB: Be careful using this routine -- it writes dirty data to disk so will
-     *     break simpledb if running in NO STEAL mode.
+     * NB: Be careful using this routine -- it writes dirty data to disk, and
+     *     the pages are clean afterwards, so an abort cannot undo it.
      */
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for proj1
-        for (PageId pid : idToPage.keySet()) {
-            flushPage(pid);
+        // group the dirty pages by table so that a HeapFile can write
+        // adjacent pages with one call
+        HashMap<Integer, List<Page>> dirty = new HashMap<Integer, List<Page>>();
+        for (Page page : idToPage.values()) {
+            if (page.isDirty() == null)
+                continue;
+            int tableId = page.getId().getTableId();
+            List<Page> pages = dirty.get(tableId);
+            if (pages == null) {
+                pages = new ArrayList<Page>();
+                dirty.put(tableId, pages);
+            }
+            pages.add(page);
+        }
+        for (Map.Entry<Integer, List<Page>> e : dirty.entrySet()) {
+            DbFile file = Database.getCatalog().getDbFile(e.getKey());
+            if (file instanceof HeapFile) {
+                ((HeapFile) file).writePages(e.getValue());
+            } else {
+                for (Page page : e.getValue())
+                    file.writePage(page);
+            }
+            // only once they are on disk, so a failed write leaves them dirty
+            for (Page page : e.getValue())
+                page.markDirty(false, null);
         }
-
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -184,6 +683,11 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
         // some code goes here
     // not necessary for proj1
+        if (idToPage.remove(pid) != null) {
+            policy.pageRemoved(pid);
+            prefetched.remove(pid);
+            pins.remove(pid);
+        }
     }
 
     /**
@@ -196,8 +700,8 @@ public class BufferPool {
         if (idToPage.containsKey(pid)) {
             Page page = idToPage.get(pid);
             DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
-            page.markDirty(false, null); // only need tid here if it is marking it dirty
             file.writePage(page);
+            page.markDirty(false, null); // only need tid here if it is marking it dirty
         }
         else {
             throw new IOException("Cannot find pid in bufferpool!");
@@ -210,25 +714,80 @@ public class BufferPool {
     public synchronized  void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for proj1
+        for (Page page : idToPage.values()) {
+            if (page.isDirty() != null && page.isDirty().equals(tid)) {
+                flushPage(page.getId());
+                // what is on disk now is what a later steal must restore
+                page.setBeforeImage();
+            }
+        }
     }
 
     /**
      * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Clean, unpinned pages are chosen first. Failing that, a dirty one is
+     * written out and its committed version kept, so that it can be put
+     * back if the transaction that dirtied it aborts.
      */
     private synchronized  void evictPage() throws DbException {
         // some code goes here
         // not necessary for proj1
-        PageId evictId = lru.removeLast();
-        Page evictPage = idToPage.get(evictId);
+        PageId evictId = policy.chooseVictim(unpinnedClean);
+        if (evictId == null)
+            evictId = policy.chooseVictim(unpinned);
+        if (evictId == null)
+            throw new DbException("all pages in the buffer pool are pinned");
+        Page page = idToPage.get(evictId);
+        if (page != null && page.isDirty() != null)
+            steal(page);
+        evict(evictId);
+    }
+
+    /**
+     * Writes out page, which a transaction that has not completed has
+     * dirtied, remembering the committed version the first time the page
+     * is stolen from that transaction.
+     */
+    private synchronized void steal(Page page) throws DbException {
+        TransactionId tid = page.isDirty();
+        Map<PageId, Page> pages = stolen.get(tid);
+        if (pages == null) {
+            pages = new HashMap<PageId, Page>();
+            stolen.put(tid, pages);
+        }
+        if (!pages.containsKey(page.getId()))
+            pages.put(page.getId(), page.getBeforeImage());
         try {
-            if (evictPage != null) {
-                if (evictPage.isDirty() != null) {
-                    flushPage(evictId);
-                }
-            } 
-        } catch (IOException e) {}
+            flushPage(page.getId());
+        } catch (IOException e) {
+            throw new DbException("cannot write out page " + page.getId()
+                    + ": " + e);
+        }
+    }
+
+    /**
+     * Writes back the committed versions of the pages stolen from tid, which
+     * is aborting, and drops any copies of them read since.
+     */
+    private synchronized void restoreStolen(TransactionId tid)
+            throws IOException {
+        Map<PageId, Page> pages = stolen.remove(tid);
+        if (pages == null)
+            return;
+        for (Page before : pages.values()) {
+            PageId pid = before.getId();
+            discardPage(pid);
+            DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+            file.writePage(before);
+        }
+    }
+
+    /** Removes pid, which must be clean, from the pool. */
+    private synchronized void evict(PageId evictId) {
         idToPage.remove(evictId);
+        policy.pageRemoved(evictId);
+        if (prefetched.remove(evictId))
+            prefetchWasted.incrementAndGet();
     }
 
 }
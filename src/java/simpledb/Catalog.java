@@ -156,12 +156,33 @@ public class Catalog {
     /** Delete all tables from the catalog */
     public void clear() {
         // some code goes here
+        for (Table table : tables.values()) {
+            if (table.dbFile instanceof HeapFile)
+                ((HeapFile) table.dbFile).close();
+            else if (table.dbFile instanceof BTreeFile)
+                ((BTreeFile) table.dbFile).close();
+            else if (table.dbFile instanceof HashFile)
+                ((HashFile) table.dbFile).close();
+        }
         tables.clear();
         idToNames.clear();
     }
 
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line has the form
+     * <tt>name (field type [pk], ...) [mmap|btree|hash [field]]</tt>;
+     * the optional trailing <tt>mmap</tt> makes the table's HeapFile read its
+     * pages through a memory mapping, <tt>btree</tt> stores the table in
+     * a BTreeFile keyed on its pk column (see {@link #loadBTree}), and
+     * <tt>hash</tt> stores it in a HashFile keyed on the given field, or on
+     * the pk column if none is given (see {@link #loadHash}).
+     * <p>
+     * A btree or hash table is copied out of <tt>name.dat</tt> the first
+     * time it is loaded and lives in its index file from then on. Changes
+     * to the table are not written back to <tt>name.dat</tt>, which is left
+     * as it was; removing the index file rebuilds the table from that stale
+     * copy, losing every change made since.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -199,11 +220,44 @@ public class Catalog {
                         }
                     }
                 }
+                boolean memoryMapped = false;
+                boolean btree = false;
+                String hashField = null;
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                if (options.length() > 0) {
+                    if (options.toLowerCase().equals("mmap"))
+                        memoryMapped = true;
+                    else if (options.toLowerCase().equals("btree"))
+                        btree = true;
+                    else if (options.split("\\s+")[0].toLowerCase().equals("hash")) {
+                        String[] words = options.split("\\s+");
+                        hashField = words.length > 1 ? words[1] : primaryKey;
+                    } else {
+                        System.out.println("Unknown table option " + options);
+                        System.exit(0);
+                    }
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File("./"+name + ".dat"), t);
-                addTable(tabHf, name, primaryKey);
+                if (btree) {
+                    int keyField = names.indexOf(primaryKey);
+                    if (keyField < 0) {
+                        System.out.println("Table " + name + " needs a pk column to be stored as a btree");
+                        System.exit(0);
+                    }
+                    addTable(loadBTree(name, t, keyField), name, primaryKey);
+                } else if (hashField != null) {
+                    int keyField = names.indexOf(hashField);
+                    if (keyField < 0) {
+                        System.out.println("Table " + name + " needs a pk column or a field name to be stored as a hash file");
+                        System.exit(0);
+                    }
+                    addTable(loadHash(name, t, keyField), name, primaryKey);
+                } else {
+                    HeapFile tabHf = new HeapFile(new File("./"+name + ".dat"), t, memoryMapped);
+                    addTable(tabHf, name, primaryKey);
+                }
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
@@ -214,5 +268,83 @@ public class Catalog {
             System.exit(0);
         }
     }
-}
 
+    /**
+     * Returns the BTreeFile ./name.btree of a table declared with the btree
+     * option. If that file is missing or empty and the table has a heap
+     * file ./name.dat, the tree is first bulk loaded from the heap file,
+     * sorted on the key field.
+     */
+    BTreeFile loadBTree(final String name, TupleDesc td, final int keyField)
+            throws IOException {
+        final BTreeFile tree = new BTreeFile(new File("./" + name + ".btree"),
+                td, keyField);
+        buildFromHeap(name, td, tree.getFile(), new IndexBuilder() {
+            public void build(TransactionId tid, HeapFile heap)
+                    throws DbException, IOException, TransactionAbortedException {
+                DbIterator sorted = new OrderBy(keyField, true,
+                        new SeqScan(tid, heap.getId(), name));
+                sorted.open();
+                tree.bulkLoad(sorted);
+                sorted.close();
+            }
+        });
+        return tree;
+    }
+
+    /**
+     * Returns the HashFile ./name.hash of a table declared with the hash
+     * option. If that file is missing or empty and the table has a heap
+     * file ./name.dat, the hash file is first bulk loaded from the heap
+     * file.
+     */
+    HashFile loadHash(final String name, TupleDesc td, int keyField)
+            throws IOException {
+        final HashFile hash = new HashFile(new File("./" + name + ".hash"), td,
+                keyField);
+        buildFromHeap(name, td, hash.getFile(), new IndexBuilder() {
+            public void build(TransactionId tid, HeapFile heap)
+                    throws DbException, IOException, TransactionAbortedException {
+                DbIterator scan = new SeqScan(tid, heap.getId(), name);
+                scan.open();
+                hash.bulkLoad(scan);
+                scan.close();
+            }
+        });
+        return hash;
+    }
+
+    /** Fills an empty index file from the heap file of its table. */
+    private interface IndexBuilder {
+        void build(TransactionId tid, HeapFile heap)
+                throws DbException, IOException, TransactionAbortedException;
+    }
+
+    /**
+     * Runs builder on the heap file ./name.dat of a table whose index file
+     * is missing or empty, if there is such a heap file. The heap file is
+     * registered in the catalog under name while builder runs, and removed
+     * and closed again afterwards. The heap file is only read, so it keeps
+     * the table as it was at this first load (see {@link #loadSchema}).
+     */
+    private void buildFromHeap(String name, TupleDesc td, File index,
+            IndexBuilder builder) throws IOException {
+        HeapFile heap = new HeapFile(new File("./" + name + ".dat"), td);
+        if (index.length() > 0 || !heap.getFile().exists())
+            return;
+        addTable(heap, name);
+        TransactionId tid = new TransactionId();
+        try {
+            builder.build(tid, heap);
+            Database.getBufferPool().transactionComplete(tid);
+        } catch (DbException e) {
+            throw new IOException("cannot build " + index + ": " + e);
+        } catch (TransactionAbortedException e) {
+            throw new IOException("cannot build " + index + ": " + e);
+        } finally {
+            tables.remove(name);
+            idToNames.remove(heap.getId());
+            heap.close();
+        }
+    }
+}
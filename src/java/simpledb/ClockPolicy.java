@@ -0,0 +1,68 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * CLOCK (second chance) replacement. Pages sit in a circular array of frames
+ * with a reference bit each; a hit only sets the bit, and the clock hand
+ * clears bits as it sweeps, evicting the first page whose bit is already
+ * clear.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    private final ArrayList<PageId> frames = new ArrayList<PageId>();
+    private final ArrayList<Boolean> referenced = new ArrayList<Boolean>();
+    private final HashMap<PageId, Integer> frameOf = new HashMap<PageId, Integer>();
+    private final ArrayDeque<Integer> freeFrames = new ArrayDeque<Integer>();
+    private int hand = 0;
+
+    public void pageLoaded(PageId pid) {
+        if (frameOf.containsKey(pid)) {
+            pageAccessed(pid);
+            return;
+        }
+        Integer frame = freeFrames.poll();
+        if (frame == null) {
+            frame = frames.size();
+            frames.add(pid);
+            referenced.add(Boolean.TRUE);
+        } else {
+            frames.set(frame, pid);
+            referenced.set(frame, Boolean.TRUE);
+        }
+        frameOf.put(pid, frame);
+    }
+
+    public void pageAccessed(PageId pid) {
+        Integer frame = frameOf.get(pid);
+        if (frame != null)
+            referenced.set(frame, Boolean.TRUE);
+    }
+
+    public void pageRemoved(PageId pid) {
+        Integer frame = frameOf.remove(pid);
+        if (frame != null) {
+            frames.set(frame, null);
+            referenced.set(frame, Boolean.FALSE);
+            freeFrames.push(frame);
+        }
+    }
+
+    public PageId chooseVictim(VictimFilter filter) {
+        int n = frames.size();
+        // two sweeps: the first may only clear reference bits
+        for (int i = 0; i < 2 * n; i++) {
+            int frame = hand;
+            hand = (hand + 1) % n;
+            PageId pid = frames.get(frame);
+            if (pid == null || !filter.evictable(pid))
+                continue;
+            if (referenced.get(frame)) {
+                referenced.set(frame, Boolean.FALSE);
+                continue;
+            }
+            return pid;
+        }
+        return null;
+    }
+}
@@ -22,6 +22,15 @@ public interface Field extends Serializable{
      */
     public boolean compare(Predicate.Op op, Field value);
 
+    /**
+     * Compare the value of this field object to the passed in value, which
+     * must have the same type, in one step.
+     * @param value The value to compare this Field to
+     * @return A negative number, zero, or a positive number as this Field is
+     * less than, equal to, or greater than value.
+     */
+    public int compareTo(Field value);
+
     /**
      * Returns the type of this field (see {@link Type#INT_TYPE} or {@link Type#STRING_TYPE}
      * @return type of this field
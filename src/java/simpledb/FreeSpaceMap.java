@@ -0,0 +1,155 @@
+package simpledb;
+
+import java.io.*;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap records, with one bit per page, which pages of a HeapFile
+ * have at least one free slot. Every tuple of a HeapFile has the same size,
+ * so "has a free slot" is all an insert needs to know about a page.
+ * <p>
+ * The map is kept in a sidecar file next to the heap file (see
+ * {@link #sidecarFor}) so free space left by deletes is found again after a
+ * restart. The sidecar remembers the length and modification time the heap
+ * file had when it was saved; if either has changed since, the sidecar is
+ * ignored and the caller rebuilds the map from the page headers.
+ * <p>
+ * The map is only a hint: a page marked free may have filled up since (for
+ * example if the transaction that deleted from it aborted), so callers must
+ * check the page itself and clear its bit when it turns out to be full.
+ */
+public class FreeSpaceMap {
+
+    private static final int MAGIC = 0x46534d31; // "FSM1"
+
+    private final File sidecar;
+    private final BitSet free = new BitSet();
+    private int numPages = 0;
+    // no page below hint has a free slot, so searches start here
+    private int hint = 0;
+    private boolean dirty = false;
+    // the heap file's length and modification time recorded in the sidecar
+    private long savedLength = -1;
+    private long savedModified = -1;
+
+    /**
+     * Creates an empty map, saved to and loaded from sidecar.
+     */
+    public FreeSpaceMap(File sidecar) {
+        this.sidecar = sidecar;
+    }
+
+    /** Returns the sidecar file used for the free-space map of heapFile. */
+    public static File sidecarFor(File heapFile) {
+        return new File(heapFile.getPath() + ".fsm");
+    }
+
+    /**
+     * Replaces the contents of this map with the saved sidecar, if it exists
+     * and was saved when heapFile had its current length and modification
+     * time.
+     *
+     * @return true if the sidecar was loaded, false if the map is still empty
+     */
+    public synchronized boolean load(File heapFile) {
+        if (!sidecar.exists())
+            return false;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(sidecar)));
+            try {
+                if (in.readInt() != MAGIC || in.readLong() != heapFile.length()
+                        || in.readLong() != heapFile.lastModified())
+                    return false;
+                savedLength = heapFile.length();
+                savedModified = heapFile.lastModified();
+                int pages = in.readInt();
+                byte[] bits = new byte[(pages + 7) / 8];
+                in.readFully(bits);
+                free.clear();
+                free.or(BitSet.valueOf(bits));
+                numPages = pages;
+                hint = 0;
+                dirty = false;
+                return true;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Saves this map to its sidecar if it, or the length or modification
+     * time of heapFile, changed since it was loaded or last saved. heapFile
+     * must not be written again before the next save, or the sidecar will
+     * be ignored by {@link #load}.
+     */
+    public synchronized void save(File heapFile) throws IOException {
+        long length = heapFile.length();
+        long modified = heapFile.lastModified();
+        if (!dirty && length == savedLength && modified == savedModified)
+            return;
+        File tmp = new File(sidecar.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeLong(length);
+            out.writeLong(modified);
+            out.writeInt(numPages);
+            byte[] bits = free.toByteArray();
+            byte[] padded = new byte[(numPages + 7) / 8];
+            System.arraycopy(bits, 0, padded, 0, Math.min(bits.length, padded.length));
+            out.write(padded);
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(sidecar)) {
+            sidecar.delete();
+            if (!tmp.renameTo(sidecar))
+                throw new IOException("cannot replace " + sidecar);
+        }
+        dirty = false;
+        savedLength = length;
+        savedModified = modified;
+    }
+
+    /** Returns the number of pages this map covers. */
+    public synchronized int numPages() {
+        return numPages;
+    }
+
+    /**
+     * Records whether page pgNo has a free slot, extending the map if pgNo
+     * is past its end. Pages skipped over by the extension are marked full.
+     */
+    public synchronized void set(int pgNo, boolean hasRoom) {
+        if (pgNo >= numPages) {
+            numPages = pgNo + 1;
+            dirty = true;
+        }
+        if (free.get(pgNo) == hasRoom)
+            return;
+        free.set(pgNo, hasRoom);
+        if (hasRoom && pgNo < hint)
+            hint = pgNo;
+        dirty = true;
+    }
+
+    /**
+     * Returns the lowest-numbered page marked as having a free slot, or -1
+     * if there is none. Searches resume where the last one stopped, so a run
+     * of inserts costs amortized constant time per insert.
+     */
+    public synchronized int findFree() {
+        int pgNo = free.nextSetBit(hint);
+        if (pgNo < 0 || pgNo >= numPages) {
+            hint = numPages;
+            return -1;
+        }
+        hint = pgNo;
+        return pgNo;
+    }
+}
@@ -0,0 +1,139 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * HashBucketPage holds tuples of one bucket of a {@link HashFile}, in no
+ * particular order. A bucket is a chain of pages: its first page, at the
+ * place {@link HashHeaderPage#bucketPage} gives, and then any overflow
+ * pages, linked through their next pointers. A free overflow page is
+ * empty, and its next pointer links the free list instead.
+ * <p>
+ * The format is the number of tuples as an int, the page number of the next
+ * page of the chain as an int (0 for the last), and the tuples, back to
+ * back.
+ */
+public class HashBucketPage extends HashPage {
+
+    private static final int HEADER_SIZE = 8;
+
+    final ArrayList<Tuple> tuples;
+    int next;
+
+    /**
+     * Create a bucket page of the HashFile in the Catalog from the bytes read
+     * from disk. Used by the recovery code in LogFile.
+     */
+    public HashBucketPage(HashPageId pid, byte[] data) throws IOException {
+        this(pid, data, fileOf(pid).getTupleDesc(), fileOf(pid).keyField());
+    }
+
+    /**
+     * Create a bucket page from the bytes read from disk.
+     *
+     * @throws IOException if data is not a bucket page
+     */
+    public HashBucketPage(HashPageId pid, byte[] data, TupleDesc td,
+            int keyField) throws IOException {
+        super(pid, td, keyField);
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int n = buf.getInt(0);
+        if (n < 0 || n > maxTuples(td))
+            throw new IOException("bad tuple count " + n + " on page "
+                    + pid.pageNumber());
+        next = buf.getInt(4);
+        tuples = new ArrayList<Tuple>(n + 1);
+        int offset = HEADER_SIZE;
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(td);
+            for (int j = 0; j < td.numFields(); j++) {
+                Type type = td.getFieldType(j);
+                t.setField(j, type.parse(data, offset));
+                offset += type.getLen();
+            }
+            t.setRecordId(new RecordId(pid, i));
+            tuples.add(t);
+        }
+        setBeforeImage();
+    }
+
+    /** @return the number of tuples of the given TupleDesc that fit on a page */
+    public static int maxTuples(TupleDesc td) {
+        return (BufferPool.PAGE_SIZE - HEADER_SIZE) / td.getSize();
+    }
+
+    /** @return the number of tuples on this page */
+    public int numTuples() {
+        return tuples.size();
+    }
+
+    /** @return the i-th tuple of this page */
+    public Tuple getTuple(int i) {
+        return tuples.get(i);
+    }
+
+    /** @return the page number of the next page of the bucket, or 0 */
+    public int getNext() {
+        return next;
+    }
+
+    void insertTuple(Tuple t) {
+        t.setRecordId(new RecordId(pid, tuples.size()));
+        tuples.add(t);
+    }
+
+    /**
+     * @return the index of a tuple on this page with the same field values
+     *   as t, or -1 if there is none
+     */
+    int find(Tuple t) {
+        Field key = t.getField(keyField);
+        for (int i = 0; i < tuples.size(); i++) {
+            Tuple u = tuples.get(i);
+            if (u.getField(keyField).equals(key)
+                    && BTreeLeafPage.sameFields(t, u))
+                return i;
+        }
+        return -1;
+    }
+
+    void removeTuple(int i) {
+        tuples.remove(i);
+        renumber(i);
+    }
+
+    /** Replaces the tuples of this page with the given ones. */
+    void setTuples(List<Tuple> ts) {
+        tuples.clear();
+        tuples.addAll(ts);
+        renumber(0);
+    }
+
+    /** Points the record ids of the tuples from index i on at their slots. */
+    void renumber(int i) {
+        for (; i < tuples.size(); i++)
+            tuples.get(i).setRecordId(new RecordId(pid, i));
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(
+                BufferPool.PAGE_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(tuples.size());
+            dos.writeInt(next);
+            for (Tuple t : tuples) {
+                for (int j = 0; j < td.numFields(); j++)
+                    t.getField(j).serialize(dos);
+            }
+            dos.write(new byte[BufferPool.PAGE_SIZE - dos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            // writing to memory does not fail
+            throw new IllegalStateException(e);
+        }
+        return baos.toByteArray();
+    }
+}
@@ -1,19 +1,63 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The HashEquiJoin operator joins two inputs on an equality predicate with
+ * a hybrid hash join.
+ * <p>
+ * The outer (build) input is split into NUM_PARTITIONS partitions by the
+ * hash of its join field. Partitions are kept in memory until the tuples
+ * held exceed the memory budget; then the largest partition is written to a
+ * {@link SpillFile}, as is every later build tuple that falls in it. The
+ * partitions still in memory are hashed, and the inner (probe) input is
+ * read once: tuples of in-memory partitions are joined straight away, the
+ * others are written to the probe-side spill file of their partition.
+ * Finally each spilled partition is joined by hashing its build file and
+ * scanning its probe file. A build partition that alone exceeds the budget
+ * is hashed a budget's worth at a time, with one scan of its probe file per
+ * chunk.
+ * <p>
+ * Memory is estimated as td.getSize() + ROW_OVERHEAD bytes per build tuple.
  */
 public class HashEquiJoin extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Memory budget used by the three-argument constructor, in bytes. */
+    public static final long DEFAULT_MEMORY_BYTES = 16L << 20;
+
+    /** Number of partitions the build input is split into. */
+    public static final int NUM_PARTITIONS = 16;
+
+    /** Estimated bytes of Java overhead per build tuple held in memory. */
+    static final int ROW_OVERHEAD = 64;
+
     private JoinPredicate pred;
     private DbIterator child1, child2;
     private TupleDesc comboTD;
-    transient private Tuple t1 = null;
+    private final long memoryBytes;
     transient private Tuple t2 = null;
 
+    // hash table for the partitions being probed
+    transient private HashMap<Field, ArrayList<Tuple>> table =
+            new HashMap<Field, ArrayList<Tuple>>();
+    transient private Iterator<Tuple> listIt = null;
+    // per partition: build- and probe-side spill files, null if in memory
+    transient private SpillFile[] buildSpill;
+    transient private SpillFile[] probeSpill;
+    // the spilled partition being joined in the second pass; NUM_PARTITIONS
+    // before the first pass has finished
+    transient private int partition;
+    transient private DbFileIterator buildChunk = null;
+    transient private DbFileIterator probeIt = null;
+
+    private int spilledPartitions = 0;
+    private long spilledBuildTuples = 0;
+    private long spilledProbeTuples = 0;
+    private long spillPages = 0;
+
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
@@ -26,9 +70,22 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_BYTES);
+    }
+
+    /**
+     * Constructor taking the memory budget for build-side tuples.
+     *
+     * @param memoryBytes
+     *            Approximate number of bytes of outer tuples to keep in
+     *            memory before spilling partitions to disk
+     */
+    public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            long memoryBytes) {
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.memoryBytes = memoryBytes;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -49,53 +106,168 @@ public class HashEquiJoin extends Operator {
     {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
-    
-    HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
-    public final static int MAP_SIZE = 20000;
-
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
-            if (list == null) {
-                list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
+
+    /** Returns the memory budget for build-side tuples, in bytes. */
+    public long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    /** Returns the number of partitions spilled to disk so far. */
+    public int getSpilledPartitions() {
+        return spilledPartitions;
+    }
+
+    /** Returns the number of outer tuples written to spill files so far. */
+    public long getSpilledBuildTuples() {
+        return spilledBuildTuples;
+    }
+
+    /** Returns the number of inner tuples written to spill files so far. */
+    public long getSpilledProbeTuples() {
+        return spilledProbeTuples;
+    }
+
+    /** Returns the number of pages written to spill files so far. */
+    public long getSpillPages() {
+        long pages = spillPages;
+        if (buildSpill != null) {
+            for (int i = 0; i < NUM_PARTITIONS; i++) {
+                if (buildSpill[i] != null)
+                    pages += buildSpill[i].numPages();
+                if (probeSpill[i] != null)
+                    pages += probeSpill[i].numPages();
             }
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
         }
-        return cnt > 0;
+        return pages;
+    }
 
+    private static int partitionOf(Field f) {
+        int h = f.hashCode();
+        h ^= (h >>> 16);
+        h ^= (h >>> 7);
+        return (h & 0x7fffffff) % NUM_PARTITIONS;
     }
 
+    private long rowBytes() {
+        return child1.getTupleDesc().getSize() + ROW_OVERHEAD;
+    }
+
+    private void add(Tuple t) {
+        Field key = t.getField(pred.getField1());
+        ArrayList<Tuple> list = table.get(key);
+        if (list == null) {
+            list = new ArrayList<Tuple>(2);
+            table.put(key, list);
+        }
+        list.add(t.materialize());
+    }
+
+    /**
+     * Reads the whole outer input, spilling partitions as needed, and hashes
+     * the partitions left in memory.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        buildSpill = new SpillFile[NUM_PARTITIONS];
+        probeSpill = new SpillFile[NUM_PARTITIONS];
+        ArrayList<ArrayList<Tuple>> parts = new ArrayList<ArrayList<Tuple>>();
+        for (int i = 0; i < NUM_PARTITIONS; i++)
+            parts.add(new ArrayList<Tuple>());
+        long rowBytes = rowBytes();
+        long inMemory = 0;
+        int residentParts = NUM_PARTITIONS;
+        try {
+            while (child1.hasNext()) {
+                Tuple t = child1.next();
+                int p = partitionOf(t.getField(pred.getField1()));
+                if (buildSpill[p] != null) {
+                    buildSpill[p].add(t);
+                    spilledBuildTuples++;
+                    continue;
+                }
+                parts.get(p).add(t.materialize());
+                inMemory += rowBytes;
+                // spill the largest partition, but always keep one in memory
+                while (inMemory > memoryBytes && residentParts > 1) {
+                    int victim = -1;
+                    for (int i = 0; i < NUM_PARTITIONS; i++) {
+                        if (buildSpill[i] == null && (victim < 0
+                                || parts.get(i).size() > parts.get(victim).size()))
+                            victim = i;
+                    }
+                    buildSpill[victim] = new SpillFile(child1.getTupleDesc());
+                    for (Tuple s : parts.get(victim))
+                        buildSpill[victim].add(s);
+                    spilledBuildTuples += parts.get(victim).size();
+                    inMemory -= parts.get(victim).size() * rowBytes;
+                    parts.set(victim, new ArrayList<Tuple>());
+                    spilledPartitions++;
+                    residentParts--;
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("cannot spill hash join partition: " + e);
+        }
+        table.clear();
+        for (ArrayList<Tuple> part : parts) {
+            for (Tuple t : part)
+                add(t);
+        }
+    }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        super.open();
+        start();
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        listIt = null;
+        buildChunk = null;
+        probeIt = null;
+        partition = NUM_PARTITIONS;
+        build();
+    }
+
+    /** Deletes the spill files and drops the hash table. */
+    private void reset() {
+        spillPages = getSpillPages();
+        if (buildSpill != null) {
+            for (int i = 0; i < NUM_PARTITIONS; i++) {
+                if (buildSpill[i] != null)
+                    buildSpill[i].delete();
+                if (probeSpill[i] != null)
+                    probeSpill[i].delete();
+            }
+        }
+        buildSpill = null;
+        probeSpill = null;
+        if (buildChunk != null)
+            buildChunk.close();
+        if (probeIt != null)
+            probeIt.close();
+        buildChunk = null;
+        probeIt = null;
+        table.clear();
+        listIt = null;
+        t2 = null;
     }
 
     public void close() {
         super.close();
         child2.close();
         child1.close();
-        this.t1=null;
-        this.t2=null;
-        this.listIt=null;
-        this.map.clear();
+        reset();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
         child2.rewind();
+        reset();
+        start();
     }
 
-    transient Iterator<Tuple> listIt = null;
-
     /**
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
@@ -114,8 +286,8 @@ public class HashEquiJoin extends Operator {
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
-    private Tuple processList() throws TransactionAbortedException, DbException {
-        t1 = listIt.next();
+    private Tuple processList() {
+        Tuple t1 = listIt.next();
 
         int td1n = t1.getTupleDesc().numFields();
         int td2n = t2.getTupleDesc().numFields();
@@ -127,37 +299,102 @@ public class HashEquiJoin extends Operator {
         for (int i = 0; i < td2n; i++)
             t.setField(td1n + i, t2.getField(i));
         return t;
-
     }
 
-
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
+        try {
+            while (true) {
+                if (listIt != null && listIt.hasNext())
+                    return processList();
+                listIt = null;
 
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
-
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
-
-            return processList();
+                if (partition == NUM_PARTITIONS) {
+                    // first pass: probe with the inner input
+                    if (child2.hasNext()) {
+                        t2 = child2.next();
+                        Field key = t2.getField(pred.getField2());
+                        int p = partitionOf(key);
+                        if (buildSpill[p] != null) {
+                            if (probeSpill[p] == null)
+                                probeSpill[p] = new SpillFile(child2.getTupleDesc());
+                            probeSpill[p].add(t2);
+                            spilledProbeTuples++;
+                        } else {
+                            ArrayList<Tuple> l = table.get(key);
+                            if (l != null)
+                                listIt = l.iterator();
+                        }
+                        continue;
+                    }
+                    partition = -1;
+                    if (!nextPartition())
+                        return null;
+                    continue;
+                }
 
+                // second pass: probe a spilled partition
+                if (probeIt.hasNext()) {
+                    t2 = probeIt.next();
+                    ArrayList<Tuple> l = table.get(t2.getField(pred.getField2()));
+                    if (l != null)
+                        listIt = l.iterator();
+                    continue;
+                }
+                if (loadChunk()) {
+                    probeIt.rewind();
+                    continue;
+                }
+                if (!nextPartition())
+                    return null;
+            }
+        } catch (IOException e) {
+            throw new DbException("cannot read hash join spill file: " + e);
         }
+    }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+    /**
+     * Moves the second pass on to the next spilled partition that has both
+     * build and probe tuples, and hashes the first chunk of its build file.
+     *
+     * @return false if there are no more partitions to join
+     */
+    private boolean nextPartition() throws DbException,
+            TransactionAbortedException, IOException {
+        if (buildChunk != null)
+            buildChunk.close();
+        if (probeIt != null)
+            probeIt.close();
+        buildChunk = null;
+        probeIt = null;
+        table.clear();
+        while (++partition < NUM_PARTITIONS) {
+            if (buildSpill[partition] == null || probeSpill[partition] == null)
+                continue;
+            buildChunk = buildSpill[partition].iterator();
+            buildChunk.open();
+            probeIt = probeSpill[partition].iterator();
+            probeIt.open();
+            if (loadChunk())
+                return true;
         }
+        return false;
+    }
 
-        return null;
+    /**
+     * Hashes up to a memory budget's worth of the current partition's build
+     * file, replacing the previous chunk.
+     *
+     * @return false if the build file has been read completely
+     */
+    private boolean loadChunk() throws DbException, TransactionAbortedException {
+        table.clear();
+        long rowBytes = rowBytes();
+        long bytes = 0;
+        while (buildChunk.hasNext() && (bytes == 0 || bytes + rowBytes <= memoryBytes)) {
+            add(buildChunk.next());
+            bytes += rowBytes;
+        }
+        return bytes > 0;
     }
 
     @Override
@@ -0,0 +1,493 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashFile is a DbFile that keeps its tuples in a linear hash table on one
+ * field, the key, bucketed by the key's {@link Field#hashCode}. Looking up
+ * the tuples with a given key reads the header and one bucket, plus the
+ * bucket's overflow pages, however large the file is; the tuples are in no
+ * useful order, so only equality lookups are supported. It suits equality
+ * filters and joins on wide string keys, which make a B+ tree deep.
+ * <p>
+ * Page 0 is a {@link HashHeaderPage}; every other page is a
+ * {@link HashBucketPage}. All pages are read and locked through the
+ * BufferPool, as for a HeapFile. Pages that were never written read as
+ * empty, so the file grows only as pages are flushed.
+ * <p>
+ * An insert into a bucket whose pages are all full links a new overflow
+ * page to it, and then splits the next bucket in turn, as in Litwin's
+ * linear hashing: the tuples of bucket split are divided between it and a
+ * new bucket, by one more bit of their hash. Overflow pages emptied by
+ * deletes or splits are unlinked and kept on a free list in the header for
+ * later overflows.
+ */
+public class HashFile implements IndexFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /** How full {@link #bulkLoad} fills the buckets. */
+    static final double BULK_LOAD_FILL = 0.75;
+
+    private final File file;
+    private final int fid;
+    private final TupleDesc td;
+    private final int keyField;
+    private final int bucketMax;
+
+    private transient RandomAccessFile raf = null;
+
+    /**
+     * Constructs a hash file backed by the specified file, keyed on the
+     * given field. An empty or missing file is an empty table.
+     *
+     * @param f the file that stores the on-disk backing store for this file
+     * @param td the schema of the tuples
+     * @param keyField the index of the field the tuples are hashed on
+     */
+    public HashFile(File f, TupleDesc td, int keyField) {
+        this(f, td, keyField, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Constructs a hash file whose pages hold at most maxEntries tuples, even
+     * if more would fit. Small limits give many buckets and overflow pages
+     * on few tuples, for testing.
+     *
+     * @throws IllegalArgumentException if maxEntries is less than 2
+     */
+    public HashFile(File f, TupleDesc td, int keyField, int maxEntries) {
+        if (maxEntries < 2)
+            throw new IllegalArgumentException("a hash page must hold at least 2 tuples");
+        if (keyField < 0 || keyField >= td.numFields())
+            throw new IllegalArgumentException("no key field " + keyField + " in " + td);
+        file = f;
+        fid = f.getAbsoluteFile().hashCode();
+        this.td = td;
+        this.keyField = keyField;
+        bucketMax = Math.min(maxEntries, HashBucketPage.maxTuples(td));
+        if (bucketMax < 2)
+            throw new IllegalArgumentException("tuples of " + td
+                    + " are too large for a hash page");
+    }
+
+    /** @return the File backing this HashFile on disk */
+    public File getFile() {
+        return file;
+    }
+
+    /** @return the index of the field this file is hashed on */
+    public int keyField() {
+        return keyField;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this HashFile: the hash code of the
+     * absolute name of its file, as for HeapFile.
+     */
+    public int getId() {
+        return fid;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of pages written to this file */
+    public int numPages() {
+        return (int) (file.length() / BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * A lookup reads the header, which stays cached, and the first page of
+     * one bucket.
+     */
+    public int searchDepth() {
+        return 1;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        byte[] data = HashPage.createEmptyPageData();
+        try {
+            readBytes(pid.pageNumber(), data);
+            return HashPage.create((HashPageId) pid, data, td, keyField);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("cannot read page "
+                    + pid.pageNumber() + " of " + file + ": " + e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writeBytes(page.getId().pageNumber(), page.getPageData());
+    }
+
+    /**
+     * Closes the file this HashFile keeps open for page I/O. It is reopened
+     * on the next read or write.
+     */
+    public synchronized void close() {
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                // nothing useful to do; the descriptor is gone either way
+            }
+            raf = null;
+        }
+    }
+
+    private synchronized RandomAccessFile raf() throws IOException {
+        if (raf == null)
+            raf = new RandomAccessFile(file, "rw");
+        return raf;
+    }
+
+    /** Reads page pgNo into data, leaving data zero if it was never written. */
+    private synchronized void readBytes(int pgNo, byte[] data) throws IOException {
+        RandomAccessFile in = raf();
+        long offset = (long) pgNo * BufferPool.PAGE_SIZE;
+        if (offset + data.length > in.length())
+            return;
+        in.seek(offset);
+        in.readFully(data);
+    }
+
+    private synchronized void writeBytes(int pgNo, byte[] data) throws IOException {
+        RandomAccessFile out = raf();
+        out.seek((long) pgNo * BufferPool.PAGE_SIZE);
+        out.write(data);
+    }
+
+    HashHeaderPage header(TransactionId tid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return (HashHeaderPage) Database.getBufferPool().getPage(tid,
+                new HashPageId(fid, 0), perm);
+    }
+
+    /** Returns bucket page pgNo, locked with perm. */
+    HashBucketPage bucket(TransactionId tid, int pgNo, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return (HashBucketPage) Database.getBufferPool().getPage(tid,
+                new HashPageId(fid, pgNo), perm);
+    }
+
+    private static void dirty(TransactionId tid, HashPage page,
+            Map<PageId, Page> dirtied) {
+        page.markDirty(true, tid);
+        dirtied.put(page.getId(), page);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tuple does not match the schema of " + file);
+        LinkedHashMap<PageId, Page> dirtied = new LinkedHashMap<PageId, Page>();
+        HashHeaderPage header = header(tid, Permissions.READ_ONLY);
+        int pgNo = header.bucketPage(header.bucketOf(t.getField(keyField)));
+        HashBucketPage page = bucket(tid, pgNo, Permissions.READ_ONLY);
+        while (page.numTuples() >= bucketMax && page.next != 0)
+            page = bucket(tid, page.next, Permissions.READ_ONLY);
+        page = bucket(tid, page.pid.pageNumber(), Permissions.READ_WRITE);
+        if (page.numTuples() < bucketMax) {
+            page.insertTuple(t);
+            dirty(tid, page, dirtied);
+        } else {
+            header = header(tid, Permissions.READ_WRITE);
+            HashBucketPage overflow = newOverflowPage(tid, header, dirtied);
+            page.next = overflow.pid.pageNumber();
+            dirty(tid, page, dirtied);
+            overflow.insertTuple(t);
+            splitBucket(tid, header, dirtied);
+        }
+        return new ArrayList<Page>(dirtied.values());
+    }
+
+    /**
+     * Returns an empty overflow page, locked READ_WRITE for tid: the first
+     * free one if there is one, otherwise a new page at the end of the file.
+     * The header must be locked READ_WRITE.
+     */
+    private HashBucketPage newOverflowPage(TransactionId tid,
+            HashHeaderPage header, Map<PageId, Page> dirtied)
+            throws DbException, TransactionAbortedException {
+        HashBucketPage page;
+        if (header.freeHead != 0) {
+            page = bucket(tid, header.freeHead, Permissions.READ_WRITE);
+            header.freeHead = page.next;
+        } else {
+            page = bucket(tid, header.endPage(), Permissions.READ_WRITE);
+            header.overflowPages++;
+        }
+        // a page past the end may hold what an aborted transaction wrote
+        page.setTuples(new ArrayList<Tuple>());
+        page.next = 0;
+        dirty(tid, header, dirtied);
+        dirty(tid, page, dirtied);
+        return page;
+    }
+
+    /** Puts overflow page on the free list. It must already be unlinked. */
+    private void freeOverflowPage(TransactionId tid, HashHeaderPage header,
+            HashBucketPage page, Map<PageId, Page> dirtied) {
+        page.setTuples(new ArrayList<Tuple>());
+        page.next = header.freeHead;
+        header.freeHead = page.pid.pageNumber();
+        dirty(tid, header, dirtied);
+        dirty(tid, page, dirtied);
+    }
+
+    /**
+     * Splits the next bucket in turn, moving the tuples that hash to the new
+     * bucket there. The header must be locked READ_WRITE.
+     */
+    private void splitBucket(TransactionId tid, HashHeaderPage header,
+            Map<PageId, Page> dirtied) throws DbException,
+            TransactionAbortedException {
+        int old = header.split;
+        ArrayList<HashBucketPage> chain = new ArrayList<HashBucketPage>();
+        for (int pgNo = header.bucketPage(old); pgNo != 0; ) {
+            HashBucketPage page = bucket(tid, pgNo, Permissions.READ_WRITE);
+            chain.add(page);
+            pgNo = page.next;
+        }
+        int added = header.addBucket();
+        dirty(tid, header, dirtied);
+
+        ArrayList<Tuple> stay = new ArrayList<Tuple>();
+        ArrayList<Tuple> move = new ArrayList<Tuple>();
+        for (HashBucketPage page : chain) {
+            for (Tuple t : page.tuples)
+                (header.bucketOf(t.getField(keyField)) == added ? move : stay).add(t);
+        }
+        fillChain(tid, header, chain, stay, dirtied);
+        ArrayList<HashBucketPage> fresh = new ArrayList<HashBucketPage>();
+        fresh.add(bucket(tid, header.bucketPage(added), Permissions.READ_WRITE));
+        fillChain(tid, header, fresh, move, dirtied);
+    }
+
+    /**
+     * Stores tuples in the bucket whose pages are chain, first page first,
+     * adding overflow pages if they do not fit and freeing the overflow
+     * pages left empty.
+     */
+    private void fillChain(TransactionId tid, HashHeaderPage header,
+            List<HashBucketPage> chain, List<Tuple> tuples,
+            Map<PageId, Page> dirtied) throws DbException,
+            TransactionAbortedException {
+        int pages = Math.max(1, (tuples.size() + bucketMax - 1) / bucketMax);
+        for (int i = 0; i < Math.max(pages, chain.size()); i++) {
+            if (i >= pages) {
+                freeOverflowPage(tid, header, chain.get(i), dirtied);
+                continue;
+            }
+            if (i == chain.size())
+                chain.add(newOverflowPage(tid, header, dirtied));
+            HashBucketPage page = chain.get(i);
+            int from = i * bucketMax;
+            page.setTuples(tuples.subList(from,
+                    Math.min(tuples.size(), from + bucketMax)));
+            page.next = 0;
+            if (i > 0)
+                chain.get(i - 1).next = page.pid.pageNumber();
+            dirty(tid, page, dirtied);
+        }
+    }
+
+    /**
+     * Deletes a tuple with the same field values as t. The record id of t
+     * is not used, since splits move tuples between pages.
+     *
+     * @return the page the tuple was deleted from
+     * @throws DbException if there is no such tuple
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        HashHeaderPage header = header(tid, Permissions.READ_ONLY);
+        int prev = 0;
+        int pgNo = header.bucketPage(header.bucketOf(t.getField(keyField)));
+        int i = -1;
+        while (pgNo != 0) {
+            HashBucketPage page = bucket(tid, pgNo, Permissions.READ_ONLY);
+            i = page.find(t);
+            if (i >= 0)
+                break;
+            prev = pgNo;
+            pgNo = page.next;
+        }
+        if (pgNo == 0)
+            throw new DbException("tuple " + t + " is not in " + file);
+
+        LinkedHashMap<PageId, Page> dirtied = new LinkedHashMap<PageId, Page>();
+        HashBucketPage page = bucket(tid, pgNo, Permissions.READ_WRITE);
+        page.removeTuple(i);
+        dirty(tid, page, dirtied);
+        if (page.numTuples() == 0 && prev != 0) {
+            // unlink the empty overflow page
+            HashBucketPage before = bucket(tid, prev, Permissions.READ_WRITE);
+            before.next = page.next;
+            dirty(tid, before, dirtied);
+            freeOverflowPage(tid, header(tid, Permissions.READ_WRITE), page,
+                    dirtied);
+        }
+        return page;
+    }
+
+    /**
+     * Returns an iterator over all tuples of this file, bucket by bucket.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new HashFileIterator(tid, this, null);
+    }
+
+    /** @return true for EQUALS only */
+    public boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS;
+    }
+
+    /**
+     * Returns an iterator over the tuples whose key equals value. Only the
+     * pages of the bucket of value are read.
+     *
+     * @throws IllegalArgumentException if op is not EQUALS
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op,
+            Field value) {
+        if (!supports(op))
+            throw new IllegalArgumentException("a hash file cannot search for "
+                    + op);
+        return new HashFileIterator(tid, this, value);
+    }
+
+    /**
+     * Fills this file, which must be empty, with the tuples of it, which
+     * must be open. It is read twice: once to count the tuples, so that the
+     * file can be given enough buckets to fill them to BULK_LOAD_FILL, and
+     * once to store them. The second pass is sorted on bucket number with an
+     * OrderBy, which spills to disk past its memory budget, so each bucket
+     * is written out, overflow pages and all, as soon as its last tuple has
+     * been read, and only one page is held in memory at a time. The pages
+     * are written straight to disk without going through the BufferPool or
+     * taking locks, so this is only meant for building a file before it is
+     * used, as Catalog does.
+     *
+     * @return the number of tuples loaded
+     * @throws DbException if the file is not empty
+     */
+    public synchronized int bulkLoad(DbIterator it) throws DbException,
+            IOException, TransactionAbortedException {
+        if (file.length() > 0)
+            throw new DbException("cannot bulk load " + file
+                    + ", which is not empty");
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.rewind();
+
+        HashHeaderPage header = new HashHeaderPage(new HashPageId(fid, 0),
+                HashPage.createEmptyPageData(), td, keyField);
+        int buckets = (int) Math.ceil(count / (BULK_LOAD_FILL * bucketMax));
+        while (header.numBuckets() < buckets)
+            header.addBucket();
+        DbIterator sorted = new OrderBy(td.numFields(), true,
+                new BucketTagger(it, header, keyField));
+        sorted.open();
+        try {
+            HashBucketPage page = null;
+            int bucket = -1;
+            while (sorted.hasNext()) {
+                Tuple tagged = sorted.next();
+                int b = ((IntField) tagged.getField(td.numFields())).getValue();
+                if (b != bucket) {
+                    if (page != null)
+                        writeBytes(page.pid.pageNumber(), page.getPageData());
+                    page = emptyBucketPage(header.bucketPage(b));
+                    bucket = b;
+                }
+                if (page.numTuples() == bucketMax) {
+                    // overflow pages go after all the buckets
+                    int pgNo = header.endPage();
+                    header.overflowPages++;
+                    page.next = pgNo;
+                    writeBytes(page.pid.pageNumber(), page.getPageData());
+                    page = emptyBucketPage(pgNo);
+                }
+                Tuple t = new Tuple(td);
+                for (int i = 0; i < td.numFields(); i++)
+                    t.setField(i, tagged.getField(i));
+                page.insertTuple(t);
+            }
+            if (page != null)
+                writeBytes(page.pid.pageNumber(), page.getPageData());
+        } finally {
+            sorted.close();
+        }
+        writeBytes(0, header.getPageData());
+        return count;
+    }
+
+    /**
+     * Appends to each tuple of an already open child an int field holding
+     * the bucket of header its key belongs in, so that bulkLoad can sort
+     * the tuples by bucket. The tuples it returns are copies that do not
+     * refer to the child's pages. Opening and closing it leave the child
+     * alone.
+     */
+    private static class BucketTagger extends Operator {
+
+        private static final long serialVersionUID = 1L;
+        private DbIterator child;
+        private final transient HashHeaderPage header;
+        private final int keyField;
+        private final TupleDesc td;
+
+        BucketTagger(DbIterator child, HashHeaderPage header, int keyField) {
+            this.child = child;
+            this.header = header;
+            this.keyField = keyField;
+            td = TupleDesc.merge(child.getTupleDesc(),
+                    new TupleDesc(new Type[] { Type.INT_TYPE }));
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+        }
+
+        protected Tuple fetchNext() throws DbException,
+                TransactionAbortedException {
+            if (!child.hasNext())
+                return null;
+            Tuple t = child.next();
+            int n = td.numFields() - 1;
+            Tuple tagged = new Tuple(td);
+            for (int i = 0; i < n; i++)
+                tagged.setField(i, t.getField(i));
+            tagged.setField(n, new IntField(header.bucketOf(t.getField(keyField))));
+            return tagged;
+        }
+
+        @Override
+        public DbIterator[] getChildren() {
+            return new DbIterator[] { child };
+        }
+
+        @Override
+        public void setChildren(DbIterator[] children) {
+            child = children[0];
+        }
+    }
+
+    private HashBucketPage emptyBucketPage(int pgNo) throws IOException {
+        return new HashBucketPage(new HashPageId(fid, pgNo),
+                HashPage.createEmptyPageData(), td, keyField);
+    }
+}
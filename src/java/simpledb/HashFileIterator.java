@@ -0,0 +1,99 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * HashFileIterator returns the tuples of a {@link HashFile}: all of them,
+ * bucket by bucket, or only those with a given key, which are all in the
+ * key's bucket.
+ * <p>
+ * The tuples of each page, and its next pointer, are copied when the
+ * iterator reaches it, so its transaction may delete tuples it has already
+ * returned, as Delete does, even if that frees the page.
+ */
+public class HashFileIterator implements DbFileIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final HashFile file;
+    private final Field key;
+
+    private boolean open = false;
+    // the bucket being read and the number of buckets to read
+    private int bucket;
+    private int buckets;
+    private HashHeaderPage header;
+    // the next page of the current bucket, or 0 at its end
+    private int next;
+    private ArrayList<Tuple> buffer;
+    private int pos;
+
+    /**
+     * Constructor. A null key returns every tuple of the file.
+     */
+    public HashFileIterator(TransactionId tid, HashFile file, Field key) {
+        this.tid = tid;
+        this.file = file;
+        this.key = key;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        header = file.header(tid, Permissions.READ_ONLY);
+        if (key == null) {
+            bucket = 0;
+            buckets = header.numBuckets();
+        } else {
+            bucket = header.bucketOf(key);
+            buckets = bucket + 1;
+        }
+        next = header.bucketPage(bucket);
+        buffer = new ArrayList<Tuple>();
+        pos = 0;
+        open = true;
+    }
+
+    private void load(int pgNo) throws DbException, TransactionAbortedException {
+        HashBucketPage page = file.bucket(tid, pgNo, Permissions.READ_ONLY);
+        next = page.getNext();
+        buffer = new ArrayList<Tuple>(page.numTuples());
+        for (int i = 0; i < page.numTuples(); i++) {
+            Tuple t = page.getTuple(i);
+            if (key == null || t.getField(file.keyField()).equals(key))
+                buffer.add(t);
+        }
+        pos = 0;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (!open)
+            return false;
+        while (pos >= buffer.size()) {
+            if (next == 0) {
+                if (++bucket >= buckets)
+                    return false;
+                next = header.bucketPage(bucket);
+            }
+            load(next);
+        }
+        return true;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return buffer.get(pos++);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        open = false;
+        buffer = null;
+        header = null;
+    }
+}
@@ -0,0 +1,127 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * HashHeaderPage is page 0 of every {@link HashFile}. It holds the state of
+ * the linear hashing scheme: the file has 2^level + split buckets, the
+ * buckets before split having already been split with one more bit of the
+ * hash. It also counts the overflow pages and heads the list of overflow
+ * pages freed by deletes.
+ * <p>
+ * Bucket pages are allocated a generation at a time: bucket 0, then bucket
+ * 1, then buckets 2 and 3, 4 to 7 and so on, each generation in one run of
+ * pages placed after the overflow pages allocated before it. spares[g]
+ * records how many overflow pages precede generation g, so the page of any
+ * bucket follows from its number without a directory.
+ * <p>
+ * The format is level, split, the number of overflow pages, the first free
+ * overflow page (0 for none) and the 32 entries of spares, all ints. A page
+ * of zeros is the header of a file with one empty bucket.
+ */
+public class HashHeaderPage extends HashPage {
+
+    private static final int GENERATIONS = 32;
+
+    int level;
+    int split;
+    int overflowPages;
+    int freeHead;
+    final int[] spares = new int[GENERATIONS];
+
+    /**
+     * Create the header page of the HashFile in the Catalog from the bytes
+     * read from disk. Used by the recovery code in LogFile.
+     */
+    public HashHeaderPage(HashPageId pid, byte[] data) throws IOException {
+        this(pid, data, fileOf(pid).getTupleDesc(), fileOf(pid).keyField());
+    }
+
+    /**
+     * Create a header page from the bytes read from disk.
+     *
+     * @throws IOException if data is not a header page
+     */
+    public HashHeaderPage(HashPageId pid, byte[] data, TupleDesc td,
+            int keyField) throws IOException {
+        super(pid, td, keyField);
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        level = buf.getInt();
+        split = buf.getInt();
+        overflowPages = buf.getInt();
+        freeHead = buf.getInt();
+        for (int g = 0; g < GENERATIONS; g++)
+            spares[g] = buf.getInt();
+        if (level < 0 || level >= GENERATIONS - 1 || split < 0
+                || split >= (1 << level) || overflowPages < 0)
+            throw new IOException("page " + pid.pageNumber()
+                    + " is not a hash file header page");
+        setBeforeImage();
+    }
+
+    /** @return the hash of key that picks its bucket */
+    static int hash(Field key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /** @return the number of buckets in the file */
+    public int numBuckets() {
+        return (1 << level) + split;
+    }
+
+    /** @return the bucket the tuples with the given key belong in */
+    public int bucketOf(Field key) {
+        int h = hash(key);
+        int b = h & ((1 << level) - 1);
+        if (b < split)
+            b = h & ((1 << (level + 1)) - 1);
+        return b;
+    }
+
+    /** @return the page number of the first page of bucket b */
+    public int bucketPage(int b) {
+        int g = 32 - Integer.numberOfLeadingZeros(b);
+        return 1 + b + spares[g];
+    }
+
+    /**
+     * @return the first page number past the bucket and overflow pages
+     *   allocated so far, where the next new overflow page goes
+     */
+    public int endPage() {
+        int allocated = split > 0 ? 1 << (level + 1) : 1 << level;
+        return 1 + allocated + overflowPages;
+    }
+
+    /**
+     * Adds bucket split + 2^level, to which the tuples of bucket split are
+     * to be rehashed, allocating a new generation of bucket pages if it is
+     * the first of its generation, and moves split on.
+     *
+     * @return the number of the new bucket
+     */
+    int addBucket() {
+        int b = split + (1 << level);
+        if (split == 0)
+            spares[level + 1] = overflowPages;
+        split++;
+        if (split == 1 << level) {
+            level++;
+            split = 0;
+        }
+        return b;
+    }
+
+    public byte[] getPageData() {
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+        buf.putInt(level);
+        buf.putInt(split);
+        buf.putInt(overflowPages);
+        buf.putInt(freeHead);
+        for (int g = 0; g < GENERATIONS; g++)
+            buf.putInt(spares[g]);
+        return buf.array();
+    }
+}
@@ -0,0 +1,77 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * HashPage holds what the pages of a {@link HashFile} have in common. Page 0
+ * is always the {@link HashHeaderPage} and every other page a
+ * {@link HashBucketPage}, so unlike B+ tree pages these carry no type byte:
+ * a page of zeros is a valid empty page of either kind, which lets a hash
+ * file read pages it has not written yet.
+ */
+public abstract class HashPage implements Page {
+
+    final HashPageId pid;
+    final TupleDesc td;
+    final int keyField;
+    private volatile TransactionId dirtier = null;
+    byte[] oldData;
+
+    HashPage(HashPageId pid, TupleDesc td, int keyField) {
+        this.pid = pid;
+        this.td = td;
+        this.keyField = keyField;
+    }
+
+    /**
+     * Builds the page whose bytes are data: the header for page 0, a bucket
+     * page otherwise.
+     *
+     * @throws IOException if data is not a valid page
+     */
+    public static HashPage create(HashPageId pid, byte[] data, TupleDesc td,
+            int keyField) throws IOException {
+        if (pid.pageNumber() == 0)
+            return new HashHeaderPage(pid, data, td, keyField);
+        return new HashBucketPage(pid, data, td, keyField);
+    }
+
+    /**
+     * Returns the bytes of an empty page: a header of a file with one empty
+     * bucket, or a bucket page with no tuples and no overflow page.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.PAGE_SIZE];
+    }
+
+    /** Returns the HashFile pid belongs to, from the catalog. */
+    static HashFile fileOf(HashPageId pid) {
+        return (HashFile) Database.getCatalog().getDbFile(pid.getTableId());
+    }
+
+    public HashPageId getId() {
+        return pid;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    /** Return a view of this page before it was modified -- used by recovery */
+    public Page getBeforeImage() {
+        try {
+            return create(pid, oldData, td, keyField);
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData().clone();
+    }
+}
@@ -0,0 +1,69 @@
+package simpledb;
+
+/**
+ * Unique identifier for the pages of a {@link HashFile}. Page 0 of every
+ * HashFile is its {@link HashHeaderPage}; every other page is a
+ * {@link HashBucketPage}.
+ */
+public class HashPageId implements PageId {
+
+    int tableId;
+    int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific hash file.
+     *
+     * @param tableId The table that is being referenced
+     * @param pgNo The page number in that table.
+     */
+    public HashPageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the page number in the table getTableId() associated with
+     *   this PageId
+     */
+    public int pageNumber() {
+        return pgNo;
+    }
+
+    public int hashCode() {
+        return tableId * 31 + pgNo;
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @param o The object to compare against (must be a PageId)
+     * @return true if the objects are equal (e.g., page numbers and table
+     *   ids are the same)
+     */
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        HashPageId obj = (HashPageId) o;
+        return tableId == obj.tableId && pgNo == obj.pgNo;
+    }
+
+    public String toString() {
+        return "HashPageId(" + tableId + ", " + pgNo + ")";
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.
+     */
+    public int[] serialize() {
+        return new int[] { tableId, pgNo };
+    }
+}
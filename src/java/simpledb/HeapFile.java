@@ -4,6 +4,8 @@ import java.io.*;
 import java.util.*;
 import java.nio.*;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -21,7 +23,27 @@ public class HeapFile implements DbFile {
     private int fid;
     private TupleDesc td;
 
-    private HashMap<Integer, Boolean> freePages;
+    // which pages have a free slot; loaded or rebuilt on first insert/delete
+    private transient FreeSpaceMap freeSpace = null;
+    // per-page value ranges; loaded on first use, filled in as pages are read
+    private transient ZoneMap zones = null;
+    // end of the pages handed out by reservePages
+    private int reservedEnd = 0;
+    // pages insertTuples has appended for each transaction that has not
+    // committed yet; created on first use
+    private transient HashMap<TransactionId, StagedPages> staged = null;
+
+    /** Largest number of pages moved by one read or write in readPages/writePages. */
+    static final int MAX_RUN_PAGES = 64;
+
+    private boolean memoryMapped;
+    private transient RandomAccessFile raf = null;
+    private transient FileChannel channel = null;
+    private transient MappedByteBuffer mapped = null;
+    private transient int mappedPages = 0;
+
+    // bumped on every write, so that readers of stale page images can tell
+    private final AtomicLong writes = new AtomicLong();
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -31,13 +53,25 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally reading
+     * its pages through a memory mapping of the file instead of a fresh
+     * read on the file's channel.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param memoryMapped
+     *            true if readPage should build pages from a mapping of f
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped) {
         file = f;
         fid = f.getAbsoluteFile().hashCode();
         this.td = td;
-        this.freePages = new HashMap<Integer, Boolean>();
-        for (int i = 0; i < numPages(); i++) {
-            freePages.put(i, false);
-        }
+        this.memoryMapped = memoryMapped;
     }
 
     /**
@@ -76,23 +110,109 @@ public class HeapFile implements DbFile {
         return td;
     }
 
+    /**
+     * @return true if pages of this file are read through a memory mapping.
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
-        int offset = pid.pageNumber()*BufferPool.PAGE_SIZE;
+        Page page = readStagedPage(pid);
+        if (page != null)
+            return page;
+        if (memoryMapped)
+            return readMappedPage(pid);
+        long offset = (long) pid.pageNumber() * BufferPool.PAGE_SIZE;
         try {
-            RandomAccessFile raf = new RandomAccessFile(file, "rw");
-            FileChannel fc = raf.getChannel();
             ByteBuffer buffer = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
-            fc.read(buffer, offset);
-            HeapPage newPage = new HeapPage((HeapPageId) pid, buffer.array());
-            raf.close();
-            return newPage;
-        } catch (Exception e) {
-            System.out.println("READ PAGE ERROR");
-            System.out.println(e); // MAYBE CHANGE LATER
-        } 
-        return null;
+            readFully(buffer, offset);
+            return new HeapPage((HeapPageId) pid, buffer.array(), td);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("cannot read page "
+                    + pid.pageNumber() + " of " + file + ": " + e);
+        }
+    }
+
+    /**
+     * Reads several pages of this file. Pages with adjacent page numbers are
+     * read as one run, so each run costs a single positional read on the
+     * file's channel rather than one read per page. Subclasses that override
+     * readPage, memory-mapped files, and files with uncommitted appended
+     * pages get one readPage call per page.
+     *
+     * @param pids the pages to read; all must belong to this file
+     * @return the pages, in the same order as pids
+     * @throws IllegalArgumentException if one of the pages cannot be read
+     */
+    public List<Page> readPages(List<PageId> pids) {
+        Page[] pages = new Page[pids.size()];
+        if (getClass() != HeapFile.class || memoryMapped || hasStagedPages()) {
+            // honour subclasses' readPage; the mapping already holds the
+            // pages, or some may be staged
+            for (int i = 0; i < pages.length; i++)
+                pages[i] = readPage(pids.get(i));
+            return Arrays.asList(pages);
+        }
+        Integer[] order = sortedByPageNumber(pids.size(), pids, null);
+        int i = 0;
+        while (i < order.length) {
+            int run = runLength(order, i, pids, null);
+            int first = pids.get(order[i]).pageNumber();
+            try {
+                ByteBuffer buffer = ByteBuffer.allocate(run * BufferPool.PAGE_SIZE);
+                readFully(buffer, (long) first * BufferPool.PAGE_SIZE);
+                byte[] all = buffer.array();
+                for (int j = 0; j < run; j++) {
+                    byte[] data = new byte[BufferPool.PAGE_SIZE];
+                    System.arraycopy(all, j * BufferPool.PAGE_SIZE, data, 0,
+                            BufferPool.PAGE_SIZE);
+                    PageId pid = pids.get(order[i + j]);
+                    pages[order[i + j]] = new HeapPage((HeapPageId) pid, data, td);
+                }
+            } catch (IOException e) {
+                throw new IllegalArgumentException("cannot read pages " + first
+                        + ".." + (first + run - 1) + " of " + file + ": " + e);
+            }
+            i += run;
+        }
+        return Arrays.asList(pages);
+    }
+
+    /**
+     * Builds a page straight from the mapped region of the file. The file is
+     * mapped once and only remapped when a page past the end of the current
+     * mapping is requested (i.e. the file has grown since it was mapped).
+     */
+    private Page readMappedPage(PageId pid) {
+        int pgNo = pid.pageNumber();
+        try {
+            ByteBuffer region = mappedRegion(pgNo).duplicate();
+            region.position(pgNo * BufferPool.PAGE_SIZE);
+            byte[] data = new byte[BufferPool.PAGE_SIZE];
+            region.get(data);
+            return new HeapPage((HeapPageId) pid, data, td);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("cannot read page " + pgNo
+                    + " of " + file + ": " + e);
+        }
+    }
+
+    private synchronized MappedByteBuffer mappedRegion(int pgNo)
+            throws IOException {
+        if (mapped == null || pgNo >= mappedPages) {
+            FileChannel fc = channel();
+            int pages = (int) (fc.size() / BufferPool.PAGE_SIZE);
+            if (pgNo < 0 || pgNo >= pages)
+                throw new IllegalArgumentException("page " + pgNo
+                        + " does not exist in " + file);
+            mapped = fc.map(MapMode.READ_ONLY, 0,
+                    (long) pages * BufferPool.PAGE_SIZE);
+            mappedPages = pages;
+        }
+        return mapped;
     }
 
     // see DbFile.java for javadocs
@@ -100,21 +220,284 @@ public class HeapFile implements DbFile {
         // some code goes here
         // not necessary for proj1
         int pageNum = page.getId().pageNumber();
-        int offset = pageNum*BufferPool.PAGE_SIZE;
-        try {
-            RandomAccessFile raf = new RandomAccessFile(file, "rw");
-            FileChannel fc = raf.getChannel();
-            ByteBuffer buffer = ByteBuffer.wrap(page.getPageData());
-            fc.write(buffer, offset);
-        } catch (IOException e) {
-            System.out.println("WRITE PAGE ERROR");
-            System.out.println(e); // MAYBE CHANGE LATER
+        long offset = (long) pageNum * BufferPool.PAGE_SIZE;
+        writes.incrementAndGet();
+        writeFully(ByteBuffer.wrap(page.getPageData()), offset);
+        updateFreePages(page);
+        updateZones(page);
+    }
+
+    /**
+     * Writes several pages of this file. Pages with adjacent page numbers are
+     * gathered into one buffer and written with a single positional write.
+     * Subclasses that override writePage get one writePage call per page.
+     *
+     * @param pages the pages to write; all must belong to this file
+     * @throws IOException if a write fails
+     */
+    public void writePages(List<Page> pages) throws IOException {
+        if (getClass() != HeapFile.class) {
+            for (Page page : pages)
+                writePage(page);
+            return;
+        }
+        writes.incrementAndGet();
+        Integer[] order = sortedByPageNumber(pages.size(), null, pages);
+        int i = 0;
+        while (i < order.length) {
+            int run = runLength(order, i, null, pages);
+            int first = pages.get(order[i]).getId().pageNumber();
+            ByteBuffer buffer = ByteBuffer.allocate(run * BufferPool.PAGE_SIZE);
+            for (int j = 0; j < run; j++)
+                buffer.put(pages.get(order[i + j]).getPageData());
+            buffer.flip();
+            writeFully(buffer, (long) first * BufferPool.PAGE_SIZE);
+            for (int j = 0; j < run; j++) {
+                updateFreePages(pages.get(order[i + j]));
+                updateZones(pages.get(order[i + j]));
+            }
+            i += run;
+        }
+    }
+
+    /**
+     * Returns the number of writePage/writePages calls made on this file so
+     * far. A page read before and installed after a change of this count may
+     * be out of date.
+     */
+    public long writeCount() {
+        return writes.get();
+    }
+
+    /**
+     * Saves the free-space map and the zone map to their sidecars if they
+     * have changed. The buffer pool calls this when a transaction that wrote
+     * to this file commits, so the sidecars match the file after a restart.
+     */
+    public synchronized void saveMaps() {
+        if (freeSpace != null) {
+            try {
+                freeSpace.save(file);
+            } catch (IOException e) {
+                // the map is rebuilt from the page headers on the next open
+            }
+        }
+        if (zones != null) {
+            try {
+                zones.save(file);
+            } catch (IOException e) {
+                // pages are summarized again as scans read them
+            }
+        }
+    }
+
+    /**
+     * Closes the channel this file keeps open for page I/O, saving the
+     * free-space map and the zone map first if they have changed. The
+     * channel is reopened on the next read or write, so closing is always
+     * safe.
+     */
+    public synchronized void close() {
+        saveMaps();
+        mapped = null;
+        mappedPages = 0;
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                // nothing useful to do; the descriptor is gone either way
+            }
+            raf = null;
+            channel = null;
+        }
+    }
+
+    /**
+     * Returns the long-lived channel used for all page I/O on this file,
+     * opening it on first use. Positional reads and writes on a FileChannel
+     * are safe to issue from several threads at once.
+     */
+    private synchronized FileChannel channel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            raf = new RandomAccessFile(file, "rw");
+            channel = raf.getChannel();
+        }
+        return channel;
+    }
+
+    private void readFully(ByteBuffer buffer, long offset) throws IOException {
+        FileChannel fc = channel();
+        while (buffer.hasRemaining()) {
+            int n = fc.read(buffer, offset + buffer.position());
+            if (n < 0)
+                throw new EOFException("read past end of " + file);
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long offset) throws IOException {
+        FileChannel fc = channel();
+        while (buffer.hasRemaining())
+            fc.write(buffer, offset + buffer.position());
+    }
+
+    private void updateFreePages(Page page) {
+        FreeSpaceMap fsm;
+        synchronized (this) {
+            fsm = freeSpace;
+        }
+        if (fsm != null)
+            fsm.set(page.getId().pageNumber(),
+                    ((HeapPage) page).getNumEmptySlots() > 0);
+    }
+
+    /**
+     * Sets the zone map entry of a page that has just been written to the
+     * exact range of its tuples, dropping values deleted since it was last
+     * summarized.
+     */
+    private void updateZones(Page page) {
+        ZoneMap zm;
+        synchronized (this) {
+            zm = zones;
+        }
+        if (zm != null)
+            zm.summarize(page.getId().pageNumber(), (HeapPage) page);
+    }
+
+    /**
+     * Returns the zone map of this file, loading it from its sidecar on
+     * first use. Pages the sidecar does not cover are left unknown until a
+     * scan or a write summarizes them. Inserts and deletes load the map
+     * before they change the file, while the sidecar still matches it.
+     */
+    public synchronized ZoneMap zoneMap() {
+        if (zones != null)
+            return zones;
+        ZoneMap zm = new ZoneMap(ZoneMap.sidecarFor(file), td);
+        if (zm.load(file) && zm.numPages() > numPages())
+            zm = new ZoneMap(ZoneMap.sidecarFor(file), td);
+        zones = zm;
+        return zm;
+    }
+
+    /**
+     * Returns the free-space map of this file, loading it from its sidecar
+     * on first use. Pages the sidecar does not cover (or all pages, if there
+     * is no usable sidecar) are classified by reading their headers.
+     */
+    synchronized FreeSpaceMap freeSpace() throws IOException {
+        if (freeSpace != null)
+            return freeSpace;
+        FreeSpaceMap fsm = new FreeSpaceMap(FreeSpaceMap.sidecarFor(file));
+        int pages = numPages();
+        if (!fsm.load(file) || fsm.numPages() > pages)
+            fsm = new FreeSpaceMap(FreeSpaceMap.sidecarFor(file));
+        for (int i = fsm.numPages(); i < pages; i++)
+            fsm.set(i, headerHasFreeSlot(i));
+        freeSpace = fsm;
+        return fsm;
+    }
+
+    /**
+     * Returns true if the on-disk header of page pgNo has an unused slot.
+     * Only the header is read; the tuples are not decoded.
+     */
+    private boolean headerHasFreeSlot(int pgNo) throws IOException {
+        int numSlots = slotsPerPage();
+        ByteBuffer header = ByteBuffer.allocate((numSlots + 7) / 8);
+        readFully(header, (long) pgNo * BufferPool.PAGE_SIZE);
+        byte[] bits = header.array();
+        for (int i = 0; i < numSlots; i++) {
+            if ((bits[i >> 3] & (1 << (i & 7))) == 0)
+                return true;
         }
-        if (((HeapPage)page).getNumEmptySlots() > 0) {
-            freePages.put(pageNum, true);
-        } else {
-            freePages.put(pageNum, false);
+        return false;
+    }
+
+    /** Returns the number of tuples that fit on one page of this file. */
+    private int slotsPerPage() {
+        return (BufferPool.PAGE_SIZE * 8) / (td.getSize() * 8 + 1);
+    }
+
+    /**
+     * Called when the buffer pool throws away pid's in-memory image, as on
+     * abort. The on-disk page may have more room than the map says, so it is
+     * marked free again; the next insert that tries it checks for itself.
+     * Appended pages that never reached the file are left out of the map.
+     */
+    public void pageDiscarded(PageId pid) {
+        FreeSpaceMap fsm;
+        synchronized (this) {
+            fsm = freeSpace;
+        }
+        if (fsm != null && pid.pageNumber() < numPages())
+            fsm.set(pid.pageNumber(), true);
+    }
+
+    /**
+     * Appends an empty page to the end of the file and returns its number.
+     */
+    private int appendEmptyPage() throws IOException {
+        int pgNo = reservePages(1);
+        writeFully(ByteBuffer.wrap(HeapPage.createEmptyPageData()),
+                (long) pgNo * BufferPool.PAGE_SIZE);
+        writes.incrementAndGet();
+        freeSpace().set(pgNo, true);
+        zoneMap().clear(pgNo);
+        return pgNo;
+    }
+
+    /**
+     * Reserves n page numbers past the end of the file for the caller to
+     * write, so that concurrent appends never pick the same page.
+     *
+     * @return the first reserved page number
+     */
+    private synchronized int reservePages(int n) {
+        int first = Math.max(numPages(), reservedEnd);
+        reservedEnd = first + n;
+        return first;
+    }
+
+    /**
+     * Returns the indexes 0..n-1 of pids (or pages, if pids is null) sorted
+     * by page number.
+     */
+    private static Integer[] sortedByPageNumber(int n, final List<PageId> pids,
+            final List<Page> pages) {
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++)
+            order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return pageNumber(a, pids, pages) - pageNumber(b, pids, pages);
+            }
+        });
+        return order;
+    }
+
+    /**
+     * Returns the number of entries of order, starting at start, whose page
+     * numbers are consecutive, capped at MAX_RUN_PAGES.
+     */
+    private static int runLength(Integer[] order, int start,
+            List<PageId> pids, List<Page> pages) {
+        int run = 1;
+        int last = pageNumber(order[start], pids, pages);
+        while (start + run < order.length && run < MAX_RUN_PAGES) {
+            int next = pageNumber(order[start + run], pids, pages);
+            if (next != last + 1)
+                break;
+            last = next;
+            run++;
         }
+        return run;
+    }
+
+    private static int pageNumber(int i, List<PageId> pids, List<Page> pages) {
+        if (pids != null)
+            return pids.get(i).pageNumber();
+        return pages.get(i).getId().pageNumber();
     }
 
     /**
@@ -130,34 +513,270 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for proj1
-        RecordId rid = t.getRecordId();
-        HeapPageId pid = new HeapPageId(fid, this.numPages());
-        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
-        boolean foundFree = false;
-        for (int i = 0; i < this.numPages(); i++) {
-            if (freePages.get(i) == true) {
-                pid = new HeapPageId(fid, i);
-                page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-                foundFree = true;
-                break;
-            } 
+        FreeSpaceMap fsm = freeSpace();
+        ZoneMap zm = zoneMap();
+        while (true) {
+            int pgNo = fsm.findFree();
+            if (pgNo < 0)
+                pgNo = appendEmptyPage();
+            HeapPageId pid = new HeapPageId(fid, pgNo);
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                    pid, Permissions.READ_WRITE);
+            if (page.getNumEmptySlots() == 0) {
+                // the map was out of date; try the next candidate
+                fsm.set(pgNo, false);
+                continue;
+            }
+            page.insertTuple(t);
+            page.markDirty(true, tid);
+            fsm.set(pgNo, page.getNumEmptySlots() > 0);
+            zm.add(pgNo, t);
+
+            ArrayList<Page> changed = new ArrayList<Page>();
+            changed.add(page);
+            return changed;
         }
-        int pageNum = pid.pageNumber();
+    }
 
-        page.insertTuple(t);
-        page.markDirty(true,  tid);
+    /**
+     * Inserts every remaining tuple of tuples, which must already be open.
+     * Pages that have room are filled first, through the buffer pool, as
+     * insertTuple would. The rest of the tuples are packed into new pages
+     * in memory, MAX_RUN_PAGES pages at a time, and each batch is staged
+     * with a single sequential write to a scratch file of tid's.
+     * <p>
+     * Appended pages bypass the buffer pool: they are locked exclusively for
+     * tid, and the buffer pool has them written to this file, a batch per
+     * write, when tid commits, or thrown away if it aborts (see
+     * {@link BufferPool#lockAppendedPage}). Until then the heap file is
+     * unchanged, so a crash cannot leave them visible.
+     *
+     * @return the number of tuples inserted
+     */
+    public int insertTuples(TransactionId tid, DbIterator tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        FreeSpaceMap fsm = freeSpace();
+        ZoneMap zm = zoneMap();
+        int count = 0;
+        int pgNo;
+        while (tuples.hasNext() && (pgNo = fsm.findFree()) >= 0) {
+            HeapPageId pid = new HeapPageId(fid, pgNo);
+            HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+            int before = count;
+            while (page.getNumEmptySlots() > 0 && tuples.hasNext()) {
+                Tuple t = tuples.next();
+                page.insertTuple(t);
+                zm.add(pgNo, t);
+                count++;
+            }
+            if (count > before)
+                page.markDirty(true, tid);
+            fsm.set(pgNo, page.getNumEmptySlots() > 0);
+        }
+
+        int perPage = slotsPerPage();
+        ArrayList<Tuple> batch = new ArrayList<Tuple>();
+        while (tuples.hasNext()) {
+            batch.add(tuples.next());
+            if (batch.size() == perPage * MAX_RUN_PAGES) {
+                appendPages(tid, batch, perPage);
+                count += batch.size();
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            appendPages(tid, batch, perPage);
+            count += batch.size();
+        }
+        return count;
+    }
+
+    /**
+     * Packs batch into new pages, perPage tuples to a page, reserves page
+     * numbers for them past the current end of the file and stages them in
+     * tid's scratch file with one write. They reach this file when tid
+     * commits (see {@link #commitAppends}).
+     */
+    private void appendPages(TransactionId tid, List<Tuple> batch,
+            int perPage) throws DbException, IOException,
+            TransactionAbortedException {
+        int n = (batch.size() + perPage - 1) / perPage;
+        int first = reservePages(n);
+        ByteBuffer buffer = ByteBuffer.allocate(n * BufferPool.PAGE_SIZE);
+        for (int i = 0; i < n; i++) {
+            HeapPageId pid = new HeapPageId(fid, first + i);
+            Database.getBufferPool().lockAppendedPage(tid, pid);
+            HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData(), td);
+            int end = Math.min(batch.size(), (i + 1) * perPage);
+            for (int j = i * perPage; j < end; j++)
+                page.insertTuple(batch.get(j));
+            buffer.put(page.getPageData());
+        }
+        buffer.flip();
+        StagedPages pages;
+        synchronized (this) {
+            if (staged == null)
+                staged = new HashMap<TransactionId, StagedPages>();
+            pages = staged.get(tid);
+            if (pages == null) {
+                pages = new StagedPages();
+                staged.put(tid, pages);
+            }
+        }
+        pages.add(first, n, buffer);
+    }
+
+    /**
+     * Pages appended by one transaction that has not committed yet. They are
+     * kept in a scratch file, in the order they were appended, so that a
+     * crash before the commit leaves the heap file as it was.
+     */
+    private static class StagedPages {
+        private final File scratch;
+        private final RandomAccessFile raf;
+        // first page number and page count of each batch, in scratch order
+        private final ArrayList<int[]> runs = new ArrayList<int[]>();
+        // page number in the heap file -> page index in the scratch file
+        private final HashMap<Integer, Integer> slots = new HashMap<Integer, Integer>();
+        private int numPages = 0;
+
+        StagedPages() throws IOException {
+            scratch = File.createTempFile("append", ".dat");
+            scratch.deleteOnExit();
+            raf = new RandomAccessFile(scratch, "rw");
+        }
+
+        /** Writes n pages, to be numbered first onwards, after the others. */
+        synchronized void add(int first, int n, ByteBuffer pages)
+                throws IOException {
+            FileChannel fc = raf.getChannel();
+            long offset = (long) numPages * BufferPool.PAGE_SIZE;
+            while (pages.hasRemaining())
+                fc.write(pages, offset + pages.position());
+            for (int i = 0; i < n; i++)
+                slots.put(first + i, numPages + i);
+            runs.add(new int[] { first, n });
+            numPages += n;
+        }
+
+        /** Returns the data of page pgNo, or null if it is not staged. */
+        synchronized byte[] read(int pgNo) throws IOException {
+            Integer slot = slots.get(pgNo);
+            if (slot == null)
+                return null;
+            return read(slot, 1).array();
+        }
+
+        /** Reads n pages from the scratch file, starting at page index slot. */
+        synchronized ByteBuffer read(int slot, int n) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(n * BufferPool.PAGE_SIZE);
+            FileChannel fc = raf.getChannel();
+            long offset = (long) slot * BufferPool.PAGE_SIZE;
+            while (buffer.hasRemaining()) {
+                if (fc.read(buffer, offset + buffer.position()) < 0)
+                    throw new EOFException("read past end of " + scratch);
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        /** Returns one past the largest staged page number. */
+        synchronized int end() {
+            int end = 0;
+            for (int[] run : runs)
+                end = Math.max(end, run[0] + run[1]);
+            return end;
+        }
+
+        /** Closes and deletes the scratch file. */
+        void delete() {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                // the file is deleted either way
+            }
+            scratch.delete();
+        }
+    }
+
+    private synchronized boolean hasStagedPages() {
+        return staged != null && !staged.isEmpty();
+    }
+
+    /**
+     * Returns page pid if a transaction that has not committed yet appended
+     * it, or null. Only that transaction holds a lock on it.
+     */
+    private Page readStagedPage(PageId pid) {
+        ArrayList<StagedPages> all;
+        synchronized (this) {
+            if (staged == null || staged.isEmpty())
+                return null;
+            all = new ArrayList<StagedPages>(staged.values());
+        }
+        try {
+            for (StagedPages pages : all) {
+                byte[] data = pages.read(pid.pageNumber());
+                if (data != null)
+                    return new HeapPage((HeapPageId) pid, data, td);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("cannot read appended page "
+                    + pid.pageNumber() + " of " + file + ": " + e);
+        }
+        return null;
+    }
+
+    /**
+     * Writes the pages tid appended with insertTuples to this file, a batch
+     * per write, and records their free space and value ranges. Called by
+     * the buffer pool when tid commits, before its locks are released.
+     */
+    public void commitAppends(TransactionId tid) throws IOException {
+        StagedPages pages;
+        synchronized (this) {
+            pages = staged == null ? null : staged.remove(tid);
+        }
+        if (pages == null)
+            return;
+        try {
+            FreeSpaceMap fsm = freeSpace();
+            ZoneMap zm = zoneMap();
+            int slot = 0;
+            for (int[] run : pages.runs) {
+                ByteBuffer buffer = pages.read(slot, run[1]);
+                writes.incrementAndGet();
+                writeFully(buffer, (long) run[0] * BufferPool.PAGE_SIZE);
+                byte[] all = buffer.array();
+                for (int i = 0; i < run[1]; i++) {
+                    byte[] data = new byte[BufferPool.PAGE_SIZE];
+                    System.arraycopy(all, i * BufferPool.PAGE_SIZE, data, 0,
+                            BufferPool.PAGE_SIZE);
+                    HeapPage page = new HeapPage(new HeapPageId(fid, run[0] + i),
+                            data, td);
+                    fsm.set(run[0] + i, page.getNumEmptySlots() > 0);
+                    zm.summarize(run[0] + i, page);
+                }
+                slot += run[1];
+            }
+        } finally {
+            pages.delete();
+        }
+    }
 
-        if (!foundFree)
-            this.writePage(page);
-        if (page.getNumEmptySlots() > 0) {
-            freePages.put(pageNum, true);
-        } else {
-            freePages.put(pageNum, false);
+    /**
+     * Throws away the pages tid appended with insertTuples. Called by the
+     * buffer pool when tid aborts. Their page numbers are not reused; if
+     * the file has grown past them they read as empty pages.
+     */
+    public void abortAppends(TransactionId tid) {
+        StagedPages pages;
+        synchronized (this) {
+            pages = staged == null ? null : staged.remove(tid);
         }
-        
-        ArrayList<Page> changed = new ArrayList<Page>();
-        changed.add(page);
-        return changed;
+        if (pages != null)
+            pages.delete();
     }
 
     // see DbFile.java for javadocs
@@ -165,17 +784,18 @@ public class HeapFile implements DbFile {
             TransactionAbortedException {
         // some code goes here
         // not necessary for proj1
-        RecordId rid = t.getRecordId();
-        PageId pid = rid.getPageId();
+        PageId pid = t.getRecordId().getPageId();
+        // load the zone map while its sidecar still matches the file, so
+        // that the page written at commit updates it instead of leaving
+        // every page unknown after a restart
+        zoneMap();
         HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-        int pageNum = pid.pageNumber();
-                
         page.deleteTuple(t);
         page.markDirty(true,  tid);
-        if (((HeapPage)page).getNumEmptySlots() > 0) {
-            freePages.put(pageNum, true);
-        } else {
-            freePages.put(pageNum, false);
+        try {
+            freeSpace().set(pid.pageNumber(), true);
+        } catch (IOException e) {
+            throw new DbException("cannot read free-space map of " + file + ": " + e);
         }
         return page;
     }
@@ -184,6 +804,13 @@ public class HeapFile implements DbFile {
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
         int numPages = numPages();
+        StagedPages pages;
+        synchronized (this) {
+            pages = staged == null ? null : staged.get(tid);
+        }
+        // tid sees the pages it has appended but not yet committed
+        if (pages != null)
+            numPages = Math.max(numPages, pages.end());
         return new HeapFileIterator(tid, fid, numPages);
     }
 
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -76,7 +77,8 @@ public class HeapFileEncoder {
     * where each row represents a tuple.<br>
     * <p>
     * The format of the output file will be as specified in HeapPage and
-    * HeapFile.
+    * HeapFile. The {@link ZoneMap} of the output file is written alongside
+    * it.
     *
     * @see HeapPage
     * @see HeapFile
@@ -120,6 +122,11 @@ public class HeapFileEncoder {
     ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
     DataOutputStream pageStream = new DataOutputStream(pageBAOS);
 
+    TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+    ZoneMap zones = new ZoneMap(ZoneMap.sidecarFor(outFile), td);
+    Tuple tuple = new Tuple(td);
+    boolean pageSummarized = false;
+
     boolean done = false;
     boolean first = true;
     while (!done) {
@@ -140,7 +147,9 @@ public class HeapFileEncoder {
             String s = new String(buf, 0, curpos);
             if (typeAr[fieldNo] == Type.INT_TYPE) {
                 try {
-                    pageStream.writeInt(Integer.parseInt(s.trim()));
+                    int v = Integer.parseInt(s.trim());
+                    pageStream.writeInt(v);
+                    tuple.setField(fieldNo, new IntField(v));
                 } catch (NumberFormatException e) {
                     System.out.println ("BAD LINE : " + s);
                 }
@@ -156,11 +165,18 @@ public class HeapFileEncoder {
                 pageStream.writeBytes(s);
                 while (overflow-- > 0)
                     pageStream.write((byte)0);
+                tuple.setField(fieldNo, new StringField(s, Type.STRING_LEN));
             }
             curpos = 0;
-            if (c == '\n')
+            if (c == '\n') {
                 fieldNo = 0;
-            else
+                if (!pageSummarized) {
+                    zones.clear(npages);
+                    pageSummarized = true;
+                }
+                zones.add(npages, tuple);
+                tuple = new Tuple(td);
+            } else
                 fieldNo++;
             
         } else if (c == -1) {
@@ -216,11 +232,15 @@ public class HeapFileEncoder {
             pageBAOS = new ByteArrayOutputStream(npagebytes);
             pageStream = new DataOutputStream(pageBAOS);
             
+            if (!pageSummarized)
+                zones.clear(npages);
+            pageSummarized = false;
             recordcount = 0;
             npages++;
         }
     }
     br.close();
     os.close();
+    zones.save(outFile);
   }
 }
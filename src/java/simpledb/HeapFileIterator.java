@@ -5,6 +5,11 @@ import java.util.*;
 /**
  * HeapFileIterator iterates through a
  * implement.
+ * <p>
+ * Given predicates (see {@link #addPredicate}), it skips the pages the
+ * file's {@link ZoneMap} rules out, without reading or locking them. The
+ * tuples it returns still have to be filtered. Pages the zone map does not
+ * know yet are summarized as they are read.
  */
 public class HeapFileIterator implements DbFileIterator {
 
@@ -16,6 +21,14 @@ public class HeapFileIterator implements DbFileIterator {
     int pgNo = 0; //counter for fetching from bufferpool.
     HeapPage curPage;
     Iterator<Tuple> curPageIter = null;
+    Prefetcher prefetcher = null;
+    PageId pinned = null;
+    BufferPool pinnedIn = null;
+    ArrayList<Predicate> preds = new ArrayList<Predicate>();
+    ZoneMap zones = null;
+    // pages of this scan that the zone map rules out
+    BitSet skip = new BitSet();
+    int pagesSkipped = 0;
 
     public HeapFileIterator(TransactionId tid, int tableId, int numPages) {
         this.tid = tid;
@@ -30,9 +43,40 @@ public class HeapFileIterator implements DbFileIterator {
     public void open() throws DbException, TransactionAbortedException {
         //preparation.
         open = true;
+        DbFile file = Database.getCatalog().getDbFile(tableId);
+        zones = file instanceof HeapFile ? ((HeapFile) file).zoneMap() : null;
+        skip = new BitSet();
+        if (zones != null && !preds.isEmpty()) {
+            for (int i = 0; i < numPages; i++) {
+                if (!zones.mayMatch(i, preds))
+                    skip.set(i);
+            }
+            pagesSkipped += skip.cardinality();
+        }
+        if (Prefetcher.isEnabled() && numPages - skip.cardinality() > 1
+                && file instanceof HeapFile)
+            prefetcher = new Prefetcher(Database.getBufferPool(),
+                    (HeapFile) file, numPages, skip);
         generateNextPage();
     }
 
+    /**
+     * Makes the scan skip the pages on which no tuple can satisfy p,
+     * according to the file's zone map. Takes effect on the next open or
+     * rewind.
+     */
+    public void addPredicate(Predicate p) {
+        preds.add(p);
+    }
+
+    /**
+     * @return the number of pages skipped by this iterator so far, over all
+     *   its opens and rewinds
+     */
+    public int pagesSkipped() {
+        return pagesSkipped;
+    }
+
     /** @return true if there are more tuples available. */
     public boolean hasNext() throws DbException, TransactionAbortedException {
         if (!open) 
@@ -46,6 +90,7 @@ public class HeapFileIterator implements DbFileIterator {
         if (curPageIter != null && curPageIter.hasNext()) {
             return true;
         }
+        unpinCurrent(); // scan finished; don't hold the last page
         return false;
     }
 
@@ -86,15 +131,43 @@ public class HeapFileIterator implements DbFileIterator {
     public void close() {
       pgNo = 0;
       open = false;
+      unpinCurrent();
+      if (prefetcher != null) {
+          prefetcher.stop();
+          prefetcher = null;
+      }
     }
 
     private void generateNextPage() throws DbException, TransactionAbortedException{
+        unpinCurrent();
+        pgNo = skip.nextClearBit(pgNo);
+        if (pgNo >= numPages) {
+            // the file is empty, or every remaining page was skipped
+            curPageIter = Collections.<Tuple>emptyList().iterator();
+            return;
+        }
         pid = new HeapPageId(tableId, pgNo++);
+        if (prefetcher != null)
+            prefetcher.consumed(pid.pageNumber());
         //fetch page - should not be null if getPage() works.
-        curPage = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        //pinned so it stays cached while its tuples are being returned
+        pinnedIn = Database.getBufferPool();
+        curPage = (HeapPage) pinnedIn.pinPage(tid, pid, Permissions.READ_ONLY);
+        pinned = pid;
         //generate iterator
         if (curPage == null)
           throw new DbException("invalid page fetched from bufferpool");
+        //a clean page holds committed tuples only, so it can be summarized
+        if (zones != null && !zones.isKnown(pid.pageNumber())
+                && curPage.isDirty() == null)
+            zones.summarize(pid.pageNumber(), curPage);
         curPageIter = curPage.iterator(); 
     }
+
+    private void unpinCurrent() {
+        if (pinned != null) {
+            pinnedIn.unpinPage(pinned);
+            pinned = null;
+        }
+    }
 }
@@ -15,15 +15,43 @@ public class HeapPage implements Page {
 
     HeapPageId pid;
     TupleDesc td;
-    byte header[];
+    int headerSize;
     Tuple tuples[];
     int numSlots;
 
+    // the header as a bitmap, 64 slots per word: slot i is bit i % 64 of
+    // word i / 64. numUsed caches the number of set bits, and no word
+    // before freeHint has a clear bit.
+    long used[];
+    int numUsed;
+    int freeHint;
+
     boolean dirty;
     TransactionId dirtyTid;
 
     byte[] oldData;
 
+    // in lazy mode, the bytes the page was read from; a used slot whose
+    // entry in tuples is null is decoded from here when first accessed
+    byte[] data;
+    int[] fieldOffsets;
+
+    private static volatile boolean lazyDecoding = true;
+
+    /**
+     * Chooses whether pages created from now on decode their tuples when
+     * the page is read (false) or only when a tuple is accessed (true, the
+     * default). Lazily decoded tuples also decode each field on first use.
+     */
+    public static void setLazyDecoding(boolean lazy) {
+        lazyDecoding = lazy;
+    }
+
+    /** Returns true if new pages decode their tuples on demand. */
+    public static boolean isLazyDecoding() {
+        return lazyDecoding;
+    }
+
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
      * The format of a HeapPage is a set of header bytes indicating
@@ -36,24 +64,51 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * In lazy mode (see {@link #setLazyDecoding}) the page keeps a reference
+     * to data, which must not be modified afterwards.
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#PAGE_SIZE
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    /**
+     * Create a HeapPage of tuples with the given TupleDesc, as the
+     * two-argument constructor does for the table in the Catalog. Files
+     * that are not in the Catalog, such as temporary spill files, use this.
+     */
+    public HeapPage(HeapPageId id, byte[] data, TupleDesc td) throws IOException {
         this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.td = td;
         this.numSlots = getNumTuples();
         DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
+        // read the header slots of this page into the bitmap
+        headerSize = getHeaderSize();
+        used = new long[(numSlots + 63) / 64];
+        for (int i=0; i<headerSize; i++)
+            used[i / 8] |= (dis.readByte() & 0xFFL) << (8 * (i % 8));
+        if (numSlots % 64 != 0)
+            used[used.length - 1] &= (1L << numSlots) - 1; // ignore padding bits
+        for (int w=0; w<used.length; w++)
+            numUsed += Long.bitCount(used[w]);
+
+        tuples = new Tuple[numSlots];
+        if (lazyDecoding) {
+            // tuples are decoded from data by tuple(slot) when needed
+            this.data = data;
+            fieldOffsets = new int[td.numFields()];
+            for (int j=1; j<fieldOffsets.length; j++)
+                fieldOffsets[j] = fieldOffsets[j-1] + td.getFieldType(j-1).getLen();
+            dis.close();
+            oldData = data; // never written to, so it can double as the before image
+            return;
+        }
 
         try{
             // allocate and read the actual records of this page
-            tuples = new Tuple[numSlots];
             for (int i=0; i<tuples.length; i++)
                 tuples[i] = readNextTuple(dis,i);
         }catch(NoSuchElementException e){
@@ -64,6 +119,22 @@ public class HeapPage implements Page {
         setBeforeImage();
     }
 
+    /**
+     * Returns the tuple in slot, decoding it first if this page was read
+     * lazily, or null if the slot is empty.
+     */
+    Tuple tuple(int slot) {
+        if (!isSlotUsed(slot))
+            return null;
+        Tuple t = tuples[slot];
+        if (t == null && data != null) {
+            t = new LazyTuple(td, data, headerSize + slot * td.getSize(), fieldOffsets);
+            t.setRecordId(new RecordId(pid, slot));
+            tuples[slot] = t;
+        }
+        return t;
+    }
+
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
@@ -90,7 +161,7 @@ public class HeapPage implements Page {
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            return new HeapPage(pid,oldData);
+            return new HeapPage(pid,oldData,td);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -163,9 +234,9 @@ public class HeapPage implements Page {
         DataOutputStream dos = new DataOutputStream(baos);
 
         // create the header of the page
-        for (int i=0; i<header.length; i++) {
+        for (int i=0; i<headerSize; i++) {
             try {
-                dos.writeByte(header[i]);
+                dos.writeByte((int) (used[i / 8] >>> (8 * (i % 8))));
             } catch (IOException e) {
                 // this really shouldn't happen
                 e.printStackTrace();
@@ -188,6 +259,18 @@ public class HeapPage implements Page {
                 continue;
             }
 
+            // non-empty slot, still in the form it was read in
+            int offset = headerSize + i * td.getSize();
+            if (tuples[i] == null || (tuples[i] instanceof LazyTuple
+                    && ((LazyTuple) tuples[i]).isUnmodifiedView(data, offset))) {
+                try {
+                    dos.write(data, offset, td.getSize());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
+
             // non-empty slot
             for (int j=0; j<td.numFields(); j++) {
                 Field f = tuples[i].getField(j);
@@ -201,7 +284,7 @@ public class HeapPage implements Page {
         }
 
         // padding
-        int zerolen = BufferPool.PAGE_SIZE - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
+        int zerolen = BufferPool.PAGE_SIZE - (headerSize + td.getSize() * tuples.length); //- numSlots * td.getSize();
         byte[] zeroes = new byte[zerolen];
         try {
             dos.write(zeroes, 0, zerolen);
@@ -265,13 +348,7 @@ public class HeapPage implements Page {
     public void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
-        int slot = -1;
-        for (int i = 0; i < numSlots; i++) {
-            if (!isSlotUsed(i)) {
-                slot = i;
-                break;
-            }
-        }
+        int slot = firstFreeSlot();
         if (slot == -1) {
             throw new DbException("Page is full, no empty slots.");
         }
@@ -313,12 +390,7 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         // some code goes here
-        int bitCount = 0;
-        for (int i = 0; i < numSlots; i++) {
-            if (isSlotUsed(i))
-                bitCount++;
-        }
-        return numSlots - bitCount;
+        return numSlots - numUsed;
     }
 
     /**
@@ -326,17 +398,9 @@ public class HeapPage implements Page {
      */
     public boolean isSlotUsed(int i) {
         // some code goes here
-        int headerNum = i / 8;
-        int bitNum = i % 8;
-        if (headerNum < header.length) {
-            byte h = header[headerNum];
-            for (int j = 0; j < bitNum; j++) {
-                h >>= 1;
-            }
-            if ((h & 1) == 1)
-                return true;
-        }
-        return false;
+        if (i < 0 || i >= numSlots)
+            return false;
+        return (used[i >>> 6] & (1L << i)) != 0;
     }
 
     /**
@@ -345,18 +409,35 @@ public class HeapPage implements Page {
     private void markSlotUsed(int i, boolean value) {
         // some code goes here
         // not necessary for lab1
-        int headerNum = i / 8;
-        int bitNum = i % 8;
-        if (headerNum < header.length) {
-            byte h = header[headerNum];
-            int mask;
-            if (value) {
-                mask = h | (1 << bitNum);
-            } else {
-                mask = h & ~(1 << bitNum);
+        if (i < 0 || i >= numSlots || isSlotUsed(i) == value)
+            return;
+        int w = i >>> 6;
+        if (value) {
+            used[w] |= 1L << i;
+            numUsed++;
+        } else {
+            used[w] &= ~(1L << i);
+            numUsed--;
+            if (w < freeHint)
+                freeHint = w;
+        }
+    }
+
+    /**
+     * Returns the lowest empty slot on this page, or -1 if it is full.
+     */
+    int firstFreeSlot() {
+        if (numUsed == numSlots)
+            return -1;
+        for (int w = freeHint; w < used.length; w++) {
+            long free = ~used[w];
+            if (free != 0) {
+                freeHint = w;
+                int slot = (w << 6) + Long.numberOfTrailingZeros(free);
+                return slot < numSlots ? slot : -1;
             }
-            header[headerNum] = (byte) mask;
         }
+        return -1;
     }
 
     /**
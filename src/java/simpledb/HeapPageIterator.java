@@ -5,28 +5,55 @@ import java.util.*;
 public class HeapPageIterator implements Iterator<Tuple> {
 
     HeapPage page;
-    Iterator<Tuple> tuples;
+    // the page's used-slot bitmap when the iterator was created; tuples
+    // inserted afterwards are not returned
+    long[] used;
+    Tuple nextTuple;
+    int nextSlot = 0;
 
     public HeapPageIterator(HeapPage hp) {
         page = hp;
-        ArrayList<Tuple> tempTuples = new ArrayList<Tuple>();
-        for (int i = 0; i < hp.tuples.length; i++) {
-            if (hp.tuples[i] != null) {
-                tempTuples.add(hp.tuples[i]);
-            }
+        used = hp.used.clone();
+        advance();
+    }
+
+    private void advance() {
+        nextTuple = null;
+        while (nextTuple == null) {
+            int slot = nextSetBit(nextSlot);
+            if (slot < 0)
+                return;
+            nextSlot = slot + 1;
+            nextTuple = page.tuple(slot); // null if deleted since
+        }
+    }
+
+    private int nextSetBit(int from) {
+        int w = from >>> 6;
+        if (w >= used.length)
+            return -1;
+        long bits = used[w] & (-1L << from);
+        while (bits == 0) {
+            if (++w == used.length)
+                return -1;
+            bits = used[w];
         }
-        tuples = tempTuples.iterator();
+        return (w << 6) + Long.numberOfTrailingZeros(bits);
     }
 
     public boolean hasNext() {
-    	return tuples.hasNext();
+    	return nextTuple != null;
     }
 
     public Tuple next() {
-    	return tuples.next();
+        if (nextTuple == null)
+            throw new NoSuchElementException();
+        Tuple t = nextTuple;
+        advance();
+    	return t;
     }
 
     public void remove() {
     	throw new UnsupportedOperationException("not allowed to remove!");
     }
-}
\ No newline at end of file
+}
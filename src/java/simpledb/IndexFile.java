@@ -0,0 +1,34 @@
+package simpledb;
+
+/**
+ * An IndexFile is a DbFile that can find the tuples whose key field
+ * satisfies a predicate without reading the whole file. {@link IndexScan}
+ * reads a table through it, and {@link TableStats#estimateIndexScanCost}
+ * estimates what that costs.
+ */
+public interface IndexFile extends DbFile {
+
+    /** @return the index of the field this file is searched on */
+    public int keyField();
+
+    /** @return true if {@link #indexIterator} can search with op */
+    public boolean supports(Predicate.Op op);
+
+    /**
+     * Returns an iterator over the tuples whose key satisfies
+     * {@code key op value}.
+     *
+     * @throws IllegalArgumentException if op is not supported
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op,
+            Field value);
+
+    /** @return the number of pages in this file */
+    public int numPages();
+
+    /**
+     * @return the estimated number of pages read to find the first tuple
+     *   with a given key
+     */
+    public int searchDepth();
+}
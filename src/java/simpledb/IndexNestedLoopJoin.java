@@ -0,0 +1,169 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin is a {@link Join} that, instead of scanning the inner
+ * input once per outer tuple, looks up the inner tuples that match each
+ * outer tuple in the inner table's {@link IndexFile}. A join of a foreign
+ * key with the primary key of an indexed table thus reads a few pages per
+ * outer tuple, however large the inner table is.
+ * <p>
+ * The inner input must be a scan of a table whose index is on the inner
+ * join field, possibly under Filters; see {@link #canProbe}. The scan itself
+ * is never read: the predicates of the Filters, and of the scan if it is an
+ * IndexScan, are applied to the tuples each lookup returns. The output comes
+ * in outer order, and for each outer tuple in the index's order.
+ */
+public class IndexNestedLoopJoin extends Join {
+
+    private static final long serialVersionUID = 1L;
+
+    transient private IndexFile index;
+    transient private TransactionId tid;
+    transient private Predicate.Op probeOp;
+    // predicates of the inner plan the looked-up tuples must also satisfy
+    transient private ArrayList<Predicate> innerPreds;
+
+    transient private Tuple outer = null;
+    transient private DbFileIterator matches = null;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            the right(inner) relation: a scan of a table whose index
+     *            can answer p, possibly under Filters
+     * @throws IllegalArgumentException
+     *             if {@link #canProbe} is false for child2 and p
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, DbIterator child1,
+            DbIterator child2) {
+        super(p, child1, child2);
+        init();
+    }
+
+    /**
+     * Finds the index and the inner predicates of child2.
+     */
+    private void init() {
+        if (!canProbe(child2, p.getField2(), p.getOperator()))
+            throw new IllegalArgumentException("the inner input cannot be"
+                    + " probed through an index on field " + p.getField2()
+                    + " with " + p.getOperator());
+        innerPreds = new ArrayList<Predicate>();
+        DbIterator plan = child2;
+        while (plan instanceof Filter) {
+            innerPreds.add(((Filter) plan).getPredicate());
+            plan = ((Filter) plan).getChildren()[0];
+        }
+        SeqScan scan = (SeqScan) plan;
+        if (scan instanceof IndexScan)
+            innerPreds.add(((IndexScan) scan).getPredicate());
+        index = (IndexFile) scan.file;
+        tid = scan.tid;
+        probeOp = reverse(p.getOperator());
+        if (child1.getTupleDesc().getFieldType(p.getField1()) != child2
+                .getTupleDesc().getFieldType(p.getField2()))
+            throw new IllegalArgumentException("join fields of different types");
+    }
+
+    /**
+     * Returns true if the tuples of inner that satisfy
+     * {@code outerField op innerField} for a given outer value can be found
+     * through an index: inner is a SeqScan (or IndexScan) of a table whose
+     * {@link IndexFile} is on field innerField, under any number of Filters,
+     * and the index supports op.
+     */
+    public static boolean canProbe(DbIterator inner, int innerField,
+            Predicate.Op op) {
+        while (inner instanceof Filter)
+            inner = ((Filter) inner).getChildren()[0];
+        if (!(inner instanceof SeqScan))
+            return false;
+        DbFile file = ((SeqScan) inner).file;
+        if (!(file instanceof IndexFile))
+            return false;
+        IndexFile index = (IndexFile) file;
+        return index.keyField() == innerField && index.supports(reverse(op));
+    }
+
+    /**
+     * Returns the operator op2 such that {@code a op b} is {@code b op2 a}.
+     */
+    static Predicate.Op reverse(Predicate.Op op) {
+        switch (op) {
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        default:
+            return op;
+        }
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        outer = null;
+        matches = null;
+    }
+
+    public void close() {
+        super.close();
+        closeMatches();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        super.rewind();
+        closeMatches();
+    }
+
+    private void closeMatches() {
+        if (matches != null)
+            matches.close();
+        matches = null;
+        outer = null;
+    }
+
+    private boolean satisfiesInner(Tuple t) {
+        for (Predicate pred : innerPreds) {
+            if (!pred.filter(t))
+                return false;
+        }
+        return true;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (matches != null) {
+                while (matches.hasNext()) {
+                    Tuple inner = matches.next();
+                    if (satisfiesInner(inner))
+                        return setTuple(outer, inner);
+                }
+                closeMatches();
+            }
+            if (!child1.hasNext())
+                return null;
+            outer = child1.next();
+            matches = index.indexIterator(tid, probeOp,
+                    outer.getField(p.getField1()));
+            matches.open();
+        }
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        super.setChildren(children);
+        init();
+    }
+}
@@ -0,0 +1,58 @@
+package simpledb;
+
+/**
+ * IndexScan is an access method that reads only the tuples of a table that
+ * satisfy a predicate on the key field of the table's {@link IndexFile},
+ * finding them through the index instead of reading every page.
+ * <p>
+ * It is a SeqScan over the same table otherwise, with the same TupleDesc,
+ * so that the planner can use either one as the leaf for a table.
+ */
+public class IndexScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate pred;
+
+    /**
+     * Creates a scan of the tuples of the specified table that satisfy pred.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan; its DbFile must be an IndexFile
+     * @param tableAlias
+     *            the alias of this table, as for SeqScan
+     * @param pred
+     *            the predicate on the key field of the table to satisfy
+     * @throws IllegalArgumentException
+     *             if the table's index cannot answer pred
+     */
+    public IndexScan(TransactionId tid, int tableid, String tableAlias,
+            Predicate pred) {
+        super(tid, tableid, tableAlias);
+        if (!canUse(file, pred))
+            throw new IllegalArgumentException("no index of table "
+                    + getTableName() + " can answer " + pred);
+        this.pred = pred;
+        this.it = ((IndexFile) file).indexIterator(tid, pred.getOp(),
+                pred.getOperand());
+    }
+
+    /**
+     * @return true if file is an IndexFile that can find the tuples
+     *   satisfying pred
+     */
+    public static boolean canUse(DbFile file, Predicate pred) {
+        if (!(file instanceof IndexFile))
+            return false;
+        IndexFile index = (IndexFile) file;
+        return pred.getField() == index.keyField()
+                && index.supports(pred.getOp());
+    }
+
+    /** @return the predicate the tuples of this scan satisfy */
+    public Predicate getPredicate() {
+        return pred;
+    }
+}
@@ -13,6 +13,7 @@ public class Insert extends Operator {
     private int tableid;
     private TupleDesc td;
     private boolean isInsert;
+    private boolean bulk;
 
     /**
      * Constructor.
@@ -29,8 +30,31 @@ public class Insert extends Operator {
      */
     public Insert(TransactionId t,DbIterator child, int tableid)
             throws DbException {
+        this(t, child, tableid, false);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param t
+     *            The transaction running the insert.
+     * @param child
+     *            The child operator from which to read tuples to be inserted.
+     * @param tableid
+     *            The table in which to insert tuples.
+     * @param bulk
+     *            true to load a HeapFile with HeapFile.insertTuples, which
+     *            appends new pages in large sequential writes instead of
+     *            inserting one tuple at a time through the BufferPool.
+     * @throws DbException
+     *             if TupleDesc of child differs from table into which we are to
+     *             insert.
+     */
+    public Insert(TransactionId t, DbIterator child, int tableid, boolean bulk)
+            throws DbException {
         // some code goes here
         this.t = t;
+        this.bulk = bulk;
         this.child = child;
         this.tableid = tableid;
         td = new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{"Count"});
@@ -80,6 +104,9 @@ public class Insert extends Operator {
         if (isInsert)
             return null;
         try {
+            DbFile file = Database.getCatalog().getDbFile(tableid);
+            if (bulk && file instanceof HeapFile)
+                numInserted = ((HeapFile) file).insertTuples(t, child);
             while(child.hasNext()) {
                 Tuple next = child.next();
                 bp.insertTuple(t, tableid, next);
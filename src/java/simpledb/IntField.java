@@ -76,6 +76,15 @@ public class IntField implements Field {
         return false;
     }
 
+    /**
+     * @throws IllegalCastException if val is not an IntField
+     * @see Field#compareTo
+     */
+    public int compareTo(Field val) {
+        int other = ((IntField) val).value;
+        return value < other ? -1 : (value == other ? 0 : 1);
+    }
+
     /**
      * Return the Type of this field.
      * @return Type.INT_TYPE
@@ -0,0 +1,101 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * IntGroupTable numbers distinct int keys 0, 1, 2, ... in the order they
+ * are first seen, so an aggregator can keep one slot per group in plain
+ * arrays. It is an open-addressing hash table with linear probing over
+ * int arrays: looking up or adding a key allocates nothing unless the
+ * table has to grow.
+ */
+public class IntGroupTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // slots[i] is 0 if empty, or 1 + the group number of the key hashed there
+    private int[] slots;
+    private int mask;
+    // keys[g] is the key of group g
+    private int[] keys;
+    private int size = 0;
+
+    /** Creates an empty table. */
+    public IntGroupTable() {
+        slots = new int[16];
+        mask = slots.length - 1;
+        keys = new int[8];
+    }
+
+    private static int hash(int key) {
+        // the murmur3 finalizer, so runs of keys spread over the table
+        int h = key;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Returns the group number of key, or -1 if key has not been seen.
+     */
+    public int find(int key) {
+        int i = hash(key) & mask;
+        int s;
+        while ((s = slots[i]) != 0) {
+            if (keys[s - 1] == key)
+                return s - 1;
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the group number of key, adding key as group size() if it has
+     * not been seen before.
+     */
+    public int groupOf(int key) {
+        int i = hash(key) & mask;
+        while (true) {
+            int s = slots[i];
+            if (s == 0)
+                break;
+            if (keys[s - 1] == key)
+                return s - 1;
+            i = (i + 1) & mask;
+        }
+        int g = size++;
+        if (g == keys.length)
+            keys = Arrays.copyOf(keys, keys.length * 2);
+        keys[g] = key;
+        slots[i] = g + 1;
+        // keep the load factor at most 1/2
+        if (size * 2 > slots.length)
+            rehash();
+        return g;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        mask = slots.length - 1;
+        for (int g = 0; g < size; g++) {
+            int i = hash(keys[g]) & mask;
+            while (slots[i] != 0)
+                i = (i + 1) & mask;
+            slots[i] = g + 1;
+        }
+    }
+
+    /** Returns the number of groups. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the key of group g. */
+    public int key(int g) {
+        return keys[g];
+    }
+}
@@ -3,6 +3,13 @@ import java.util.*;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * Groups are numbered in the order they are first seen (by an
+ * {@link IntGroupTable} for int group-by fields) and each aggregate is kept
+ * in a long[] indexed by group number, so merging a tuple does no boxing
+ * and allocates nothing. Only the arrays the operator needs are allocated:
+ * sum and count for AVG, sum for SUM, count for COUNT, min for MIN and max
+ * for MAX. AVG is sum / count, in integer arithmetic, when iterated.
  */
 public class IntegerAggregator implements Aggregator {
 
@@ -15,11 +22,18 @@ public class IntegerAggregator implements Aggregator {
     private String gbfieldname;
     private String afieldname;
 
-    private double aggResult;
-    private int aggCount = 0;
-    //group
-    private HashMap<Object, Double> groups;
-    private HashMap<Object, Integer> groupCounts;
+    // group numbers of int keys; null unless grouping on an int field
+    private IntGroupTable intGroups;
+    // group numbers and keys of string keys; null unless grouping on a string field
+    private HashMap<String, Integer> stringGroups;
+    private ArrayList<String> stringKeys;
+    private int numGroups = 0;
+
+    // per-group accumulators, null if what does not need them
+    private long[] sum;
+    private long[] count;
+    private long[] min;
+    private long[] max;
 
     /**
      * Aggregate constructor
@@ -42,28 +56,84 @@ public class IntegerAggregator implements Aggregator {
         this.gbfieldtype = gbfieldtype;
         this.afield = afield;
         this.what = what;
-        groups = new HashMap<Object, Double>();
-        groupCounts = new HashMap<Object, Integer>();
-        initValues();
-    }
-
-    private void initValues() {
+        if (gbfield != NO_GROUPING) {
+            if (gbfieldtype == Type.INT_TYPE) {
+                intGroups = new IntGroupTable();
+            } else {
+                stringGroups = new HashMap<String, Integer>();
+                stringKeys = new ArrayList<String>();
+            }
+        }
+        int capacity = gbfield == NO_GROUPING ? 1 : 16;
         switch (what) {
         case MIN:
-            aggResult = Integer.MAX_VALUE;
+            min = new long[capacity];
             break;
         case MAX:
-            aggResult = Integer.MIN_VALUE;
+            max = new long[capacity];
             break;
-        case SUM:
         case AVG:
+            count = new long[capacity];
+            sum = new long[capacity];
+            break;
+        case SUM:
+            sum = new long[capacity];
+            break;
         case COUNT:
-            aggResult = 0;
+            count = new long[capacity];
             break;
-        default:
-            System.out.println("INVALID ENTRY!");
         }
-        aggCount = 0; //need to reset count too for new group!
+    }
+
+    /**
+     * Returns the group number of tup, adding a new group if its group-by
+     * value has not been seen before and add is true, or returning -1 if it
+     * is false.
+     */
+    private int groupOf(Tuple tup, boolean add) {
+        int g;
+        if (gbfield == NO_GROUPING) {
+            g = 0;
+        } else if (intGroups != null) {
+            int key = ((IntField) tup.getField(gbfield)).getValue();
+            g = add ? intGroups.groupOf(key) : intGroups.find(key);
+        } else {
+            String key = ((StringField) tup.getField(gbfield)).getValue();
+            Integer found = stringGroups.get(key);
+            if (found == null) {
+                if (!add)
+                    return -1;
+                found = stringKeys.size();
+                stringGroups.put(key, found);
+                stringKeys.add(key);
+            }
+            g = found;
+        }
+        if (g == numGroups) {
+            if (!add)
+                return -1;
+            addGroup();
+        }
+        return g;
+    }
+
+    /** Makes room for group numGroups and sets its accumulators. */
+    private void addGroup() {
+        int g = numGroups++;
+        if (min != null) {
+            if (g == min.length)
+                min = Arrays.copyOf(min, g * 2);
+            min[g] = Long.MAX_VALUE;
+        }
+        if (max != null) {
+            if (g == max.length)
+                max = Arrays.copyOf(max, g * 2);
+            max[g] = Long.MIN_VALUE;
+        }
+        if (sum != null && g == sum.length)
+            sum = Arrays.copyOf(sum, g * 2);
+        if (count != null && g == count.length)
+            count = Arrays.copyOf(count, g * 2);
     }
 
     /**
@@ -75,56 +145,65 @@ public class IntegerAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
-        Object key;
-        if (gbfield != NO_GROUPING) {
-            if (gbfieldtype == Type.INT_TYPE) {
-                key = ((IntField)tup.getField(gbfield)).getValue();
-                gbfieldname = tup.getTupleDesc().getFieldName(gbfield);
-            } else {
-                key = ((StringField)tup.getField(gbfield)).getValue();
-                gbfieldname = tup.getTupleDesc().getFieldName(gbfield);
-            }
-        } else {
-            key = (new IntField(NO_GROUPING)).getValue();
-        }
+        merge(tup, true);
+    }
 
-        int val = ((IntField)tup.getField(afield)).getValue();
-        afieldname = tup.getTupleDesc().getFieldName(afield);
-        //if contains key already, don't use default value.
-        if (groups.containsKey(key)) {
-            aggResult = groups.get(key);
-            aggCount = groupCounts.get(key);
-        } else {
-            //reset because new group!
-            initValues();
+    public boolean mergeTupleIntoExistingGroup(Tuple tup) {
+        return merge(tup, false);
+    }
+
+    public int numGroups() {
+        return numGroups;
+    }
+
+    private boolean merge(Tuple tup, boolean add) {
+        if (afieldname == null) {
+            TupleDesc td = tup.getTupleDesc();
+            afieldname = td.getFieldName(afield);
+            if (gbfield != NO_GROUPING)
+                gbfieldname = td.getFieldName(gbfield);
         }
-        aggCount++;
+        int g = groupOf(tup, add);
+        if (g < 0)
+            return false;
+        int val = ((IntField) tup.getField(afield)).getValue();
         switch (what) {
         case MIN:
-            aggResult = Math.min(aggResult, val);
+            if (val < min[g])
+                min[g] = val;
             break;
         case MAX:
-            aggResult = Math.max(aggResult, val);
-            break;
-        case SUM:
-            aggResult += val;
+            if (val > max[g])
+                max[g] = val;
             break;
         case AVG:
-            //recalculate the average.
-            double aggSum = aggResult * (aggCount - 1);
-            aggSum += val;
-            aggResult = aggSum / (double)aggCount;
+            count[g]++;
+            sum[g] += val;
+            break;
+        case SUM:
+            sum[g] += val;
             break;
         case COUNT:
-            aggResult = aggCount;
+            count[g]++;
             break;
-        default:
-            System.out.println("INVALID ENTRY!");
         }
+        return true;
+    }
 
-        //update group.
-        groups.put(key, aggResult);
-        groupCounts.put(key, aggCount);
+    /** Returns the value of the aggregate for group g. */
+    private int result(int g) {
+        switch (what) {
+        case MIN:
+            return (int) min[g];
+        case MAX:
+            return (int) max[g];
+        case AVG:
+            return (int) (sum[g] / count[g]);
+        case SUM:
+            return (int) sum[g];
+        default:
+            return (int) count[g];
+        }
     }
 
     /**
@@ -138,17 +217,17 @@ public class IntegerAggregator implements Aggregator {
     public DbIterator iterator() {
         // some code goes here
         TupleDesc td = makeTupleDesc();
-        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
-        for (Object key : groups.keySet()) {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>(numGroups);
+        for (int g = 0; g < numGroups; g++) {
             Tuple newTup = new Tuple(td);
-            int val = groups.get(key).intValue();
+            int val = result(g);
             if (gbfield == NO_GROUPING) {
                 newTup.setField(0, new IntField(val));
             } else {
-                if (gbfieldtype == Type.INT_TYPE) {
-                    newTup.setField(0, new IntField((Integer)key));
+                if (intGroups != null) {
+                    newTup.setField(0, new IntField(intGroups.key(g)));
                 } else {
-                    newTup.setField(0, new StringField((String)key, gbfieldtype.getLen()));
+                    newTup.setField(0, new StringField(stringKeys.get(g), gbfieldtype.getLen()));
                 }
                 newTup.setField(1, new IntField(val));
             }
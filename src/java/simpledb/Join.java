@@ -141,7 +141,8 @@ public class Join extends Operator {
         return null;
     }
 
-    private Tuple setTuple(Tuple t1, Tuple t2) {
+    /** Returns the concatenation of t1 and t2. */
+    Tuple setTuple(Tuple t1, Tuple t2) {
         Tuple ret = new Tuple(td);
         int totalFields = td.numFields();
         int t1Fields = t1.getTupleDesc().numFields();
@@ -13,6 +13,11 @@ import javax.swing.tree.*;
 public class JoinOptimizer {
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
+    // the stats passed to orderJoins, or null to use TableStats.getTableStats
+    Map<String, TableStats> stats;
+
+    /** Fraction of all pairs assumed to pass a range (&lt;, &gt;, ...) join. */
+    static final double RANGE_JOIN_SELECTIVITY = 0.3;
 
     /**
      * Constructor
@@ -34,6 +39,13 @@ public class JoinOptimizer {
      * inner/outer here -- because DbIterator's don't provide any cardinality
      * estimates, and stats only has information about the base tables. For this
      * reason, the plan1
+     * <p>
+     * The join is executed with the algorithm {@link #orderJoins} chose for
+     * lj. A join that was never planned uses a hash join for equality
+     * predicates, a plain nested-loop join when it joins with a subquery,
+     * and a block nested-loop join otherwise. An index nested-loop join
+     * whose inner input turns out not to be an indexed scan falls back to
+     * the same choice.
      * 
      * @param lj
      *            The join being considered
@@ -68,14 +80,156 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        LogicalJoinNode.Algorithm algorithm = lj.algorithm;
+        if (algorithm == LogicalJoinNode.Algorithm.INDEX_NESTED_LOOP
+                && !IndexNestedLoopJoin.canProbe(plan2, t2id, lj.p))
+            algorithm = null;
+        if (algorithm == null)
+            algorithm = hashable(lj) ? LogicalJoinNode.Algorithm.HASH
+                    : lj instanceof LogicalSubplanJoinNode ? LogicalJoinNode.Algorithm.NESTED_LOOP
+                    : LogicalJoinNode.Algorithm.BLOCK_NESTED_LOOP;
+        switch (algorithm) {
+        case HASH:
+            j = new HashEquiJoin(p, plan1, plan2);
+            break;
+        case BLOCK_NESTED_LOOP:
+            j = new BlockNestedLoopJoin(p, plan1, plan2);
+            break;
+        case SORT_MERGE:
+            j = new SortMergeJoin(p, plan1, plan2);
+            break;
+        case INDEX_NESTED_LOOP:
+            j = new IndexNestedLoopJoin(p, plan1, plan2);
+            break;
+        default:
+            j = new Join(p, plan1, plan2);
+        }
 
         return j;
 
     }
 
     /**
-     * Estimate the cost of a join.
+     * Returns the estimated bytes a HashEquiJoin or OrderBy holds in memory
+     * per tuple of the given table, or a guess for a 4-column table if the
+     * alias is not part of this plan.
+     */
+    private int rowBytes(String alias) {
+        Integer tableId = alias == null ? null : p.getTableId(alias);
+        int size = 4 * Type.INT_TYPE.getLen();
+        if (tableId != null) {
+            try {
+                size = Database.getCatalog().getTupleDesc(tableId).getSize();
+            } catch (NoSuchElementException e) {
+            }
+        }
+        return size + HashEquiJoin.ROW_OVERHEAD;
+    }
+
+    /**
+     * Returns the number of tuples of the given table a BlockNestedLoopJoin
+     * buffers per block, using the same 4-column guess as {@link #rowBytes}
+     * if the alias is not part of this plan.
+     */
+    private int blockTuples(String alias) {
+        Integer tableId = alias == null ? null : p.getTableId(alias);
+        TupleDesc td = null;
+        if (tableId != null) {
+            try {
+                td = Database.getCatalog().getTupleDesc(tableId);
+            } catch (NoSuchElementException e) {
+            }
+        }
+        if (td == null)
+            td = Utility.getTupleDesc(4);
+        return BlockNestedLoopJoin.blockTuples(td,
+                BlockNestedLoopJoin.DEFAULT_BLOCK_PAGES);
+    }
+
+    /**
+     * Returns the estimated cost of sorting card tuples of the given table,
+     * whose scan costs cost: one comparison per tuple per level of the sort,
+     * plus writing and reading back the runs once if the input is larger
+     * than {@link OrderBy#DEFAULT_MEMORY_BYTES}.
+     */
+    private double sortCost(int card, double cost, String alias) {
+        if (card < 2)
+            return 0;
+        double c = card * (Math.log(card) / Math.log(2));
+        if ((double) card * rowBytes(alias) > OrderBy.DEFAULT_MEMORY_BYTES)
+            c += 2 * cost;
+        return c;
+    }
+
+    /**
+     * Returns true if the output of plan, joined in the order given, is
+     * sorted ascending on the field with quantified name field, because its
+     * last join is a sort-merge join on that field.
+     */
+    private static boolean isSortedOn(Vector<LogicalJoinNode> plan, String field) {
+        if (plan.isEmpty())
+            return false;
+        LogicalJoinNode last = plan.lastElement();
+        if (last.algorithm != LogicalJoinNode.Algorithm.SORT_MERGE)
+            return false;
+        return field.equals(last.f1QuantifiedName)
+                || (last.p == Predicate.Op.EQUALS && field.equals(last.f2QuantifiedName));
+    }
+
+    /**
+     * Returns the stats of the named table: those passed to
+     * {@link #orderJoins}, or the global ones before it is called.
+     */
+    private TableStats tableStats(String tableName) {
+        return stats == null ? TableStats.getTableStats(tableName)
+                : stats.get(tableName);
+    }
+
+    /**
+     * Returns the estimated cost of looking up the tuples of table
+     * j.t2Alias that join with one outer tuple through the index of the
+     * table, plus one per tuple found, or -1 if the table has no index on j.f2PureName that can
+     * answer j.p. The lookup is priced by
+     * {@link TableStats#estimateIndexScanCost}, for the share of the table
+     * that joins with each outer tuple according to
+     * {@link #estimateTableJoinCardinality}.
+     */
+    private double probeCost(LogicalJoinNode j, int card1) {
+        Integer tableId = j.t2Alias == null ? null : p.getTableId(j.t2Alias);
+        if (tableId == null)
+            return -1;
+        DbFile file = Database.getCatalog().getDbFile(tableId);
+        if (!(file instanceof IndexFile))
+            return -1;
+        IndexFile index = (IndexFile) file;
+        String field = file.getTupleDesc().getFieldName(index.keyField());
+        if (!j.f2PureName.equals(field)
+                || !index.supports(IndexNestedLoopJoin.reverse(j.p)))
+            return -1;
+        TableStats s = tableStats(Database.getCatalog().getTableName(tableId));
+        if (s == null)
+            return -1;
+        int total = Math.max(1, s.totalTuples());
+        int outer = Math.max(1, card1);
+        int joined = estimateTableJoinCardinality(j.p, j.t1Alias, j.t2Alias,
+                j.f1PureName, j.f2PureName, outer, total,
+                isPkey(j.t1Alias, j.f1PureName),
+                isPkey(j.t2Alias, j.f2PureName), stats,
+                p.getTableAliasToIdMapping());
+        double perProbe = Math.min(1.0, (double) joined / outer / total);
+        return s.estimateIndexScanCost(index, perProbe) + perProbe * total;
+    }
+
+    /**
+     * Returns true if j can be executed with a {@link HashEquiJoin}.
+     */
+    private static boolean hashable(LogicalJoinNode j) {
+        return j.p == Predicate.Op.EQUALS && !(j instanceof LogicalSubplanJoinNode);
+    }
+
+    /**
+     * Estimate the cost of a join, executed with the cheapest algorithm
+     * {@link #chooseJoinAlgorithm} finds for it.
      * 
      * The cost of the join should be calculated based on the join algorithm (or
      * algorithms) that you implemented for Project 2. It should be a function of
@@ -102,15 +256,169 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        LogicalJoinNode.Algorithm algorithm = chooseJoinAlgorithm(j, card1,
+                card2, cost1, cost2);
+        return estimateJoinCost(j, algorithm, card1, card2, cost1, cost2);
+    }
+
+    /**
+     * Returns the algorithm that joins j most cheaply, according to
+     * {@link #estimateJoinCost(LogicalJoinNode, LogicalJoinNode.Algorithm, int, int, double, double)}.
+     */
+    public LogicalJoinNode.Algorithm chooseJoinAlgorithm(LogicalJoinNode j,
+            int card1, int card2, double cost1, double cost2) {
+        return chooseJoinAlgorithm(j, card1, card2, cost1, cost2, false, false);
+    }
+
+    /**
+     * Returns the algorithm that joins j most cheaply, when it is known
+     * whether the inputs are already sorted on their join fields.
+     *
+     * @see #estimateJoinCost(LogicalJoinNode, LogicalJoinNode.Algorithm, int, int, double, double, boolean, boolean)
+     */
+    public LogicalJoinNode.Algorithm chooseJoinAlgorithm(LogicalJoinNode j,
+            int card1, int card2, double cost1, double cost2, boolean sorted1,
+            boolean sorted2) {
+        return chooseJoinAlgorithm(j, card1, card2, cost1, cost2, sorted1,
+                sorted2, true);
+    }
+
+    /**
+     * Returns the algorithm that joins j most cheaply, when it is known
+     * whether the inputs are already sorted and whether the right-hand input
+     * is the table j.t2Alias itself.
+     *
+     * @see #estimateJoinCost(LogicalJoinNode, LogicalJoinNode.Algorithm, int, int, double, double, boolean, boolean, boolean)
+     */
+    public LogicalJoinNode.Algorithm chooseJoinAlgorithm(LogicalJoinNode j,
+            int card1, int card2, double cost1, double cost2, boolean sorted1,
+            boolean sorted2, boolean table2) {
+        LogicalJoinNode.Algorithm best = LogicalJoinNode.Algorithm.NESTED_LOOP;
+        double bestCost = estimateJoinCost(j, best, card1, card2, cost1, cost2,
+                sorted1, sorted2, table2);
+        for (LogicalJoinNode.Algorithm algorithm : LogicalJoinNode.Algorithm.values()) {
+            double cost = estimateJoinCost(j, algorithm, card1, card2, cost1,
+                    cost2, sorted1, sorted2, table2);
+            if (cost < bestCost) {
+                best = algorithm;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Estimate the cost of executing a join with a particular algorithm, in
+     * the same units as {@link #estimateJoinCost(LogicalJoinNode, int, int, double, double)}.
+     * <ul>
+     * <li>NESTED_LOOP scans the inner input once per outer tuple and applies
+     * the predicate to every pair: cost1 + card1 * cost2 + card1 * card2.
+     * <li>BLOCK_NESTED_LOOP buffers the outer input
+     * {@link BlockNestedLoopJoin#DEFAULT_BLOCK_PAGES} pages (b tuples) at a
+     * time and scans the inner input once per block: cost1 +
+     * ceil(card1 / b) * cost2 + card1 * card2.
+     * <li>HASH (equality predicates only) hashes the outer input and probes
+     * it with one scan of the inner: cost1 + cost2 + card1 + card2. If the
+     * outer input is larger than {@link HashEquiJoin#DEFAULT_MEMORY_BYTES},
+     * the fraction f of both inputs that does not fit is written to spill
+     * files and read back once, adding 2 * f * (cost1 + cost2).
+     * <li>SORT_MERGE (EQUALS, &lt;, &lt;=, &gt;, &gt;= only) sorts each input
+     * that is not already sorted, at card * log2(card) plus 2 * cost if it
+     * does not fit in memory, then merges them at
+     * card1 + card2. A range predicate also pays for each of the
+     * RANGE_JOIN_SELECTIVITY * card1 * card2 pairs it emits, and is not
+     * possible if the inner input, which it buffers in memory, is larger
+     * than {@link SortMergeJoin#RANGE_MEMORY_BYTES}.
+     * <li>INDEX_NESTED_LOOP (only if table j.t2Alias is an {@link IndexFile}
+     * on field j.f2PureName that supports the predicate) looks up each outer
+     * tuple in the index: cost1 + card1 * (probe + m), where probe is the
+     * {@link TableStats#estimateIndexScanCost index scan cost} of the m
+     * tuples of the table joined with one outer tuple. The cost of the inner
+     * input is not paid at all, so a key-foreign key join costs about the
+     * same per outer tuple whatever the size of the indexed table.
+     * </ul>
+     * Inputs are assumed not to be sorted on their join fields, and the
+     * right-hand input is assumed to be the table j.t2Alias.
+     *
+     * @return the estimated cost, or Double.MAX_VALUE if j cannot be executed
+     *         with algorithm
+     */
+    public double estimateJoinCost(LogicalJoinNode j,
+            LogicalJoinNode.Algorithm algorithm, int card1, int card2,
+            double cost1, double cost2) {
+        return estimateJoinCost(j, algorithm, card1, card2, cost1, cost2,
+                false, false);
+    }
+
+    /**
+     * Estimate the cost of executing a join with a particular algorithm, as
+     * {@link #estimateJoinCost(LogicalJoinNode, LogicalJoinNode.Algorithm, int, int, double, double)}
+     * does, when it is known whether the inputs are already sorted.
+     *
+     * @param sorted1
+     *            true if the left-hand input is sorted ascending on its join
+     *            field
+     * @param sorted2
+     *            true if the right-hand input is sorted ascending on its join
+     *            field
+     */
+    public double estimateJoinCost(LogicalJoinNode j,
+            LogicalJoinNode.Algorithm algorithm, int card1, int card2,
+            double cost1, double cost2, boolean sorted1, boolean sorted2) {
+        return estimateJoinCost(j, algorithm, card1, card2, cost1, cost2,
+                sorted1, sorted2, true);
+    }
+
+    /**
+     * Estimate the cost of executing a join with a particular algorithm, as
+     * {@link #estimateJoinCost(LogicalJoinNode, LogicalJoinNode.Algorithm, int, int, double, double, boolean, boolean)}
+     * does, when it is known whether the right-hand input can be probed.
+     *
+     * @param table2
+     *            true if the right-hand input is the table j.t2Alias,
+     *            possibly filtered, rather than a join that includes it;
+     *            only then can INDEX_NESTED_LOOP use the table's index
+     */
+    public double estimateJoinCost(LogicalJoinNode j,
+            LogicalJoinNode.Algorithm algorithm, int card1, int card2,
+            double cost1, double cost2, boolean sorted1, boolean sorted2,
+            boolean table2) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Project 3.
+            if (algorithm != LogicalJoinNode.Algorithm.NESTED_LOOP)
+                return Double.MAX_VALUE;
             return card1 + cost1 + cost2;
-        } else {
-            // some code goes here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic nested-loops
-            // join.
+        }
+        switch (algorithm) {
+        case HASH:
+            if (!hashable(j))
+                return Double.MAX_VALUE;
+            double buildBytes = (double) card1 * rowBytes(j.t1Alias);
+            double spilled = buildBytes <= HashEquiJoin.DEFAULT_MEMORY_BYTES ? 0
+                    : 1 - HashEquiJoin.DEFAULT_MEMORY_BYTES / buildBytes;
+            return cost1 + cost2 + card1 + card2 + 2 * spilled * (cost1 + cost2);
+        case BLOCK_NESTED_LOOP:
+            double blocks = Math.ceil((double) card1 / blockTuples(j.t1Alias));
+            return cost1 + (blocks * cost2) + ((double) card1 * card2);
+        case SORT_MERGE:
+            if (!SortMergeJoin.supports(j.p))
+                return Double.MAX_VALUE;
+            double merge = card1 + card2;
+            if (j.p != Predicate.Op.EQUALS) {
+                // a range merge buffers up to the whole inner input
+                if ((double) card2 * rowBytes(j.t2Alias) > SortMergeJoin.RANGE_MEMORY_BYTES)
+                    return Double.MAX_VALUE;
+                merge += RANGE_JOIN_SELECTIVITY * card1 * card2;
+            }
+            return cost1 + cost2 + (sorted1 ? 0 : sortCost(card1, cost1, j.t1Alias))
+                    + (sorted2 ? 0 : sortCost(card2, cost2, j.t2Alias)) + merge;
+        case INDEX_NESTED_LOOP:
+            double probe = table2 ? probeCost(j, card1) : -1;
+            if (probe < 0)
+                return Double.MAX_VALUE;
+            return cost1 + card1 * probe;
+        default:
             return cost1 + (card1 * cost2) + (card1 * card2);
         }
     }
@@ -154,7 +462,7 @@ public class JoinOptimizer {
             String field2PureName, int card1, int card2, boolean t1pkey,
             boolean t2pkey, Map<String, TableStats> stats,
             Map<String, Integer> tableAliasToId) {
-        double factor = 0.3;
+        double factor = RANGE_JOIN_SELECTIVITY;
         // some code goes here
         switch(joinOp) {
             case EQUALS:
@@ -234,6 +542,7 @@ public class JoinOptimizer {
         // should work.
 
         // some code goes here
+        this.stats = stats;
         PlanCache pc = new PlanCache();
         for (int i = 1; i <= joins.size(); i++) {
             Set<Set<LogicalJoinNode>> subsets = enumerateSubsets(joins, i);
@@ -388,19 +697,37 @@ public class JoinOptimizer {
             }
         }
 
+        // a sort-merge join in prevBest may leave its output sorted
+        boolean t1sorted = doesJoin(prevBest, table1Alias)
+                && isSortedOn(prevBest, j.f1QuantifiedName);
+        boolean t2sorted = j.t2Alias != null && doesJoin(prevBest, j.t2Alias)
+                && isSortedOn(prevBest, j.f2QuantifiedName);
+
+        // only a table not yet joined can be probed through its index
+        boolean t1table = !doesJoin(prevBest, table1Alias);
+        boolean t2table = j.t2Alias != null && !doesJoin(prevBest, j.t2Alias);
+
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        LogicalJoinNode.Algorithm alg1 = chooseJoinAlgorithm(j, t1card, t2card,
+                t1cost, t2cost, t1sorted, t2sorted, t2table);
+        double cost1 = estimateJoinCost(j, alg1, t1card, t2card, t1cost,
+                t2cost, t1sorted, t2sorted, t2table);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        LogicalJoinNode.Algorithm alg2 = chooseJoinAlgorithm(j2, t2card, t1card,
+                t2cost, t1cost, t2sorted, t1sorted, t1table);
+        double cost2 = estimateJoinCost(j2, alg2, t2card, t1card, t2cost,
+                t1cost, t2sorted, t1sorted, t1table);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
+            alg1 = alg2;
             cost1 = cost2;
             tmp = rightPkey;
             rightPkey = leftPkey;
             leftPkey = tmp;
         }
+        j = j.withAlgorithm(alg1);
         if (cost1 >= bestCostSoFar)
             return null;
 
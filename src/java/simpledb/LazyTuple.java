@@ -0,0 +1,79 @@
+package simpledb;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
+/**
+ * LazyTuple is a Tuple that reads its fields straight from the bytes of the
+ * HeapPage it lives on, decoding each field the first time it is asked for.
+ * A scan that only looks at one column of a row, or drops the row after
+ * checking one predicate, never allocates the other fields.
+ * <p>
+ * A LazyTuple keeps its whole page's bytes reachable, so operators that
+ * hold on to tuples store {@link #materialize}d copies instead.
+ */
+public class LazyTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    private transient byte[] data;
+    private transient int offset;
+    private transient int[] fieldOffsets;
+    private boolean modified = false;
+
+    /**
+     * Creates a view of the tuple stored at data[offset].
+     *
+     * @param td the schema of the tuple
+     * @param data the page bytes; must not change while the view is in use
+     * @param offset where the tuple starts in data
+     * @param fieldOffsets where each field starts, relative to offset
+     */
+    public LazyTuple(TupleDesc td, byte[] data, int offset, int[] fieldOffsets) {
+        super(td);
+        this.data = data;
+        this.offset = offset;
+        this.fieldOffsets = fieldOffsets;
+    }
+
+    public Field getField(int i) {
+        Field f = super.getField(i);
+        if (f == null && data != null) {
+            f = td.getFieldType(i).parse(data, offset + fieldOffsets[i]);
+            super.setField(i, f);
+        }
+        return f;
+    }
+
+    public void setField(int i, Field f) {
+        modified = true;
+        super.setField(i, f);
+    }
+
+    /**
+     * Returns a plain Tuple with every field decoded, so that keeping it
+     * does not keep this tuple's page bytes alive.
+     */
+    public Tuple materialize() {
+        Tuple copy = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++)
+            copy.setField(i, getField(i));
+        copy.setRecordId(getRecordId());
+        return copy;
+    }
+
+    /**
+     * Returns true if this tuple still holds exactly the bytes at
+     * data[offset], so a page can copy them instead of re-serializing it.
+     */
+    boolean isUnmodifiedView(byte[] data, int offset) {
+        return !modified && this.data == data && this.offset == offset;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        // the page bytes are not serialized, so decode everything first
+        for (int i = 0; i < td.numFields(); i++)
+            getField(i);
+        out.defaultWriteObject();
+    }
+}
@@ -0,0 +1,231 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.*;
+
+/**
+ * LockManager grants page-level shared and exclusive locks to transactions.
+ * <p>
+ * Any number of transactions may share a page; an exclusive lock excludes
+ * every other transaction. A transaction that holds the only shared lock on
+ * a page may upgrade it to an exclusive lock. A transaction that cannot be
+ * granted a lock waits, and the waits-for graph is checked for a cycle each
+ * time it has to wait; if waiting would deadlock, the requesting transaction
+ * is aborted with a TransactionAbortedException instead.
+ * <p>
+ * Each locked page has its own Condition, so releasing a lock only wakes
+ * the transactions waiting for that page. Pages nobody holds or waits for
+ * are dropped from the lock table.
+ */
+public class LockManager {
+
+    /** Lock state of one page. */
+    private class PageLock {
+        final HashSet<TransactionId> shared = new HashSet<TransactionId>();
+        TransactionId exclusive = null;
+        final Condition released = latch.newCondition();
+        int waiters = 0;
+
+        boolean grantable(TransactionId tid, boolean wantExclusive) {
+            if (exclusive != null)
+                return exclusive.equals(tid);
+            if (!wantExclusive)
+                return true;
+            return shared.isEmpty() || (shared.size() == 1 && shared.contains(tid));
+        }
+
+        /** The transactions tid would be waiting for. */
+        Set<TransactionId> holders(TransactionId tid) {
+            HashSet<TransactionId> holders = new HashSet<TransactionId>(shared);
+            if (exclusive != null)
+                holders.add(exclusive);
+            holders.remove(tid);
+            return holders;
+        }
+
+        boolean unused() {
+            return exclusive == null && shared.isEmpty() && waiters == 0;
+        }
+    }
+
+    private final ReentrantLock latch = new ReentrantLock();
+    private final HashMap<PageId, PageLock> locks = new HashMap<PageId, PageLock>();
+    private final HashMap<TransactionId, HashSet<PageId>> held =
+            new HashMap<TransactionId, HashSet<PageId>>();
+    // waits-for graph: each waiting transaction and the transactions it waits for
+    private final HashMap<TransactionId, Set<TransactionId>> waitsFor =
+            new HashMap<TransactionId, Set<TransactionId>>();
+
+    private final AtomicLong waits = new AtomicLong();
+    private final AtomicLong aborts = new AtomicLong();
+
+    /**
+     * Acquires a lock on pid for tid, waiting until it can be granted.
+     *
+     * @param exclusive true for an exclusive lock, false for a shared one
+     * @throws TransactionAbortedException if waiting would deadlock, or the
+     *         thread is interrupted while waiting
+     */
+    public void acquire(TransactionId tid, PageId pid, boolean exclusive)
+            throws TransactionAbortedException {
+        latch.lock();
+        try {
+            PageLock lock = locks.get(pid);
+            if (lock == null) {
+                lock = new PageLock();
+                locks.put(pid, lock);
+            }
+            boolean waited = false;
+            try {
+                while (!lock.grantable(tid, exclusive)) {
+                    waitsFor.put(tid, lock.holders(tid));
+                    if (deadlocked(tid)) {
+                        aborts.incrementAndGet();
+                        throw new TransactionAbortedException();
+                    }
+                    if (!waited) {
+                        waits.incrementAndGet();
+                        waited = true;
+                    }
+                    lock.waiters++;
+                    try {
+                        lock.released.await();
+                    } catch (InterruptedException e) {
+                        aborts.incrementAndGet();
+                        throw new TransactionAbortedException();
+                    } finally {
+                        lock.waiters--;
+                    }
+                }
+            } catch (TransactionAbortedException e) {
+                if (lock.unused())
+                    locks.remove(pid);
+                throw e;
+            } finally {
+                waitsFor.remove(tid);
+            }
+
+            if (exclusive) {
+                lock.shared.remove(tid);
+                lock.exclusive = tid;
+            } else if (lock.exclusive == null) {
+                lock.shared.add(tid);
+            }
+            HashSet<PageId> pages = held.get(tid);
+            if (pages == null) {
+                pages = new HashSet<PageId>();
+                held.put(tid, pages);
+            }
+            pages.add(pid);
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * Returns true if tid, waiting for the transactions in waitsFor, can
+     * reach itself in the waits-for graph.
+     */
+    private boolean deadlocked(TransactionId tid) {
+        HashSet<TransactionId> seen = new HashSet<TransactionId>();
+        ArrayDeque<TransactionId> stack = new ArrayDeque<TransactionId>(waitsFor.get(tid));
+        while (!stack.isEmpty()) {
+            TransactionId t = stack.pop();
+            if (t.equals(tid))
+                return true;
+            if (!seen.add(t))
+                continue;
+            Set<TransactionId> next = waitsFor.get(t);
+            if (next != null)
+                stack.addAll(next);
+        }
+        return false;
+    }
+
+    /** Releases tid's lock on pid, if it has one. */
+    public void release(TransactionId tid, PageId pid) {
+        latch.lock();
+        try {
+            HashSet<PageId> pages = held.get(tid);
+            if (pages != null) {
+                pages.remove(pid);
+                if (pages.isEmpty())
+                    held.remove(tid);
+            }
+            unlock(tid, pid);
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /** Releases every lock tid holds. */
+    public void releaseAll(TransactionId tid) {
+        latch.lock();
+        try {
+            HashSet<PageId> pages = held.remove(tid);
+            if (pages == null)
+                return;
+            for (PageId pid : pages)
+                unlock(tid, pid);
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    private void unlock(TransactionId tid, PageId pid) {
+        PageLock lock = locks.get(pid);
+        if (lock == null)
+            return;
+        lock.shared.remove(tid);
+        if (lock.exclusive != null && lock.exclusive.equals(tid))
+            lock.exclusive = null;
+        lock.released.signalAll();
+        if (lock.unused())
+            locks.remove(pid);
+    }
+
+    /** Returns true if tid holds a shared or exclusive lock on pid. */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        latch.lock();
+        try {
+            HashSet<PageId> pages = held.get(tid);
+            return pages != null && pages.contains(pid);
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /** Returns the pages tid holds locks on. */
+    public Set<PageId> pagesLockedBy(TransactionId tid) {
+        latch.lock();
+        try {
+            HashSet<PageId> pages = held.get(tid);
+            if (pages == null)
+                return Collections.emptySet();
+            return new HashSet<PageId>(pages);
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /** Returns the number of lock requests that had to wait. */
+    public long getWaitCount() {
+        return waits.get();
+    }
+
+    /** Returns the number of transactions aborted to break a deadlock. */
+    public long getAbortCount() {
+        return aborts.get();
+    }
+
+    /** Returns the number of pages currently locked or waited for. */
+    public int getLockTableSize() {
+        latch.lock();
+        try {
+            return locks.size();
+        } finally {
+            latch.unlock();
+        }
+    }
+}
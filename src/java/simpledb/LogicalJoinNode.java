@@ -4,6 +4,23 @@ package simpledb;
  * tables in a LogicalQueryPlan */
 public class LogicalJoinNode {
 
+    /** The physical join operators a LogicalJoinNode can be executed with. */
+    public enum Algorithm {
+        /** {@link Join}: one scan of the inner input per outer tuple. */
+        NESTED_LOOP,
+        /** {@link BlockNestedLoopJoin}: one scan of the inner input per block
+         * of outer tuples. */
+        BLOCK_NESTED_LOOP,
+        /** {@link HashEquiJoin}: hash the outer input, probe with the inner. */
+        HASH,
+        /** {@link SortMergeJoin}: sort both inputs on the join fields and
+         * merge them. */
+        SORT_MERGE,
+        /** {@link IndexNestedLoopJoin}: look up each outer tuple in an index
+         * of the inner table. */
+        INDEX_NESTED_LOOP
+    }
+
     /** The first table to join (may be null). It's the alias of the table (if no alias, the true table name) */
     public String t1Alias;
 
@@ -23,6 +40,10 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** The algorithm chosen by {@link JoinOptimizer#orderJoins}, or null if
+     * the join has not been planned. */
+    public Algorithm algorithm;
+
     public LogicalJoinNode() {
     }
 
@@ -63,6 +84,14 @@ public class LogicalJoinNode {
         return j2;
     }
     
+    /** Return a copy of this join that is to be executed with the given
+     * algorithm. */
+    public LogicalJoinNode withAlgorithm(Algorithm algorithm) {
+        LogicalJoinNode j2 = new LogicalJoinNode(t1Alias, t2Alias, f1PureName, f2PureName, p);
+        j2.algorithm = algorithm;
+        return j2;
+    }
+
     @Override public boolean equals(Object o) {
         LogicalJoinNode j2 =(LogicalJoinNode)o;
         return (j2.t1Alias.equals(t1Alias)  || j2.t1Alias.equals(t2Alias)) && (j2.t2Alias.equals(t1Alias)  || j2.t2Alias.equals(t2Alias));
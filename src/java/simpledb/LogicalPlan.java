@@ -1,4 +1,6 @@
 package simpledb;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
@@ -29,12 +31,13 @@ public class LogicalPlan {
     private HashMap<String,Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private Vector<String> groupByFields = new Vector<String>();
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
+    private Vector<String> aggOps = new Vector<String>();
+    private Vector<String> aggFields = new Vector<String>();
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    private int limit = -1;
     private String query;
 //    private Query owner;
 
@@ -186,20 +189,38 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield the field to group by, or null
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
-        afield=disambiguateName(afield);
-        if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+        Vector<String> gfields = new Vector<String>();
+        if (gfield != null)
+            gfields.add(gfield);
+        addAggregate(Arrays.asList(op), Arrays.asList(afield), gfields);
+    }
+
+    /** Add aggregates over the specified fields, all with the same grouping,
+        to the query.  All of them are computed in one pass over the input.
+        @param ops the aggregation operator of each aggregate
+        @param afields the field each aggregate is over
+        @param gfields the fields to group by; empty if there is no grouping
+     * @throws ParsingException 
+    */
+    public void addAggregate(List<String> ops, List<String> afields, List<String> gfields) throws ParsingException {
+        if (ops.size() != afields.size())
+            throw new ParsingException(ops.size() + " aggregate operators but " + afields.size() + " aggregate fields");
+        aggOps.clear();
+        aggFields.clear();
+        groupByFields.clear();
+        for (int i = 0; i < ops.size(); i++) {
+            aggOps.add(ops.get(i));
+            aggFields.add(disambiguateName(afields.get(i)));
+        }
+        for (String gfield : gfields)
+            groupByFields.add(disambiguateName(gfield));
         hasAgg = true;
     }
 
@@ -216,6 +237,14 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Add a LIMIT: only the first n result tuples are returned.  With an ORDER BY,
+        the sort is done by a {@link TopN} that keeps just n tuples.
+        @param n the number of tuples to return
+    */
+    public void setLimit(int n) {
+        limit = n;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -306,6 +335,9 @@ public class LogicalPlan {
 
         }
 
+        // the predicates of the filters on each table, with their selectivities
+        HashMap<String,ArrayList<Predicate>> tablePreds = new HashMap<String,ArrayList<Predicate>>();
+        HashMap<String,ArrayList<Double>> predSelectivities = new HashMap<String,ArrayList<Double>>();
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -334,15 +366,57 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
             double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
+            if (!tablePreds.containsKey(lf.tableAlias)) {
+                tablePreds.put(lf.tableAlias, new ArrayList<Predicate>());
+                predSelectivities.put(lf.tableAlias, new ArrayList<Double>());
+            }
+            tablePreds.get(lf.tableAlias).add(p);
+            predSelectivities.get(lf.tableAlias).add(sel);
+
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        // choose the access path of each filtered table: an IndexScan for
+        // the most selective predicate its index can answer, if that reads
+        // fewer (random) pages than a SeqScan, with the other predicates as
+        // Filters above it
+        for (Map.Entry<String,ArrayList<Predicate>> e : tablePreds.entrySet()) {
+            String alias = e.getKey();
+            ArrayList<Predicate> preds = e.getValue();
+            ArrayList<Double> sels = predSelectivities.get(alias);
+            int tableId = getTableId(alias);
+            DbFile file = Database.getCatalog().getDbFile(tableId);
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(tableId));
+
+            int best = -1;
+            for (int i = 0; i < preds.size(); i++) {
+                if (IndexScan.canUse(file, preds.get(i))
+                        && (best < 0 || sels.get(i) < sels.get(best)))
+                    best = i;
+            }
+            DbIterator subplan = subplanMap.get(alias);
+            if (best >= 0 && s.estimateIndexScanCost((IndexFile) file,
+                    sels.get(best)) < s.estimateScanCost())
+                subplan = new IndexScan(t, tableId, alias, preds.get(best));
+            else
+                best = -1;
+            DbIterator scan = subplan;
+            for (int i = 0; i < preds.size(); i++) {
+                if (i == best)
+                    continue;
+                // a SeqScan skips the pages its zone map rules out
+                if (best < 0 && scan instanceof SeqScan)
+                    ((SeqScan) scan).pushDown(preds.get(i));
+                subplan = new Filter(preds.get(i), subplan);
+            }
+            subplanMap.put(alias, subplan);
+        }
         
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
@@ -414,7 +488,12 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                int k = 0;
+                while (k < aggOps.size() && !(aggOps.get(k).equals(si.aggOp) && aggFields.get(k).equals(si.fname)))
+                    k++;
+                if (k == aggOps.size())
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") in SELECT list is not computed");
+                outFields.add(groupByFields.size() + k);
                 TupleDesc td = node.getTupleDesc();
 //                int  id;
                 try {
@@ -426,16 +505,17 @@ public class LogicalPlan {
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int k = groupByFields.indexOf(si.fname);
+                    if (k < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(k);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -460,12 +540,23 @@ public class LogicalPlan {
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            DbIterator aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int[] afields = new int[aggFields.size()];
+                Aggregator.Op[] aops = new Aggregator.Op[aggOps.size()];
+                for (int i = 0; i < afields.length; i++) {
+                    afields[i] = td.fieldNameToIndex(aggFields.get(i));
+                    aops[i] = getAggOp(aggOps.get(i));
+                }
+                int[] gfields = new int[groupByFields.size()];
+                for (int i = 0; i < gfields.length; i++)
+                    gfields[i] = td.fieldNameToIndex(groupByFields.get(i));
+                // input already ordered on the group field can be aggregated
+                // one group at a time
+                if (gfields.length == 1 && SortMergeJoin.isSortedOn(node, gfields[0]))
+                    aggNode = new StreamAggregate(node, afields, gfields[0], aops);
+                else
+                    aggNode = new Aggregate(node, afields, gfields, aops);
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -475,7 +566,18 @@ public class LogicalPlan {
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int oByIndex = node.getTupleDesc().fieldNameToIndex(oByField);
+            if (!(oByAsc && SortMergeJoin.isSortedOn(node, oByIndex)))
+                node = new OrderBy(oByIndex, oByAsc, node);
+        }
+
+        if (limit >= 0) {
+            if (node instanceof OrderBy) {
+                OrderBy o = (OrderBy) node;
+                node = new TopN(o.getOrderByField(), o.isASC(), limit, o.getChildren()[0]);
+            } else {
+                node = new Limit(limit, node);
+            }
         }
 
         return new Project(outFields, outTypes, node);
@@ -0,0 +1,112 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum). The victim is the page
+ * whose K-th most recent reference is oldest; pages referenced fewer than K
+ * times count as infinitely old and go first, least recently used first.
+ * Pages touched once by a scan are thus evicted before pages that are read
+ * repeatedly.
+ * <p>
+ * Reference history is kept for evicted pages too (as many as the pool has
+ * held), so a page that comes back soon keeps its history. Pages are kept
+ * ordered in a TreeSet, so loads, hits and removals cost O(log n).
+ */
+public class LruKPolicy implements ReplacementPolicy {
+
+    /** Default number of references tracked per page. */
+    public static final int DEFAULT_K = 2;
+
+    private static class History {
+        final PageId pid;
+        final long[] times; // times[0] is the most recent reference
+        History(PageId pid, int k) {
+            this.pid = pid;
+            this.times = new long[k];
+        }
+        void reference(long now) {
+            System.arraycopy(times, 0, times, 1, times.length - 1);
+            times[0] = now;
+        }
+        long kth() {
+            return times[times.length - 1];
+        }
+    }
+
+    private static final Comparator<History> ORDER = new Comparator<History>() {
+        public int compare(History a, History b) {
+            // an unset K-th reference (0) sorts first
+            if (a.kth() != b.kth())
+                return a.kth() < b.kth() ? -1 : 1;
+            if (a.times[0] != b.times[0])
+                return a.times[0] < b.times[0] ? -1 : 1;
+            return 0;
+        }
+    };
+
+    private final int k;
+    private long clock = 0;
+    private final HashMap<PageId, History> resident = new HashMap<PageId, History>();
+    private final TreeSet<History> order = new TreeSet<History>(ORDER);
+    private final LinkedHashMap<PageId, History> retained =
+            new LinkedHashMap<PageId, History>() {
+                private static final long serialVersionUID = 1L;
+
+                protected boolean removeEldestEntry(Map.Entry<PageId, History> e) {
+                    return size() > Math.max(1, maxResident);
+                }
+            };
+    private int maxResident = 0;
+
+    /** Creates an LRU-2 policy. */
+    public LruKPolicy() {
+        this(DEFAULT_K);
+    }
+
+    /** Creates an LRU-K policy tracking the last k references of each page. */
+    public LruKPolicy(int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be at least 1");
+        this.k = k;
+    }
+
+    public void pageLoaded(PageId pid) {
+        if (resident.containsKey(pid)) {
+            pageAccessed(pid);
+            return;
+        }
+        History h = retained.remove(pid);
+        if (h == null)
+            h = new History(pid, k);
+        h.reference(++clock);
+        resident.put(pid, h);
+        order.add(h);
+        maxResident = Math.max(maxResident, resident.size());
+    }
+
+    public void pageAccessed(PageId pid) {
+        History h = resident.get(pid);
+        if (h == null)
+            return;
+        order.remove(h);
+        h.reference(++clock);
+        order.add(h);
+    }
+
+    public void pageRemoved(PageId pid) {
+        History h = resident.remove(pid);
+        if (h != null) {
+            order.remove(h);
+            retained.put(pid, h);
+        }
+    }
+
+    public PageId chooseVictim(VictimFilter filter) {
+        for (History h : order) {
+            if (filter.evictable(h.pid))
+                return h.pid;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,34 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Least recently used replacement. Recency is kept in an access-ordered
+ * LinkedHashMap, so loads, hits and removals are O(1).
+ */
+public class LruPolicy implements ReplacementPolicy {
+
+    private final LinkedHashMap<PageId, Boolean> pages =
+            new LinkedHashMap<PageId, Boolean>(16, 0.75f, true);
+
+    public void pageLoaded(PageId pid) {
+        pages.put(pid, Boolean.TRUE);
+    }
+
+    public void pageAccessed(PageId pid) {
+        pages.get(pid);
+    }
+
+    public void pageRemoved(PageId pid) {
+        pages.remove(pid);
+    }
+
+    public PageId chooseVictim(VictimFilter filter) {
+        // iteration runs from least to most recently used
+        for (PageId pid : pages.keySet()) {
+            if (filter.evictable(pid))
+                return pid;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,243 @@
+package simpledb;
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Knows how to compute several aggregates at once, grouped by any number of
+ * fields, in one pass over the tuples.
+ * <p>
+ * Every group gets a number the first time it is seen, from an
+ * {@link IntGroupTable} when grouping on a single int field and from a
+ * HashMap keyed on the group values otherwise, and each aggregate is kept
+ * in long[]s indexed by group number, as in {@link IntegerAggregator}. The
+ * result tuples are the group values followed by one INT_TYPE field per
+ * aggregate, in the order given to the constructor. String fields can only
+ * be counted.
+ */
+public class MultiAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] gbfields;
+    private final int[] afields;
+    private final Op[] whats;
+    private final TupleDesc resultTd;
+
+    // group numbers of int keys; null unless grouping on one int field
+    private IntGroupTable intGroups;
+    // group numbers and values of other keys; null if intGroups is used
+    private HashMap<GroupKey, Integer> groups;
+    private ArrayList<Field[]> keys;
+    private int numGroups = 0;
+
+    // vals[i][g] is the sum, count, min or max of aggregate i for group g
+    private long[][] vals;
+    // counts[i][g] is the number of values of group g, for AVG only
+    private long[][] counts;
+
+    /**
+     * Aggregate constructor
+     *
+     * @param td
+     *            the TupleDesc of the tuples to aggregate
+     * @param gbfields
+     *            the 0-based indexes of the group-by fields in the tuple, or
+     *            an empty array if there is no grouping
+     * @param afields
+     *            the 0-based indexes of the aggregate fields in the tuple
+     * @param whats
+     *            the aggregation operator of each aggregate field
+     * @throws IllegalArgumentException
+     *             if a string field is aggregated with anything but COUNT
+     */
+    public MultiAggregator(TupleDesc td, int[] gbfields, int[] afields,
+            Op[] whats) {
+        if (afields.length != whats.length)
+            throw new IllegalArgumentException(afields.length
+                    + " aggregate fields but " + whats.length + " operators");
+        this.gbfields = gbfields.clone();
+        this.afields = afields.clone();
+        this.whats = whats.clone();
+
+        Type[] types = new Type[gbfields.length + afields.length];
+        String[] names = new String[types.length];
+        for (int i = 0; i < gbfields.length; i++) {
+            types[i] = td.getFieldType(gbfields[i]);
+            names[i] = td.getFieldName(gbfields[i]);
+        }
+        for (int i = 0; i < afields.length; i++) {
+            if (td.getFieldType(afields[i]) != Type.INT_TYPE
+                    && whats[i] != Op.COUNT)
+                throw new IllegalArgumentException(
+                        "Aggregation over strings only supports COUNT operator!");
+            types[gbfields.length + i] = Type.INT_TYPE;
+            names[gbfields.length + i] = whats[i] + "("
+                    + td.getFieldName(afields[i]) + ")";
+        }
+        resultTd = new TupleDesc(types, names);
+
+        if (gbfields.length == 1 && types[0] == Type.INT_TYPE) {
+            intGroups = new IntGroupTable();
+        } else {
+            groups = new HashMap<GroupKey, Integer>();
+            keys = new ArrayList<Field[]>();
+        }
+        int capacity = gbfields.length == 0 ? 1 : 16;
+        vals = new long[afields.length][];
+        counts = new long[afields.length][];
+        for (int i = 0; i < afields.length; i++) {
+            vals[i] = new long[capacity];
+            if (whats[i] == Op.AVG)
+                counts[i] = new long[capacity];
+        }
+    }
+
+    /** The group-by values of a tuple, as a HashMap key. */
+    private static class GroupKey implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final Field[] fields;
+        final int hash;
+
+        GroupKey(Field[] fields) {
+            this.fields = fields;
+            this.hash = Arrays.hashCode(fields);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof GroupKey
+                    && Arrays.equals(fields, ((GroupKey) o).fields);
+        }
+    }
+
+    /**
+     * Returns the group number of tup, adding a new group if its group-by
+     * values have not been seen before and add is true, or returning -1 if
+     * it is false.
+     */
+    private int groupOf(Tuple tup, boolean add) {
+        int g;
+        if (intGroups != null) {
+            int key = ((IntField) tup.getField(gbfields[0])).getValue();
+            g = add ? intGroups.groupOf(key) : intGroups.find(key);
+        } else {
+            Field[] fields = new Field[gbfields.length];
+            for (int i = 0; i < gbfields.length; i++)
+                fields[i] = tup.getField(gbfields[i]);
+            GroupKey key = new GroupKey(fields);
+            Integer found = groups.get(key);
+            if (found == null) {
+                if (!add)
+                    return -1;
+                found = keys.size();
+                groups.put(key, found);
+                keys.add(fields);
+            }
+            g = found;
+        }
+        if (g == numGroups) {
+            if (!add)
+                return -1;
+            addGroup();
+        }
+        return g;
+    }
+
+    /** Makes room for group numGroups and sets its accumulators. */
+    private void addGroup() {
+        int g = numGroups++;
+        for (int i = 0; i < whats.length; i++) {
+            if (g == vals[i].length) {
+                vals[i] = Arrays.copyOf(vals[i], g * 2);
+                if (counts[i] != null)
+                    counts[i] = Arrays.copyOf(counts[i], g * 2);
+            }
+            if (whats[i] == Op.MIN)
+                vals[i][g] = Long.MAX_VALUE;
+            else if (whats[i] == Op.MAX)
+                vals[i][g] = Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Merge a new tuple into the aggregates, grouping as indicated in the
+     * constructor
+     *
+     * @param tup
+     *            the Tuple containing the aggregate and group-by fields
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        merge(tup, true);
+    }
+
+    public boolean mergeTupleIntoExistingGroup(Tuple tup) {
+        return merge(tup, false);
+    }
+
+    public int numGroups() {
+        return numGroups;
+    }
+
+    private boolean merge(Tuple tup, boolean add) {
+        int g = groupOf(tup, add);
+        if (g < 0)
+            return false;
+        for (int i = 0; i < whats.length; i++) {
+            long[] v = vals[i];
+            if (whats[i] == Op.COUNT) {
+                v[g]++;
+                continue;
+            }
+            int val = ((IntField) tup.getField(afields[i])).getValue();
+            switch (whats[i]) {
+            case MIN:
+                if (val < v[g])
+                    v[g] = val;
+                break;
+            case MAX:
+                if (val > v[g])
+                    v[g] = val;
+                break;
+            case AVG:
+                counts[i][g]++;
+                v[g] += val;
+                break;
+            default:
+                v[g] += val;
+                break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Create a DbIterator over group aggregate results.
+     *
+     * @return a DbIterator whose tuples are the group-by values followed by
+     *         the value of each aggregate
+     */
+    public DbIterator iterator() {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>(numGroups);
+        for (int g = 0; g < numGroups; g++) {
+            Tuple t = new Tuple(resultTd);
+            if (intGroups != null) {
+                t.setField(0, new IntField(intGroups.key(g)));
+            } else {
+                Field[] key = keys.get(g);
+                for (int i = 0; i < key.length; i++)
+                    t.setField(i, key[i]);
+            }
+            for (int i = 0; i < whats.length; i++) {
+                long v = whats[i] == Op.AVG ? vals[i][g] / counts[i][g]
+                        : vals[i][g];
+                t.setField(gbfields.length + i, new IntField((int) v));
+            }
+            tuples.add(t);
+        }
+        return new TupleIterator(resultTd, tuples);
+    }
+}
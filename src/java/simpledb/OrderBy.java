@@ -1,13 +1,30 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * If the child fits in the memory budget it is sorted in memory. Otherwise
+ * it is sorted externally: the child is read a budget's worth at a time,
+ * each such run is sorted and written to a {@link SpillFile}, and the runs
+ * are merged with a priority queue. If there are more runs than can be
+ * read at once within the budget, groups of them are first merged into
+ * longer runs. Equal keys keep the order they had in the child.
+ * <p>
+ * Memory is estimated as td.getSize() + ROW_OVERHEAD bytes per tuple.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Memory budget used by the three-argument constructor, in bytes. */
+    public static final long DEFAULT_MEMORY_BYTES = 16L << 20;
+
+    /** Estimated bytes of Java overhead per tuple held in memory. */
+    static final int ROW_OVERHEAD = 64;
+
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
@@ -15,6 +32,12 @@ public class OrderBy extends Operator {
     private String orderByFieldName;
     private Iterator<Tuple> it;
     private boolean asc;
+    private final long memoryBytes;
+    // sorted runs on disk, empty if the child was sorted in memory
+    transient private ArrayList<SpillFile> runs = new ArrayList<SpillFile>();
+    transient private Merge merge = null;
+    private int numRuns = 0;
+    private long spillPages = 0;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -27,11 +50,24 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, DbIterator child) {
+        this(orderbyField, asc, child, DEFAULT_MEMORY_BYTES);
+    }
+
+    /**
+     * Creates a new OrderBy node with the given memory budget.
+     *
+     * @param memoryBytes
+     *            approximate number of bytes of tuples to hold in memory;
+     *            larger inputs are sorted in runs of this size on disk
+     */
+    public OrderBy(int orderbyField, boolean asc, DbIterator child,
+            long memoryBytes) {
         this.child = child;
         td = child.getTupleDesc();
         this.orderByField = orderbyField;
         this.orderByFieldName = td.getFieldName(orderbyField);
         this.asc = asc;
+        this.memoryBytes = memoryBytes;
     }
     
     public boolean isASC()
@@ -53,24 +89,129 @@ public class OrderBy extends Operator {
         return td;
     }
 
+    /** Returns the memory budget, in bytes. */
+    public long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    /**
+     * Returns the number of sorted runs written by the last open(), before
+     * any merging; 0 if the child was sorted in memory.
+     */
+    public int getNumRuns() {
+        return numRuns;
+    }
+
+    /** Returns the number of pages written to run files so far. */
+    public long getSpillPages() {
+        return spillPages;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        childTups.clear();
+        deleteRuns();
+        numRuns = 0;
+        long maxTups = Math.max(1, memoryBytes / (td.getSize() + ROW_OVERHEAD));
+        // load the tuples in a collection, and sort it; every time the
+        // collection reaches the budget, write it out as a run
+        try {
+            while (child.hasNext()) {
+                childTups.add(child.next().materialize());
+                if (childTups.size() >= maxTups)
+                    writeRun();
+            }
+            if (runs.isEmpty()) {
+                Collections.sort(childTups, new TupleComparator(orderByField, asc));
+                it = childTups.iterator();
+            } else {
+                if (!childTups.isEmpty())
+                    writeRun();
+                numRuns = runs.size();
+                mergeRuns();
+                merge = new Merge(runs);
+            }
+        } catch (IOException e) {
+            deleteRuns();
+            throw new DbException("cannot write sort run: " + e);
+        }
         super.open();
     }
 
+    /** Sorts childTups, writes them to a new run and clears childTups. */
+    private void writeRun() throws IOException, DbException {
+        Collections.sort(childTups, new TupleComparator(orderByField, asc));
+        SpillFile run = new SpillFile(td);
+        for (Tuple t : childTups)
+            run.add(t);
+        run.flush();
+        spillPages += run.numPages();
+        runs.add(run);
+        childTups.clear();
+    }
+
+    /**
+     * Merges neighbouring runs into longer ones, a pass at a time, until all
+     * the runs can be merged at once with SpillFile.WRITE_BATCH pages
+     * buffered per run. Runs stay in input order, so the sort stays stable.
+     */
+    private void mergeRuns() throws IOException, DbException,
+            TransactionAbortedException {
+        long runBytes = (long) SpillFile.WRITE_BATCH * BufferPool.PAGE_SIZE;
+        int fanIn = (int) Math.max(2, Math.min(Integer.MAX_VALUE, memoryBytes / runBytes));
+        while (runs.size() > fanIn) {
+            ArrayList<SpillFile> merged = new ArrayList<SpillFile>();
+            for (int i = 0; i < runs.size(); i += fanIn) {
+                List<SpillFile> group = runs.subList(i,
+                        Math.min(i + fanIn, runs.size()));
+                if (group.size() == 1) {
+                    merged.add(group.get(0));
+                    continue;
+                }
+                Merge m = new Merge(group);
+                SpillFile out = new SpillFile(td);
+                Tuple t;
+                while ((t = m.next()) != null)
+                    out.add(t);
+                out.flush();
+                m.close();
+                spillPages += out.numPages();
+                for (SpillFile f : group)
+                    f.delete();
+                merged.add(out);
+            }
+            runs = merged;
+        }
+    }
+
+    private void deleteRuns() {
+        if (merge != null) {
+            merge.close();
+            merge = null;
+        }
+        for (SpillFile f : runs)
+            f.delete();
+        runs.clear();
+    }
+
     public void close() {
         super.close();
         it = null;
+        deleteRuns();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        if (runs.isEmpty()) {
+            it = childTups.iterator();
+            return;
+        }
+        merge.close();
+        try {
+            merge = new Merge(runs);
+        } catch (IOException e) {
+            throw new DbException("cannot read sort run: " + e);
+        }
     }
 
     /**
@@ -82,6 +223,8 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
+        if (merge != null)
+            return merge.next();
         if (it != null && it.hasNext()) {
             return it.next();
         } else
@@ -98,26 +241,66 @@ public class OrderBy extends Operator {
         this.child = children[0];
     }
 
-}
-
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
+    /** The next tuple of one run, while the run is being merged. */
+    private static class Head {
+        Tuple t;
+        final int run;
+        final DbFileIterator it;
 
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
+        Head(Tuple t, int run, DbFileIterator it) {
+            this.t = t;
+            this.run = run;
+            this.it = it;
+        }
     }
 
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
+    /**
+     * A k-way merge of sorted runs. Ties go to the earlier run, so the merge
+     * is stable if the runs are in input order.
+     */
+    private class Merge {
+        private final PriorityQueue<Head> queue;
+
+        Merge(List<SpillFile> files) throws IOException, DbException,
+                TransactionAbortedException {
+            final TupleComparator cmp = new TupleComparator(orderByField, asc);
+            queue = new PriorityQueue<Head>(Math.max(1, files.size()),
+                    new Comparator<Head>() {
+                        public int compare(Head h1, Head h2) {
+                            int c = cmp.compare(h1.t, h2.t);
+                            return c != 0 ? c : h1.run - h2.run;
+                        }
+                    });
+            for (int i = 0; i < files.size(); i++) {
+                DbFileIterator fit = files.get(i).iterator();
+                fit.open();
+                if (fit.hasNext())
+                    queue.add(new Head(fit.next(), i, fit));
+                else
+                    fit.close();
+            }
+        }
+
+        /** Returns the next tuple in order, or null if the runs are done. */
+        Tuple next() throws DbException, TransactionAbortedException {
+            Head h = queue.poll();
+            if (h == null)
+                return null;
+            Tuple t = h.t;
+            if (h.it.hasNext()) {
+                h.t = h.it.next();
+                queue.add(h);
+            } else {
+                h.it.close();
+            }
+            return t;
+        }
+
+        void close() {
+            for (Head h : queue)
+                h.it.close();
+            queue.clear();
+        }
     }
-    
+
 }
@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -182,23 +184,19 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        Vector<String> groupByFields = new Vector<String>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             Vector<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.elementAt(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
                 System.out.println("GROUP BY FIELD : " + groupByField);
+                groupByFields.add(groupByField);
             }
 
         }
@@ -207,8 +205,8 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         Vector<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        Vector<String> aggFields = new Vector<String>();
+        Vector<String> aggFuns = new Vector<String>();
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.elementAt(i);
@@ -218,21 +216,27 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
+                boolean seen = false;
+                for (int j = 0; j < aggFuns.size(); j++)
+                    seen |= aggFuns.get(j).equals(aggFun)
+                            && aggFields.get(j).equals(aggField);
+                if (!seen) {
+                    aggFields.add(aggField);
+                    aggFuns.add(aggFun);
+                }
                 lp.addProjectField(aggField, aggFun);
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                                + si.getColumn()) || groupByField.equals(si
-                                .getColumn()))) {
+                boolean grouped = false;
+                for (String groupByField : groupByFields)
+                    grouped |= groupByField.equals(si.getTable() + "."
+                            + si.getColumn())
+                            || groupByField.equals(si.getColumn());
+                if (!groupByFields.isEmpty() && !grouped) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
                             + " does not appear in GROUP BY list.");
@@ -241,12 +245,12 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && aggFuns.isEmpty()) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
+        if (!aggFuns.isEmpty()) {
+            lp.addAggregate(aggFuns, aggFields, groupByFields);
         }
         // sort the data
 
@@ -273,13 +277,58 @@ public class Parser {
     private Transaction curtrans = null;
     private boolean inUserTrans = false;
 
+    private static final Pattern LIMIT = Pattern.compile("(?is)^(.*?)\\s+limit\\s+(\\d+)\\s*(;?)\\s*$");
+
+    /** A statement with its trailing LIMIT clause cut off; see stripLimit. */
+    static class Stripped {
+        final String statement;
+        // the LIMIT, or -1 if there was none
+        final int limit;
+
+        Stripped(String statement, int limit) {
+            this.statement = statement;
+            this.limit = limit;
+        }
+    }
+
+    /**
+     * Zql does not know LIMIT, so a trailing "LIMIT n" is cut from the
+     * statement before it is parsed, and n is applied to the plan of the
+     * statement.
+     *
+     * @return the statement without its LIMIT clause, and the LIMIT
+     */
+    static Stripped stripLimit(String s) throws simpledb.ParsingException {
+        Matcher m = LIMIT.matcher(s);
+        if (!m.matches())
+            return new Stripped(s, -1);
+        try {
+            return new Stripped(m.group(1) + m.group(3),
+                    Integer.parseInt(m.group(2)));
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("LIMIT out of range: " + m.group(2));
+        }
+    }
+
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
+        return handleQueryStatement(s, tId, -1);
+    }
+
+    /**
+     * Plans query s, returning at most limit tuples if limit is not
+     * negative.
+     */
+    public Query handleQueryStatement(ZQuery s, TransactionId tId, int limit)
+            throws TransactionAbortedException, DbException, IOException,
+            simpledb.ParsingException, Zql.ParseException {
         // and run it
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        if (limit >= 0)
+            lp.setLimit(limit);
         DbIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -466,12 +515,16 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        Stripped stripped = stripLimit(s);
+        ByteArrayInputStream bis = new ByteArrayInputStream(
+                stripped.statement.getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
                 LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                if (stripped.limit >= 0)
+                    lp.setLimit(stripped.limit);
                 return lp;
             }
         } catch (Zql.ParseException e) {
@@ -504,7 +557,14 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = is.read(buf)) > 0)
+                bos.write(buf, 0, n);
+            Stripped stmt = stripLimit(bos.toString("UTF-8"));
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(
+                    stmt.statement.getBytes("UTF-8")));
             ZStatement s = p.readStatement();
 
             Query query = null;
@@ -526,7 +586,7 @@ public class Parser {
                                 curtrans.getId());
                     else if (s instanceof ZQuery)
                         query = handleQueryStatement((ZQuery) s,
-                                curtrans.getId());
+                                curtrans.getId(), stmt.limit);
                     else {
                         System.out
                                 .println("Can't parse "
@@ -0,0 +1,170 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Prefetcher reads pages ahead of a sequential scan of a HeapFile and
+ * installs them in the buffer pool, so that the scan finds page N+1..N+k
+ * already cached while it is still consuming page N.
+ * <p>
+ * The read-ahead window adapts to the scan: it is the number of pages the
+ * scan is expected to consume while one page is being loaded (measured load
+ * time divided by measured time between pages), plus one. Prefetching stops
+ * whenever the buffer pool reports eviction pressure and resumes on the next
+ * page the scan moves to.
+ */
+public class Prefetcher {
+
+    /** Largest read-ahead window, in pages. */
+    public static final int MAX_WINDOW = 32;
+
+    private static volatile boolean enabled = true;
+
+    private static final ExecutorService workers = Executors
+            .newCachedThreadPool(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simpledb-prefetch");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private final BufferPool pool;
+    private final HeapFile file;
+    private final int numPages;
+    private final BitSet skip;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private volatile boolean stopped = false;
+
+    // last page the scan asked for, and the next page the worker will read
+    private volatile int consumed = -1;
+    private int nextToFetch = 0;
+
+    // exponentially weighted moving averages, in nanoseconds
+    private volatile double consumeNanos = 0;
+    private volatile double loadNanos = 0;
+    private long lastConsumed = 0;
+
+    /**
+     * Creates a prefetcher for a scan of the first numPages pages of file.
+     *
+     * @param pool the buffer pool to install pages in
+     * @param file the file being scanned
+     * @param numPages the number of pages the scan will read
+     */
+    public Prefetcher(BufferPool pool, HeapFile file, int numPages) {
+        this(pool, file, numPages, new BitSet());
+    }
+
+    /**
+     * Creates a prefetcher for a scan of the first numPages pages of file
+     * that will not read the pages in skip.
+     */
+    public Prefetcher(BufferPool pool, HeapFile file, int numPages,
+            BitSet skip) {
+        this.pool = pool;
+        this.file = file;
+        this.numPages = numPages;
+        this.skip = skip;
+    }
+
+    /** Turns read-ahead on or off for scans started from now on. */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /** Returns true if scans should read ahead. */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Tells the prefetcher that the scan has moved to page pgNo, and starts
+     * reading ahead of it if a read is not already in progress.
+     */
+    public void consumed(int pgNo) {
+        long now = System.nanoTime();
+        if (lastConsumed != 0)
+            consumeNanos = average(consumeNanos, now - lastConsumed);
+        lastConsumed = now;
+        consumed = pgNo;
+        if (!stopped && pgNo + 1 < numPages && running.compareAndSet(false, true)) {
+            try {
+                workers.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            readAhead();
+                        } finally {
+                            running.set(false);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                running.set(false);
+            }
+        }
+    }
+
+    /** Stops reading ahead; pages already installed stay in the pool. */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Returns the current read-ahead window, in pages.
+     */
+    public int window() {
+        int w;
+        if (consumeNanos <= 0 || loadNanos <= 0)
+            w = 2;
+        else
+            w = (int) Math.ceil(loadNanos / consumeNanos) + 1;
+        int cap = Math.min(MAX_WINDOW, Math.max(1, pool.maxPages / 4));
+        return Math.max(1, Math.min(w, cap));
+    }
+
+    private void readAhead() {
+        while (!stopped) {
+            int from = Math.max(nextToFetch, consumed + 1);
+            int to = Math.min(numPages, consumed + 1 + window());
+            if (from >= to || pool.underPrefetchPressure())
+                return;
+
+            List<PageId> wanted = new ArrayList<PageId>();
+            for (int i = from; i < to; i++) {
+                if (!skip.get(i))
+                    wanted.add(new HeapPageId(file.getId(), i));
+            }
+            nextToFetch = to;
+            long version = file.writeCount();
+            List<PageId> pids = pool.claimForPrefetch(wanted);
+            if (pids.isEmpty())
+                continue;
+
+            long start = System.nanoTime();
+            List<Page> pages;
+            try {
+                pages = file.readPages(pids);
+            } catch (Throwable e) {
+                // the file shrank or went away; the scan will notice
+                pool.releasePrefetched(pids);
+                return;
+            }
+            loadNanos = average(loadNanos,
+                    (System.nanoTime() - start) / (double) pids.size());
+            if (stopped) {
+                pool.releasePrefetched(pids);
+                return;
+            }
+            if (!pool.installPrefetched(file, version, pages))
+                return;
+        }
+    }
+
+    private static double average(double avg, double sample) {
+        return avg == 0 ? sample : 0.75 * avg + 0.25 * sample;
+    }
+}
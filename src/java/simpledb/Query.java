@@ -113,6 +113,24 @@ public class Query implements Serializable {
             cnt++;
         }
         System.out.println("\n " + cnt + " rows.");
+        int skipped = pagesSkipped(op);
+        if (skipped > 0)
+            System.out.println(" " + skipped + " pages skipped by zone maps.");
         this.close();
     }
+
+    /**
+     * @return the number of pages the SeqScans of plan skipped because of
+     *   the predicates pushed down to them
+     */
+    static int pagesSkipped(DbIterator plan) {
+        if (plan instanceof SeqScan)
+            return ((SeqScan) plan).pagesSkipped();
+        int skipped = 0;
+        if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren())
+                skipped += pagesSkipped(child);
+        }
+        return skipped;
+    }
 }
@@ -0,0 +1,41 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which page the BufferPool evicts when it is
+ * full. The BufferPool tells the policy about every page that enters the
+ * pool, every hit, and every page that leaves the pool, and asks it for a
+ * victim when it needs a free frame.
+ * <p>
+ * Implementations are not thread safe; the BufferPool calls them while
+ * holding its own lock.
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Decides whether a page may be evicted right now (e.g. it is not dirty
+     * or not pinned). The policy skips pages this rejects.
+     */
+    public interface VictimFilter {
+        public boolean evictable(PageId pid);
+    }
+
+    /** Called when pid has been read into the pool. */
+    public void pageLoaded(PageId pid);
+
+    /**
+     * Called when pid, already in the pool, is requested again. Hits are
+     * reported in batches, so this may come some time after the request,
+     * though always before the next pageLoaded or chooseVictim.
+     */
+    public void pageAccessed(PageId pid);
+
+    /** Called when pid leaves the pool, whether evicted or discarded. */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Returns the page that should be evicted next among those filter
+     * accepts, or null if filter rejects every page in the pool. The page is
+     * not removed; the BufferPool calls pageRemoved once it is gone.
+     */
+    public PageId chooseVictim(VictimFilter filter);
+}
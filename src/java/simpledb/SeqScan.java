@@ -14,8 +14,8 @@ public class SeqScan implements DbIterator {
     TransactionId tid;
     int table;
     String tableAlias;
-    HeapFileIterator it;
-    HeapFile file;
+    DbFileIterator it;
+    DbFile file;
     Catalog catalog;
 
     /**
@@ -39,8 +39,8 @@ public class SeqScan implements DbIterator {
         this.table = tableid;
         this.tableAlias = tableAlias;
         this.catalog = Database.getCatalog();
-        this.file = (HeapFile) catalog.getDbFile(tableid);
-        this.it = (HeapFileIterator) file.iterator(tid);
+        this.file = catalog.getDbFile(tableid);
+        this.it = file.iterator(tid);
     }
 
     /**
@@ -80,6 +80,29 @@ public class SeqScan implements DbIterator {
         this(tid, tableid, Database.getCatalog().getTableName(tableid));
     }
 
+    /**
+     * Lets the scan skip the pages of a HeapFile on which, according to its
+     * {@link ZoneMap}, no tuple satisfies p. The scan still returns tuples
+     * that do not satisfy p, so p must still be applied by a Filter above
+     * it. Takes effect on the next open or rewind.
+     *
+     * @param p a predicate on the fields of this scan's tuples
+     */
+    public void pushDown(Predicate p) {
+        if (it instanceof HeapFileIterator)
+            ((HeapFileIterator) it).addPredicate(p);
+    }
+
+    /**
+     * @return the number of pages this scan has skipped because of the
+     *   predicates pushed down to it
+     */
+    public int pagesSkipped() {
+        if (it instanceof HeapFileIterator)
+            return ((HeapFileIterator) it).pagesSkipped();
+        return 0;
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         it.open();
     }
@@ -0,0 +1,229 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin is a {@link Join} that sorts both inputs on their join
+ * fields and merges them, for EQUALS, &lt;, &lt;=, &gt; and &gt;= predicates.
+ * An input that is already sorted ascending on its join field (see
+ * {@link #isSortedOn}) is used as is; any other input is wrapped in an
+ * {@link OrderBy}, which then shows up in {@link #getChildren}.
+ * <p>
+ * Both pointers into the sorted inner input only move forward as the outer
+ * tuples grow, so each outer tuple costs a few comparisons plus one per
+ * match. Inner tuples are buffered in memory from the first one that can
+ * still match to the last one read; for EQUALS that is one run of equal
+ * keys, but for &gt; and &gt;= it is every inner tuple below the current
+ * outer key, and for &lt; and &lt;= the whole inner input. The
+ * {@link JoinOptimizer} therefore only plans a range merge whose inner
+ * input it expects to fit in {@link #RANGE_MEMORY_BYTES}.
+ * <p>
+ * The output is sorted ascending on the outer join field and, for EQUALS,
+ * on the inner join field too.
+ */
+public class SortMergeJoin extends Join {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Largest estimated size, in bytes, of the inner input of a range merge
+     * the optimizer will plan, since all of it may be held in memory.
+     */
+    public static final long RANGE_MEMORY_BYTES = 16L << 20;
+
+    // inner tuples read so far, less any that can no longer match
+    transient private ArrayList<Tuple> rows = new ArrayList<Tuple>();
+    // first row whose key is >= (geq) or > (gt) the current outer key
+    transient private int geq = 0;
+    transient private int gt = 0;
+    transient private Tuple outer = null;
+    // rows[pos] is the next candidate for outer; rows[end - 1] the last
+    transient private int pos = 0;
+    transient private int end = 0;
+
+    /**
+     * Constructor. Accepts to children to join and the predicate to join them
+     * on.
+     *
+     * @throws IllegalArgumentException
+     *             if the predicate is not EQUALS, &lt;, &lt;=, &gt; or &gt;=
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        super(p, sorted(child1, p.getField1()), sorted(child2, p.getField2()));
+        if (!supports(p.getOperator()))
+            throw new IllegalArgumentException("cannot merge on "
+                    + p.getOperator());
+    }
+
+    /** Returns true if a SortMergeJoin can evaluate op. */
+    public static boolean supports(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Returns true if it is known that it returns its tuples in ascending
+     * order of field: it is an ascending OrderBy or TopN on field, a
+     * SortMergeJoin whose output is sorted on field, a Filter over such an
+     * iterator, a StreamAggregate over one sorted on its group field, for
+     * field 0, or a scan of a BTreeFile keyed on field.
+     */
+    public static boolean isSortedOn(DbIterator it, int field) {
+        if (it instanceof SeqScan) {
+            DbFile file = ((SeqScan) it).file;
+            return file instanceof BTreeFile
+                    && ((BTreeFile) file).keyField() == field;
+        }
+        if (it instanceof OrderBy) {
+            OrderBy o = (OrderBy) it;
+            return o.isASC() && o.getOrderByField() == field;
+        }
+        if (it instanceof TopN) {
+            TopN t = (TopN) it;
+            return t.isASC() && t.getOrderByField() == field;
+        }
+        if (it instanceof SortMergeJoin) {
+            SortMergeJoin j = (SortMergeJoin) it;
+            JoinPredicate jp = j.getJoinPredicate();
+            return field == jp.getField1()
+                    || (jp.getOperator() == Predicate.Op.EQUALS && field == j.child1
+                            .getTupleDesc().numFields() + jp.getField2());
+        }
+        if (it instanceof Filter)
+            return isSortedOn(((Filter) it).getChildren()[0], field);
+        if (it instanceof StreamAggregate) {
+            StreamAggregate a = (StreamAggregate) it;
+            return field == 0 && isSortedOn(a.getChildren()[0], a.groupField());
+        }
+        return false;
+    }
+
+    /** Returns it, or it wrapped in an ascending OrderBy on field. */
+    private static DbIterator sorted(DbIterator it, int field) {
+        return isSortedOn(it, field) ? it : new OrderBy(field, true, it);
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        reset();
+    }
+
+    public void close() {
+        super.close();
+        reset();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        super.rewind();
+        reset();
+    }
+
+    private void reset() {
+        rows.clear();
+        geq = gt = pos = end = 0;
+        outer = null;
+    }
+
+    /**
+     * Makes sure rows[i] exists, reading from the inner input if needed.
+     *
+     * @return false if the inner input has fewer than i + 1 tuples
+     */
+    private boolean fill(int i) throws DbException, TransactionAbortedException {
+        while (rows.size() <= i) {
+            if (!child2.hasNext())
+                return false;
+            rows.add(child2.next().materialize());
+        }
+        return true;
+    }
+
+    /** Reads the rest of the inner input into rows. */
+    private void fillAll() throws DbException, TransactionAbortedException {
+        while (child2.hasNext())
+            rows.add(child2.next().materialize());
+    }
+
+    private int compare(Tuple t1, Tuple t2) {
+        return t1.getField(p.getField1()).compareTo(t2.getField(p.getField2()));
+    }
+
+    /** Drops the first n rows, which can no longer match. */
+    private void discard(int n) {
+        rows.subList(0, n).clear();
+        geq -= n;
+        gt -= n;
+    }
+
+    /**
+     * Moves the pointers forward to the new outer tuple and sets pos and end
+     * to the rows it matches.
+     */
+    private void advance() throws DbException, TransactionAbortedException {
+        while (fill(geq) && compare(outer, rows.get(geq)) > 0)
+            geq++;
+        if (gt < geq)
+            gt = geq;
+        while (fill(gt) && compare(outer, rows.get(gt)) == 0)
+            gt++;
+        switch (p.getOperator()) {
+        case EQUALS:
+            pos = geq;
+            end = gt;
+            break;
+        case GREATER_THAN:
+            pos = 0;
+            end = geq;
+            break;
+        case GREATER_THAN_OR_EQ:
+            pos = 0;
+            end = gt;
+            break;
+        case LESS_THAN:
+            fillAll();
+            pos = gt;
+            end = rows.size();
+            break;
+        default: // LESS_THAN_OR_EQ
+            fillAll();
+            pos = geq;
+            end = rows.size();
+        }
+        // rows below geq are smaller than every later outer key
+        Predicate.Op op = p.getOperator();
+        if (op != Predicate.Op.GREATER_THAN
+                && op != Predicate.Op.GREATER_THAN_OR_EQ
+                && geq > 0 && geq >= rows.size() / 2) {
+            int n = geq;
+            discard(n);
+            pos -= n;
+            end -= n;
+        }
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (outer != null && pos < end)
+                return setTuple(outer, rows.get(pos++));
+            if (!child1.hasNext())
+                return null;
+            outer = child1.next();
+            advance();
+        }
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        super.setChildren(new DbIterator[] { sorted(children[0], p.getField1()),
+                sorted(children[1], p.getField2()) });
+    }
+}
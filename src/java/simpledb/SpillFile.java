@@ -0,0 +1,160 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * SpillFile is a temporary, append-only file of tuples, stored in HeapFile
+ * page format, for operators that have more data than memory. Tuples are
+ * packed into pages in memory and the pages are appended to the file
+ * WRITE_BATCH at a time with one write. Pages are read back straight from
+ * the file, bypassing the BufferPool, so spill files never go into the
+ * Catalog and never take locks.
+ * <p>
+ * The file is deleted by {@link #delete}, or when the JVM exits.
+ */
+public class SpillFile {
+
+    /** Number of full pages buffered before they are written out. */
+    static final int WRITE_BATCH = 8;
+
+    private final TupleDesc td;
+    private final File file;
+    private final HeapFile heapFile;
+    private HeapPage current = null;
+    private final ArrayList<Page> pending = new ArrayList<Page>();
+    private int numPages = 0;
+    private long numTuples = 0;
+
+    /**
+     * Creates an empty spill file for tuples with the given TupleDesc.
+     */
+    public SpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        file = File.createTempFile("spill", ".dat");
+        file.deleteOnExit();
+        heapFile = new HeapFile(file, td);
+    }
+
+    /**
+     * Appends a copy of t. The copy is stored, so t's RecordId is left
+     * alone.
+     */
+    public void add(Tuple t) throws DbException, IOException {
+        if (current == null) {
+            HeapPageId pid = new HeapPageId(heapFile.getId(),
+                    numPages + pending.size());
+            current = new HeapPage(pid, HeapPage.createEmptyPageData(), td);
+        }
+        Tuple copy = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++)
+            copy.setField(i, t.getField(i));
+        current.insertTuple(copy);
+        numTuples++;
+        if (current.getNumEmptySlots() == 0) {
+            pending.add(current);
+            current = null;
+            if (pending.size() == WRITE_BATCH)
+                writePending();
+        }
+    }
+
+    /**
+     * Writes out any buffered pages, including a partly filled last page.
+     * Called by {@link #iterator}; tuples added afterwards start a new page.
+     */
+    public void flush() throws IOException {
+        if (current != null) {
+            pending.add(current);
+            current = null;
+        }
+        writePending();
+    }
+
+    private void writePending() throws IOException {
+        if (pending.isEmpty())
+            return;
+        heapFile.writePages(pending);
+        numPages += pending.size();
+        pending.clear();
+    }
+
+    /** Returns the number of tuples added so far. */
+    public long numTuples() {
+        return numTuples;
+    }
+
+    /** Returns the number of pages written to disk so far. */
+    public int numPages() {
+        return numPages;
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file, in the order they
+     * were added. Buffered pages are written out first.
+     */
+    public DbFileIterator iterator() throws IOException {
+        flush();
+        return new SpillIterator();
+    }
+
+    /** Closes and deletes the file. */
+    public void delete() {
+        heapFile.close();
+        file.delete();
+    }
+
+    /** Reads the pages of the file WRITE_BATCH at a time. */
+    private class SpillIterator implements DbFileIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int end = numPages;
+        private int nextPage;
+        private Iterator<Page> pages;
+        private Iterator<Tuple> tuples;
+        private boolean open = false;
+
+        public void open() {
+            nextPage = 0;
+            pages = null;
+            tuples = null;
+            open = true;
+        }
+
+        public boolean hasNext() {
+            if (!open)
+                return false;
+            while (tuples == null || !tuples.hasNext()) {
+                if (pages == null || !pages.hasNext()) {
+                    if (nextPage >= end)
+                        return false;
+                    int n = Math.min(WRITE_BATCH, end - nextPage);
+                    ArrayList<PageId> pids = new ArrayList<PageId>(n);
+                    for (int i = 0; i < n; i++)
+                        pids.add(new HeapPageId(heapFile.getId(), nextPage + i));
+                    nextPage += n;
+                    pages = heapFile.readPages(pids).iterator();
+                }
+                tuples = ((HeapPage) pages.next()).iterator();
+            }
+            return true;
+        }
+
+        public Tuple next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return tuples.next();
+        }
+
+        public void rewind() {
+            open();
+        }
+
+        public void close() {
+            open = false;
+            pages = null;
+            tuples = null;
+        }
+    }
+}
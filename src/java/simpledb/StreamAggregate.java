@@ -0,0 +1,250 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * StreamAggregate computes the same result as an {@link Aggregate} with one
+ * group-by field, for a child whose tuples are ordered on that field, e.g.
+ * an {@link OrderBy} or a {@link SortMergeJoin} on it (see
+ * {@link SortMergeJoin#isSortedOn}).
+ * <p>
+ * All tuples of a group are then adjacent, so a group is complete as soon
+ * as the group value changes. It is returned right away, in the order of the
+ * input, and only the accumulators of the current group are kept: memory
+ * use does not depend on the number of groups, and the first group comes
+ * out after reading just its tuples. A group value that reappears after
+ * another one means the input is not ordered, and is reported as a
+ * DbException.
+ */
+public class StreamAggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child;
+    private final int[] afields;
+    private final int gfield;
+    private final Aggregator.Op[] aops;
+
+    // accumulators of the current group, as in MultiAggregator
+    private final long[] vals;
+    private final long[] counts;
+    transient private TupleDesc resultTd;
+    // the first tuple of the next group, if already read
+    transient private Tuple pending = null;
+    transient private Field lastGroup = null;
+    // sign of the order of the group values seen so far, 0 if not known yet
+    private int direction = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples, ordered on gfield.
+     * @param afield
+     *            The column over which we are computing an aggregate.
+     * @param gfield
+     *            The column over which we are grouping the result
+     * @param aop
+     *            The aggregation operator to use
+     */
+    public StreamAggregate(DbIterator child, int afield, int gfield,
+            Aggregator.Op aop) {
+        this(child, new int[] { afield }, gfield, new Aggregator.Op[] { aop });
+    }
+
+    /**
+     * Constructor for several aggregates.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples, ordered on gfield.
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param gfield
+     *            The column over which we are grouping the result
+     * @param aops
+     *            The aggregation operator of each column in afields
+     * @throws IllegalArgumentException
+     *             if there is no group-by field, or a string field is
+     *             aggregated with anything but COUNT
+     */
+    public StreamAggregate(DbIterator child, int[] afields, int gfield,
+            Aggregator.Op[] aops) {
+        if (afields.length == 0 || afields.length != aops.length)
+            throw new IllegalArgumentException(afields.length
+                    + " aggregate fields and " + aops.length + " operators");
+        if (gfield == Aggregator.NO_GROUPING)
+            throw new IllegalArgumentException(
+                    "StreamAggregate needs a group-by field");
+        TupleDesc td = child.getTupleDesc();
+        for (int i = 0; i < afields.length; i++) {
+            if (td.getFieldType(afields[i]) != Type.INT_TYPE
+                    && aops[i] != Aggregator.Op.COUNT)
+                throw new IllegalArgumentException(
+                        "Aggregation over strings only supports COUNT operator!");
+        }
+        this.child = child;
+        this.afields = afields.clone();
+        this.gfield = gfield;
+        this.aops = aops.clone();
+        vals = new long[aops.length];
+        counts = new long[aops.length];
+    }
+
+    /**
+     * @return the groupby field index in the <b>INPUT</b> tuples
+     */
+    public int groupField() {
+        return gfield;
+    }
+
+    /**
+     * @return the name of the groupby field in the <b>OUTPUT</b> tuples
+     */
+    public String groupFieldName() {
+        return child.getTupleDesc().getFieldName(gfield);
+    }
+
+    /** @return the number of aggregates */
+    public int numAggregates() {
+        return aops.length;
+    }
+
+    /** @return the index in the <b>INPUT</b> tuples of the i-th aggregate field */
+    public int aggregateField(int i) {
+        return afields[i];
+    }
+
+    /** @return the name of the i-th aggregate field */
+    public String aggregateFieldName(int i) {
+        return child.getTupleDesc().getFieldName(afields[i]);
+    }
+
+    /** @return the operator of the i-th aggregate */
+    public Aggregator.Op aggregateOp(int i) {
+        return aops[i];
+    }
+
+    /**
+     * Returns the TupleDesc of this StreamAggregate: the group by field
+     * followed by one column per aggregate, as for {@link Aggregate}.
+     */
+    public TupleDesc getTupleDesc() {
+        return Aggregate.resultTupleDesc(child.getTupleDesc(), afields,
+                new int[] { gfield }, aops);
+    }
+
+    public void open() throws NoSuchElementException, DbException,
+            TransactionAbortedException {
+        child.open();
+        resultTd = getTupleDesc();
+        reset();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        reset();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        reset();
+    }
+
+    private void reset() {
+        pending = null;
+        lastGroup = null;
+        direction = 0;
+    }
+
+    private void merge(Tuple t) {
+        for (int i = 0; i < aops.length; i++) {
+            if (aops[i] == Aggregator.Op.COUNT) {
+                vals[i]++;
+                continue;
+            }
+            int val = ((IntField) t.getField(afields[i])).getValue();
+            switch (aops[i]) {
+            case MIN:
+                if (val < vals[i])
+                    vals[i] = val;
+                break;
+            case MAX:
+                if (val > vals[i])
+                    vals[i] = val;
+                break;
+            case AVG:
+                counts[i]++;
+                vals[i] += val;
+                break;
+            default:
+                vals[i] += val;
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns the next group: reads the child until the group value
+     * changes, keeping the first tuple of the next group for the next call.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException,
+            DbException {
+        Tuple t = pending;
+        pending = null;
+        if (t == null) {
+            if (!child.hasNext())
+                return null;
+            t = child.next();
+        }
+        Field group = t.getField(gfield);
+        if (lastGroup != null) {
+            int c = group.compareTo(lastGroup) > 0 ? 1 : -1;
+            if (direction == 0)
+                direction = c;
+            else if (c != direction)
+                throw new DbException("input of StreamAggregate is not ordered on "
+                        + groupFieldName() + ": " + group + " after " + lastGroup);
+        }
+        lastGroup = group;
+
+        for (int i = 0; i < aops.length; i++) {
+            counts[i] = 0;
+            if (aops[i] == Aggregator.Op.MIN)
+                vals[i] = Long.MAX_VALUE;
+            else if (aops[i] == Aggregator.Op.MAX)
+                vals[i] = Long.MIN_VALUE;
+            else
+                vals[i] = 0;
+        }
+        merge(t);
+        while (child.hasNext()) {
+            Tuple u = child.next();
+            if (!u.getField(gfield).equals(group)) {
+                pending = u;
+                break;
+            }
+            merge(u);
+        }
+
+        Tuple result = new Tuple(resultTd);
+        result.setField(0, group);
+        for (int i = 0; i < aops.length; i++) {
+            long v = aops[i] == Aggregator.Op.AVG ? vals[i] / counts[i]
+                    : vals[i];
+            result.setField(1 + i, new IntField((int) v));
+        }
+        return result;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+}
@@ -61,6 +61,19 @@ public class StringAggregator implements Aggregator {
         groups.put(val, total);
     }
 
+    public boolean mergeTupleIntoExistingGroup(Tuple tup) {
+        int val = gbfield == NO_GROUPING ? NO_GROUPING
+                : ((IntField) tup.getField(gbfield)).getValue();
+        if (!groups.containsKey(val))
+            return false;
+        mergeTupleIntoGroup(tup);
+        return true;
+    }
+
+    public int numGroups() {
+        return groups.size();
+    }
+
     /**
      * Create a DbIterator over group aggregate results.
      *
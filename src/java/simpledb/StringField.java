@@ -105,6 +105,15 @@ public class StringField implements Field {
 		return false;
 	}
 
+	/**
+	 * @throws IllegalCastException
+	 *             if val is not a StringField
+	 * @see Field#compareTo
+	 */
+	public int compareTo(Field val) {
+		return value.compareTo(((StringField) val).value);
+	}
+
 	/**
 	 * @return the Type for this Field
 	 */
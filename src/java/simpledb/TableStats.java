@@ -1,5 +1,6 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -17,6 +18,9 @@ public class TableStats {
 
     static final int IOCOSTPERPAGE = 1000;
 
+    /** How much more a page read out of file order costs than a sequential one. */
+    static final double RANDOM_IO_FACTOR = 4.0;
+
     public static TableStats getTableStats(String tablename) {
         return statsMap.get(tablename);
     }
@@ -68,11 +72,11 @@ public class TableStats {
 
     int tableid;
     int ioCostPerPage;
-    HeapFile file;
+    DbFile file;
     Object[] histos;
     Stats[] fieldRanges;
     TupleDesc td;
-    HeapFileIterator it;
+    DbFileIterator it;
 
     /**
      * Create a new TableStats object, that keeps track of statistics on each
@@ -95,7 +99,7 @@ public class TableStats {
         // some code goes here
         this.tableid = tableid;
         this.ioCostPerPage = ioCostPerPage;
-        file = (HeapFile) Database.getCatalog().getDbFile(tableid);
+        file = Database.getCatalog().getDbFile(tableid);
         this.td = file.getTupleDesc();
         makeStatistics();
     }
@@ -106,7 +110,8 @@ public class TableStats {
         for (int i = 0; i < fieldRanges.length; i++) {
             fieldRanges[i] = new Stats();
         }
-        it = (HeapFileIterator) file.iterator(new TransactionId());
+        TransactionId tid = new TransactionId();
+        it = file.iterator(tid);
         try {
             it.open();
         } catch (Exception e) {
@@ -132,9 +137,15 @@ public class TableStats {
             System.out.println("Store Values Failed!");
             e.printStackTrace();
         }
+        it.close();
+        try {
+            Database.getBufferPool().transactionComplete(tid); // release the read locks
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
-    private void generateRanges(HeapFileIterator it) throws Exception {
+    private void generateRanges(DbFileIterator it) throws Exception {
         it.rewind();
         while (it.hasNext()) {
             Tuple next = it.next();
@@ -176,7 +187,7 @@ public class TableStats {
         }
     }
 
-    private void storeValues(HeapFileIterator it) throws Exception {
+    private void storeValues(DbFileIterator it) throws Exception {
         it.rewind();
         while (it.hasNext()) {
             Tuple next = it.next();
@@ -217,7 +228,31 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // some code goes here
-        return ioCostPerPage * file.numPages();
+        return ioCostPerPage * numPages(file);
+    }
+
+    /**
+     * Estimates the cost of reading the tuples that satisfy a predicate of
+     * the given selectivity through index, the file of this table: the
+     * pages read to find the first match, then the pages holding the
+     * matches. Unlike the pages of a sequential scan, these are not read
+     * in file order, so each costs RANDOM_IO_FACTOR times as much.
+     *
+     * @return The estimated cost of the index scan.
+     */
+    public double estimateIndexScanCost(IndexFile index, double selectivity) {
+        double pages = index.searchDepth()
+                + Math.ceil(selectivity * numPages(index));
+        return ioCostPerPage * RANDOM_IO_FACTOR * pages;
+    }
+
+    /** Returns the number of pages of file, or 0 if it cannot tell. */
+    static int numPages(DbFile file) {
+        if (file instanceof HeapFile)
+            return ((HeapFile) file).numPages();
+        if (file instanceof IndexFile)
+            return ((IndexFile) file).numPages();
+        return 0;
     }
 
     /**
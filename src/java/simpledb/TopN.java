@@ -0,0 +1,137 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN is an operator that implements ORDER BY ... LIMIT n: it returns the
+ * first n tuples of its child in the order an {@link OrderBy} on the same
+ * field would return them. It returns exactly n tuples (fewer only if the
+ * child has fewer); tuples with equal keys are ordered as in the child, so
+ * a tie at the n-th place goes to the tuples that came first.
+ * <p>
+ * Only the best n tuples seen so far are kept, in a heap whose root is the
+ * worst of them, so a child of m tuples is sorted in O(m log n) time and
+ * O(n) memory.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child;
+    private final int orderByField;
+    private final boolean asc;
+    private final int limit;
+    transient private ArrayList<Tuple> top;
+    transient private Iterator<Tuple> it;
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderByField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param limit
+     *            the number of tuples to return.
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int orderByField, boolean asc, int limit, DbIterator child) {
+        if (limit < 0)
+            throw new IllegalArgumentException("negative limit " + limit);
+        this.child = child;
+        this.orderByField = orderByField;
+        this.asc = asc;
+        this.limit = limit;
+    }
+
+    public boolean isASC() {
+        return asc;
+    }
+
+    public int getOrderByField() {
+        return orderByField;
+    }
+
+    /** Returns the number of tuples this operator returns at most. */
+    public int getLimit() {
+        return limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    /** A tuple and its position in the child, which breaks ties. */
+    private static class Entry {
+        final Tuple t;
+        final long seq;
+
+        Entry(Tuple t, long seq) {
+            this.t = t;
+            this.seq = seq;
+        }
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        final TupleComparator cmp = new TupleComparator(orderByField, asc);
+        // the root of the heap is the entry that would be returned last
+        Comparator<Entry> worstFirst = new Comparator<Entry>() {
+            public int compare(Entry e1, Entry e2) {
+                int c = cmp.compare(e2.t, e1.t);
+                return c != 0 ? c : (e2.seq < e1.seq ? -1 : (e2.seq == e1.seq ? 0 : 1));
+            }
+        };
+        PriorityQueue<Entry> heap = new PriorityQueue<Entry>(
+                Math.max(1, Math.min(limit, 1 << 16)), worstFirst);
+        long seq = 0;
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (heap.size() < limit) {
+                heap.add(new Entry(t.materialize(), seq));
+            } else if (limit > 0 && cmp.compare(t, heap.peek().t) < 0) {
+                // a later tuple with an equal key loses the tie
+                heap.poll();
+                heap.add(new Entry(t.materialize(), seq));
+            }
+            seq++;
+        }
+        Entry[] sorted = heap.toArray(new Entry[heap.size()]);
+        Arrays.sort(sorted, Collections.reverseOrder(worstFirst));
+        top = new ArrayList<Tuple>(sorted.length);
+        for (Entry e : sorted)
+            top.add(e.t);
+        it = top.iterator();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        it = null;
+        top = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        it = top == null ? null : top.iterator();
+    }
+
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (it != null && it.hasNext())
+            return it.next();
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+}
@@ -74,8 +74,7 @@ public class Tuple implements Serializable {
      */
     public void setField(int i, Field f) {
         // some code goes here
-        fields.remove(i);
-        fields.add(i, f);
+        fields.set(i, f);
     }
 
     /**
@@ -102,9 +101,9 @@ public class Tuple implements Serializable {
         // some code goes here
         String ret = "";
         for (int i = 0; i < fields.size() - 1; i++) {
-            ret += fields.get(i).toString() + "\t";
+            ret += getField(i).toString() + "\t";
         }
-        ret += fields.get(fields.size() - 1).toString() + "\n";
+        ret += getField(fields.size() - 1).toString() + "\n";
         return ret;
         // throw new UnsupportedOperationException("Implement this");
     }
@@ -117,6 +116,19 @@ public class Tuple implements Serializable {
     {
         // some code goes here
         // return null;
-        return (Iterator<Field>)fields.iterator();
+        // go through getField so subclasses that fill fields lazily work
+        ArrayList<Field> all = new ArrayList<Field>(fields.size());
+        for (int i = 0; i < fields.size(); i++)
+            all.add(getField(i));
+        return all.iterator();
+    }
+
+    /**
+     * Returns a tuple with the same fields and RecordId as this one that
+     * holds no reference to a page. Operators that keep tuples after moving
+     * on to the next should keep this instead; a plain Tuple returns itself.
+     */
+    public Tuple materialize() {
+        return this;
     }
 }
@@ -0,0 +1,23 @@
+package simpledb;
+
+import java.util.Comparator;
+
+/**
+ * Orders tuples by one field, ascending or descending. Used by OrderBy and
+ * TopN.
+ */
+class TupleComparator implements Comparator<Tuple> {
+    int field;
+    boolean asc;
+
+    public TupleComparator(int field, boolean asc) {
+        this.field = field;
+        this.asc = asc;
+    }
+
+    public int compare(Tuple o1, Tuple o2) {
+        int cmp = o1.getField(field).compareTo(o2.getField(field));
+        return asc ? cmp : -cmp;
+    }
+    
+}
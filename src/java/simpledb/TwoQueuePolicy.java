@@ -0,0 +1,75 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * 2Q replacement (Johnson and Shasha). A page read for the first time goes
+ * into a FIFO queue, A1in; only a page that is read again after it has left
+ * A1in is promoted to the main LRU queue, Am. Pages leaving A1in are
+ * remembered, without their data, in the ghost queue A1out. A scan therefore
+ * cycles through A1in without displacing the frequently used pages in Am.
+ * All operations are O(1).
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+
+    private final LinkedHashMap<PageId, Boolean> a1in =
+            new LinkedHashMap<PageId, Boolean>();
+    private final LinkedHashMap<PageId, Boolean> am =
+            new LinkedHashMap<PageId, Boolean>(16, 0.75f, true);
+    private final LinkedHashMap<PageId, Boolean> a1out =
+            new LinkedHashMap<PageId, Boolean>() {
+                private static final long serialVersionUID = 1L;
+
+                protected boolean removeEldestEntry(Map.Entry<PageId, Boolean> e) {
+                    return size() > Math.max(1, maxResident / 2);
+                }
+            };
+
+    // largest number of pages seen in the pool; bounds the ghost queue
+    private int maxResident = 0;
+
+    public void pageLoaded(PageId pid) {
+        if (a1in.containsKey(pid) || am.containsKey(pid)) {
+            pageAccessed(pid);
+            return;
+        }
+        if (a1out.remove(pid) != null)
+            am.put(pid, Boolean.TRUE);
+        else
+            a1in.put(pid, Boolean.TRUE);
+        maxResident = Math.max(maxResident, a1in.size() + am.size());
+    }
+
+    public void pageAccessed(PageId pid) {
+        // hits in A1in are treated as correlated references and ignored
+        am.get(pid);
+    }
+
+    public void pageRemoved(PageId pid) {
+        if (a1in.remove(pid) != null)
+            a1out.put(pid, Boolean.TRUE);
+        else
+            am.remove(pid);
+    }
+
+    public PageId chooseVictim(VictimFilter filter) {
+        int kin = Math.max(1, (a1in.size() + am.size()) / 4);
+        PageId victim = null;
+        if (a1in.size() > kin || am.isEmpty())
+            victim = first(a1in, filter);
+        if (victim == null)
+            victim = first(am, filter);
+        if (victim == null)
+            victim = first(a1in, filter);
+        return victim;
+    }
+
+    private static PageId first(LinkedHashMap<PageId, Boolean> queue,
+            VictimFilter filter) {
+        for (PageId pid : queue.keySet()) {
+            if (filter.evictable(pid))
+                return pid;
+        }
+        return null;
+    }
+}
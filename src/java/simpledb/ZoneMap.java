@@ -0,0 +1,265 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ZoneMap keeps, for each page of a HeapFile, the smallest and largest value
+ * of every field of the tuples on it, so that a scan with a predicate can
+ * skip the pages none of whose tuples can satisfy it. Int fields are
+ * summarized exactly; string fields by their first PREFIX_LEN characters,
+ * which keeps the map small but means a string predicate can only rule a
+ * page out when the prefixes alone decide it.
+ * <p>
+ * A page is either summarized or unknown, and an unknown page is never
+ * skipped. A summary may be wider than its page but never narrower: an
+ * insert widens it right away, while a delete leaves it alone, and it is
+ * only narrowed when HeapFile writes the page, which happens once the
+ * delete has committed.
+ * <p>
+ * Like the {@link FreeSpaceMap}, the map is kept in a sidecar file next to
+ * the heap file (see {@link #sidecarFor}), which is ignored if the heap file
+ * has changed length or modification time since the sidecar was saved.
+ * Pages it does not cover are summarized as scans read them.
+ */
+public class ZoneMap {
+
+    /** Number of leading characters of a string field that are summarized. */
+    public static final int PREFIX_LEN = 8;
+
+    private static final int MAGIC = 0x5a4d4150; // "ZMAP"
+
+    private final File sidecar;
+    private final TupleDesc td;
+    // per page: null if unknown, an empty array if the page has no tuples,
+    // else the smallest and largest value of each field, fields then maxima
+    private final ArrayList<Field[]> zones = new ArrayList<Field[]>();
+    private boolean dirty = false;
+
+    /**
+     * Creates a map with every page unknown, for a heap file of tuples of
+     * type td, saved to and loaded from sidecar.
+     */
+    public ZoneMap(File sidecar, TupleDesc td) {
+        this.sidecar = sidecar;
+        this.td = td;
+    }
+
+    /** Returns the sidecar file used for the zone map of heapFile. */
+    public static File sidecarFor(File heapFile) {
+        return new File(heapFile.getPath() + ".zm");
+    }
+
+    /**
+     * Replaces the contents of this map with the saved sidecar, if it exists,
+     * has the field types of this map and was saved when heapFile had its
+     * current length and modification time.
+     *
+     * @return true if the sidecar was loaded, false if the map is unchanged
+     */
+    public synchronized boolean load(File heapFile) {
+        if (!sidecar.exists())
+            return false;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(sidecar)));
+            try {
+                if (in.readInt() != MAGIC || in.readLong() != heapFile.length()
+                        || in.readLong() != heapFile.lastModified()
+                        || in.readInt() != td.numFields())
+                    return false;
+                for (int i = 0; i < td.numFields(); i++) {
+                    if (in.readInt() != td.getFieldType(i).ordinal())
+                        return false;
+                }
+                int pages = in.readInt();
+                ArrayList<Field[]> read = new ArrayList<Field[]>(pages);
+                for (int i = 0; i < pages; i++)
+                    read.add(readZone(in));
+                zones.clear();
+                zones.addAll(read);
+                dirty = false;
+                return true;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private Field[] readZone(DataInputStream in) throws IOException {
+        int n = in.readByte();
+        if (n <= 0)
+            return n < 0 ? null : new Field[0];
+        Field[] zone = new Field[2 * td.numFields()];
+        for (int i = 0; i < zone.length; i++) {
+            if (td.getFieldType(i % td.numFields()) == Type.INT_TYPE)
+                zone[i] = new IntField(in.readInt());
+            else
+                zone[i] = new StringField(in.readUTF(), PREFIX_LEN);
+        }
+        return zone;
+    }
+
+    /**
+     * Saves this map to its sidecar if it changed since it was loaded or
+     * last saved. heapFile must not be written again before the next save,
+     * or the sidecar will be ignored by {@link #load}.
+     */
+    public synchronized void save(File heapFile) throws IOException {
+        if (!dirty)
+            return;
+        File tmp = new File(sidecar.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeLong(heapFile.length());
+            out.writeLong(heapFile.lastModified());
+            out.writeInt(td.numFields());
+            for (int i = 0; i < td.numFields(); i++)
+                out.writeInt(td.getFieldType(i).ordinal());
+            out.writeInt(zones.size());
+            for (Field[] zone : zones) {
+                out.writeByte(zone == null ? -1 : zone.length == 0 ? 0 : 1);
+                if (zone == null)
+                    continue;
+                for (Field f : zone) {
+                    if (f instanceof IntField)
+                        out.writeInt(((IntField) f).getValue());
+                    else
+                        out.writeUTF(((StringField) f).getValue());
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(sidecar)) {
+            sidecar.delete();
+            if (!tmp.renameTo(sidecar))
+                throw new IOException("cannot replace " + sidecar);
+        }
+        dirty = false;
+    }
+
+    /** Returns the number of pages this map covers, known or not. */
+    public synchronized int numPages() {
+        return zones.size();
+    }
+
+    /** Returns true if page pgNo has a summary. */
+    public synchronized boolean isKnown(int pgNo) {
+        return pgNo < zones.size() && zones.get(pgNo) != null;
+    }
+
+    private void setZone(int pgNo, Field[] zone) {
+        while (zones.size() <= pgNo)
+            zones.add(null);
+        zones.set(pgNo, zone);
+        dirty = true;
+    }
+
+    /** Records that page pgNo holds no tuples. */
+    public synchronized void clear(int pgNo) {
+        setZone(pgNo, new Field[0]);
+    }
+
+    /** Replaces the summary of page pgNo with that of the tuples of page. */
+    public synchronized void summarize(int pgNo, HeapPage page) {
+        clear(pgNo);
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            add(pgNo, it.next());
+    }
+
+    /**
+     * Widens the summary of page pgNo, if it has one, to cover t. A tuple
+     * with a missing field makes the page unknown.
+     */
+    public synchronized void add(int pgNo, Tuple t) {
+        if (!isKnown(pgNo))
+            return;
+        int n = td.numFields();
+        Field[] zone = zones.get(pgNo);
+        Field[] wider = zone.length == 0 ? new Field[2 * n] : zone;
+        boolean changed = zone.length == 0;
+        for (int i = 0; i < n; i++) {
+            Field f = t.getField(i);
+            if (f == null) {
+                setZone(pgNo, null);
+                return;
+            }
+            f = summaryOf(f);
+            if (wider[i] == null || f.compareTo(wider[i]) < 0) {
+                wider[i] = f;
+                changed = true;
+            }
+            if (wider[n + i] == null || f.compareTo(wider[n + i]) > 0) {
+                wider[n + i] = f;
+                changed = true;
+            }
+        }
+        if (changed)
+            setZone(pgNo, wider);
+    }
+
+    /** Returns the value the summaries hold for f: f, or its prefix. */
+    private static Field summaryOf(Field f) {
+        if (f instanceof StringField) {
+            String s = ((StringField) f).getValue();
+            if (s.length() > PREFIX_LEN)
+                return new StringField(s, PREFIX_LEN);
+        }
+        return f;
+    }
+
+    /**
+     * Returns false if no tuple of page pgNo can satisfy all of preds, true
+     * if some may (always for an unknown page).
+     */
+    public synchronized boolean mayMatch(int pgNo, List<Predicate> preds) {
+        if (!isKnown(pgNo))
+            return true;
+        Field[] zone = zones.get(pgNo);
+        if (zone.length == 0)
+            return false;
+        for (Predicate p : preds) {
+            if (!mayMatch(zone[p.getField()], zone[td.numFields() + p.getField()],
+                    p.getOp(), p.getOperand()))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns false if no value in [min, max] can satisfy "value op v". For
+     * string prefixes only strict comparisons decide: two strings whose
+     * prefixes are equal can still compare either way.
+     */
+    private static boolean mayMatch(Field min, Field max, Predicate.Op op,
+            Field v) {
+        if (v == null || v.getType() != min.getType())
+            return true;
+        boolean exact = v instanceof IntField;
+        v = summaryOf(v);
+        int lo = min.compareTo(v);
+        int hi = max.compareTo(v);
+        switch (op) {
+        case EQUALS:
+            return lo <= 0 && hi >= 0;
+        case GREATER_THAN:
+            return exact ? hi > 0 : hi >= 0;
+        case GREATER_THAN_OR_EQ:
+            return hi >= 0;
+        case LESS_THAN:
+            return exact ? lo < 0 : lo <= 0;
+        case LESS_THAN_OR_EQ:
+            return lo <= 0;
+        case NOT_EQUALS:
+            return !exact || lo != 0 || hi != 0;
+        default:
+            return true;
+        }
+    }
+}
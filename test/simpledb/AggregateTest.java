@@ -121,6 +121,21 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(count, op);
   }
 
+  /**
+   * Only COUNT is accepted over a string field, when the operator is built
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void sumStringRejected() {
+    new Aggregate(scan2, 1, 0, Aggregator.Op.SUM);
+  }
+
+  /**
+   * Closing an Aggregate that was never opened is harmless
+   */
+  @Test public void closeUnopened() {
+    new Aggregate(scan1, 1, 0, Aggregator.Op.SUM).close();
+  }
+
   /**
    * Unit test for Aggregate.getNext() using a count aggregate with string types
    */
@@ -176,6 +191,107 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Checks that op returns one (key, sum) tuple per key in [0, groups),
+   * where sum is the sum of the values of inputOf(groups).
+   */
+  private static void checkSums(Aggregate op, int groups) throws Exception {
+    long[] expected = new long[groups];
+    for (int i = 0; i < 20 * groups; i++)
+      expected[(i * 7919) % groups] += i;
+    boolean[] seen = new boolean[groups];
+    int count = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      int key = ((IntField) t.getField(0)).getValue();
+      assertTrue(!seen[key]);
+      seen[key] = true;
+      assertEquals(expected[key], ((IntField) t.getField(1)).getValue());
+      count++;
+    }
+    assertEquals(groups, count);
+  }
+
+  /** Returns 20 tuples of (key, i) for each key in [0, groups). */
+  private static DbIterator inputOf(int groups) {
+    int[] data = new int[40 * groups];
+    for (int i = 0; i < 20 * groups; i++) {
+      data[2 * i] = (i * 7919) % groups;
+      data[2 * i + 1] = i;
+    }
+    return TestUtil.createTupleList(2, data);
+  }
+
+  /**
+   * Unit test for Aggregate with 50 times more groups than fit in memory:
+   * groups are written to partitions on disk, and partitions that again
+   * have too many groups are split further.
+   */
+  @Test public void spillingGroupBy() throws Exception {
+    int groups = 5000;
+    long budget = 100 * (Type.INT_TYPE.getLen() + Aggregate.GROUP_OVERHEAD);
+    Aggregate op = new Aggregate(inputOf(groups), 1, 0, Aggregator.Op.SUM,
+        budget);
+    op.open();
+    checkSums(op, groups);
+    assertTrue(op.getSpilledPartitions() > Aggregate.NUM_PARTITIONS);
+    assertTrue(op.getSpilledTuples() > 0);
+    op.rewind();
+    checkSums(op, groups);
+    op.close();
+
+    // reopening aggregates from scratch
+    op.open();
+    checkSums(op, groups);
+    op.close();
+
+    Aggregate inMemory = new Aggregate(inputOf(groups), 1, 0,
+        Aggregator.Op.SUM);
+    inMemory.open();
+    checkSums(inMemory, groups);
+    assertEquals(0, inMemory.getSpilledPartitions());
+    inMemory.close();
+  }
+
+  /**
+   * Unit test for Aggregate computing several aggregates grouped by two
+   * columns while spilling groups to disk
+   */
+  @Test public void spillingMultiAggregate() throws Exception {
+    int groups = 2000;
+    int[] data = new int[3 * 10 * groups];
+    for (int i = 0; i < 10 * groups; i++) {
+      int key = (i * 7919) % groups;
+      data[3 * i] = key / 40;
+      data[3 * i + 1] = key % 40;
+      data[3 * i + 2] = i;
+    }
+    Aggregate op = new Aggregate(TestUtil.createTupleList(3, data),
+        new int[] { 2, 2 }, new int[] { 0, 1 },
+        new Aggregator.Op[] { Aggregator.Op.COUNT, Aggregator.Op.MIN }, 4000);
+    assertEquals(4, op.getTupleDesc().numFields());
+    op.open();
+    boolean[] seen = new boolean[groups];
+    int count = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      int key = ((IntField) t.getField(0)).getValue() * 40
+          + ((IntField) t.getField(1)).getValue();
+      assertTrue(!seen[key]);
+      seen[key] = true;
+      assertEquals(10, ((IntField) t.getField(2)).getValue());
+      // the first i with (i * 7919) % groups == key
+      int first = 0;
+      while ((first * 7919) % groups != key)
+        first++;
+      assertEquals(first, ((IntField) t.getField(3)).getValue());
+      count++;
+    }
+    assertEquals(groups, count);
+    assertTrue(op.getSpilledPartitions() > 0);
+    op.close();
+  }
+
   /**
    * JUnit suite target
    */
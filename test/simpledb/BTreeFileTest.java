@@ -0,0 +1,275 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+
+  private static final int N = 600;
+
+  private File f;
+  private BTreeFile tree;
+  private TransactionId tid;
+  private Random rand;
+
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    Database.resetBufferPool(2000);
+    f = File.createTempFile("btree", ".btree");
+    f.deleteOnExit();
+    // 4 entries to a page, so that a few hundred tuples make a deep tree
+    tree = new BTreeFile(f, Utility.getTupleDesc(2), 0, 4);
+    Database.getCatalog().addTable(tree, "t");
+    tid = new TransactionId();
+    rand = new Random(42);
+  }
+
+  @After public void tearDown() throws Exception {
+    Database.getBufferPool().transactionComplete(tid);
+    tree.close();
+    f.delete();
+  }
+
+  /** Returns the keys of the tuples of it, in the order returned. */
+  private static ArrayList<Integer> keys(DbFileIterator it) throws Exception {
+    ArrayList<Integer> keys = new ArrayList<Integer>();
+    it.open();
+    while (it.hasNext())
+      keys.add(((IntField) it.next().getField(0)).getValue());
+    it.close();
+    return keys;
+  }
+
+  /** Inserts N tuples with keys in [0, N / 3) in random order. */
+  private ArrayList<Integer> insertRandom() throws Exception {
+    ArrayList<Integer> expected = new ArrayList<Integer>();
+    for (int i = 0; i < N; i++) {
+      int key = rand.nextInt(N / 3);
+      tree.insertTuple(tid, Utility.getHeapTuple(new int[] { key, i }));
+      expected.add(key);
+    }
+    Collections.sort(expected);
+    return expected;
+  }
+
+  /**
+   * Unit test for BTreeFile.insertTuple: tuples come back in key order,
+   * also after the pages are written and read back.
+   */
+  @Test public void insertAndScan() throws Exception {
+    ArrayList<Integer> expected = insertRandom();
+    assertEquals(expected, keys(tree.iterator(tid)));
+    assertTrue(tree.numPages() > N / 4);
+
+    Database.getBufferPool().transactionComplete(tid);
+    Database.resetBufferPool(2000);
+    tid = new TransactionId();
+    assertEquals(expected, keys(tree.iterator(tid)));
+  }
+
+  /**
+   * Unit test for BTreeFile.indexIterator and rangeIterator, including keys
+   * that span several leaves.
+   */
+  @Test public void search() throws Exception {
+    ArrayList<Integer> all = insertRandom();
+    for (int v = -1; v <= N / 3; v += 7) {
+      IntField value = new IntField(v);
+      for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS,
+          Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+          Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ }) {
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (int key : all) {
+          if (new IntField(key).compare(op, value))
+            expected.add(key);
+        }
+        assertEquals(op + " " + v, expected, keys(tree.indexIterator(tid, op, value)));
+      }
+    }
+
+    ArrayList<Integer> expected = new ArrayList<Integer>();
+    for (int key : all) {
+      if (key > 50 && key <= 120)
+        expected.add(key);
+    }
+    assertEquals(expected, keys(tree.rangeIterator(tid, new IntField(50),
+        false, new IntField(120), true)));
+  }
+
+  /**
+   * Unit test for BTreeFile.deleteTuple: deletes merge and redistribute
+   * pages until the tree is empty, and the freed pages are reused.
+   */
+  @Test public void deleteAll() throws Exception {
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < N; i++) {
+      Tuple t = Utility.getHeapTuple(new int[] { rand.nextInt(N / 3), i });
+      tree.insertTuple(tid, t);
+      tuples.add(t);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    int pages = tree.numPages();
+    ArrayList<Tuple> inserted = new ArrayList<Tuple>(tuples);
+
+    tid = new TransactionId();
+    Collections.shuffle(tuples, rand);
+    ArrayList<Integer> expected = new ArrayList<Integer>();
+    for (Tuple t : tuples)
+      expected.add(((IntField) t.getField(0)).getValue());
+    while (!tuples.isEmpty()) {
+      Tuple t = tuples.remove(tuples.size() - 1);
+      tree.deleteTuple(tid, t);
+      expected.remove((Integer) ((IntField) t.getField(0)).getValue());
+      if (tuples.size() % 50 == 0) {
+        ArrayList<Integer> sorted = new ArrayList<Integer>(expected);
+        Collections.sort(sorted);
+        assertEquals(sorted, keys(tree.iterator(tid)));
+      }
+    }
+    assertEquals(0, keys(tree.iterator(tid)).size());
+    Database.getBufferPool().transactionComplete(tid);
+
+    // a later transaction rebuilding the same tree fills the freed pages
+    // instead of growing the file
+    tid = new TransactionId();
+    for (Tuple t : inserted)
+      tree.insertTuple(tid, t);
+    assertEquals(pages, tree.numPages());
+  }
+
+  /**
+   * Inserts N tuples, deletes the first three quarters of them, which
+   * frees pages, and commits. Returns the keys left, sorted.
+   */
+  private ArrayList<Integer> insertThenDeleteMost() throws Exception {
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < N; i++) {
+      Tuple t = Utility.getHeapTuple(new int[] { rand.nextInt(N / 3), i });
+      tree.insertTuple(tid, t);
+      tuples.add(t);
+    }
+    ArrayList<Integer> expected = new ArrayList<Integer>();
+    for (int i = 0; i < N; i++) {
+      if (i < 3 * N / 4)
+        tree.deleteTuple(tid, tuples.get(i));
+      else
+        expected.add(((IntField) tuples.get(i).getField(0)).getValue());
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    tid = new TransactionId();
+    Collections.sort(expected);
+    return expected;
+  }
+
+  /**
+   * A tree reopened with free pages in its header reuses them, although
+   * it does not know which transaction freed them.
+   */
+  @Test public void reuseAfterReopen() throws Exception {
+    ArrayList<Integer> expected = insertThenDeleteMost();
+    int pages = tree.numPages();
+    tree.close();
+    Database.resetBufferPool(2000);
+    tree = new BTreeFile(f, Utility.getTupleDesc(2), 0, 4);
+    Database.getCatalog().addTable(tree, "t");
+
+    for (int i = 0; i < N / 2; i++) {
+      int key = rand.nextInt(N / 3);
+      tree.insertTuple(tid, Utility.getHeapTuple(new int[] { key, -i }));
+      expected.add(key);
+    }
+    Collections.sort(expected);
+    assertEquals(expected, keys(tree.iterator(tid)));
+    assertEquals(pages, tree.numPages());
+  }
+
+  /**
+   * Pages freed by one transaction, reused by a second that aborts, are
+   * free again for a third.
+   */
+  @Test public void reuseAfterAbort() throws Exception {
+    ArrayList<Integer> expected = insertThenDeleteMost();
+    insertRandom();
+    Database.getBufferPool().transactionComplete(tid, false);
+    // the aborted inserts may have grown the file, but not past this
+    int pages = tree.numPages();
+
+    tid = new TransactionId();
+    assertEquals(expected, keys(tree.iterator(tid)));
+    for (int i = 0; i < N / 2; i++) {
+      int key = rand.nextInt(N / 3);
+      tree.insertTuple(tid, Utility.getHeapTuple(new int[] { key, -i }));
+      expected.add(key);
+    }
+    Collections.sort(expected);
+    assertEquals(expected, keys(tree.iterator(tid)));
+    assertEquals(pages, tree.numPages());
+  }
+
+  /**
+   * Unit test for deleting every tuple through Delete over a scan of the
+   * same tree, which merges the leaves under the scan.
+   */
+  @Test public void deleteWhileScanning() throws Exception {
+    ArrayList<Integer> expected = insertRandom();
+    Delete del = new Delete(tid, new SeqScan(tid, tree.getId(), "t"));
+    del.open();
+    assertEquals(expected.size(), ((IntField) del.next().getField(0)).getValue());
+    del.close();
+    assertEquals(0, keys(tree.iterator(tid)).size());
+  }
+
+  /**
+   * Unit test for BTreeFile.bulkLoad, followed by searches and inserts.
+   */
+  @Test public void bulkLoad() throws Exception {
+    int[] data = new int[2 * N];
+    for (int i = 0; i < N; i++) {
+      data[2 * i] = i / 2;
+      data[2 * i + 1] = i;
+    }
+    DbIterator sorted = TestUtil.createTupleList(2, data);
+    sorted.open();
+    assertEquals(N, tree.bulkLoad(sorted));
+    sorted.close();
+
+    ArrayList<Integer> expected = new ArrayList<Integer>();
+    for (int i = 0; i < N; i++)
+      expected.add(i / 2);
+    assertEquals(expected, keys(tree.iterator(tid)));
+    assertEquals(Arrays.asList(100, 100), keys(tree.indexIterator(tid,
+        Predicate.Op.EQUALS, new IntField(100))));
+
+    tree.insertTuple(tid, Utility.getHeapTuple(new int[] { 100, -1 }));
+    assertEquals(Arrays.asList(100, 100, 100), keys(tree.indexIterator(tid,
+        Predicate.Op.EQUALS, new IntField(100))));
+  }
+
+  /**
+   * Unit test for BTreeFile.bulkLoad rejecting unsorted input.
+   */
+  @Test(expected = DbException.class)
+  public void bulkLoadUnsorted() throws Exception {
+    DbIterator unsorted = TestUtil.createTupleList(2, new int[] { 2, 0, 1, 0 });
+    unsorted.open();
+    tree.bulkLoad(unsorted);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BTreeFileTest.class);
+  }
+}
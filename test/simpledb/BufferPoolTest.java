@@ -0,0 +1,221 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolTest extends SimpleDbTestBase {
+
+    /** Counts readPage calls and makes each one slow. */
+    static class SlowHeapFile extends HeapFile {
+        private static final long serialVersionUID = 1L;
+
+        final AtomicInteger reads = new AtomicInteger();
+
+        SlowHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads.incrementAndGet();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+            }
+            return super.readPage(pid);
+        }
+
+        volatile boolean failWrites;
+
+        @Override
+        public void writePage(Page page) throws IOException {
+            if (failWrites)
+                throw new IOException("write failed");
+            super.writePage(page);
+        }
+    }
+
+    private SlowHeapFile createTable(int pages) throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, pages * 504,
+                1000, null, new ArrayList<ArrayList<Integer>>());
+        SlowHeapFile table = new SlowHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        return table;
+    }
+
+    /**
+     * Threads that miss on the same page at once share a single read.
+     */
+    @Test public void singleFlightLoad() throws Exception {
+        final SlowHeapFile table = createTable(1);
+        final BufferPool bp = Database.resetBufferPool(4);
+        final PageId pid = new HeapPageId(table.getId(), 0);
+        int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Page>> results = new ArrayList<Future<Page>>();
+        for (int i = 0; i < threads; i++) {
+            results.add(pool.submit(new Callable<Page>() {
+                public Page call() throws Exception {
+                    start.await();
+                    return bp.getPage(new TransactionId(), pid, Permissions.READ_ONLY);
+                }
+            }));
+        }
+        start.countDown();
+        Page first = results.get(0).get();
+        for (Future<Page> result : results)
+            assertSame(first, result.get());
+        pool.shutdown();
+        assertEquals(1, table.reads.get());
+        assertEquals(1, bp.getMissCount());
+    }
+
+    /**
+     * A hit does not wait for the pool's lock, and later evictions still
+     * see it.
+     */
+    @Test public void hitsDoNotLock() throws Exception {
+        SlowHeapFile table = createTable(3);
+        final BufferPool bp = Database.resetBufferPool(2);
+        final TransactionId tid = new TransactionId();
+        final PageId p0 = new HeapPageId(table.getId(), 0);
+        PageId p1 = new HeapPageId(table.getId(), 1);
+        PageId p2 = new HeapPageId(table.getId(), 2);
+        bp.getPage(tid, p0, Permissions.READ_ONLY);
+        bp.getPage(tid, p1, Permissions.READ_ONLY);
+
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        Future<Page> hit;
+        synchronized (bp) {
+            hit = pool.submit(new Callable<Page>() {
+                public Page call() throws Exception {
+                    return bp.getPage(tid, p0, Permissions.READ_ONLY);
+                }
+            });
+            assertNotNull(hit.get(5, TimeUnit.SECONDS));
+        }
+        pool.shutdown();
+
+        // p0 was used last, so p1 is the one to go
+        bp.getPage(tid, p2, Permissions.READ_ONLY);
+        assertTrue(bp.isCached(p0));
+        assertFalse(bp.isCached(p1));
+        assertEquals(1, bp.getHitCount());
+    }
+
+    /**
+     * Pinned pages are never evicted; when every page is pinned a miss fails.
+     */
+    @Test public void pinnedPagesStay() throws Exception {
+        SlowHeapFile table = createTable(3);
+        BufferPool bp = Database.resetBufferPool(2);
+        TransactionId tid = new TransactionId();
+        PageId p0 = new HeapPageId(table.getId(), 0);
+        PageId p1 = new HeapPageId(table.getId(), 1);
+        PageId p2 = new HeapPageId(table.getId(), 2);
+
+        bp.pinPage(tid, p0, Permissions.READ_ONLY);
+        bp.getPage(tid, p1, Permissions.READ_ONLY);
+        bp.getPage(tid, p2, Permissions.READ_ONLY);
+        assertTrue(bp.isCached(p0));
+        assertFalse(bp.isCached(p1));
+
+        bp.pinPage(tid, p2, Permissions.READ_ONLY);
+        try {
+            bp.getPage(tid, p1, Permissions.READ_ONLY);
+            fail("expected DbException");
+        } catch (DbException e) {
+        }
+
+        bp.unpinPage(p0);
+        bp.getPage(tid, p1, Permissions.READ_ONLY);
+        assertFalse(bp.isCached(p0));
+        assertTrue(bp.isCached(p2));
+    }
+
+    /** Deletes the first tuple of each of table's pages on behalf of tid. */
+    private void deleteFirstTuples(BufferPool bp, TransactionId tid,
+            HeapFile table, int pages) throws Exception {
+        for (int i = 0; i < pages; i++) {
+            HeapPage page = (HeapPage) bp.getPage(tid,
+                    new HeapPageId(table.getId(), i), Permissions.READ_WRITE);
+            page.deleteTuple(page.iterator().next());
+            page.markDirty(true, tid);
+        }
+    }
+
+    /**
+     * A transaction may dirty more pages than the pool holds; dirty pages
+     * are written out to make room, and put back if it aborts.
+     */
+    @Test public void dirtyPagesAreStolen() throws Exception {
+        SlowHeapFile table = createTable(4);
+        BufferPool bp = Database.resetBufferPool(2);
+
+        TransactionId aborted = new TransactionId();
+        deleteFirstTuples(bp, aborted, table, 4);
+        bp.transactionComplete(aborted, false);
+        for (int i = 0; i < 4; i++) {
+            HeapPage page = (HeapPage) table.readPage(
+                    new HeapPageId(table.getId(), i));
+            assertEquals(0, page.getNumEmptySlots());
+        }
+
+        TransactionId committed = new TransactionId();
+        deleteFirstTuples(bp, committed, table, 4);
+        bp.transactionComplete(committed, true);
+        for (int i = 0; i < 4; i++) {
+            HeapPage page = (HeapPage) table.readPage(
+                    new HeapPageId(table.getId(), i));
+            assertEquals(1, page.getNumEmptySlots());
+        }
+    }
+
+    /**
+     * A page whose write fails is still dirty afterwards.
+     */
+    @Test public void failedFlushKeepsPageDirty() throws Exception {
+        SlowHeapFile table = createTable(1);
+        BufferPool bp = Database.resetBufferPool(4);
+        TransactionId tid = new TransactionId();
+        Page page = bp.getPage(tid, new HeapPageId(table.getId(), 0),
+                Permissions.READ_WRITE);
+        page.markDirty(true, tid);
+
+        table.failWrites = true;
+        try {
+            bp.flushAllPages();
+            fail("expected IOException");
+        } catch (IOException e) {
+        }
+        assertEquals(tid, page.isDirty());
+        try {
+            bp.flushPages(tid);
+            fail("expected IOException");
+        } catch (IOException e) {
+        }
+        assertEquals(tid, page.isDirty());
+
+        table.failWrites = false;
+        bp.flushPages(tid);
+        assertNull(page.isDirty());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolTest.class);
+    }
+}
@@ -1,7 +1,12 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
 import java.util.NoSuchElementException;
 
 import junit.framework.Assert;
@@ -68,6 +73,72 @@ public class CatalogTest extends SimpleDbTestBase {
         assertEquals(-1, f.getId());
     }
 
+    /**
+     * Unit test for Catalog.loadSchema(): each table option gives the right
+     * kind of DbFile, and btree and hash tables are built from name.dat.
+     * Data files are looked up in the working directory, so the tables get
+     * names no other run uses and their files are deleted afterwards.
+     */
+    @Test public void loadSchema() throws Exception {
+        String prefix = "catalogtest_" + SystemTestUtil.getUUID().replace('-', '_');
+        String[] tables = { "heap", "mmap", "bt", "hash", "hashpk" };
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 2000; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(1999 - i);
+            t.add(i % 7);
+            tuples.add(t);
+        }
+        File schema = new File(prefix + ".txt");
+        try {
+            for (String table : tables)
+                HeapFileEncoder.convert(tuples, new File(prefix + table + ".dat"),
+                        BufferPool.PAGE_SIZE, 2);
+            FileWriter out = new FileWriter(schema);
+            out.write(prefix + "heap (a int pk, b int)\n");
+            out.write(prefix + "mmap (a int pk, b int) mmap\n");
+            out.write(prefix + "bt (a int pk, b int) btree\n");
+            out.write(prefix + "hash (a int pk, b int) hash b\n");
+            out.write(prefix + "hashpk (a int, b int pk) hash\n");
+            out.close();
+            Catalog catalog = Database.getCatalog();
+            catalog.loadSchema(schema.getPath());
+
+            DbFile heap = catalog.getDbFile(catalog.getTableId(prefix + "heap"));
+            assertTrue(heap instanceof HeapFile);
+            assertFalse(((HeapFile) heap).isMemoryMapped());
+            assertEquals("a", catalog.getPrimaryKey(heap.getId()));
+            DbFile mmap = catalog.getDbFile(catalog.getTableId(prefix + "mmap"));
+            assertTrue(((HeapFile) mmap).isMemoryMapped());
+
+            DbFile bt = catalog.getDbFile(catalog.getTableId(prefix + "bt"));
+            assertTrue(bt instanceof BTreeFile);
+            assertEquals(0, ((BTreeFile) bt).keyField());
+            assertTrue(new File(prefix + "bt.btree").length() > 0);
+            SystemTestUtil.matchTuples(bt, tuples);
+
+            // hash on the named field, or on the pk if none is named
+            DbFile hash = catalog.getDbFile(catalog.getTableId(prefix + "hash"));
+            assertEquals(1, ((HashFile) hash).keyField());
+            SystemTestUtil.matchTuples(hash, tuples);
+            DbFile hashpk = catalog.getDbFile(catalog.getTableId(prefix + "hashpk"));
+            assertEquals(1, ((HashFile) hashpk).keyField());
+            SystemTestUtil.matchTuples(hashpk, tuples);
+
+            // the heap file that built a table is not part of the catalog
+            int btHeapId = new File(prefix + "bt.dat").getAbsoluteFile().hashCode();
+            assertEquals(null, catalog.getTableName(btHeapId));
+        } finally {
+            Database.getCatalog().clear();
+            schema.delete();
+            File[] files = new File(".").listFiles();
+            for (File file : files) {
+                if (file.getName().startsWith(prefix))
+                    file.delete();
+            }
+        }
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,237 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashFileTest extends SimpleDbTestBase {
+
+  private static final int N = 600;
+
+  private File f;
+  private HashFile hash;
+  private TransactionId tid;
+  private Random rand;
+
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    Database.resetBufferPool(2000);
+    f = File.createTempFile("hash", ".hash");
+    f.deleteOnExit();
+    // 4 tuples to a page, so that a few hundred tuples make many buckets
+    hash = new HashFile(f, Utility.getTupleDesc(2), 0, 4);
+    Database.getCatalog().addTable(hash, "t");
+    tid = new TransactionId();
+    rand = new Random(42);
+  }
+
+  @After public void tearDown() throws Exception {
+    Database.getBufferPool().transactionComplete(tid);
+    hash.close();
+    f.delete();
+  }
+
+  /** Returns the sorted keys of the tuples of it. */
+  private static ArrayList<Integer> keys(DbFileIterator it) throws Exception {
+    ArrayList<Integer> keys = new ArrayList<Integer>();
+    it.open();
+    while (it.hasNext())
+      keys.add(((IntField) it.next().getField(0)).getValue());
+    it.close();
+    Collections.sort(keys);
+    return keys;
+  }
+
+  /** Inserts N tuples with keys in [0, N / 3) in random order. */
+  private ArrayList<Integer> insertRandom() throws Exception {
+    ArrayList<Integer> expected = new ArrayList<Integer>();
+    for (int i = 0; i < N; i++) {
+      int key = rand.nextInt(N / 3);
+      hash.insertTuple(tid, Utility.getHeapTuple(new int[] { key, i }));
+      expected.add(key);
+    }
+    Collections.sort(expected);
+    return expected;
+  }
+
+  private ArrayList<Integer> lookup(int key) throws Exception {
+    return keys(hash.indexIterator(tid, Predicate.Op.EQUALS, new IntField(key)));
+  }
+
+  /**
+   * Unit test for HashFile.insertTuple and indexIterator: every tuple comes
+   * back from a scan and from a lookup of its key, also after the pages
+   * are written and read back, and the buckets split as the file grows.
+   */
+  @Test public void insertAndLookup() throws Exception {
+    ArrayList<Integer> expected = insertRandom();
+    assertEquals(expected, keys(hash.iterator(tid)));
+    assertTrue(hash.header(tid, Permissions.READ_ONLY).numBuckets() > N / 8);
+
+    Database.getBufferPool().transactionComplete(tid);
+    Database.resetBufferPool(2000);
+    tid = new TransactionId();
+    assertEquals(expected, keys(hash.iterator(tid)));
+    for (int key = -1; key <= N / 3; key++) {
+      int count = Collections.frequency(expected, key);
+      assertEquals("key " + key, Collections.nCopies(count, key), lookup(key));
+    }
+  }
+
+  /**
+   * Lookups of string keys, with many tuples sharing a key so that their
+   * bucket needs overflow pages.
+   */
+  @Test public void stringKeys() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+    File sf = File.createTempFile("hash", ".hash");
+    sf.deleteOnExit();
+    HashFile strings = new HashFile(sf, td, 0);
+    Database.getCatalog().addTable(strings, "s");
+    String[] genres = { "Drama", "Comedy", "Horror", "Western" };
+    int[] counts = new int[genres.length];
+    for (int i = 0; i < 500; i++) {
+      int g = i % 7 == 0 ? 1 + i % 3 : 0;
+      Tuple t = new Tuple(td);
+      t.setField(0, new StringField(genres[g], Type.STRING_LEN));
+      t.setField(1, new IntField(i));
+      strings.insertTuple(tid, t);
+      counts[g]++;
+    }
+    for (int g = 0; g < genres.length; g++) {
+      DbFileIterator it = strings.indexIterator(tid, Predicate.Op.EQUALS,
+          new StringField(genres[g], Type.STRING_LEN));
+      int n = 0;
+      it.open();
+      while (it.hasNext()) {
+        assertEquals(genres[g], ((StringField) it.next().getField(0)).getValue());
+        n++;
+      }
+      it.close();
+      assertEquals(genres[g], counts[g], n);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    tid = new TransactionId();
+    strings.close();
+    sf.delete();
+  }
+
+  /**
+   * Unit test for HashFile.deleteTuple: emptied overflow pages go on the
+   * free list, and new overflow pages are only appended once it is empty.
+   */
+  @Test public void deleteAll() throws Exception {
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < N; i++) {
+      Tuple t = Utility.getHeapTuple(new int[] { rand.nextInt(N / 30), i });
+      hash.insertTuple(tid, t);
+      tuples.add(t);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    int pages = hash.numPages();
+    ArrayList<Tuple> inserted = new ArrayList<Tuple>(tuples);
+
+    tid = new TransactionId();
+    Collections.shuffle(tuples, rand);
+    ArrayList<Integer> expected = new ArrayList<Integer>();
+    for (Tuple t : tuples)
+      expected.add(((IntField) t.getField(0)).getValue());
+    Collections.sort(expected);
+    while (!tuples.isEmpty()) {
+      Tuple t = tuples.remove(tuples.size() - 1);
+      hash.deleteTuple(tid, t);
+      expected.remove((Integer) ((IntField) t.getField(0)).getValue());
+      if (tuples.size() % 50 == 0)
+        assertEquals(expected, keys(hash.iterator(tid)));
+    }
+    assertEquals(0, keys(hash.iterator(tid)).size());
+    Database.getBufferPool().transactionComplete(tid);
+    assertEquals(pages, hash.numPages());
+
+    tid = new TransactionId();
+    HashHeaderPage header = hash.header(tid, Permissions.READ_ONLY);
+    int overflowPages = header.overflowPages;
+    assertTrue(header.freeHead != 0);
+    for (Tuple t : inserted) {
+      hash.insertTuple(tid, t);
+      header = hash.header(tid, Permissions.READ_ONLY);
+      if (header.overflowPages > overflowPages)
+        assertEquals(0, header.freeHead);
+    }
+    assertEquals(N, keys(hash.iterator(tid)).size());
+  }
+
+  /**
+   * Unit test for deleting every tuple through Delete over a scan of the
+   * same file, which frees overflow pages under the scan.
+   */
+  @Test public void deleteWhileScanning() throws Exception {
+    ArrayList<Integer> expected = insertRandom();
+    Delete del = new Delete(tid, new SeqScan(tid, hash.getId(), "t"));
+    del.open();
+    assertEquals(expected.size(), ((IntField) del.next().getField(0)).getValue());
+    del.close();
+    assertEquals(0, keys(hash.iterator(tid)).size());
+  }
+
+  /**
+   * An aborted transaction's splits and overflow pages are undone.
+   */
+  @Test public void abort() throws Exception {
+    ArrayList<Integer> expected = insertRandom();
+    Database.getBufferPool().transactionComplete(tid);
+    tid = new TransactionId();
+    insertRandom();
+    Database.getBufferPool().transactionComplete(tid, false);
+    tid = new TransactionId();
+    assertEquals(expected, keys(hash.iterator(tid)));
+    insertRandom();
+    assertEquals(2 * N, keys(hash.iterator(tid)).size());
+  }
+
+  /**
+   * Unit test for HashFile.bulkLoad, followed by lookups and inserts.
+   */
+  @Test public void bulkLoad() throws Exception {
+    int[] data = new int[2 * N];
+    for (int i = 0; i < N; i++) {
+      data[2 * i] = i / 2;
+      data[2 * i + 1] = i;
+    }
+    DbIterator tuples = TestUtil.createTupleList(2, data);
+    tuples.open();
+    assertEquals(N, hash.bulkLoad(tuples));
+    tuples.close();
+
+    ArrayList<Integer> expected = new ArrayList<Integer>();
+    for (int i = 0; i < N; i++)
+      expected.add(i / 2);
+    assertEquals(expected, keys(hash.iterator(tid)));
+    assertEquals(Arrays.asList(100, 100), lookup(100));
+
+    hash.insertTuple(tid, Utility.getHeapTuple(new int[] { 100, -1 }));
+    assertEquals(Arrays.asList(100, 100, 100), lookup(100));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rangeLookup() throws Exception {
+    hash.indexIterator(tid, Predicate.Op.LESS_THAN, new IntField(1));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashFileTest.class);
+  }
+}
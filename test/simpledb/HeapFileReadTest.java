@@ -3,6 +3,7 @@ package simpledb;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
+import java.io.File;
 import java.util.*;
 import org.junit.After;
 import org.junit.Before;
@@ -77,6 +78,47 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() through a memory mapping, including
+     * a page appended after the file was first mapped.
+     */
+    @Test
+    public void readMappedPage() throws Exception {
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        Database.getCatalog().addTable(mapped, SystemTestUtil.getUUID());
+        HeapPage page = (HeapPage) mapped.readPage(new HeapPageId(hf.getId(), 0));
+        assertEquals(484, page.getNumEmptySlots());
+        assertTrue(page.isSlotUsed(1));
+        assertFalse(page.isSlotUsed(20));
+
+        HeapPageId pid1 = new HeapPageId(hf.getId(), 1);
+        hf.writePage(new HeapPage(pid1, HeapPage.createEmptyPageData()));
+        page = (HeapPage) mapped.readPage(pid1);
+        assertEquals(504, page.getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for HeapFile.readPages(): a run of adjacent pages and a
+     * detached page, requested out of order.
+     */
+    @Test
+    public void readPages() throws Exception {
+        for (int i = 1; i < 4; i++)
+            hf.writePage(new HeapPage(new HeapPageId(hf.getId(), i),
+                    HeapPage.createEmptyPageData()));
+        List<PageId> pids = new ArrayList<PageId>();
+        pids.add(new HeapPageId(hf.getId(), 3));
+        pids.add(new HeapPageId(hf.getId(), 0));
+        pids.add(new HeapPageId(hf.getId(), 1));
+        List<Page> pages = hf.readPages(pids);
+        assertEquals(3, pages.size());
+        for (int i = 0; i < 3; i++)
+            assertEquals(pids.get(i), pages.get(i).getId());
+        assertEquals(504, ((HeapPage) pages.get(0)).getNumEmptySlots());
+        assertEquals(484, ((HeapPage) pages.get(1)).getNumEmptySlots());
+        assertEquals(504, ((HeapPage) pages.get(2)).getNumEmptySlots());
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -121,6 +163,25 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * A scan of a file with no pages returns no tuples, without reading
+     * page 0.
+     */
+    @Test
+    public void testIteratorEmpty() throws Exception {
+        File f = File.createTempFile("empty", ".dat");
+        f.deleteOnExit();
+        HeapFile emptyFile = Utility.openHeapFile(2, f);
+        assertEquals(0, emptyFile.numPages());
+
+        SeqScan scan = new SeqScan(tid, emptyFile.getId(), "e");
+        scan.open();
+        assertFalse(scan.hasNext());
+        scan.rewind();
+        assertFalse(scan.hasNext());
+        scan.close();
+    }
+
     /**
      * JUnit suite target
      */
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.io.File;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,6 +45,101 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * A slot freed by a delete is reused before the file grows.
+     */
+    @Test public void reuseFreedSlot() throws Exception {
+        Tuple first = Utility.getHeapTuple(0, 2);
+        empty.insertTuple(tid, first);
+        for (int i = 1; i < 505; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(2, empty.numPages());
+
+        empty.deleteTuple(tid, first);
+        Tuple t = Utility.getHeapTuple(1, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(2, empty.numPages());
+        assertEquals(0, t.getRecordId().getPageId().pageNumber());
+    }
+
+    /**
+     * The free-space map is saved when the file is closed and loaded, not
+     * rebuilt, when the file is opened again.
+     */
+    @Test public void freeSpaceSurvivesRestart() throws Exception {
+        Tuple first = Utility.getHeapTuple(0, 2);
+        empty.insertTuple(tid, first);
+        for (int i = 1; i < 504; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        empty.insertTuple(tid, Utility.getHeapTuple(504, 2));
+        empty.deleteTuple(tid, first);
+        Database.getBufferPool().transactionComplete(tid);
+        empty.close();
+        File sidecar = FreeSpaceMap.sidecarFor(empty.getFile());
+        assertTrue(sidecar.exists());
+
+        FreeSpaceMap fsm = new FreeSpaceMap(sidecar);
+        assertTrue(fsm.load(empty.getFile()));
+        assertEquals(2, fsm.numPages());
+        assertEquals(0, fsm.findFree());
+
+        // a sidecar older than the heap file is not trusted
+        empty.writePage(new HeapPage(new HeapPageId(empty.getId(), 2),
+                HeapPage.createEmptyPageData()));
+        assertFalse(new FreeSpaceMap(sidecar).load(empty.getFile()));
+        sidecar.delete();
+    }
+
+    /**
+     * Writes that leave every page's free space as it was still bring the
+     * sidecar up to date with the heap file, so it is loaded after a restart.
+     */
+    @Test public void freeSpaceSurvivesUnchangedRestart() throws Exception {
+        for (int i = 0; i < 504; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        Tuple last = Utility.getHeapTuple(504, 2);
+        empty.insertTuple(tid, last);
+        Database.getBufferPool().transactionComplete(tid);
+        empty.close();
+        File sidecar = FreeSpaceMap.sidecarFor(empty.getFile());
+        assertTrue(new FreeSpaceMap(sidecar).load(empty.getFile()));
+
+        // page 1 has room before and after the delete
+        tid = new TransactionId();
+        empty.deleteTuple(tid, last);
+        Database.getBufferPool().transactionComplete(tid);
+        empty.close();
+        FreeSpaceMap fsm = new FreeSpaceMap(sidecar);
+        assertTrue(fsm.load(empty.getFile()));
+        assertEquals(2, fsm.numPages());
+        assertEquals(1, fsm.findFree());
+        sidecar.delete();
+    }
+
+    /**
+     * The free-space map is saved when a transaction that changed it
+     * commits, so a restart finds it without the file being closed.
+     */
+    @Test public void freeSpaceSavedOnCommit() throws Exception {
+        Tuple first = Utility.getHeapTuple(0, 2);
+        empty.insertTuple(tid, first);
+        for (int i = 1; i < 505; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        empty.deleteTuple(tid, first);
+        Database.getBufferPool().transactionComplete(tid);
+        File sidecar = FreeSpaceMap.sidecarFor(empty.getFile());
+        assertTrue(new FreeSpaceMap(sidecar).load(empty.getFile()));
+
+        // a fresh HeapFile stands in for the table after a restart
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        FreeSpaceMap fsm = reopened.freeSpace();
+        assertEquals(2, fsm.numPages());
+        assertEquals(0, fsm.findFree());
+        sidecar.delete();
+    }
+
     /**
      * JUnit suite target
      */
@@ -12,6 +12,7 @@ import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
@@ -120,6 +121,55 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Lazily decoded pages return the same tuples as eagerly decoded ones,
+     * and write back the bytes they were read from, including after a
+     * field has been changed and changed back.
+     */
+    @Test public void lazyDecoding() throws Exception {
+        HeapPage.setLazyDecoding(true);
+        HeapPage lazy = new HeapPage(pid, EXAMPLE_DATA);
+        HeapPage.setLazyDecoding(false);
+        HeapPage eager;
+        try {
+            eager = new HeapPage(pid, EXAMPLE_DATA);
+        } finally {
+            HeapPage.setLazyDecoding(true);
+        }
+
+        Iterator<Tuple> lit = lazy.iterator();
+        Iterator<Tuple> eit = eager.iterator();
+        while (eit.hasNext()) {
+            assertTrue(lit.hasNext());
+            assertEquals(eit.next().toString(), lit.next().toString());
+        }
+        assertFalse(lit.hasNext());
+        assertTrue(Arrays.equals(EXAMPLE_DATA, lazy.getPageData()));
+
+        Tuple t = lazy.iterator().next();
+        t.setField(0, new IntField(-1));
+        t.setField(0, new IntField(EXAMPLE_VALUES[0][0]));
+        assertTrue(Arrays.equals(eager.getPageData(), lazy.getPageData()));
+    }
+
+    /**
+     * A materialized tuple has the fields and RecordId of the page's tuple
+     * but is not a view of the page bytes.
+     */
+    @Test public void materialize() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertTrue(t instanceof LazyTuple);
+            Tuple m = t.materialize();
+            assertFalse(m instanceof LazyTuple);
+            assertEquals(t.toString(), m.toString());
+            assertEquals(t.getRecordId(), m.getRecordId());
+            assertSame(m, m.materialize());
+        }
+    }
+
     /**
      * JUnit suite target
      */
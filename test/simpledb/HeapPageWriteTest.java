@@ -126,6 +126,36 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for slot reuse: inserts fill the lowest free slot, and the
+     * header survives a round trip through getPageData().
+     */
+    @Test public void reuseFreedSlots() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        Tuple[] added = new Tuple[504];
+        for (int i = 0; i < added.length; i++) {
+            added[i] = Utility.getHeapTuple(i, 2);
+            page.insertTuple(added[i]);
+            assertEquals(i, added[i].getRecordId().tupleno());
+        }
+        assertEquals(0, page.getNumEmptySlots());
+
+        int[] freed = { 3, 64, 65, 200, 503 };
+        for (int slot : freed)
+            page.deleteTuple(added[slot]);
+        assertEquals(freed.length, page.getNumEmptySlots());
+
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertEquals(freed.length, copy.getNumEmptySlots());
+        for (int slot : freed) {
+            assertTrue(!copy.isSlotUsed(slot));
+            Tuple t = Utility.getHeapTuple(slot, 2);
+            copy.insertTuple(t);
+            assertEquals(slot, t.getRecordId().tupleno());
+        }
+        assertEquals(0, copy.getNumEmptySlots());
+    }
+
     /**
      * JUnit suite target
      */
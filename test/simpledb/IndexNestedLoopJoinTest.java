@@ -0,0 +1,149 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+  private static final int N = 3000;
+
+  private File f;
+  private BTreeFile tree;
+  private TransactionId tid;
+  private int[] outer;
+
+  /** An inner table of N tuples keyed i / 3, and an outer one probing it. */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    f = File.createTempFile("inlj", ".btree");
+    f.deleteOnExit();
+    tree = new BTreeFile(f, Utility.getTupleDesc(2, "c"), 0, 8);
+    Database.getCatalog().addTable(tree, "t");
+    int[] data = new int[2 * N];
+    for (int i = 0; i < N; i++) {
+      data[2 * i] = i / 3;
+      data[2 * i + 1] = i;
+    }
+    DbIterator sorted = TestUtil.createTupleList(2, data);
+    sorted.open();
+    tree.bulkLoad(sorted);
+    sorted.close();
+    tid = new TransactionId();
+
+    outer = new int[2 * 200];
+    for (int i = 0; i < 200; i++) {
+      outer[2 * i] = (i * 37) % (N / 3 + 20) - 10;
+      outer[2 * i + 1] = -i;
+    }
+  }
+
+  @After public void tearDown() throws Exception {
+    Database.getBufferPool().transactionComplete(tid);
+    tree.close();
+    f.delete();
+  }
+
+  private static ArrayList<String> drain(DbIterator it) throws Exception {
+    ArrayList<String> rows = new ArrayList<String>();
+    while (it.hasNext())
+      rows.add(it.next().toString());
+    return rows;
+  }
+
+  /** Returns a scan of t that keeps the tuples whose second field is over 1000. */
+  private DbIterator filteredInner() {
+    return new Filter(new Predicate(1, Predicate.Op.GREATER_THAN,
+        new IntField(1000)), new SeqScan(tid, tree.getId(), "t"));
+  }
+
+  /**
+   * Unit test for IndexNestedLoopJoin.getNext() and rewind(): the same
+   * tuples, in the same order, as a nested-loop join over a scan of the
+   * index, for each predicate the index supports, and with a Filter on the
+   * inner input.
+   */
+  @Test public void sameAsNestedLoop() throws Exception {
+    for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS,
+        Predicate.Op.LESS_THAN, Predicate.Op.GREATER_THAN_OR_EQ }) {
+      JoinPredicate pred = new JoinPredicate(0, op, 0);
+      Join nl = new Join(pred, TestUtil.createTupleList(2, outer), filteredInner());
+      nl.open();
+      ArrayList<String> expected = drain(nl);
+      nl.close();
+      assertFalse(expected.isEmpty());
+
+      IndexNestedLoopJoin inl = new IndexNestedLoopJoin(pred,
+          TestUtil.createTupleList(2, outer), filteredInner());
+      inl.open();
+      assertEquals(op.toString(), expected, drain(inl));
+      inl.rewind();
+      assertEquals(op.toString(), expected, drain(inl));
+      inl.close();
+    }
+  }
+
+  /**
+   * An IndexScan as the inner input still restricts the tuples each probe
+   * returns.
+   */
+  @Test public void indexScanInner() throws Exception {
+    Predicate below = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(300));
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    Join nl = new Join(pred, TestUtil.createTupleList(2, outer),
+        new Filter(below, new SeqScan(tid, tree.getId(), "t")));
+    nl.open();
+    ArrayList<String> expected = drain(nl);
+
+    IndexNestedLoopJoin inl = new IndexNestedLoopJoin(pred,
+        TestUtil.createTupleList(2, outer), new IndexScan(tid, tree.getId(), "t", below));
+    inl.open();
+    assertEquals(expected, drain(inl));
+  }
+
+  /**
+   * Unit test for IndexNestedLoopJoin.canProbe, and for instantiateJoin
+   * falling back to another join when the inner input has no index.
+   */
+  @Test public void canProbe() throws Exception {
+    assertTrue(IndexNestedLoopJoin.canProbe(filteredInner(), 0, Predicate.Op.GREATER_THAN));
+    assertFalse(IndexNestedLoopJoin.canProbe(filteredInner(), 1, Predicate.Op.EQUALS));
+    assertFalse(IndexNestedLoopJoin.canProbe(filteredInner(), 0, Predicate.Op.NOT_EQUALS));
+    DbIterator list = TestUtil.createTupleList(2, outer);
+    assertFalse(IndexNestedLoopJoin.canProbe(list, 0, Predicate.Op.EQUALS));
+
+    LogicalJoinNode lj = new LogicalJoinNode("a", "b", "c0", "c0",
+        Predicate.Op.EQUALS).withAlgorithm(LogicalJoinNode.Algorithm.INDEX_NESTED_LOOP);
+    assertTrue(JoinOptimizer.instantiateJoin(lj, new SeqScan(tid, tree.getId(), "a"),
+        new SeqScan(tid, tree.getId(), "b")) instanceof IndexNestedLoopJoin);
+    // the inner input is itself a join, which has no index
+    DbIterator joined = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        new SeqScan(tid, tree.getId(), "b"), new SeqScan(tid, tree.getId(), "c"));
+    assertTrue(JoinOptimizer.instantiateJoin(lj, new SeqScan(tid, tree.getId(), "a"),
+        joined) instanceof HashEquiJoin);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void noIndex() throws Exception {
+    new IndexNestedLoopJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        TestUtil.createTupleList(2, outer), TestUtil.createTupleList(2, outer));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+  }
+}
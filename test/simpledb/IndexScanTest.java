@@ -0,0 +1,118 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IndexScanTest extends SimpleDbTestBase {
+
+  private static final int N = 3000;
+
+  private File f;
+  private BTreeFile tree;
+  private TransactionId tid;
+
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    f = File.createTempFile("index", ".btree");
+    f.deleteOnExit();
+    tree = new BTreeFile(f, Utility.getTupleDesc(2, "c"), 0, 8);
+    Database.getCatalog().addTable(tree, "t");
+    int[] data = new int[2 * N];
+    for (int i = 0; i < N; i++) {
+      data[2 * i] = i / 3;
+      data[2 * i + 1] = i;
+    }
+    DbIterator sorted = TestUtil.createTupleList(2, data);
+    sorted.open();
+    tree.bulkLoad(sorted);
+    sorted.close();
+    tid = new TransactionId();
+  }
+
+  @After public void tearDown() throws Exception {
+    Database.getBufferPool().transactionComplete(tid);
+    tree.close();
+    f.delete();
+  }
+
+  private static ArrayList<Integer> values(DbIterator it) throws Exception {
+    ArrayList<Integer> values = new ArrayList<Integer>();
+    it.open();
+    while (it.hasNext())
+      values.add(((IntField) it.next().getField(1)).getValue());
+    it.close();
+    return values;
+  }
+
+  /**
+   * Unit test for IndexScan returning the same tuples as a Filter over a
+   * SeqScan, for every operator the B+ tree supports.
+   */
+  @Test public void sameAsFilter() throws Exception {
+    Predicate.Op[] ops = new Predicate.Op[] { Predicate.Op.EQUALS,
+        Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+        Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+    for (Predicate.Op op : ops) {
+      for (int v : new int[] { -1, 0, 500, N / 3 - 1, N }) {
+        Predicate p = new Predicate(0, op, new IntField(v));
+        IndexScan scan = new IndexScan(tid, tree.getId(), "t", p);
+        assertEquals("t.c0", scan.getTupleDesc().getFieldName(0));
+        assertEquals(op + " " + v,
+            values(new Filter(p, new SeqScan(tid, tree.getId(), "t"))),
+            values(scan));
+      }
+    }
+  }
+
+  /**
+   * Unit test for IndexScan.canUse: only predicates on the key, with an
+   * operator the index supports, and only on an IndexFile.
+   */
+  @Test public void canUse() throws Exception {
+    assertTrue(IndexScan.canUse(tree, new Predicate(0, Predicate.Op.GREATER_THAN,
+        new IntField(1))));
+    assertTrue(!IndexScan.canUse(tree, new Predicate(1, Predicate.Op.EQUALS,
+        new IntField(1))));
+    assertTrue(!IndexScan.canUse(tree, new Predicate(0, Predicate.Op.NOT_EQUALS,
+        new IntField(1))));
+    HeapFile heap = new HeapFile(new File(f.getPath() + ".dat"),
+        Utility.getTupleDesc(2));
+    assertTrue(!IndexScan.canUse(heap, new Predicate(0, Predicate.Op.EQUALS,
+        new IntField(1))));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unsupportedPredicate() throws Exception {
+    new IndexScan(tid, tree.getId(), "t", new Predicate(1,
+        Predicate.Op.EQUALS, new IntField(1)));
+  }
+
+  /**
+   * Unit test for TableStats.estimateIndexScanCost: cheaper than a scan for
+   * a selective predicate, dearer when most of the table matches.
+   */
+  @Test public void indexScanCost() throws Exception {
+    TableStats s = new TableStats(tree.getId(), 1000);
+    double sel = s.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(7));
+    assertTrue(s.estimateIndexScanCost(tree, sel) < s.estimateScanCost());
+    assertTrue(s.estimateIndexScanCost(tree, 0.9) > s.estimateScanCost());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexScanTest.class);
+  }
+}
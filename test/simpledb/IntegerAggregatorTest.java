@@ -178,6 +178,44 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test IntegerAggregator with enough groups to make its tables grow
+   * several times, including negative keys and exact integer averages
+   */
+  @Test public void manyGroups() throws Exception {
+    int groups = 50000;
+    int[] data = new int[2 * groups * 3];
+    for (int i = 0; i < groups * 3; i++) {
+      data[2 * i] = (i % groups) * 2 - groups;
+      data[2 * i + 1] = i;
+    }
+    DbIterator input = TestUtil.createTupleList(width1, data);
+    IntegerAggregator avgAgg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG);
+    IntegerAggregator countAgg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.COUNT);
+    input.open();
+    while (input.hasNext()) {
+      Tuple t = input.next();
+      avgAgg.mergeTupleIntoGroup(t);
+      countAgg.mergeTupleIntoGroup(t);
+    }
+
+    // group g holds g, g + groups and g + 2 * groups, which average to g + groups
+    int[] expectedAvg = new int[2 * groups];
+    int[] expectedCount = new int[2 * groups];
+    for (int g = 0; g < groups; g++) {
+      expectedAvg[2 * g] = g * 2 - groups;
+      expectedAvg[2 * g + 1] = g + groups;
+      expectedCount[2 * g] = g * 2 - groups;
+      expectedCount[2 * g + 1] = 3;
+    }
+    DbIterator it = avgAgg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1, expectedAvg), it);
+    it = countAgg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1, expectedCount), it);
+  }
+
   /**
    * JUnit suite target
    */
@@ -28,6 +28,7 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         File temp = File.createTempFile("table", ".dat");
         temp.deleteOnExit();
         HeapFileEncoder.convert(tuples, temp, BufferPool.PAGE_SIZE, columns);
+        ZoneMap.sidecarFor(temp).deleteOnExit();
         return Utility.openHeapFile(columns, colPrefix, temp);
 	}
 
@@ -161,6 +162,56 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
 		Assert.assertEquals(Boolean.TRUE, ret[0]);
 	}
 
+	/**
+	 * Verify that equality joins of non-trivial inputs are hashed unless both
+	 * inputs are already sorted, that range joins are merged, that other
+	 * joins use block nested loops, and that instantiateJoin honours the
+	 * choice.
+	 */
+	@Test public void chooseJoinAlgorithmTest() throws ParsingException {
+		TransactionId tid = new TransactionId();
+		Parser p = new Parser();
+		JoinOptimizer jo = new JoinOptimizer(p.generateLogicalPlan(tid, "SELECT * FROM " + tableName1 + " t1, " + tableName2 + " t2 WHERE t1.c1 = t2.c2;"),
+				new Vector<LogicalJoinNode>());
+		LogicalJoinNode eq = new LogicalJoinNode("t1", "t2", "c1", "c2", Predicate.Op.EQUALS);
+		LogicalJoinNode lt = new LogicalJoinNode("t1", "t2", "c1", "c2", Predicate.Op.LESS_THAN);
+		LogicalJoinNode ne = new LogicalJoinNode("t1", "t2", "c1", "c2", Predicate.Op.NOT_EQUALS);
+
+		Assert.assertEquals(LogicalJoinNode.Algorithm.HASH,
+				jo.chooseJoinAlgorithm(eq, 1000, 10000, 100.0, 1000.0));
+		// too big to hash in memory, but nothing to sort
+		Assert.assertEquals(LogicalJoinNode.Algorithm.SORT_MERGE,
+				jo.chooseJoinAlgorithm(eq, 1000000, 1000000, 1e6, 1e6, true, true));
+		Assert.assertEquals(LogicalJoinNode.Algorithm.HASH,
+				jo.chooseJoinAlgorithm(eq, 1000000, 1000000, 1e6, 1e6, false, false));
+		Assert.assertEquals(LogicalJoinNode.Algorithm.SORT_MERGE,
+				jo.chooseJoinAlgorithm(lt, 1000, 10000, 100.0, 1000.0));
+		// a range merge would buffer an inner input too big for memory
+		Assert.assertEquals(Double.MAX_VALUE, jo.estimateJoinCost(lt,
+				LogicalJoinNode.Algorithm.SORT_MERGE, 1000, 10000000, 100.0, 1e6), 0.0);
+		Assert.assertEquals(LogicalJoinNode.Algorithm.SORT_MERGE,
+				jo.chooseJoinAlgorithm(eq, 10000000, 10000000, 1e6, 1e6, true, true));
+		Assert.assertEquals(LogicalJoinNode.Algorithm.BLOCK_NESTED_LOOP,
+				jo.chooseJoinAlgorithm(ne, 1000, 10000, 100.0, 1000.0));
+		Assert.assertEquals(Double.MAX_VALUE, jo.estimateJoinCost(ne,
+				LogicalJoinNode.Algorithm.SORT_MERGE, 1000, 10000, 100.0, 1000.0), 0.0);
+		// a block of 3-int tuples holds far more than 1000 rows: one inner scan
+		Assert.assertEquals(100.0 + 1000.0 + 1000.0 * 10000, jo.estimateJoinCost(lt,
+				LogicalJoinNode.Algorithm.BLOCK_NESTED_LOOP, 1000, 10000, 100.0, 1000.0), 0.0);
+		Assert.assertEquals(Double.MAX_VALUE, jo.estimateJoinCost(lt,
+				LogicalJoinNode.Algorithm.HASH, 1000, 10000, 100.0, 1000.0), 0.0);
+
+		DbIterator scan1 = new SeqScan(tid, tableId1, "t1");
+		DbIterator scan2 = new SeqScan(tid, tableId2, "t2");
+		Assert.assertTrue(JoinOptimizer.instantiateJoin(
+				eq.withAlgorithm(LogicalJoinNode.Algorithm.HASH), scan1, scan2) instanceof HashEquiJoin);
+		Assert.assertTrue(JoinOptimizer.instantiateJoin(
+				eq.withAlgorithm(LogicalJoinNode.Algorithm.NESTED_LOOP), scan1, scan2) instanceof Join);
+		Assert.assertTrue(JoinOptimizer.instantiateJoin(
+				lt.withAlgorithm(LogicalJoinNode.Algorithm.SORT_MERGE), scan1, scan2) instanceof SortMergeJoin);
+		Assert.assertTrue(JoinOptimizer.instantiateJoin(lt, scan1, scan2) instanceof BlockNestedLoopJoin);
+	}
+
 	/**
 	 * Verify that the join cardinalities produced by estimateJoinCardinality() are reasonable
 	 */
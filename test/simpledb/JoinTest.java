@@ -1,10 +1,14 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
+import java.util.ArrayList;
+import java.util.Collections;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -105,6 +109,156 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Unit test for HashEquiJoin.getNext() and HashEquiJoin.rewind()
+   */
+  @Test public void hashEqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+    eqJoin.rewind();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Unit test for BlockNestedLoopJoin.getNext() and rewind() with blocks
+   * smaller than the outer input, so the inner input is scanned several
+   * times.
+   */
+  @Test public void blockNestedLoopJoin() throws Exception {
+    int[] outer = new int[2 * 3000];
+    for (int i = 0; i < 3000; i++) {
+      outer[2 * i] = i % 50;
+      outer[2 * i + 1] = i;
+    }
+    int[] inner = new int[2 * 40];
+    for (int i = 0; i < 40; i++) {
+      inner[2 * i] = i;
+      inner[2 * i + 1] = -i;
+    }
+    for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.GREATER_THAN,
+        Predicate.Op.EQUALS }) {
+      JoinPredicate pred = new JoinPredicate(0, op, 0);
+      Join nl = new Join(pred, TestUtil.createTupleList(2, outer),
+          TestUtil.createTupleList(2, inner));
+      nl.open();
+      ArrayList<String> expected = drain(nl);
+
+      BlockNestedLoopJoin bnl = new BlockNestedLoopJoin(pred,
+          TestUtil.createTupleList(2, outer), TestUtil.createTupleList(2, inner), 1);
+      assertTrue(bnl.getBlockTuples() < 3000);
+      bnl.open();
+      assertEquals(expected, drain(bnl));
+      bnl.rewind();
+      assertEquals(expected, drain(bnl));
+      bnl.close();
+    }
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() and rewind() on inputs with runs
+   * of duplicate keys, for every predicate it supports.
+   */
+  @Test public void sortMergeJoin() throws Exception {
+    int[] outer = new int[2 * 300];
+    for (int i = 0; i < 300; i++) {
+      outer[2 * i] = (i * 7) % 40;
+      outer[2 * i + 1] = i;
+    }
+    int[] inner = new int[2 * 200];
+    for (int i = 0; i < 200; i++) {
+      inner[2 * i] = (i * 13) % 50 - 5;
+      inner[2 * i + 1] = -i;
+    }
+    for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS,
+        Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+        Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ }) {
+      JoinPredicate pred = new JoinPredicate(0, op, 0);
+      Join nl = new Join(pred, TestUtil.createTupleList(2, outer),
+          TestUtil.createTupleList(2, inner));
+      nl.open();
+      ArrayList<String> expected = drain(nl);
+
+      SortMergeJoin smj = new SortMergeJoin(pred,
+          TestUtil.createTupleList(2, outer), TestUtil.createTupleList(2, inner));
+      smj.open();
+      assertEquals(expected, drain(smj));
+      smj.rewind();
+      assertEquals(expected, drain(smj));
+      smj.close();
+    }
+  }
+
+  /**
+   * SortMergeJoin only sorts inputs that are not already sorted on their
+   * join fields, and its own output counts as sorted.
+   */
+  @Test public void sortMergeJoinReusesOrder() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    OrderBy sorted = new OrderBy(0, true, scan1);
+    SortMergeJoin smj = new SortMergeJoin(pred, sorted, scan2);
+    assertTrue(smj.getChildren()[0] == sorted);
+    assertTrue(smj.getChildren()[1] instanceof OrderBy);
+    assertTrue(SortMergeJoin.isSortedOn(smj, 0));
+    assertTrue(SortMergeJoin.isSortedOn(smj, width1));
+    assertFalse(SortMergeJoin.isSortedOn(smj, 1));
+
+    smj.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, smj);
+  }
+
+  private static ArrayList<String> drain(DbIterator it) throws Exception {
+    ArrayList<String> rows = new ArrayList<String>();
+    while (it.hasNext())
+      rows.add(it.next().toString());
+    Collections.sort(rows);
+    return rows;
+  }
+
+  /**
+   * Unit test for HashEquiJoin with a memory budget far smaller than its
+   * outer input: partitions are spilled and joined in a second pass, and
+   * the result is the same as a nested-loop join's.
+   */
+  @Test public void hashEqJoinSpills() throws Exception {
+    int[] outer = new int[2 * 3000];
+    for (int i = 0; i < 3000; i++) {
+      outer[2 * i] = i % 500;
+      outer[2 * i + 1] = i;
+    }
+    int[] inner = new int[2 * 2000];
+    for (int i = 0; i < 2000; i++) {
+      inner[2 * i] = i % 700;
+      inner[2 * i + 1] = -i;
+    }
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    Join nl = new Join(pred, TestUtil.createTupleList(2, outer),
+        TestUtil.createTupleList(2, inner));
+    nl.open();
+    ArrayList<String> expected = drain(nl);
+
+    // with 4KB even a single partition does not fit, and is hashed in chunks
+    for (long budget : new long[] { 16 * 1024, 4 * 1024 }) {
+      HashEquiJoin hash = new HashEquiJoin(pred, TestUtil.createTupleList(2, outer),
+          TestUtil.createTupleList(2, inner), budget);
+      hash.open();
+      assertEquals(expected, drain(hash));
+      assertTrue(hash.getSpilledPartitions() > 0);
+      assertTrue(hash.getSpilledBuildTuples() > 0);
+      assertTrue(hash.getSpilledProbeTuples() > 0);
+      assertTrue(hash.getSpillPages() > 0);
+
+      hash.rewind();
+      assertEquals(expected, drain(hash));
+      hash.close();
+    }
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,116 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.concurrent.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class LockManagerTest extends SimpleDbTestBase {
+    private LockManager lm;
+    private TransactionId t1, t2;
+    private PageId p0, p1;
+    private ExecutorService threads;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        lm = new LockManager();
+        t1 = new TransactionId();
+        t2 = new TransactionId();
+        p0 = new HeapPageId(1, 0);
+        p1 = new HeapPageId(1, 1);
+        threads = Executors.newCachedThreadPool();
+    }
+
+    /** Acquires a lock on another thread. */
+    private Future<Void> acquireLater(final TransactionId tid, final PageId pid,
+            final boolean exclusive) {
+        return threads.submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                lm.acquire(tid, pid, exclusive);
+                return null;
+            }
+        });
+    }
+
+    /** Returns true if f does not finish within a short wait. */
+    private static boolean blocked(Future<Void> f) throws Exception {
+        try {
+            f.get(200, TimeUnit.MILLISECONDS);
+            return false;
+        } catch (TimeoutException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Shared locks are compatible; an exclusive lock waits for them.
+     */
+    @Test public void sharedAndExclusive() throws Exception {
+        lm.acquire(t1, p0, false);
+        assertFalse(blocked(acquireLater(t2, p0, false)));
+        assertTrue(lm.holdsLock(t2, p0));
+
+        TransactionId t3 = new TransactionId();
+        Future<Void> writer = acquireLater(t3, p0, true);
+        assertTrue(blocked(writer));
+        lm.releaseAll(t1);
+        assertTrue(blocked(writer));
+        lm.releaseAll(t2);
+        writer.get(1, TimeUnit.SECONDS);
+        assertTrue(lm.holdsLock(t3, p0));
+        assertEquals(1, lm.getWaitCount());
+    }
+
+    /**
+     * The only reader of a page can upgrade to an exclusive lock.
+     */
+    @Test public void upgrade() throws Exception {
+        lm.acquire(t1, p0, false);
+        lm.acquire(t1, p0, true);
+        assertTrue(blocked(acquireLater(t2, p0, false)));
+        lm.acquire(t1, p0, false); // still granted to the exclusive holder
+    }
+
+    /**
+     * Two transactions each waiting for the other's page: the second one
+     * to wait is aborted instead of waiting forever.
+     */
+    @Test public void deadlock() throws Exception {
+        lm.acquire(t1, p0, true);
+        lm.acquire(t2, p1, true);
+        Future<Void> first = acquireLater(t1, p1, true);
+        assertTrue(blocked(first));
+        try {
+            lm.acquire(t2, p0, true);
+            fail("expected TransactionAbortedException");
+        } catch (TransactionAbortedException e) {
+        }
+        assertEquals(1, lm.getAbortCount());
+        lm.releaseAll(t2);
+        first.get(1, TimeUnit.SECONDS);
+        assertTrue(lm.holdsLock(t1, p1));
+    }
+
+    /**
+     * Releasing everything empties the lock table.
+     */
+    @Test public void lockTableShrinks() throws Exception {
+        for (int i = 0; i < 1000; i++)
+            lm.acquire(t1, new HeapPageId(2, i), i % 2 == 0);
+        assertEquals(1000, lm.getLockTableSize());
+        lm.releaseAll(t1);
+        assertEquals(0, lm.getLockTableSize());
+        assertFalse(lm.holdsLock(t1, new HeapPageId(2, 0)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
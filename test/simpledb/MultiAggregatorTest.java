@@ -0,0 +1,96 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class MultiAggregatorTest extends SimpleDbTestBase {
+
+  int width1 = 3;
+  DbIterator scan1;
+  Aggregator.Op[] all = new Aggregator.Op[] { Aggregator.Op.SUM,
+      Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.AVG,
+      Aggregator.Op.COUNT };
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleList() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 1, 2,
+                    1, 1, 4,
+                    1, 2, 6,
+                    3, 1, 2,
+                    3, 1, 5,
+                    1, 2, 7 });
+  }
+
+  private static DbIterator merged(Aggregator agg, DbIterator scan)
+      throws Exception {
+    scan.open();
+    while (scan.hasNext())
+      agg.mergeTupleIntoGroup(scan.next());
+    DbIterator it = agg.iterator();
+    it.open();
+    return it;
+  }
+
+  /**
+   * Test every aggregate at once, grouped by two fields
+   */
+  @Test public void compositeGroups() throws Exception {
+    MultiAggregator agg = new MultiAggregator(scan1.getTupleDesc(),
+        new int[] { 0, 1 }, new int[] { 2, 2, 2, 2, 2 }, all);
+    DbIterator it = merged(agg, scan1);
+    assertEquals(3, agg.numGroups());
+    assertEquals(7, it.getTupleDesc().numFields());
+    TestUtil.matchAllTuples(TestUtil.createTupleList(7,
+        new int[] { 1, 1, 6, 2, 4, 3, 2,
+                    1, 2, 13, 6, 7, 6, 2,
+                    3, 1, 7, 2, 5, 3, 2 }), it);
+  }
+
+  /**
+   * Test aggregates over different fields, grouped by one int field
+   */
+  @Test public void intGroups() throws Exception {
+    MultiAggregator agg = new MultiAggregator(scan1.getTupleDesc(),
+        new int[] { 0 }, new int[] { 1, 2 },
+        new Aggregator.Op[] { Aggregator.Op.MAX, Aggregator.Op.SUM });
+    TestUtil.matchAllTuples(TestUtil.createTupleList(3,
+        new int[] { 1, 2, 19,
+                    3, 1, 7 }), merged(agg, scan1));
+  }
+
+  /**
+   * Test every aggregate at once without grouping
+   */
+  @Test public void noGrouping() throws Exception {
+    MultiAggregator agg = new MultiAggregator(scan1.getTupleDesc(),
+        new int[0], new int[] { 2, 2, 2, 2, 2 }, all);
+    TestUtil.matchAllTuples(TestUtil.createTupleList(5,
+        new int[] { 26, 2, 7, 4, 6 }), merged(agg, scan1));
+  }
+
+  /**
+   * Test that only COUNT is accepted over a string field
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void stringSum() {
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+    new MultiAggregator(td, new int[] { 0 }, new int[] { 1, 1 },
+        new Aggregator.Op[] { Aggregator.Op.COUNT, Aggregator.Op.SUM });
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(MultiAggregatorTest.class);
+  }
+}
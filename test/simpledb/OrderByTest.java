@@ -0,0 +1,90 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+  private static final int N = 20000;
+
+  /** Returns N tuples of (key, i) with keys in [0, 1000), each repeated. */
+  private static DbIterator input() {
+    int[] data = new int[2 * N];
+    for (int i = 0; i < N; i++) {
+      data[2 * i] = (i * 7919) % 1000;
+      data[2 * i + 1] = i;
+    }
+    return TestUtil.createTupleList(2, data);
+  }
+
+  /**
+   * Checks that op returns all N input tuples ordered on the key, and that
+   * tuples with equal keys keep their input order.
+   */
+  private static void checkSorted(OrderBy op, boolean asc) throws Exception {
+    int count = 0;
+    int lastKey = asc ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+    int lastVal = -1;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      int key = ((IntField) t.getField(0)).getValue();
+      int val = ((IntField) t.getField(1)).getValue();
+      assertTrue(asc ? key >= lastKey : key <= lastKey);
+      if (key == lastKey)
+        assertTrue(val > lastVal);
+      lastKey = key;
+      lastVal = val;
+      count++;
+    }
+    assertEquals(N, count);
+  }
+
+  /**
+   * Unit test for OrderBy when the input fits in memory.
+   */
+  @Test public void inMemory() throws Exception {
+    OrderBy op = new OrderBy(0, false, input());
+    op.open();
+    checkSorted(op, false);
+    assertEquals(0, op.getNumRuns());
+    op.rewind();
+    checkSorted(op, false);
+    op.close();
+  }
+
+  /**
+   * Unit test for OrderBy with an input 20 times the memory budget: sorted
+   * runs are written to disk and merged, with too many runs to merge in one
+   * pass.
+   */
+  @Test public void external() throws Exception {
+    long budget = 1000 * (Type.INT_TYPE.getLen() * 2 + OrderBy.ROW_OVERHEAD);
+    for (boolean asc : new boolean[] { true, false }) {
+      OrderBy op = new OrderBy(0, asc, input(), budget);
+      op.open();
+      checkSorted(op, asc);
+      assertEquals(N / 1000, op.getNumRuns());
+      assertTrue(op.getSpillPages() > 0);
+      op.rewind();
+      checkSorted(op, asc);
+      op.close();
+
+      // reopening sorts from scratch
+      op.open();
+      checkSorted(op, asc);
+      op.close();
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OrderByTest.class);
+  }
+}
@@ -0,0 +1,102 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PrefetcherTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test: a 6 page file.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 6 * 504, null, null);
+        tid = new TransactionId();
+    }
+
+    private List<Page> read(int from, int to) {
+        List<PageId> pids = new ArrayList<PageId>();
+        for (int i = from; i < to; i++)
+            pids.add(new HeapPageId(hf.getId(), i));
+        return hf.readPages(pids);
+    }
+
+    /**
+     * Prefetched pages that are requested count as hits; those evicted
+     * unread count as wasted.
+     */
+    @Test
+    public void hitsAndWaste() throws Exception {
+        BufferPool bp = Database.resetBufferPool(8);
+        assertTrue(bp.installPrefetched(hf, hf.writeCount(), read(0, 2)));
+        bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(1, bp.getPrefetchHits());
+        assertEquals(0, bp.getPrefetchWasted());
+
+        // fill the pool with demand reads until page 1 falls off the end
+        for (int i = 2; i < 6; i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        for (int i = 0; i < 6; i++)
+            bp.getPage(tid, new HeapPageId(SystemTestUtil.createRandomHeapFile(
+                    1, 1, null, null).getId(), 0), Permissions.READ_ONLY);
+        assertFalse(bp.isCached(new HeapPageId(hf.getId(), 1)));
+        assertEquals(1, bp.getPrefetchWasted());
+    }
+
+    /**
+     * The pool refuses prefetched pages once a quarter of it holds unread
+     * prefetched pages, and refuses pages that may be stale.
+     */
+    @Test
+    public void pressureAndStaleness() throws Exception {
+        BufferPool bp = Database.resetBufferPool(8);
+        assertFalse(bp.installPrefetched(hf, hf.writeCount(), read(0, 4)));
+        assertTrue(bp.isCached(new HeapPageId(hf.getId(), 1)));
+        assertFalse(bp.isCached(new HeapPageId(hf.getId(), 2)));
+
+        long version = hf.writeCount();
+        List<Page> pages = read(4, 5);
+        hf.writePage(pages.get(0));
+        assertFalse(bp.installPrefetched(hf, version, pages));
+        assertFalse(bp.isCached(new HeapPageId(hf.getId(), 4)));
+    }
+
+    /**
+     * A scan with read-ahead returns every tuple once, in order.
+     */
+    @Test
+    public void scanWithReadAhead() throws Exception {
+        Database.resetBufferPool(16);
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        PageId last = null;
+        while (it.hasNext()) {
+            PageId pid = it.next().getRecordId().getPageId();
+            if (last != null)
+                assertTrue(pid.pageNumber() >= last.pageNumber());
+            last = pid;
+            count++;
+        }
+        it.close();
+        assertEquals(6 * 504, count);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PrefetcherTest.class);
+    }
+}
@@ -0,0 +1,141 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static final ReplacementPolicy.VictimFilter ANY =
+            new ReplacementPolicy.VictimFilter() {
+                public boolean evictable(PageId pid) {
+                    return true;
+                }
+            };
+
+    private static PageId page(int n) {
+        return new HeapPageId(1, n);
+    }
+
+    /**
+     * Replays a workload against a cache of the given size driven by policy,
+     * the way BufferPool drives it, and returns the hit ratio.
+     */
+    private static double hitRatio(ReplacementPolicy policy, int frames,
+            List<PageId> workload) {
+        HashSet<PageId> cached = new HashSet<PageId>();
+        int hits = 0;
+        for (PageId pid : workload) {
+            if (cached.contains(pid)) {
+                hits++;
+                policy.pageAccessed(pid);
+                continue;
+            }
+            if (cached.size() >= frames) {
+                PageId victim = policy.chooseVictim(ANY);
+                cached.remove(victim);
+                policy.pageRemoved(victim);
+            }
+            cached.add(pid);
+            policy.pageLoaded(pid);
+        }
+        return hits / (double) workload.size();
+    }
+
+    /**
+     * Point lookups on a hot set of 30 pages, interleaved with two full scans
+     * of a 2000 page table running side by side.
+     */
+    private static List<PageId> mixedWorkload() {
+        Random r = new Random(42);
+        List<PageId> workload = new ArrayList<PageId>();
+        for (int i = 0; i < 200; i++)
+            workload.add(page(r.nextInt(30)));
+        for (int i = 0; i < 2000; i++) {
+            workload.add(page(1000 + i));
+            workload.add(page(1000 + (i + 1000) % 2000));
+            workload.add(page(r.nextInt(30)));
+            workload.add(page(r.nextInt(30)));
+        }
+        return workload;
+    }
+
+    /**
+     * The scan-resistant policies keep the hot set in a 50 frame pool while
+     * scans run; LRU, and CLOCK which approximates it, lose it.
+     */
+    @Test public void scanResistance() {
+        List<PageId> workload = mixedWorkload();
+        double lru = hitRatio(new LruPolicy(), 50, workload);
+        double clock = hitRatio(new ClockPolicy(), 50, workload);
+        double twoQ = hitRatio(new TwoQueuePolicy(), 50, workload);
+        double lruK = hitRatio(new LruKPolicy(), 50, workload);
+        // 4200 of the 8200 references are lookups on the hot set
+        assertTrue("LRU " + lru, lru < 0.4);
+        assertTrue("CLOCK " + clock, clock < 0.4);
+        assertTrue("2Q " + twoQ, twoQ > 0.45);
+        assertTrue("LRU-2 " + lruK, lruK > 0.45);
+    }
+
+    /**
+     * Every policy evicts the oldest page of a cold cache, honours the
+     * filter, and forgets removed pages.
+     */
+    @Test public void victims() {
+        ReplacementPolicy[] policies = { new LruPolicy(), new ClockPolicy(),
+                new TwoQueuePolicy(), new LruKPolicy() };
+        for (ReplacementPolicy policy : policies) {
+            for (int i = 0; i < 4; i++)
+                policy.pageLoaded(page(i));
+            assertEquals(page(0), policy.chooseVictim(ANY));
+            assertNull(policy.chooseVictim(new ReplacementPolicy.VictimFilter() {
+                public boolean evictable(PageId pid) {
+                    return false;
+                }
+            }));
+            assertEquals(page(2), policy.chooseVictim(new ReplacementPolicy.VictimFilter() {
+                public boolean evictable(PageId pid) {
+                    return pid.pageNumber() >= 2;
+                }
+            }));
+            for (int i = 0; i < 4; i++)
+                policy.pageRemoved(page(i));
+            assertNull(policy.chooseVictim(ANY));
+        }
+    }
+
+    /**
+     * The prefetcher polls BufferPool.underPrefetchPressure on every batch;
+     * the poll must not ask the policy for a victim, which for CLOCK would
+     * clear reference bits and move the hand.
+     */
+    @Test public void prefetchPressureLeavesPolicyAlone() throws Exception {
+        final int[] calls = new int[1];
+        ClockPolicy policy = new ClockPolicy() {
+            public PageId chooseVictim(VictimFilter filter) {
+                calls[0]++;
+                return super.chooseVictim(filter);
+            }
+        };
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1200, null, null);
+        BufferPool pool = Database.resetBufferPool(2, policy);
+        TransactionId tid = new TransactionId();
+        pool.getPage(tid, new HeapPageId(f.getId(), 0), Permissions.READ_ONLY);
+        pool.getPage(tid, new HeapPageId(f.getId(), 1), Permissions.READ_ONLY);
+        assertFalse(pool.underPrefetchPressure());
+        assertEquals(0, calls[0]);
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
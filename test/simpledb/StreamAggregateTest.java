@@ -0,0 +1,138 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class StreamAggregateTest extends SimpleDbTestBase {
+
+  private static final int N = 5000;
+
+  /** Returns N tuples of (key, i) with keys in [0, 100). */
+  private static DbIterator input() {
+    int[] data = new int[2 * N];
+    for (int i = 0; i < N; i++) {
+      data[2 * i] = (i * 7919) % 100;
+      data[2 * i + 1] = i;
+    }
+    return TestUtil.createTupleList(2, data);
+  }
+
+  /** A child that counts how many tuples have been read from it. */
+  private static class Counting extends Operator {
+    private static final long serialVersionUID = 1L;
+    DbIterator child;
+    int read = 0;
+
+    Counting(DbIterator child) {
+      this.child = child;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+      child.open();
+      super.open();
+    }
+
+    public void close() {
+      super.close();
+      child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+      child.rewind();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+      if (!child.hasNext())
+        return null;
+      read++;
+      return child.next();
+    }
+
+    public TupleDesc getTupleDesc() {
+      return child.getTupleDesc();
+    }
+
+    public DbIterator[] getChildren() {
+      return new DbIterator[] { child };
+    }
+
+    public void setChildren(DbIterator[] children) {
+      child = children[0];
+    }
+  }
+
+  /**
+   * Unit test for StreamAggregate over sorted input: it returns the same
+   * groups as Aggregate, in key order.
+   */
+  @Test public void sameAsAggregate() throws Exception {
+    Aggregator.Op[] ops = new Aggregator.Op[] { Aggregator.Op.SUM,
+        Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.AVG,
+        Aggregator.Op.COUNT };
+    int[] afields = new int[] { 1, 1, 1, 1, 1 };
+    StreamAggregate op = new StreamAggregate(
+        new OrderBy(0, true, input()), afields, 0, ops);
+    assertEquals(6, op.getTupleDesc().numFields());
+    op.open();
+    int last = -1;
+    int count = 0;
+    while (op.hasNext()) {
+      int key = ((IntField) op.next().getField(0)).getValue();
+      assertTrue(key > last);
+      last = key;
+      count++;
+    }
+    assertEquals(100, count);
+
+    op.rewind();
+    Aggregate expected = new Aggregate(input(), afields, new int[] { 0 }, ops);
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+    op.close();
+  }
+
+  /**
+   * Unit test for StreamAggregate returning the first group before reading
+   * the rest of the input.
+   */
+  @Test public void streams() throws Exception {
+    // keys 0, 0, 1, 1, ...
+    int[] data = new int[2 * N];
+    for (int i = 0; i < N; i++) {
+      data[2 * i] = i / 2;
+      data[2 * i + 1] = i;
+    }
+    Counting child = new Counting(TestUtil.createTupleList(2, data));
+    StreamAggregate op = new StreamAggregate(child, 1, 0, Aggregator.Op.SUM);
+    op.open();
+    Tuple t = op.next();
+    assertEquals(0, ((IntField) t.getField(0)).getValue());
+    assertEquals(1, ((IntField) t.getField(1)).getValue());
+    assertEquals(3, child.read);
+    op.close();
+  }
+
+  /**
+   * Unit test for StreamAggregate rejecting input that is not ordered on the
+   * group field.
+   */
+  @Test(expected = DbException.class)
+  public void unordered() throws Exception {
+    StreamAggregate op = new StreamAggregate(input(), 1, 0, Aggregator.Op.COUNT);
+    op.open();
+    while (op.hasNext())
+      op.next();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(StreamAggregateTest.class);
+  }
+}
@@ -0,0 +1,103 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TopNTest extends SimpleDbTestBase {
+
+  private static final int N = 5000;
+
+  /** Returns N tuples of (key, i) with keys in [0, 300), each repeated. */
+  private static DbIterator input() {
+    int[] data = new int[2 * N];
+    for (int i = 0; i < N; i++) {
+      data[2 * i] = (i * 7919) % 300;
+      data[2 * i + 1] = i;
+    }
+    return TestUtil.createTupleList(2, data);
+  }
+
+  private static ArrayList<String> drain(DbIterator it, int max) throws Exception {
+    ArrayList<String> rows = new ArrayList<String>();
+    while (rows.size() < max && it.hasNext())
+      rows.add(it.next().toString());
+    return rows;
+  }
+
+  /**
+   * TopN returns exactly the first n tuples an OrderBy returns, including
+   * how ties are broken, for limits below, at and above the input size.
+   */
+  @Test public void matchesOrderBy() throws Exception {
+    for (boolean asc : new boolean[] { true, false }) {
+      OrderBy sort = new OrderBy(0, asc, input());
+      sort.open();
+      ArrayList<String> all = drain(sort, Integer.MAX_VALUE);
+      for (int n : new int[] { 0, 1, 100, N, N + 10 }) {
+        TopN top = new TopN(0, asc, n, input());
+        top.open();
+        ArrayList<String> expected = new ArrayList<String>(
+            all.subList(0, Math.min(n, N)));
+        assertEquals(expected, drain(top, Integer.MAX_VALUE));
+        top.rewind();
+        assertEquals(expected, drain(top, Integer.MAX_VALUE));
+        top.close();
+      }
+    }
+  }
+
+  /**
+   * A TopN that was serialized before it was opened can be opened, and
+   * one that was never opened can be closed.
+   */
+  @Test public void openAfterSerialization() throws Exception {
+    DbIterator child = input();
+    child.close(); // an open TupleIterator holds an unserializable iterator
+    TopN top = new TopN(0, true, 10, child);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(top);
+    out.close();
+    TopN copy = (TopN) new ObjectInputStream(new ByteArrayInputStream(
+        bytes.toByteArray())).readObject();
+    copy.close();
+    copy.open();
+    top.open();
+    assertEquals(drain(top, Integer.MAX_VALUE), drain(copy, Integer.MAX_VALUE));
+    copy.close();
+    top.close();
+  }
+
+  /**
+   * Limit returns the first n tuples of its child, in the child's order.
+   */
+  @Test public void limit() throws Exception {
+    DbIterator child = input();
+    child.open();
+    ArrayList<String> expected = drain(child, 10);
+    Limit op = new Limit(10, input());
+    op.open();
+    assertEquals(expected, drain(op, Integer.MAX_VALUE));
+    op.rewind();
+    assertEquals(expected, drain(op, Integer.MAX_VALUE));
+    assertTrue(TestUtil.checkExhausted(op));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TopNTest.class);
+  }
+}
@@ -0,0 +1,231 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ZoneMapTest extends TestUtil.CreateHeapFile {
+
+    // tuples per page of a two-int heap file
+    private static final int PER_PAGE = 504;
+
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        ZoneMap.sidecarFor(empty.getFile()).delete();
+    }
+
+    private static List<Predicate> where(Predicate.Op op, Field v) {
+        return Arrays.asList(new Predicate(0, op, v));
+    }
+
+    private static boolean may(ZoneMap zm, Predicate.Op op, int v) {
+        return zm.mayMatch(0, where(op, new IntField(v)));
+    }
+
+    /** Fills pages 0..pages-1 of empty with c0 = c1 = 0, 1, 2, ... and commits. */
+    private void fill(int pages) throws Exception {
+        for (int i = 0; i < pages * PER_PAGE; i++)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+    }
+
+    /** @return the c0 values s returns, in order */
+    private ArrayList<Integer> scan(SeqScan s) throws Exception {
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        s.open();
+        while (s.hasNext())
+            values.add(((IntField) s.next().getField(0)).getValue());
+        s.close();
+        return values;
+    }
+
+    private Tuple lastTuple() throws Exception {
+        Tuple last = null;
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            last = it.next();
+        it.close();
+        return last;
+    }
+
+    /**
+     * Int ranges rule a page out for exactly the predicates no value in
+     * them satisfies; unknown pages are never ruled out, empty ones always.
+     */
+    @Test public void intRanges() throws Exception {
+        ZoneMap zm = new ZoneMap(new File("unused"), Utility.getTupleDesc(2));
+        assertTrue(may(zm, Predicate.Op.EQUALS, 5));
+        zm.clear(0);
+        assertFalse(may(zm, Predicate.Op.EQUALS, 5));
+        zm.add(0, Utility.getHeapTuple(new int[] { 20, 0 }));
+        zm.add(0, Utility.getHeapTuple(new int[] { 10, 0 }));
+
+        assertTrue(may(zm, Predicate.Op.EQUALS, 10));
+        assertFalse(may(zm, Predicate.Op.EQUALS, 21));
+        assertTrue(may(zm, Predicate.Op.GREATER_THAN, 19));
+        assertFalse(may(zm, Predicate.Op.GREATER_THAN, 20));
+        assertTrue(may(zm, Predicate.Op.GREATER_THAN_OR_EQ, 20));
+        assertTrue(may(zm, Predicate.Op.LESS_THAN, 11));
+        assertFalse(may(zm, Predicate.Op.LESS_THAN, 10));
+        assertFalse(may(zm, Predicate.Op.LESS_THAN_OR_EQ, 9));
+        assertTrue(may(zm, Predicate.Op.NOT_EQUALS, 10));
+
+        zm.clear(0);
+        zm.add(0, Utility.getHeapTuple(new int[] { 7, 0 }));
+        assertFalse(may(zm, Predicate.Op.NOT_EQUALS, 7));
+        // all predicates must hold
+        assertFalse(zm.mayMatch(0, Arrays.asList(
+                new Predicate(0, Predicate.Op.EQUALS, new IntField(7)),
+                new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(0)))));
+    }
+
+    /**
+     * Strings are summarized by a prefix, which decides a predicate only if
+     * the prefixes compare strictly.
+     */
+    @Test public void stringPrefixes() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE });
+        ZoneMap zm = new ZoneMap(new File("unused"), td);
+        zm.clear(0);
+        for (String s : new String[] { "Casablanca", "Casablanca II", "Chinatown" }) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField(s, Type.STRING_LEN));
+            zm.add(0, t);
+        }
+        Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.EQUALS,
+                Predicate.Op.EQUALS, Predicate.Op.GREATER_THAN,
+                Predicate.Op.GREATER_THAN, Predicate.Op.LESS_THAN,
+                Predicate.Op.LESS_THAN, Predicate.Op.LIKE };
+        String[] values = { "Casablanca III", "Alien", "Citizen Kane",
+                "Chinatown", "Chinatowns", "Casablanc", "Casa", "Alien" };
+        // "Chinatown" and "Chinatowns" share their prefix with the maximum
+        boolean[] expected = { true, false, false, true, true, true, false, true };
+        for (int i = 0; i < ops.length; i++) {
+            assertEquals(ops[i] + " " + values[i], expected[i], zm.mayMatch(0,
+                    where(ops[i], new StringField(values[i], Type.STRING_LEN))));
+        }
+    }
+
+    /**
+     * A scan with a pushed-down predicate skips the pages the zone map
+     * rules out, and counts them over rewinds.
+     */
+    @Test public void scanSkipsPages() throws Exception {
+        fill(4);
+        SeqScan s = new SeqScan(tid, empty.getId(), "t");
+        s.pushDown(new Predicate(0, Predicate.Op.GREATER_THAN,
+                new IntField(3 * PER_PAGE - 10)));
+        ArrayList<Integer> values = scan(s);
+        assertEquals(2 * PER_PAGE, values.size());
+        assertEquals(2 * PER_PAGE, (int) values.get(0));
+        assertEquals(2, s.pagesSkipped());
+        s.open();
+        s.rewind();
+        s.close();
+        assertEquals(6, s.pagesSkipped());
+
+        // no page can match
+        s = new SeqScan(tid, empty.getId(), "t");
+        s.pushDown(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0)));
+        assertEquals(0, scan(s).size());
+        assertEquals(4, s.pagesSkipped());
+    }
+
+    /**
+     * A range only narrows once the delete is written, and an aborted
+     * delete leaves it covering the tuple.
+     */
+    @Test public void deletes() throws Exception {
+        fill(2);
+        ZoneMap zm = empty.zoneMap();
+        List<Predicate> top = where(Predicate.Op.GREATER_THAN,
+                new IntField(2 * PER_PAGE - 2));
+        empty.deleteTuple(tid, lastTuple());
+        Database.getBufferPool().transactionComplete(tid, false);
+        tid = new TransactionId();
+        assertTrue(zm.mayMatch(1, top));
+        SeqScan s = new SeqScan(tid, empty.getId(), "t");
+        s.pushDown(top.get(0));
+        assertEquals(Arrays.asList(2 * PER_PAGE - 1), scan(s).subList(PER_PAGE - 1, PER_PAGE));
+
+        empty.deleteTuple(tid, lastTuple());
+        assertTrue(zm.mayMatch(1, top));
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        assertFalse(zm.mayMatch(1, top));
+    }
+
+    /**
+     * The zone map is saved when the file is closed and trusted only until
+     * the heap file changes; pages it does not cover are summarized by scans.
+     */
+    @Test public void survivesRestart() throws Exception {
+        fill(2);
+        empty.close();
+        File sidecar = ZoneMap.sidecarFor(empty.getFile());
+        assertTrue(sidecar.exists());
+        ZoneMap zm = new ZoneMap(sidecar, empty.getTupleDesc());
+        assertTrue(zm.load(empty.getFile()));
+        assertEquals(2, zm.numPages());
+        assertFalse(zm.mayMatch(0, where(Predicate.Op.EQUALS, new IntField(PER_PAGE))));
+
+        empty.writePage(new HeapPage(new HeapPageId(empty.getId(), 2),
+                HeapPage.createEmptyPageData()));
+        assertFalse(new ZoneMap(sidecar, empty.getTupleDesc()).load(empty.getFile()));
+
+        sidecar.delete();
+        HeapFile reopened = Utility.openHeapFile(2, empty.getFile());
+        zm = reopened.zoneMap();
+        assertFalse(zm.isKnown(0));
+        DbFileIterator it = reopened.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            it.next();
+        it.close();
+        assertTrue(zm.isKnown(0) && zm.isKnown(1));
+        assertFalse(zm.mayMatch(1, where(Predicate.Op.EQUALS, new IntField(0))));
+    }
+
+    /** HeapFileEncoder writes the zone map of the file it creates. */
+    @Test public void encoder() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 3 * PER_PAGE; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, -i)));
+        File f = File.createTempFile("zonemap", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, 2);
+        File sidecar = ZoneMap.sidecarFor(f);
+        sidecar.deleteOnExit();
+        ZoneMap zm = new ZoneMap(sidecar, Utility.getTupleDesc(2));
+        assertTrue(zm.load(f));
+        assertEquals(3, zm.numPages());
+        for (int pg = 0; pg < 3; pg++) {
+            assertTrue(zm.mayMatch(pg, Arrays.asList(new Predicate(1,
+                    Predicate.Op.EQUALS, new IntField(-pg * PER_PAGE)))));
+            assertFalse(zm.mayMatch(pg, where(Predicate.Op.LESS_THAN,
+                    new IntField(pg * PER_PAGE))));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
@@ -0,0 +1,145 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class HashIndexTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 50000;
+    private static final int FKEYS = 1000;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private ArrayList<ArrayList<Integer>> fkTuples;
+    private File f;
+    private HashFile hash;
+
+    /**
+     * Stores a random table t in a hash file on c0, and creates a small
+     * heap table d whose c0 values are drawn from the same range.
+     */
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile heap = SystemTestUtil.createRandomHeapFile(2, ROWS, 100000,
+                null, tuples, "c");
+        Database.getCatalog().addTable(heap, "h");
+        f = File.createTempFile("hashindex", ".hash");
+        f.deleteOnExit();
+        hash = new HashFile(f, heap.getTupleDesc(), 0);
+        TransactionId tid = new TransactionId();
+        DbIterator scan = new SeqScan(tid, heap.getId(), "h");
+        scan.open();
+        hash.bulkLoad(scan);
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getCatalog().addTable(hash, "t", "c0");
+        TableStats.setTableStats("t", new TableStats(hash.getId(), 1000));
+
+        fkTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile d = SystemTestUtil.createRandomHeapFile(2, FKEYS, 100000,
+                null, fkTuples, "c");
+        Database.getCatalog().addTable(d, "d");
+        TableStats.setTableStats("d", new TableStats(d.getId(), 1000));
+    }
+
+    @After public void tearDown() throws Exception {
+        hash.close();
+        f.delete();
+    }
+
+    private static boolean has(DbIterator plan, Class<?> c) {
+        if (c.isInstance(plan))
+            return true;
+        if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren()) {
+                if (has(child, c))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /** @return the sorted c0 of the tuples of t whose c0 lies in [low, high] */
+    private ArrayList<Integer> keysWhere(int low, int high) {
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) >= low && t.get(0) <= high)
+                keys.add(t.get(0));
+        }
+        Collections.sort(keys);
+        return keys;
+    }
+
+    /**
+     * Runs sql, which selects an int first, and checks that it returns
+     * expected in any order. Returns the plan.
+     */
+    private DbIterator check(String sql, ArrayList<Integer> expected)
+            throws Exception {
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+        DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        ArrayList<Integer> actual = new ArrayList<Integer>();
+        plan.open();
+        while (plan.hasNext())
+            actual.add(((IntField) plan.next().getField(0)).getValue());
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        Collections.sort(actual);
+        assertEquals(expected, actual);
+        return plan;
+    }
+
+    /** An equality predicate on the key is answered by a hash lookup. */
+    @Test public void equality() throws Exception {
+        int v = tuples.get(0).get(0);
+        DbIterator plan = check("SELECT t.c0 FROM t WHERE t.c0 = " + v + ";",
+                keysWhere(v, v));
+        assertTrue(has(plan, IndexScan.class));
+    }
+
+    /** A hash index cannot answer a range, however narrow. */
+    @Test public void range() throws Exception {
+        DbIterator plan = check("SELECT t.c0 FROM t WHERE t.c0 >= 1000 AND t.c0 <= 1050;",
+                keysWhere(1000, 1050));
+        assertFalse(has(plan, IndexScan.class));
+    }
+
+    /**
+     * A few rows of d are joined to t by looking up each of them in t, but
+     * all of them are cheaper to join in one pass over t.
+     */
+    @Test public void join() throws Exception {
+        assertTrue(has(join(1000), IndexNestedLoopJoin.class));
+        assertFalse(has(join(100000), IndexNestedLoopJoin.class));
+    }
+
+    /**
+     * Runs the join of d with t on d.c0 = t.c0, keeping the rows of d whose
+     * c1 is below limit, checks the result and returns the plan.
+     */
+    private DbIterator join(int limit) throws Exception {
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (ArrayList<Integer> d : fkTuples) {
+            if (d.get(1) >= limit)
+                continue;
+            for (ArrayList<Integer> t : tuples) {
+                if (t.get(0).equals(d.get(0)))
+                    expected.add(d.get(0));
+            }
+        }
+        Collections.sort(expected);
+        return check("SELECT d.c0 FROM d, t WHERE d.c0 = t.c0 AND d.c1 < "
+                + limit + ";", expected);
+    }
+}
@@ -0,0 +1,122 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+    private static final int KEYS = 100000;
+    private static final int FKEYS = 1000;
+
+    private int[] payload;
+    private ArrayList<ArrayList<Integer>> fkTuples;
+    private File f;
+    private BTreeFile tree;
+
+    /**
+     * Creates a table t of KEYS tuples with primary key c0, stored in a B+
+     * tree on c0, and a heap table d of FKEYS tuples whose c0 refers to it.
+     */
+    @Before public void setUp() throws Exception {
+        Random rand = new Random(7);
+        payload = new int[KEYS];
+        int[] data = new int[2 * KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            payload[i] = rand.nextInt(KEYS);
+            data[2 * i] = i;
+            data[2 * i + 1] = payload[i];
+        }
+        f = File.createTempFile("inlj", ".btree");
+        f.deleteOnExit();
+        tree = new BTreeFile(f, Utility.getTupleDesc(2, "c"), 0);
+        Database.getCatalog().addTable(tree, "t", "c0");
+        DbIterator sorted = new TupleIterator(Utility.getTupleDesc(2, "c"),
+                tuples(data));
+        sorted.open();
+        tree.bulkLoad(sorted);
+        sorted.close();
+        TableStats.setTableStats("t", new TableStats(tree.getId(), 1000));
+
+        fkTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile heap = SystemTestUtil.createRandomHeapFile(2, FKEYS, KEYS,
+                null, fkTuples, "c");
+        Database.getCatalog().addTable(heap, "d");
+        TableStats.setTableStats("d", new TableStats(heap.getId(), 1000));
+    }
+
+    @After public void tearDown() throws Exception {
+        tree.close();
+        f.delete();
+    }
+
+    private static ArrayList<Tuple> tuples(int[] data) {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < data.length; i += 2)
+            tuples.add(Utility.getHeapTuple(new int[] { data[i], data[i + 1] }));
+        return tuples;
+    }
+
+    private static boolean hasIndexJoin(DbIterator plan) {
+        if (plan instanceof IndexNestedLoopJoin)
+            return true;
+        if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren()) {
+                if (hasIndexJoin(child))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs the join of d with t on d.c0 = t.c0, keeping the rows of d whose
+     * c1 is below limit, checks the result and returns the plan.
+     */
+    private DbIterator join(int limit) throws Exception {
+        ArrayList<String> expected = new ArrayList<String>();
+        for (ArrayList<Integer> d : fkTuples) {
+            if (d.get(1) < limit)
+                expected.add(d.get(1) + " " + payload[d.get(0)]);
+        }
+        Collections.sort(expected);
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT d.c1, t.c1 FROM d, t WHERE d.c0 = t.c0 AND d.c1 < "
+                        + limit + ";");
+        DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        ArrayList<String> actual = new ArrayList<String>();
+        plan.open();
+        while (plan.hasNext()) {
+            Tuple t = plan.next();
+            actual.add(t.getField(0) + " " + t.getField(1));
+        }
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        Collections.sort(actual);
+        assertEquals(expected, actual);
+        return plan;
+    }
+
+    /** A handful of outer rows each look up their key in the index. */
+    @Test public void fewOuterRows() throws Exception {
+        assertTrue(hasIndexJoin(join(KEYS / 200)));
+    }
+
+    /** With every outer row, one pass over t is cheaper than the lookups. */
+    @Test public void allOuterRows() throws Exception {
+        assertFalse(hasIndexJoin(join(KEYS)));
+    }
+}
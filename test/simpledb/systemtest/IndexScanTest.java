@@ -0,0 +1,129 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class IndexScanTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 50000;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private File f;
+    private BTreeFile tree;
+
+    /** Stores a random table in a B+ tree on c0, large enough that a scan reads ~100 pages. */
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile heap = SystemTestUtil.createRandomHeapFile(2, ROWS, 100000,
+                null, tuples, "c");
+        Database.getCatalog().addTable(heap, "h");
+        f = File.createTempFile("indexscan", ".btree");
+        f.deleteOnExit();
+        tree = new BTreeFile(f, heap.getTupleDesc(), 0);
+        TransactionId tid = new TransactionId();
+        DbIterator sorted = new OrderBy(0, true, new SeqScan(tid, heap.getId(), "h"));
+        sorted.open();
+        tree.bulkLoad(sorted);
+        sorted.close();
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getCatalog().addTable(tree, "t", "c0");
+        TableStats.setTableStats("t", new TableStats(tree.getId(), 1000));
+    }
+
+    @After public void tearDown() throws Exception {
+        tree.close();
+        f.delete();
+    }
+
+    /** Returns the scan at the bottom of plan, which has one table. */
+    private static SeqScan leaf(DbIterator plan) {
+        while (plan instanceof Operator)
+            plan = ((Operator) plan).getChildren()[0];
+        return (SeqScan) plan;
+    }
+
+    private static boolean hasOrderBy(DbIterator plan) {
+        while (plan instanceof Operator) {
+            if (plan instanceof OrderBy)
+                return true;
+            plan = ((Operator) plan).getChildren()[0];
+        }
+        return false;
+    }
+
+    /** @return the sorted c0 of the tuples whose field lies in [low, high] */
+    private ArrayList<Integer> keysWhere(int field, int low, int high) {
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(field) >= low && t.get(field) <= high)
+                keys.add(t.get(0));
+        }
+        Collections.sort(keys);
+        return keys;
+    }
+
+    /**
+     * Runs sql, which selects c0 of t, and checks that it returns expected,
+     * in order if sorted is true. Returns the plan.
+     */
+    private DbIterator check(String sql, ArrayList<Integer> expected,
+            boolean sorted) throws Exception {
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+        DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        ArrayList<Integer> actual = new ArrayList<Integer>();
+        plan.open();
+        while (plan.hasNext())
+            actual.add(((IntField) plan.next().getField(0)).getValue());
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        if (!sorted)
+            Collections.sort(actual);
+        assertEquals(expected, actual);
+        return plan;
+    }
+
+    /** An equality predicate on the key is answered by an IndexScan. */
+    @Test public void selectiveEquality() throws Exception {
+        int v = tuples.get(0).get(0);
+        DbIterator plan = check("SELECT t.c0 FROM t WHERE t.c0 = " + v + ";",
+                keysWhere(0, v, v), false);
+        assertTrue(leaf(plan) instanceof IndexScan);
+    }
+
+    /**
+     * A narrow range on the key is read through the index, in key order,
+     * so the ORDER BY needs no sort; other predicates become Filters.
+     */
+    @Test public void narrowRange() throws Exception {
+        DbIterator plan = check("SELECT t.c0 FROM t WHERE t.c0 >= 1000 AND t.c0 <= 1500"
+                + " AND t.c1 >= 0 ORDER BY t.c0;", keysWhere(0, 1000, 1500), true);
+        assertTrue(leaf(plan) instanceof IndexScan);
+        assertFalse(hasOrderBy(plan));
+    }
+
+    /** A predicate matching most of the table is cheaper with a SeqScan. */
+    @Test public void wideRange() throws Exception {
+        DbIterator plan = check("SELECT t.c0 FROM t WHERE t.c0 > 1000;",
+                keysWhere(0, 1001, Integer.MAX_VALUE), false);
+        assertFalse(leaf(plan) instanceof IndexScan);
+    }
+
+    /** A predicate on another field cannot use the index. */
+    @Test public void otherField() throws Exception {
+        DbIterator plan = check("SELECT t.c0 FROM t WHERE t.c1 = 5;",
+                keysWhere(1, 5, 5), false);
+        assertFalse(leaf(plan) instanceof IndexScan);
+    }
+}
@@ -10,6 +10,12 @@ import org.junit.Test;
 public class InsertTest extends SimpleDbTestBase {
     private void validateInsert(int columns, int sourceRows, int destinationRows)
                 throws DbException, IOException, TransactionAbortedException {
+        validateInsert(columns, sourceRows, destinationRows, false);
+    }
+
+    private void validateInsert(int columns, int sourceRows, int destinationRows,
+            boolean bulk)
+                throws DbException, IOException, TransactionAbortedException {
         // Create the two tables
         ArrayList<ArrayList<Integer>> sourceTuples = new ArrayList<ArrayList<Integer>>();
         HeapFile source = SystemTestUtil.createRandomHeapFile(
@@ -23,7 +29,7 @@ public class InsertTest extends SimpleDbTestBase {
         // Insert source into destination
         TransactionId tid = new TransactionId();
         SeqScan ss = new SeqScan(tid, source.getId(), "");
-        Insert insOp = new Insert(tid, ss, destination.getId());
+        Insert insOp = new Insert(tid, ss, destination.getId(), bulk);
 
 //        Query q = new Query(insOp, tid);
         insOp.open();
@@ -68,6 +74,64 @@ public class InsertTest extends SimpleDbTestBase {
         validateInsert(1, 1, 1);
     }
 
+    @Test public void testBulkEmptyToOne()
+            throws IOException, DbException, TransactionAbortedException {
+        validateInsert(2, 0, 1, true);
+    }
+
+    @Test public void testBulkManyToSome()
+            throws IOException, DbException, TransactionAbortedException {
+        // fills the last page of the destination, then appends whole pages
+        validateInsert(2, 40000, 100, true);
+    }
+
+    @Test public void testBulkAbort()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> destinationTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile source = SystemTestUtil.createRandomHeapFile(
+                2, 40000, null, new ArrayList<ArrayList<Integer>>());
+        HeapFile destination = SystemTestUtil.createRandomHeapFile(
+                2, 100, null, destinationTuples);
+
+        TransactionId tid = new TransactionId();
+        Insert insOp = new Insert(tid, new SeqScan(tid, source.getId(), ""),
+                destination.getId(), true);
+        insOp.open();
+        assertEquals(40000, ((IntField) insOp.next().getField(0)).getValue());
+        insOp.close();
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        SystemTestUtil.matchTuples(destination, destinationTuples);
+    }
+
+    /**
+     * Bulk-appended pages reach the heap file only when the transaction
+     * commits, so a crash before then cannot leave them visible.
+     */
+    @Test public void testBulkWrittenAtCommit()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> sourceTuples = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> destinationTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile source = SystemTestUtil.createRandomHeapFile(
+                2, 40000, null, sourceTuples);
+        HeapFile destination = SystemTestUtil.createRandomHeapFile(
+                2, 100, null, destinationTuples);
+        long length = destination.getFile().length();
+
+        TransactionId tid = new TransactionId();
+        Insert insOp = new Insert(tid, new SeqScan(tid, source.getId(), ""),
+                destination.getId(), true);
+        insOp.open();
+        assertEquals(40000, ((IntField) insOp.next().getField(0)).getValue());
+        insOp.close();
+        assertEquals(length, destination.getFile().length());
+
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(destination.getFile().length() > length);
+        sourceTuples.addAll(destinationTuples);
+        SystemTestUtil.matchTuples(destination, sourceTuples);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(InsertTest.class);
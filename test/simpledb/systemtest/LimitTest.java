@@ -0,0 +1,78 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class LimitTest extends SimpleDbTestBase {
+
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 500, null, tuples, "c");
+        Database.getCatalog().addTable(f, "t");
+        TableStats.setTableStats("t", new TableStats(f.getId(), 100));
+    }
+
+    private DbIterator plan(TransactionId tid, String sql) throws Exception {
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+        return lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    }
+
+    private static ArrayList<Integer> firstColumn(DbIterator it) throws Exception {
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        it.open();
+        while (it.hasNext())
+            keys.add(((IntField) it.next().getField(0)).getValue());
+        it.close();
+        return keys;
+    }
+
+    /** ORDER BY ... LIMIT is planned as a TopN and returns the first rows. */
+    @Test public void orderByLimit() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbIterator it = plan(tid, "SELECT * FROM t ORDER BY t.c0 DESC LIMIT 10;");
+        assertTrue(((Operator) it).getChildren()[0] instanceof TopN);
+
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (ArrayList<Integer> t : tuples)
+            expected.add(t.get(0));
+        Collections.sort(expected, Collections.reverseOrder());
+        assertEquals(expected.subList(0, 10), firstColumn(it));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** LIMIT without ORDER BY stops after that many rows. */
+    @Test public void limitOnly() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbIterator it = plan(tid, "select * from t where t.c1 > 0 limit 7 ;");
+        assertTrue(((Operator) it).getChildren()[0] instanceof Limit);
+        assertEquals(7, firstColumn(it).size());
+
+        it = plan(tid, "SELECT * FROM t ORDER BY t.c0;");
+        assertTrue(((Operator) it).getChildren()[0] instanceof OrderBy);
+        assertEquals(500, firstColumn(it).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A LIMIT applies only to the statement it ends. */
+    @Test public void limitNotReused() throws Exception {
+        TransactionId tid = new TransactionId();
+        Parser parser = new Parser();
+        parser.generateLogicalPlan(tid, "SELECT * FROM t LIMIT 3;");
+        Zql.ZQuery q = (Zql.ZQuery) new Zql.ZqlParser(new ByteArrayInputStream(
+                "SELECT * FROM t;".getBytes())).readStatement();
+        DbIterator it = parser.handleQueryStatement(q, tid).getPhysicalPlan();
+        assertEquals(500, firstColumn(it).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+}
@@ -0,0 +1,85 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class MultiAggregateTest extends SimpleDbTestBase {
+
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 2000, 8, null, tuples, "c");
+        Database.getCatalog().addTable(f, "t");
+        TableStats.setTableStats("t", new TableStats(f.getId(), 100));
+    }
+
+    private DbIterator plan(TransactionId tid, String sql) throws Exception {
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+        return lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    }
+
+    /**
+     * Several aggregates grouped by two columns are computed by a single
+     * Aggregate, and the select list may mix them in any order.
+     */
+    @Test public void compositeGroupBy() throws Exception {
+        HashMap<List<Integer>, long[]> groups = new HashMap<List<Integer>, long[]>();
+        for (ArrayList<Integer> t : tuples) {
+            List<Integer> key = Arrays.asList(t.get(0), t.get(1));
+            long[] acc = groups.get(key);
+            if (acc == null) {
+                acc = new long[] { Integer.MIN_VALUE, 0, 0 };
+                groups.put(key, acc);
+            }
+            acc[0] = Math.max(acc[0], t.get(2));
+            acc[1]++;
+            acc[2] += t.get(2);
+        }
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (List<Integer> key : groups.keySet()) {
+            long[] acc = groups.get(key);
+            expected.add(new ArrayList<Integer>(Arrays.asList((int) acc[0],
+                    key.get(1), (int) acc[1], key.get(0), (int) acc[2])));
+        }
+
+        TransactionId tid = new TransactionId();
+        DbIterator it = plan(tid, "SELECT MAX(t.c2), t.c1, COUNT(t.c2), t.c0, SUM(t.c2) "
+                + "FROM t GROUP BY t.c0, t.c1;");
+        Aggregate a = (Aggregate) ((Operator) it).getChildren()[0];
+        assertEquals(2, a.numGroupFields());
+        assertEquals(3, a.numAggregates());
+        assertTrue(a.getChildren()[0] instanceof SeqScan);
+        SystemTestUtil.matchTuples(it, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Several aggregates without grouping return a single tuple. */
+    @Test public void noGrouping() throws Exception {
+        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        long sum = 0;
+        for (ArrayList<Integer> t : tuples) {
+            min = Math.min(min, t.get(0));
+            max = Math.max(max, t.get(0));
+            sum += t.get(1);
+        }
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        expected.add(new ArrayList<Integer>(Arrays.asList(min, max,
+                (int) (sum / tuples.size()))));
+
+        TransactionId tid = new TransactionId();
+        DbIterator it = plan(tid, "SELECT MIN(t.c0), MAX(t.c0), AVG(t.c1) FROM t;");
+        SystemTestUtil.matchTuples(it, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+}
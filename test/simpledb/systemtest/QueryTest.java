@@ -15,6 +15,7 @@ import simpledb.TableStats;
 import simpledb.Transaction;
 import simpledb.TransactionAbortedException;
 import simpledb.Utility;
+import simpledb.ZoneMap;
 
 public class QueryTest {
 	
@@ -30,6 +31,7 @@ public class QueryTest {
         File temp = File.createTempFile("table", ".dat");
         temp.deleteOnExit();
         HeapFileEncoder.convert(tuples, temp, BufferPool.PAGE_SIZE, columns);
+        ZoneMap.sidecarFor(temp).deleteOnExit();
         return Utility.openHeapFile(columns, colPrefix, temp);
 	}
 	
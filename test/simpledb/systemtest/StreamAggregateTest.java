@@ -0,0 +1,92 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class StreamAggregateTest extends SimpleDbTestBase {
+
+    private ArrayList<ArrayList<Integer>> aTuples;
+    private ArrayList<ArrayList<Integer>> bTuples;
+
+    @Before public void setUp() throws Exception {
+        aTuples = new ArrayList<ArrayList<Integer>>();
+        bTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile a = SystemTestUtil.createRandomHeapFile(2, 300, 50, null, aTuples, "c");
+        HeapFile b = SystemTestUtil.createRandomHeapFile(2, 200, 50, null, bTuples, "c");
+        Database.getCatalog().addTable(a, "a");
+        Database.getCatalog().addTable(b, "b");
+        TableStats.setTableStats("a", new TableStats(a.getId(), 100));
+        TableStats.setTableStats("b", new TableStats(b.getId(), 100));
+    }
+
+    /**
+     * Groups the range join of a and b on a.c0 (aSide) or b.c0, and checks
+     * the result against counting the join in Java. Returns true if the
+     * plan aggregated with a StreamAggregate.
+     */
+    private boolean checkGroupedJoin(boolean aSide) throws Exception {
+        TreeMap<Integer, Integer> counts = new TreeMap<Integer, Integer>();
+        for (ArrayList<Integer> ta : aTuples) {
+            for (ArrayList<Integer> tb : bTuples) {
+                if (ta.get(0) < tb.get(0)) {
+                    int key = aSide ? ta.get(0) : tb.get(0);
+                    Integer c = counts.get(key);
+                    counts.put(key, c == null ? 1 : c + 1);
+                }
+            }
+        }
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (int key : counts.keySet())
+            expected.addAll(Arrays.asList(key, counts.get(key)));
+
+        String g = aSide ? "a.c0" : "b.c0";
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, "SELECT " + g
+                + ", COUNT(b.c1) FROM a, b WHERE a.c0 < b.c0 GROUP BY " + g
+                + " ORDER BY " + g + ";");
+        DbIterator it = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+
+        // an aggregate over sorted input streams, and its output needs no sort
+        Operator top = (Operator) ((Operator) it).getChildren()[0];
+        boolean streamed = top instanceof StreamAggregate;
+        if (!streamed) {
+            assertTrue(top instanceof OrderBy);
+            top = (Operator) top.getChildren()[0];
+            assertTrue(top instanceof Aggregate);
+        }
+        assertEquals(streamed, SortMergeJoin.isSortedOn(top.getChildren()[0],
+                top.getChildren()[0].getTupleDesc().fieldNameToIndex(g)));
+
+        ArrayList<Integer> actual = new ArrayList<Integer>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            actual.add(((IntField) t.getField(0)).getValue());
+            actual.add(((IntField) t.getField(1)).getValue());
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(expected, actual);
+        return streamed;
+    }
+
+    /**
+     * GROUP BY over a sort-merge join on the group field is planned as a
+     * StreamAggregate, and the ORDER BY on it reuses its order.
+     */
+    @Test public void groupBySortedJoin() throws Exception {
+        boolean streamedA = checkGroupedJoin(true);
+        boolean streamedB = checkGroupedJoin(false);
+        // the join output is sorted on one of its two fields
+        assertTrue(streamedA || streamedB);
+    }
+}
@@ -82,6 +82,7 @@ public class SystemTestUtil {
         File temp = File.createTempFile("table", ".dat");
         temp.deleteOnExit();
         HeapFileEncoder.convert(tuples, temp, BufferPool.PAGE_SIZE, columns);
+        ZoneMap.sidecarFor(temp).deleteOnExit();
         return temp;
     }
 
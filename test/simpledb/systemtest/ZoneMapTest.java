@@ -0,0 +1,134 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 20000;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile table;
+
+    /**
+     * Creates a table t whose c0 is the row number, so that each page holds
+     * a narrow range of c0, and whose c1 is random.
+     */
+    @Before public void setUp() throws Exception {
+        Random rand = new Random(11);
+        tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(i);
+            t.add(rand.nextInt(ROWS));
+            tuples.add(t);
+        }
+        File f = File.createTempFile("zonemap", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, 2);
+        ZoneMap.sidecarFor(f).deleteOnExit();
+        table = Utility.openHeapFile(2, "c", f);
+        Database.getCatalog().addTable(table, "t");
+        TableStats.setTableStats("t", new TableStats(table.getId(), 1000));
+    }
+
+    /** Returns the sum of pagesSkipped over the SeqScans of plan. */
+    private static int pagesSkipped(DbIterator plan) {
+        if (plan instanceof SeqScan)
+            return ((SeqScan) plan).pagesSkipped();
+        int skipped = 0;
+        if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren())
+                skipped += pagesSkipped(child);
+        }
+        return skipped;
+    }
+
+    /**
+     * Runs sql, which selects c0 of t, checks that it returns the sorted c0
+     * of the tuples with c0 in [low, high] and c1 below maxC1, and returns
+     * the number of pages skipped.
+     */
+    private int check(String sql, int low, int high, int maxC1)
+            throws Exception {
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) >= low && t.get(0) <= high && t.get(1) < maxC1)
+                expected.add(t.get(0));
+        }
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+        DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        ArrayList<Integer> actual = new ArrayList<Integer>();
+        plan.open();
+        while (plan.hasNext())
+            actual.add(((IntField) plan.next().getField(0)).getValue());
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        Collections.sort(actual);
+        assertEquals(expected, actual);
+        return pagesSkipped(plan);
+    }
+
+    /** A narrow range of the clustered column reads only its pages. */
+    @Test public void clusteredRange() throws Exception {
+        int pages = table.numPages();
+        int skipped = check("SELECT t.c0 FROM t WHERE t.c0 >= 5000 AND t.c0 < 6000"
+                + " AND t.c1 < 10000;", 5000, 5999, 10000);
+        assertTrue(skipped + " of " + pages, skipped >= pages - 4);
+    }
+
+    /** A predicate on the random column cannot skip any page. */
+    @Test public void randomColumn() throws Exception {
+        assertEquals(0, check("SELECT t.c0 FROM t WHERE t.c1 < 1000;",
+                0, ROWS, 1000));
+    }
+
+    /**
+     * Tuples inserted after the file was written widen the ranges of the
+     * pages they land on, so the scan still finds them.
+     */
+    @Test public void afterInsert() throws Exception {
+        TransactionId tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[] { 3 * ROWS, 0 });
+        table.insertTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+        ArrayList<Integer> row = new ArrayList<Integer>();
+        row.add(3 * ROWS);
+        row.add(0);
+        tuples.add(row);
+        int skipped = check("SELECT t.c0 FROM t WHERE t.c0 > " + 2 * ROWS + ";",
+                2 * ROWS + 1, 3 * ROWS, ROWS);
+        assertEquals(table.numPages() - 1, skipped);
+    }
+
+    /**
+     * A committed delete resaves the sidecar, so a restart still knows the
+     * range of every page without the file being closed.
+     */
+    @Test public void savedOnCommit() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(table.getId(), 0), Permissions.READ_ONLY);
+        Tuple t = page.iterator().next();
+        Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+
+        // a fresh HeapFile stands in for the table after a restart
+        HeapFile reopened = new HeapFile(table.getFile(), table.getTupleDesc());
+        ZoneMap zm = reopened.zoneMap();
+        assertEquals(table.numPages(), zm.numPages());
+        for (int i = 0; i < table.numPages(); i++)
+            assertTrue("page " + i, zm.isKnown(i));
+    }
+}